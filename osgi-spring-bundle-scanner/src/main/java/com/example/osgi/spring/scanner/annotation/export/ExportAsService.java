@@ -18,4 +18,11 @@ public @interface ExportAsService
      * @return
      */
     Class<?>[] value() default {};
+
+    /**
+     * if true, the service is registered when the context is refreshed but the component is only created on the first
+     * request for the service. Requires the bundle to be compiled with the scanner's annotation processors.
+     * @return
+     */
+    boolean lazy() default false;
 }
@@ -14,4 +14,11 @@ import java.lang.annotation.Target;
 public @interface ComponentImport
 {
     String value() default "";
+
+    /**
+     * if false, the service is looked up once when the context is created and injected as is, without a proxy.
+     * The context is refreshed when that service goes away.
+     * @return
+     */
+    boolean dynamic() default true;
 }
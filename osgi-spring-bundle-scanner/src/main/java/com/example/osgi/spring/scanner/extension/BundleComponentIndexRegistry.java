@@ -0,0 +1,169 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.gemini.blueprint.context.BundleContextAware;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.wiring.BundleRevision;
+
+import com.example.osgi.spring.extender.external.PersistentData;
+import com.example.osgi.spring.scanner.util.BundleComponentIndex;
+import com.example.osgi.spring.scanner.util.BytecodeComponentScanner;
+import com.example.osgi.spring.scanner.util.ComponentIndexRegistry;
+import com.example.osgi.spring.scanner.util.ScannedIndexCache;
+
+/**
+ * The framework-wide ComponentIndexRegistry. It is created by the extender (see META-INF/spring/extender) and listens
+ * to bundle events: indexes are read when a bundle is resolved and evicted when it is updated, unresolved or uninstalled.
+ * Lookups for a bundle whose current revision hasn't been indexed yet read the index on demand.
+ * <p/>
+ * Bundles without index files which list packages in the Spring-Scanner-Scan-Packages header have their class files
+ * scanned instead. Those indexes are cached in the extender's persistent data directory, see {@link PersistentData}.
+ */
+public class BundleComponentIndexRegistry implements ComponentIndexRegistry, SynchronousBundleListener, BundleContextAware
+{
+    public static final String SCANNED_INDEX_CACHE_DIR = "scanned-component-indexes";
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final Map<Long, BundleComponentIndex> indexes = new ConcurrentHashMap<Long, BundleComponentIndex>();
+    private BundleContext bundleContext;
+    private ScannedIndexCache scannedIndexCache;
+
+    @Override
+    public void setBundleContext(BundleContext bundleContext)
+    {
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * starts listening for bundle events and indexes the bundles which are already resolved
+     */
+    public void start()
+    {
+        scannedIndexCache = new ScannedIndexCache(PersistentData.getFile(bundleContext, SCANNED_INDEX_CACHE_DIR), new BytecodeComponentScanner());
+        bundleContext.addBundleListener(this);
+
+        for (Bundle bundle : bundleContext.getBundles())
+        {
+            if ((bundle.getState() & (Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING)) != 0)
+            {
+                index(bundle);
+            }
+        }
+    }
+
+    public void stop()
+    {
+        bundleContext.removeBundleListener(this);
+        indexes.clear();
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event)
+    {
+        switch (event.getType())
+        {
+            case BundleEvent.RESOLVED:
+                index(event.getBundle());
+                break;
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UNINSTALLED:
+                indexes.remove(event.getBundle().getBundleId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public BundleComponentIndex getIndex(Bundle bundle)
+    {
+        BundleComponentIndex index = indexes.get(bundle.getBundleId());
+        if (null == index || index.getRevision() != bundle.adapt(BundleRevision.class))
+        {
+            index = index(bundle);
+        }
+
+        return index;
+    }
+
+    @Override
+    public Collection<Long> getBundlesWithComponents()
+    {
+        Collection<Long> bundleIds = new ArrayList<Long>();
+        for (BundleComponentIndex index : indexes.values())
+        {
+            if (index.hasComponents())
+            {
+                bundleIds.add(index.getBundleId());
+            }
+        }
+
+        return Collections.unmodifiableCollection(bundleIds);
+    }
+
+    @Override
+    public Collection<Long> getBundlesWithImports()
+    {
+        Collection<Long> bundleIds = new ArrayList<Long>();
+        for (BundleComponentIndex index : indexes.values())
+        {
+            if (index.hasImports())
+            {
+                bundleIds.add(index.getBundleId());
+            }
+        }
+
+        return Collections.unmodifiableCollection(bundleIds);
+    }
+
+    @Override
+    public Collection<Long> getBundlesWithExports()
+    {
+        Collection<Long> bundleIds = new ArrayList<Long>();
+        for (BundleComponentIndex index : indexes.values())
+        {
+            if (index.hasExports())
+            {
+                bundleIds.add(index.getBundleId());
+            }
+        }
+
+        return Collections.unmodifiableCollection(bundleIds);
+    }
+
+    private BundleComponentIndex index(Bundle bundle)
+    {
+        BundleComponentIndex index = BundleComponentIndex.read(bundle);
+        if (!index.isIndexed() && null != scannedIndexCache)
+        {
+            List<String> scanPackages = BytecodeComponentScanner.getScanPackages(bundle);
+            if (!scanPackages.isEmpty())
+            {
+                index = scannedIndexCache.getIndex(bundle, scanPackages);
+            }
+        }
+
+        indexes.put(bundle.getBundleId(), index);
+
+        if (logger.isDebugEnabled() && index.isIndexed())
+        {
+            logger.debug("Indexed " + index.getComponents().size() + " components, " + index.getImports().size()
+                    + " imports and " + index.getExports().size() + " exports for bundle [" + bundle.getSymbolicName() + "]");
+        }
+
+        return index;
+    }
+}
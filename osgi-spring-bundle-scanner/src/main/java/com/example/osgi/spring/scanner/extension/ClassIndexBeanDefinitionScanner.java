@@ -1,7 +1,6 @@
 package com.example.osgi.spring.scanner.extension;
 
-import static com.example.osgi.spring.scanner.util.AnnotationIndexReader.readAllIndexFilesForProduct;
-import static com.example.osgi.spring.scanner.util.AnnotationIndexReader.readIndexFile;
+import static com.example.osgi.spring.scanner.util.AnnotationIndexReader.readIndexEntries;
 
 import java.beans.Introspector;
 import java.util.*;
@@ -9,15 +8,24 @@ import java.util.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.BundleContext;
 import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.core.env.Environment;
 import org.springframework.util.ClassUtils;
 
+import com.example.osgi.spring.extender.external.SnapshotExclusion;
+import com.example.osgi.spring.scanner.util.BundleComponentIndex;
 import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ClassPreloader;
+import com.example.osgi.spring.scanner.util.ComponentConditions;
+import com.example.osgi.spring.scanner.util.ComponentDependencyGraph;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
 
 /**
  * This class is responsible for reading the class index files and generating bean definitions from them.
@@ -29,10 +37,50 @@ public class ClassIndexBeanDefinitionScanner
     protected final Log logger = LogFactory.getLog(getClass());
 
     private BeanDefinitionRegistry registry;
+    private BundleContext bundleContext;
+    private boolean preloadClasses = true;
+    private boolean lazyByDefault;
+    private Environment environment;
 
     public ClassIndexBeanDefinitionScanner(BeanDefinitionRegistry registry)
+    {
+        this(registry, null);
+    }
+
+    /**
+     * @param registry
+     * @param bundleContext the context of the bundle being scanned. If given, the index is taken from the
+     *                      ComponentIndexRegistry instead of being read through the thread context classloader
+     */
+    public ClassIndexBeanDefinitionScanner(BeanDefinitionRegistry registry, BundleContext bundleContext)
     {
         this.registry = registry;
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * @param preloadClasses true to load the indexed classes in the background while the context is being created
+     */
+    public void setPreloadClasses(boolean preloadClasses)
+    {
+        this.preloadClasses = preloadClasses;
+    }
+
+    /**
+     * @param lazyByDefault true to make all components lazy, except those annotated with @Lazy(false)
+     */
+    public void setLazyByDefault(boolean lazyByDefault)
+    {
+        this.lazyByDefault = lazyByDefault;
+    }
+
+    /**
+     * @param environment the environment the conditions of the components are evaluated against.
+     *                    If not set, conditions aren't evaluated.
+     */
+    public void setEnvironment(Environment environment)
+    {
+        this.environment = environment;
     }
 
     /**
@@ -41,12 +89,52 @@ public class ClassIndexBeanDefinitionScanner
      */
     protected Set<BeanDefinitionHolder> doScan()
     {
+        Object event = FlightRecorderEvents.beginComponentScan();
+        List<ComponentIndexEntry> entries = getComponentEntries();
+        Set<String> eagerComponents = lazyByDefault ? getEagerComponents(entries) : Collections.<String>emptySet();
+        return doScan(findCandidateComponents(entries), eagerComponents, event);
+    }
+
+    /**
+     * Registers the given map of beanName -> beanDefinition and returns a set of bean definition holders
+     * @param namesAndDefinitions
+     * @return
+     */
+    protected Set<BeanDefinitionHolder> doScan(Map<String, BeanDefinition> candidates)
+    {
+        Object event = FlightRecorderEvents.beginComponentScan();
+        Set<String> eagerComponents = lazyByDefault ? getEagerComponents(getComponentEntries()) : Collections.<String>emptySet();
+        return doScan(candidates, eagerComponents, event);
+    }
+
+    /**
+     * registers the candidates, and records the scan as a flight recorder event
+     * @param candidates
+     * @param eagerComponents the class names of the components which aren't lazy by default
+     * @param event the started event, or null if it isn't recorded
+     * @return
+     */
+    private Set<BeanDefinitionHolder> doScan(Map<String, BeanDefinition> candidates, Set<String> eagerComponents, Object event)
+    {
+        //drop the components which are switched off before anything is registered or loaded
+        Map<String, BeanDefinition> namesAndDefinitions = filterConditionalComponents(candidates);
 
         Set<BeanDefinitionHolder> beanDefinitions = new LinkedHashSet<BeanDefinitionHolder>();
-        Map<String, BeanDefinition> namesAndDefinitions = findCandidateComponents();
+        Set<String> lazyExports = getLazyExports();
+
+        if (preloadClasses)
+        {
+            preloadClasses(namesAndDefinitions.values());
+        }
 
         for (Map.Entry<String, BeanDefinition> nameAndDefinition : namesAndDefinitions.entrySet())
         {
+            //lazily exported services are only created when another bundle asks for them, lazy components when first needed
+            String className = nameAndDefinition.getValue().getBeanClassName();
+            if (lazyExports.contains(className) || (lazyByDefault && !eagerComponents.contains(className)))
+            {
+                nameAndDefinition.getValue().setLazyInit(true);
+            }
 
             if (checkCandidate(nameAndDefinition.getKey(), nameAndDefinition.getValue()))
             {
@@ -55,31 +143,32 @@ public class ClassIndexBeanDefinitionScanner
                 registerBeanDefinition(definitionHolder, registry);
             }
         }
+
+        FlightRecorderEvents.endComponentScan(event, (null == bundleContext) ? null : bundleContext.getBundle(),
+                candidates.size(), beanDefinitions.size());
         return beanDefinitions;
     }
 
 
     /**
-     * Reads the components from the index file(s) and generates a map of beanName -> beanDfinitions for them
+     * Reads the components from the index file(s) and generates a map of beanName -> beanDfinitions for them.
+     * The map is ordered by the dependency graph recorded in the index.
      * @return
      */
     public Map<String, BeanDefinition> findCandidateComponents()
     {
-        Map<String, BeanDefinition> candidates = new HashMap<String, BeanDefinition>();
+        return findCandidateComponents(getComponentEntries());
+    }
 
-        List<String> beanTypeAndNames = readAllIndexFilesForProduct(ClassIndexFiles.COMPONENT_INDEX_FILE, Thread.currentThread().getContextClassLoader());
+    private Map<String, BeanDefinition> findCandidateComponents(List<ComponentIndexEntry> entries)
+    {
+        Map<String, BeanDefinition> candidates = new LinkedHashMap<String, BeanDefinition>();
 
-        for (String beanTypeAndName : beanTypeAndNames)
+        //register dependencies before the components depending on them, so the singletons are created leaves first
+        for (ComponentIndexEntry entry : new ComponentDependencyGraph(entries).getOrderedComponents())
         {
-            String[] typeAndName = StringUtils.split(beanTypeAndName, "#");
-
-            String beanClassname = typeAndName[0];
-            String beanName = "";
-
-            if (typeAndName.length > 1)
-            {
-                beanName = typeAndName[1];
-            }
+            String beanClassname = entry.getClassName();
+            String beanName = entry.getBeanName();
 
             if (StringUtils.isBlank(beanName))
             {
@@ -92,6 +181,131 @@ public class ClassIndexBeanDefinitionScanner
         return candidates;
     }
 
+    /**
+     * removes the components whose profile or property conditions don't match the environment
+     * @param candidates
+     * @return
+     */
+    protected Map<String, BeanDefinition> filterConditionalComponents(Map<String, BeanDefinition> candidates)
+    {
+        Map<String, List<String>> conditions = (null == environment) ? Collections.<String, List<String>>emptyMap() : getConditions();
+        if (conditions.isEmpty())
+        {
+            return candidates;
+        }
+
+        // which components are registered depends on the environment, not only on the bundle
+        SnapshotExclusion.exclude("conditional components");
+
+        Map<String, BeanDefinition> matching = new LinkedHashMap<String, BeanDefinition>();
+        for (Map.Entry<String, BeanDefinition> candidate : candidates.entrySet())
+        {
+            List<String> componentConditions = conditions.get(candidate.getValue().getBeanClassName());
+            if (null == componentConditions || ComponentConditions.matches(componentConditions, environment))
+            {
+                matching.put(candidate.getKey(), candidate.getValue());
+            }
+            else if (logger.isDebugEnabled())
+            {
+                logger.debug("Skipping component [" + candidate.getKey() + "], conditions " + componentConditions + " don't match");
+            }
+        }
+
+        return matching;
+    }
+
+    /**
+     * @return a map of the class names of the components with conditions -> their conditions
+     */
+    protected Map<String, List<String>> getConditions()
+    {
+        if (null != bundleContext)
+        {
+            return BundleComponentIndex.forBundle(bundleContext).getConditions();
+        }
+
+        Map<String, List<String>> conditions = new HashMap<String, List<String>>();
+        for (ComponentIndexEntry entry : readIndexEntries(ClassIndexFiles.CONDITIONS_INDEX_FILE, Thread.currentThread().getContextClassLoader()))
+        {
+            conditions.put(entry.getClassName(), entry.getValues());
+        }
+
+        return conditions;
+    }
+
+    /**
+     * @return the entries of the component index
+     */
+    protected List<ComponentIndexEntry> getComponentEntries()
+    {
+        if (null != bundleContext)
+        {
+            return BundleComponentIndex.forBundle(bundleContext).getComponents();
+        }
+
+        return readIndexEntries(ClassIndexFiles.COMPONENT_INDEX_FILE, Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * @param entries the entries of the component index
+     * @return the class names of the components annotated with @Lazy(false)
+     */
+    protected Set<String> getEagerComponents(List<ComponentIndexEntry> entries)
+    {
+        Set<String> eagerComponents = new HashSet<String>();
+        for (ComponentIndexEntry entry : entries)
+        {
+            if (entry.hasFlag(ComponentIndexEntry.FLAG_EAGER))
+            {
+                eagerComponents.add(entry.getClassName());
+            }
+        }
+
+        return eagerComponents;
+    }
+
+    /**
+     * starts loading the component classes, and the types of the component imports, in the background
+     * @param definitions
+     */
+    protected void preloadClasses(Collection<BeanDefinition> definitions)
+    {
+        Set<String> classNames = new LinkedHashSet<String>();
+        for (BeanDefinition definition : definitions)
+        {
+            if (null != definition.getBeanClassName())
+            {
+                classNames.add(definition.getBeanClassName());
+            }
+        }
+
+        if (null != bundleContext)
+        {
+            for (ComponentIndexEntry entry : BundleComponentIndex.forBundle(bundleContext).getImports())
+            {
+                classNames.add(entry.getClassName());
+            }
+        }
+
+        ClassLoader classLoader = (registry instanceof ConfigurableBeanFactory) ? ((ConfigurableBeanFactory) registry).getBeanClassLoader()
+                : Thread.currentThread().getContextClassLoader();
+
+        ClassPreloader.preload(classNames, classLoader);
+    }
+
+    /**
+     * @return the class names of the components exported as lazy OSGi services
+     */
+    protected Set<String> getLazyExports()
+    {
+        if (null == bundleContext)
+        {
+            return Collections.emptySet();
+        }
+
+        return BundleComponentIndex.forBundle(bundleContext).getLazyExports();
+    }
+
     /**
      * copyPasta from spring-context:component-scan classes
      */
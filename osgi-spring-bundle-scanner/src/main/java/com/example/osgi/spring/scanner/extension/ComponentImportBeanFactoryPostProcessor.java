@@ -1,12 +1,9 @@
 package com.example.osgi.spring.scanner.extension;
 
-import static com.example.osgi.spring.scanner.util.AnnotationIndexReader.readAllIndexFilesForProduct;
-
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.gemini.blueprint.service.importer.support.OsgiServiceProxyFactoryBean;
-import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
@@ -15,23 +12,37 @@ import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 
-import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.BundleComponentIndex;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
 
 /**
  * This class is run after all of the bean definitions have been gathered for the current bundle.
  * It looks for any of the *Import annotations and registers the proper OSGi imports.
  * This is a BeanFactoryPostProcessor because it needs to run before the beans are created
  * so that the services are available when spring wires up the beans.
+ * <p/>
+ * Imports are proxied by Gemini's OsgiServiceProxyFactoryBean unless generateProxies is set, in which case interfaces
+ * get a generated proxy class from the GeneratedServiceProxyFactoryBean.
+ * Imports that aren't dynamic are injected without any proxy by a StaticServiceFactoryBean.
  */
 public class ComponentImportBeanFactoryPostProcessor implements BeanFactoryPostProcessor
 {
     private final BundleContext bundleContext;
+    private boolean generateProxies;
 
     public ComponentImportBeanFactoryPostProcessor(BundleContext bundleContext)
     {
         this.bundleContext = bundleContext;
     }
 
+    /**
+     * @param generateProxies true to import services through generated proxy classes instead of Gemini's proxies
+     */
+    public void setGenerateProxies(boolean generateProxies)
+    {
+        this.generateProxies = generateProxies;
+    }
+
     /**
      * Reads the componentimport inex file(s) and registers the bean wrappers that represent OSGi import services
      * @param beanFactory
@@ -42,19 +53,17 @@ public class ComponentImportBeanFactoryPostProcessor implements BeanFactoryPostP
     {
         BeanDefinitionRegistry registry = (BeanDefinitionRegistry) beanFactory;
 
-        Bundle bundle = bundleContext.getBundle();
-        List<String> classNames = readAllIndexFilesForProduct(ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE, bundle);
+        List<ComponentIndexEntry> entries = BundleComponentIndex.forBundle(bundleContext).getImports();
 
-        for (String className : classNames)
+        for (ComponentIndexEntry entry : entries)
         {
-            String[] typeAndName = StringUtils.split(className, "#");
-            String beanType = typeAndName[0];
-            String beanName = (typeAndName.length > 1) ? typeAndName[1] : "";
+            String beanType = entry.getClassName();
+            String beanName = entry.getBeanName();
 
             try
             {
                 Class<?> beanClass = beanFactory.getBeanClassLoader().loadClass(beanType);
-                registerComponentImportBean(registry, beanClass, beanName);
+                registerComponentImportBean(registry, beanClass, beanName, entry.hasFlag(ComponentIndexEntry.FLAG_STATIC));
             }
             catch (ClassNotFoundException e)
             {
@@ -68,8 +77,9 @@ public class ComponentImportBeanFactoryPostProcessor implements BeanFactoryPostP
      * @param registry
      * @param paramType
      * @param beanName
+     * @param isStatic true to inject the service itself instead of a proxy
      */
-    private void registerComponentImportBean(BeanDefinitionRegistry registry, Class<?> paramType, String beanName)
+    private void registerComponentImportBean(BeanDefinitionRegistry registry, Class<?> paramType, String beanName, boolean isStatic)
     {
         String serviceBeanName = beanName;
 
@@ -79,11 +89,18 @@ public class ComponentImportBeanFactoryPostProcessor implements BeanFactoryPostP
             serviceBeanName = StringUtils.uncapitalize(paramType.getSimpleName());
         }
 
-        registerBeanDefinition(registry, serviceBeanName, "", paramType);
+        if (isStatic)
+        {
+            registerStaticDefinition(registry, serviceBeanName, "", paramType);
+        }
+        else
+        {
+            registerBeanDefinition(registry, serviceBeanName, "", paramType);
+        }
     }
 
     /**
-     * Creates an OsgiServiceProxyFactoryBean for the requested import type.
+     * Creates an OsgiServiceProxyFactoryBean, or a GeneratedServiceProxyFactoryBean, for the requested import type.
      * 
      * @param registry
      * @param beanName
@@ -92,6 +109,11 @@ public class ComponentImportBeanFactoryPostProcessor implements BeanFactoryPostP
      */
     private void registerBeanDefinition(BeanDefinitionRegistry registry, String beanName, String filter, Class<?> interfaces)
     {
+        if(generateProxies && ImportProxyGenerator.canProxy(interfaces))
+        {
+            registerGeneratedProxyDefinition(registry, beanName, filter, interfaces);
+            return;
+        }
 
         BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(OsgiServiceProxyFactoryBean.class);
         builder.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
@@ -106,5 +128,37 @@ public class ComponentImportBeanFactoryPostProcessor implements BeanFactoryPostP
         registry.registerBeanDefinition(beanName, builder.getBeanDefinition());
     }
 
+    /**
+     * Creates a StaticServiceFactoryBean, injecting the service looked up when the context is created.
+     */
+    private void registerStaticDefinition(BeanDefinitionRegistry registry, String beanName, String filter, Class<?> serviceType)
+    {
+        BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(StaticServiceFactoryBean.class);
+        builder.addConstructorArgValue(bundleContext);
+        builder.addConstructorArgValue(serviceType);
+
+        if(StringUtils.isNotBlank(filter))
+        {
+            builder.addPropertyValue("filter", filter);
+        }
+
+        registry.registerBeanDefinition(beanName, builder.getBeanDefinition());
+    }
+
+    private void registerGeneratedProxyDefinition(BeanDefinitionRegistry registry, String beanName, String filter, Class<?> serviceInterface)
+    {
+        BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(GeneratedServiceProxyFactoryBean.class);
+        builder.addConstructorArgValue(bundleContext);
+        builder.addConstructorArgValue(serviceInterface);
+        builder.setLazyInit(true);
+
+        if(StringUtils.isNotBlank(filter))
+        {
+            builder.addPropertyValue("filter", filter);
+        }
+
+        registry.registerBeanDefinition(beanName, builder.getBeanDefinition());
+    }
+
 
 }
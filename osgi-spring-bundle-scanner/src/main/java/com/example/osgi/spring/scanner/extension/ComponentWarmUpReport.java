@@ -0,0 +1,125 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Reports which of the scanned components of a lazy bundle have actually been created, once the context has been
+ * running for a warm-up period. Components which are never created are candidates for removal, or at least for
+ * staying lazy.
+ * <p/>
+ * The report is logged at info level and is available from {@link #getInstantiatedBeans()} and
+ * {@link #getUninstantiatedBeans()} at any time.
+ */
+public class ComponentWarmUpReport implements ApplicationListener<ContextRefreshedEvent>, BeanFactoryAware, DisposableBean
+{
+    private static final Log log = LogFactory.getLog(ComponentWarmUpReport.class);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "osgi-scanner-warm-up-report");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final List<String> beanNames;
+    private final long warmUpSeconds;
+    private ConfigurableListableBeanFactory beanFactory;
+    private ScheduledFuture<?> report;
+
+    /**
+     * @param beanNames the names of the scanned components
+     * @param warmUpSeconds how long after the refresh to report
+     */
+    public ComponentWarmUpReport(List<String> beanNames, long warmUpSeconds)
+    {
+        this.beanNames = Collections.unmodifiableList(new ArrayList<String>(beanNames));
+        this.warmUpSeconds = warmUpSeconds;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException
+    {
+        this.beanFactory = (ConfigurableListableBeanFactory) beanFactory;
+    }
+
+    @Override
+    public synchronized void onApplicationEvent(ContextRefreshedEvent event)
+    {
+        if (event.getApplicationContext().getAutowireCapableBeanFactory() != beanFactory || null != report)
+        {
+            return;
+        }
+
+        final String displayName = event.getApplicationContext().getDisplayName();
+        report = SCHEDULER.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                List<String> instantiated = getInstantiatedBeans();
+                log.info("Created " + instantiated.size() + " of " + beanNames.size() + " components of [" + displayName + "] after "
+                        + warmUpSeconds + "s, never created: " + getUninstantiatedBeans());
+            }
+        }, warmUpSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        if (null != report)
+        {
+            report.cancel(false);
+        }
+    }
+
+    /**
+     * @return the names of the scanned components which have been created so far
+     */
+    public List<String> getInstantiatedBeans()
+    {
+        return filter(true);
+    }
+
+    /**
+     * @return the names of the scanned components which haven't been created so far
+     */
+    public List<String> getUninstantiatedBeans()
+    {
+        return filter(false);
+    }
+
+    private List<String> filter(boolean instantiated)
+    {
+        List<String> names = new ArrayList<String>();
+        for (String beanName : beanNames)
+        {
+            if (beanFactory.containsSingleton(beanName) == instantiated)
+            {
+                names.add(beanName);
+            }
+        }
+
+        return names;
+    }
+}
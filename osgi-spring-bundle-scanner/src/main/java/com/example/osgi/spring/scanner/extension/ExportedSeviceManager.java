@@ -2,21 +2,42 @@ package com.example.osgi.spring.scanner.extension;
 
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.gemini.blueprint.service.exporter.support.ExportContextClassLoaderEnum;
 import org.eclipse.gemini.blueprint.service.exporter.support.OsgiServiceFactoryBean;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
+import org.springframework.beans.factory.BeanFactory;
 
 /**
  * Utility class to encapsulate the registration/de-registration of OSGi services exported by public components
+ * <p/>
+ * Exporters are kept by bean identity in a concurrent map, so contexts exporting at the same time don't contend on a
+ * single lock and distinct beans with colliding identity hash codes don't replace each other's exporter.
+ * <p/>
+ * Lazy services are registered by bean name with a ServiceFactory that only gets the bean from the bean factory when
+ * the service is first requested.
+ * <p/>
+ * Registrations and unregistrations are recorded as flight recorder events.
  */
 public class ExportedSeviceManager
 {
-    private final Hashtable<Integer,OsgiServiceFactoryBean> exporters;
+    private final ConcurrentMap<BeanKey,OsgiServiceFactoryBean> exporters;
+    private final ConcurrentMap<String,ServiceRegistration<?>> lazyRegistrations;
+    private final AtomicLong registrationCount;
+    private final AtomicLong registrationNanos;
 
     public ExportedSeviceManager() {
-        this.exporters = new Hashtable<Integer, OsgiServiceFactoryBean>();
+        this.exporters = new ConcurrentHashMap<BeanKey, OsgiServiceFactoryBean>();
+        this.lazyRegistrations = new ConcurrentHashMap<String, ServiceRegistration<?>>();
+        this.registrationCount = new AtomicLong();
+        this.registrationNanos = new AtomicLong();
     }
 
     /**
@@ -31,16 +52,26 @@ public class ExportedSeviceManager
      * @throws Exception
      */
     public ServiceRegistration<?> registerService(final BundleContext bundleContext, final Object bean, final String beanName, final Map<String, Object> serviceProps, final Class<?>... interfaces) throws Exception {
-        
+
+        long start = System.nanoTime();
+        Object event = FlightRecorderEvents.beginServiceExport();
+
     	serviceProps.put("org.springframework.osgi.bean.name",beanName);
-        
+
     	OsgiServiceFactoryBean osgiExporter = createExporter(bundleContext,bean,beanName,serviceProps,interfaces);
-        
-        int hashCode = System.identityHashCode(bean);
-        exporters.put(hashCode,osgiExporter);
+
+        OsgiServiceFactoryBean previous = exporters.put(new BeanKey(bean),osgiExporter);
+        if(null != previous)
+        {
+            previous.destroy();
+        }
 
         ServiceRegistration<?> reg = (ServiceRegistration<?>) osgiExporter.getObject();
 
+        registrationCount.incrementAndGet();
+        registrationNanos.addAndGet(System.nanoTime() - start);
+        FlightRecorderEvents.endServiceExport(event, bundleContext.getBundle(), beanName, bean.getClass().getName(), interfaces, false);
+
         return reg;
     }
 
@@ -50,20 +81,123 @@ public class ExportedSeviceManager
      * @param bean
      */
     public void unregisterService(BundleContext bundleContext, Object bean) {
-        int hashCode = System.identityHashCode(bean);
-        OsgiServiceFactoryBean exporter = exporters.get(hashCode);
+        OsgiServiceFactoryBean exporter = exporters.remove(new BeanKey(bean));
         if(null != exporter)
         {
+            Object event = FlightRecorderEvents.beginServiceUnexport();
             exporter.destroy();
-            exporters.remove(hashCode);
+            FlightRecorderEvents.endServiceUnexport(event, bundleContext.getBundle(), null, bean.getClass().getName());
         }
     }
 
+    /**
+     * Registers a service for a bean which hasn't been created yet.
+     * The bean is only created by the bean factory when the service is requested for the first time.
+     * @param bundleContext
+     * @param beanFactory
+     * @param beanName
+     * @param serviceProps
+     * @param interfaces the names of the interfaces to register the service as, they aren't loaded until the bean is created
+     * @return
+     */
+    public ServiceRegistration<?> registerLazyService(final BundleContext bundleContext, final BeanFactory beanFactory, final String beanName, final Map<String, Object> serviceProps, final String... interfaces) {
+
+        long start = System.nanoTime();
+        Object event = FlightRecorderEvents.beginServiceExport();
+
+        serviceProps.put("org.springframework.osgi.bean.name",beanName);
+
+        ServiceRegistration<?> reg = bundleContext.registerService(interfaces, new BeanServiceFactory(beanFactory, beanName), new Hashtable<String, Object>(serviceProps));
+
+        ServiceRegistration<?> previous = lazyRegistrations.put(beanName, reg);
+        if(null != previous)
+        {
+            unregister(previous);
+        }
+
+        registrationCount.incrementAndGet();
+        registrationNanos.addAndGet(System.nanoTime() - start);
+        FlightRecorderEvents.endServiceExport(event, bundleContext.getBundle(), beanName, null, interfaces, true);
+
+        return reg;
+    }
+
+    /**
+     * @param beanName
+     * @return true if a lazy service is registered for the bean
+     */
+    public boolean hasLazyService(String beanName) {
+        return lazyRegistrations.containsKey(beanName);
+    }
+
+    /**
+     * de-registers a lazy service
+     * @param beanName
+     */
+    public void unregisterLazyService(String beanName) {
+        ServiceRegistration<?> reg = lazyRegistrations.remove(beanName);
+        if(null != reg)
+        {
+            Object event = FlightRecorderEvents.beginServiceUnexport();
+            Bundle bundle = (null == event) ? null : getBundle(reg);
+            unregister(reg);
+            FlightRecorderEvents.endServiceUnexport(event, bundle, beanName, null);
+        }
+    }
+
+    /**
+     * de-registers all lazy services, whether their beans have been created or not
+     */
+    public void unregisterLazyServices() {
+        for (String beanName : lazyRegistrations.keySet())
+        {
+            unregisterLazyService(beanName);
+        }
+    }
+
+    private void unregister(ServiceRegistration<?> reg) {
+        try
+        {
+            reg.unregister();
+        }
+        catch (IllegalStateException e)
+        {
+            //already unregistered, e.g. because the bundle has been stopped
+        }
+    }
+
+    private Bundle getBundle(ServiceRegistration<?> reg) {
+        try
+        {
+            return reg.getReference().getBundle();
+        }
+        catch (IllegalStateException e)
+        {
+            //already unregistered
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of services registered by this manager
+     */
+    public long getRegistrationCount() {
+        return registrationCount.get();
+    }
+
+    /**
+     * @param unit
+     * @return the total time spent registering services
+     */
+    public long getRegistrationTime(TimeUnit unit) {
+        return unit.convert(registrationNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
     /**
      * creates the OsgiServiceFactoryBean used by spring when registering services
      */
     private OsgiServiceFactoryBean createExporter(final BundleContext bundleContext, final Object bean, final String beanName, final Map<String, Object> serviceProps, final Class<?>... interfaces) throws Exception {
-        
+
     	OsgiServiceFactoryBean exporter = new OsgiServiceFactoryBean();
         exporter.setBeanClassLoader(bean.getClass().getClassLoader());
         exporter.setBeanName(beanName);
@@ -76,4 +210,57 @@ public class ExportedSeviceManager
 
         return exporter;
     }
+
+    /**
+     * Gets the bean backing a lazy service from the bean factory, creating it on the first request.
+     * The framework caches the service object per requesting bundle.
+     */
+    private static final class BeanServiceFactory implements ServiceFactory<Object>
+    {
+        private final BeanFactory beanFactory;
+        private final String beanName;
+
+        private BeanServiceFactory(BeanFactory beanFactory, String beanName)
+        {
+            this.beanFactory = beanFactory;
+            this.beanName = beanName;
+        }
+
+        @Override
+        public Object getService(Bundle bundle, ServiceRegistration<Object> registration)
+        {
+            return beanFactory.getBean(beanName);
+        }
+
+        @Override
+        public void ungetService(Bundle bundle, ServiceRegistration<Object> registration, Object service)
+        {
+            //the bean is owned by the bean factory
+        }
+    }
+
+    /**
+     * map key comparing beans by identity
+     */
+    private static final class BeanKey
+    {
+        private final Object bean;
+
+        private BeanKey(Object bean)
+        {
+            this.bean = bean;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof BeanKey && ((BeanKey) o).bean == bean;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(bean);
+        }
+    }
 }
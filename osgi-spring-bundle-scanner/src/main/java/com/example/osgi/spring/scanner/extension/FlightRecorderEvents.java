@@ -0,0 +1,242 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.Arrays;
+
+import org.osgi.framework.Bundle;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the scanner: component scans and service exports.
+ * <p/>
+ * Events are only created when the JVM has JFR (Java 11, or 8u262 and later) and the bundle can see it. The event
+ * classes are nested so they are only loaded once a method has checked that, callers only ever hold them as Objects.
+ * Each method only uses its own event type, as passing one as another type would have the verifier load them.
+ */
+final class FlightRecorderEvents
+{
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents()
+    {
+    }
+
+    /**
+     * @return a started component scan event, or null if it isn't recorded
+     */
+    static Object beginComponentScan()
+    {
+        if (!AVAILABLE)
+        {
+            return null;
+        }
+
+        ComponentScanEvent event = new ComponentScanEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    static void endComponentScan(Object componentScan, Bundle bundle, int candidates, int registered)
+    {
+        if (null == componentScan)
+        {
+            return;
+        }
+
+        ComponentScanEvent event = (ComponentScanEvent) componentScan;
+        event.end();
+        if (event.shouldCommit())
+        {
+            if (null != bundle)
+            {
+                event.bundle = bundle.getSymbolicName();
+                event.version = bundle.getVersion().toString();
+            }
+            event.candidates = candidates;
+            event.registered = registered;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return a started service export event, or null if it isn't recorded
+     */
+    static Object beginServiceExport()
+    {
+        if (!AVAILABLE)
+        {
+            return null;
+        }
+
+        ServiceExportEvent event = new ServiceExportEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param beanClass the class of the exported bean, null for a lazy service as its bean hasn't been created
+     */
+    static void endServiceExport(Object serviceExport, Bundle bundle, String beanName, String beanClass, Object[] interfaces, boolean lazy)
+    {
+        if (null == serviceExport)
+        {
+            return;
+        }
+
+        ServiceExportEvent event = (ServiceExportEvent) serviceExport;
+        event.end();
+        if (event.shouldCommit())
+        {
+            if (null != bundle)
+            {
+                event.bundle = bundle.getSymbolicName();
+                event.version = bundle.getVersion().toString();
+            }
+            event.beanName = beanName;
+            event.beanClass = beanClass;
+            event.interfaces = Arrays.toString(interfaces);
+            event.lazy = lazy;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return a started service unexport event, or null if it isn't recorded
+     */
+    static Object beginServiceUnexport()
+    {
+        if (!AVAILABLE)
+        {
+            return null;
+        }
+
+        ServiceUnexportEvent event = new ServiceUnexportEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param beanName  the bean name of a lazy service, null otherwise
+     * @param beanClass the class of the bean, null for a lazy service
+     */
+    static void endServiceUnexport(Object serviceUnexport, Bundle bundle, String beanName, String beanClass)
+    {
+        if (null == serviceUnexport)
+        {
+            return;
+        }
+
+        ServiceUnexportEvent event = (ServiceUnexportEvent) serviceUnexport;
+        event.end();
+        if (event.shouldCommit())
+        {
+            if (null != bundle)
+            {
+                event.bundle = bundle.getSymbolicName();
+                event.version = bundle.getVersion().toString();
+            }
+            event.beanName = beanName;
+            event.beanClass = beanClass;
+            event.commit();
+        }
+    }
+
+    private static boolean isAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException e)
+        {
+            return false;
+        }
+        catch (LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    @Name("com.example.osgi.ComponentScan")
+    @Label("Component Scan")
+    @Description("Registration of the bean definitions of the indexed components of a bundle")
+    @Category({"OSGi", "Spring"})
+    static class ComponentScanEvent extends Event
+    {
+        @Label("Bundle")
+        String bundle;
+
+        @Label("Version")
+        String version;
+
+        @Label("Candidates")
+        int candidates;
+
+        @Label("Registered")
+        int registered;
+    }
+
+    @Name("com.example.osgi.ServiceExport")
+    @Label("Service Export")
+    @Description("Registration of a component as an OSGi service")
+    @Category({"OSGi", "Spring"})
+    static class ServiceExportEvent extends Event
+    {
+        @Label("Bundle")
+        String bundle;
+
+        @Label("Version")
+        String version;
+
+        @Label("Bean Name")
+        String beanName;
+
+        @Label("Bean Class")
+        String beanClass;
+
+        @Label("Interfaces")
+        String interfaces;
+
+        @Label("Lazy")
+        boolean lazy;
+    }
+
+    @Name("com.example.osgi.ServiceUnexport")
+    @Label("Service Unexport")
+    @Description("Unregistration of the OSGi service of a component")
+    @Category({"OSGi", "Spring"})
+    static class ServiceUnexportEvent extends Event
+    {
+        @Label("Bundle")
+        String bundle;
+
+        @Label("Version")
+        String version;
+
+        @Label("Bean Name")
+        String beanName;
+
+        @Label("Bean Class")
+        String beanClass;
+    }
+}
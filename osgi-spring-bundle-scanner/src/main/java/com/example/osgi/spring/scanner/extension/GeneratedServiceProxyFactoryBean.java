@@ -0,0 +1,192 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.gemini.blueprint.service.ServiceUnavailableException;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * An alternative to Gemini's OsgiServiceProxyFactoryBean for component imports.
+ * <p/>
+ * The proxy is a class generated by the {@link ImportProxyGenerator}, calling straight through to the best matching
+ * service. A ServiceTracker swaps the target whenever the best service changes. While no service is available calls
+ * fail immediately with a ServiceUnavailableException; unlike Gemini's proxies they don't wait for a service to appear.
+ */
+public class GeneratedServiceProxyFactoryBean implements FactoryBean<Object>, InitializingBean, DisposableBean
+{
+    private final BundleContext bundleContext;
+    private final Class<?> serviceInterface;
+    private String filter = "";
+
+    private final AtomicReference<Object> target = new AtomicReference<Object>();
+    private ServiceTracker<Object, Object> tracker;
+    private Object proxy;
+    private Object unavailable;
+
+    public GeneratedServiceProxyFactoryBean(BundleContext bundleContext, Class<?> serviceInterface)
+    {
+        this.bundleContext = bundleContext;
+        this.serviceInterface = serviceInterface;
+    }
+
+    public void setFilter(String filter)
+    {
+        this.filter = filter;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws InvalidSyntaxException
+    {
+        String serviceFilter = "(" + Constants.OBJECTCLASS + "=" + serviceInterface.getName() + ")";
+        if (StringUtils.isNotBlank(filter))
+        {
+            serviceFilter = "(&" + serviceFilter + filter + ")";
+        }
+
+        unavailable = createUnavailableService(serviceFilter);
+        target.set(unavailable);
+        proxy = ImportProxyGenerator.createProxy(serviceInterface, target);
+
+        tracker = new TargetTracker(bundleContext, serviceFilter);
+        tracker.open();
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (null != tracker)
+        {
+            tracker.close();
+        }
+        target.set(unavailable);
+    }
+
+    @Override
+    public Object getObject()
+    {
+        return proxy;
+    }
+
+    @Override
+    public Class<?> getObjectType()
+    {
+        return serviceInterface;
+    }
+
+    @Override
+    public boolean isSingleton()
+    {
+        return true;
+    }
+
+    /**
+     * the target used while there's no service, throwing a ServiceUnavailableException from every interface method
+     */
+    private Object createUnavailableService(final String serviceFilter)
+    {
+        return Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[]{serviceInterface}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object self, Method method, Object[] args)
+            {
+                if (method.getDeclaringClass() == Object.class)
+                {
+                    if ("equals".equals(method.getName()))
+                    {
+                        return self == args[0];
+                    }
+                    if ("hashCode".equals(method.getName()))
+                    {
+                        return System.identityHashCode(self);
+                    }
+                    return "unavailable service " + serviceFilter;
+                }
+
+                throw new ServiceUnavailableException(serviceFilter);
+            }
+        });
+    }
+
+    /**
+     * keeps the target pointing at the highest ranked matching service
+     */
+    private class TargetTracker extends ServiceTracker<Object, Object>
+    {
+        private ServiceReference<Object> current;
+
+        private TargetTracker(BundleContext context, String serviceFilter) throws InvalidSyntaxException
+        {
+            super(context, context.createFilter(serviceFilter), null);
+        }
+
+        @Override
+        public Object addingService(ServiceReference<Object> reference)
+        {
+            Object service = super.addingService(reference);
+
+            synchronized (this)
+            {
+                if (null != service && (null == current || reference.compareTo(current) > 0))
+                {
+                    current = reference;
+                    target.set(service);
+                }
+            }
+
+            return service;
+        }
+
+        @Override
+        public synchronized void modifiedService(ServiceReference<Object> reference, Object service)
+        {
+            //the ranking may have changed
+            selectBest();
+        }
+
+        @Override
+        public void removedService(ServiceReference<Object> reference, Object service)
+        {
+            synchronized (this)
+            {
+                if (reference.equals(current))
+                {
+                    selectBest();
+                }
+            }
+
+            super.removedService(reference, service);
+        }
+
+        private void selectBest()
+        {
+            ServiceReference<Object>[] references = getServiceReferences();
+            ServiceReference<Object> best = null;
+
+            if (null != references)
+            {
+                for (ServiceReference<Object> reference : references)
+                {
+                    if (null == best || reference.compareTo(best) > 0)
+                    {
+                        best = reference;
+                    }
+                }
+            }
+
+            Object service = (null == best) ? null : getService(best);
+            current = (null == service) ? null : best;
+            target.set((null == service) ? unavailable : service);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+/**
+ * Generates concrete proxy classes for imported service interfaces.
+ * <p/>
+ * A generated proxy implements a single interface and holds an AtomicReference to the current service object.
+ * Every interface method is a plain interface call on the referenced object, without any reflection or interceptors:
+ *
+ * <pre>
+ * public final class MyService$$ImportProxy implements MyService
+ * {
+ *     private final AtomicReference target;
+ *
+ *     public String doSomething(String arg)
+ *     {
+ *         return ((MyService) target.get()).doSomething(arg);
+ *     }
+ * }
+ * </pre>
+ *
+ * Proxy classes are generated once per interface, each in its own classloader below the interface's classloader so they
+ * can be collected together with the interface.
+ */
+public class ImportProxyGenerator
+{
+    private static final String PROXY_PACKAGE = "com/example/osgi/spring/scanner/proxy/";
+    private static final String PROXY_SUFFIX = "$$ImportProxy";
+    private static final String TARGET_FIELD = "target";
+    private static final String REFERENCE_TYPE = Type.getInternalName(AtomicReference.class);
+    private static final String REFERENCE_DESCRIPTOR = Type.getDescriptor(AtomicReference.class);
+
+    private static final ClassValue<Class<?>> PROXY_CLASSES = new ClassValue<Class<?>>()
+    {
+        @Override
+        protected Class<?> computeValue(Class<?> serviceInterface)
+        {
+            String className = PROXY_PACKAGE + serviceInterface.getName().replace('.', '_') + PROXY_SUFFIX;
+            byte[] bytes = generate(serviceInterface, className);
+
+            return new ProxyClassLoader(serviceInterface.getClassLoader()).define(className.replace('/', '.'), bytes);
+        }
+    };
+
+    /**
+     * @param serviceInterface
+     * @return true if a proxy class can be generated for the given type
+     */
+    public static boolean canProxy(Class<?> serviceInterface)
+    {
+        return serviceInterface.isInterface() && Modifier.isPublic(serviceInterface.getModifiers());
+    }
+
+    /**
+     * creates a proxy for the given interface calling whatever the given reference currently points to
+     * @param serviceInterface
+     * @param target
+     * @return
+     */
+    public static Object createProxy(Class<?> serviceInterface, AtomicReference<Object> target)
+    {
+        try
+        {
+            return PROXY_CLASSES.get(serviceInterface).getConstructor(AtomicReference.class).newInstance(target);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Cannot create import proxy for [" + serviceInterface.getName() + "]", e);
+        }
+        catch (LinkageError e)
+        {
+            //the generated class couldn't be defined or verified against the interface
+            throw new IllegalStateException("Cannot create import proxy for [" + serviceInterface.getName() + "]", e);
+        }
+    }
+
+    private static byte[] generate(Class<?> serviceInterface, String className)
+    {
+        String interfaceName = Type.getInternalName(serviceInterface);
+
+        //no branches are generated, so there are no stack map frames to compute
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null,
+                "java/lang/Object", new String[]{interfaceName});
+
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, TARGET_FIELD, REFERENCE_DESCRIPTOR, null, null).visitEnd();
+
+        MethodVisitor constructor = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + REFERENCE_DESCRIPTOR + ")V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitVarInsn(Opcodes.ALOAD, 1);
+        constructor.visitFieldInsn(Opcodes.PUTFIELD, className, TARGET_FIELD, REFERENCE_DESCRIPTOR);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (Method method : getProxiedMethods(serviceInterface).values())
+        {
+            generateDelegate(cw, className, interfaceName, method);
+        }
+
+        MethodVisitor toString = cw.visitMethod(Opcodes.ACC_PUBLIC, "toString", "()Ljava/lang/String;", null, null);
+        toString.visitCode();
+        loadTarget(toString, className);
+        toString.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "toString", "()Ljava/lang/String;", false);
+        toString.visitInsn(Opcodes.ARETURN);
+        toString.visitMaxs(0, 0);
+        toString.visitEnd();
+
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    /**
+     * @return the public instance methods of the interface, including inherited and default methods, by signature.
+     * Methods of Object redeclared by the interface, like toString, are left to the proxy itself.
+     */
+    private static Map<String, Method> getProxiedMethods(Class<?> serviceInterface)
+    {
+        Map<String, Method> methods = new LinkedHashMap<String, Method>();
+        for (Method method : serviceInterface.getMethods())
+        {
+            if (!Modifier.isStatic(method.getModifiers()) && !isObjectMethod(method))
+            {
+                String signature = method.getName() + Type.getMethodDescriptor(method);
+                if (!methods.containsKey(signature))
+                {
+                    methods.put(signature, method);
+                }
+            }
+        }
+
+        return methods;
+    }
+
+    private static boolean isObjectMethod(Method method)
+    {
+        try
+        {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    private static void generateDelegate(ClassWriter cw, String className, String interfaceName, Method method)
+    {
+        String descriptor = Type.getMethodDescriptor(method);
+
+        String[] exceptions = new String[method.getExceptionTypes().length];
+        for (int i = 0; i < exceptions.length; i++)
+        {
+            exceptions[i] = Type.getInternalName(method.getExceptionTypes()[i]);
+        }
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method.getName(), descriptor, null, exceptions);
+        mv.visitCode();
+        loadTarget(mv, className);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, interfaceName);
+
+        int slot = 1;
+        for (Type argument : Type.getArgumentTypes(descriptor))
+        {
+            mv.visitVarInsn(argument.getOpcode(Opcodes.ILOAD), slot);
+            slot += argument.getSize();
+        }
+
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, interfaceName, method.getName(), descriptor, true);
+        mv.visitInsn(Type.getReturnType(descriptor).getOpcode(Opcodes.IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void loadTarget(MethodVisitor mv, String className)
+    {
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, className, TARGET_FIELD, REFERENCE_DESCRIPTOR);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, REFERENCE_TYPE, "get", "()Ljava/lang/Object;", false);
+    }
+
+    /**
+     * defines a single proxy class, resolving everything else through the classloader of the proxied interface
+     */
+    private static class ProxyClassLoader extends ClassLoader
+    {
+        private ProxyClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.Enumeration;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.gemini.blueprint.context.ConfigurableOsgiBundleApplicationContext;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import com.example.osgi.spring.extender.external.ApplicationContextPreProcessor;
+import com.example.osgi.spring.scanner.util.BytecodeComponentScanner;
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+
+/**
+ * Populates the application context of bundles which have a component index but no spring XML files, so a
+ * scanner-based bundle doesn't need a spring-scanner.xml just to trigger the index scan.
+ * <p/>
+ * A bundle is picked up if it has the component index, lists packages to scan in the Spring-Scanner-Scan-Packages
+ * header, or has the Spring-Scanner manifest header set to true.
+ * Setting the header to false opts a bundle out. Bundles with XML configuration are left to the scan-indexes element.
+ * <p/>
+ * Components are lazy by default if the bundle has the Spring-Scanner-Lazy-Components header set to true,
+ * every other setting of the scan-indexes element takes its default.
+ */
+public class IndexScanningApplicationContextPreProcessor implements ApplicationContextPreProcessor
+{
+    public static final String SPRING_SCANNER_HEADER = "Spring-Scanner";
+
+    private static final String SPRING_CONTEXT_HEADER = "Spring-Context";
+    private static final String SPRING_CONFIG_DIR = "META-INF/spring";
+
+    private static final Log log = LogFactory.getLog(IndexScanningApplicationContextPreProcessor.class);
+
+    @Override
+    public boolean isSpringPoweredBundle(Bundle bundle)
+    {
+        return isIndexedBundle(bundle) && !hasXmlConfiguration(bundle);
+    }
+
+    @Override
+    public void process(Bundle bundle, ConfigurableApplicationContext applicationContext)
+    {
+        if (!isSpringPoweredBundle(bundle))
+        {
+            return;
+        }
+
+        BundleContext bundleContext = (applicationContext instanceof ConfigurableOsgiBundleApplicationContext)
+                ? ((ConfigurableOsgiBundleApplicationContext) applicationContext).getBundleContext() : bundle.getBundleContext();
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Registering the indexed components of [" + bundle.getSymbolicName() + "] without XML configuration");
+        }
+
+        applicationContext.addBeanFactoryPostProcessor(new IndexScanningPostProcessor(bundleContext, applicationContext.getEnvironment()));
+    }
+
+    /**
+     * @param bundle
+     * @return true if the bundle has the Spring-Scanner header set to true or, if it isn't set, has a component index
+     *         or packages to scan
+     */
+    protected boolean isIndexedBundle(Bundle bundle)
+    {
+        String header = bundle.getHeaders().get(SPRING_SCANNER_HEADER);
+        if (StringUtils.isNotBlank(header))
+        {
+            return Boolean.parseBoolean(header.trim());
+        }
+
+        return null != bundle.getEntry(ClassIndexFiles.COMPONENT_INDEX_FILE)
+                || null != bundle.getEntry(ClassIndexFiles.COMPONENT_INDEX_FILE + ClassIndexFiles.BINARY_INDEX_SUFFIX)
+                || !BytecodeComponentScanner.getScanPackages(bundle).isEmpty();
+    }
+
+    /**
+     * @param bundle
+     * @return true if the extender will read spring XML files for the bundle
+     */
+    protected boolean hasXmlConfiguration(Bundle bundle)
+    {
+        if (null != bundle.getHeaders().get(SPRING_CONTEXT_HEADER))
+        {
+            return true;
+        }
+
+        Enumeration<?> xmlFiles = bundle.findEntries(SPRING_CONFIG_DIR, "*.xml", false);
+        return null != xmlFiles && xmlFiles.hasMoreElements();
+    }
+
+    /**
+     * Registers the indexed components first thing when the context is refreshed, so the post-processors it
+     * registers are picked up by the same refresh
+     */
+    private static class IndexScanningPostProcessor implements BeanDefinitionRegistryPostProcessor
+    {
+        private final BundleContext bundleContext;
+        private final Environment environment;
+
+        private IndexScanningPostProcessor(BundleContext bundleContext, Environment environment)
+        {
+            this.bundleContext = bundleContext;
+            this.environment = environment;
+        }
+
+        @Override
+        public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException
+        {
+            ClassLoader classLoader = (registry instanceof ConfigurableBeanFactory) ? ((ConfigurableBeanFactory) registry).getBeanClassLoader()
+                    : Thread.currentThread().getContextClassLoader();
+
+            IndexedComponentRegistration registration = new IndexedComponentRegistration(registry, bundleContext, classLoader);
+            registration.setEnvironment(environment);
+            registration.setLazyComponents(IndexedComponentRegistration.isLazyComponentsHeader(bundleContext));
+
+            registration.registerComponents();
+            registration.registerPostProcessors(null);
+            registration.registerRequestMappings(null);
+        }
+
+        @Override
+        public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException
+        {
+            //everything is done on the registry
+        }
+    }
+}
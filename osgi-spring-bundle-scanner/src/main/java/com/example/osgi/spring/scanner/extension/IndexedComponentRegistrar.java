@@ -0,0 +1,21 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+
+/**
+ * Implemented by the registrar class the ComponentAnnotationProcessor can generate for a bundle.
+ * The generated class is listed in META-INF/plugin-components/registrar and creates fully-populated bean definitions
+ * for all indexed components without reading the component index at runtime.
+ */
+public interface IndexedComponentRegistrar
+{
+    /**
+     * Creates the bean definitions for the indexed components of the bundle
+     * @param beanFactory the factory the definitions will be registered with, used to resolve constructor arguments
+     * @return a map of beanName -> beanDefinition
+     */
+    Map<String, BeanDefinition> getCandidateComponents(BeanFactory beanFactory);
+}
@@ -0,0 +1,314 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static com.example.osgi.spring.scanner.util.AnnotationIndexReader.readIndexEntries;
+import static com.example.osgi.spring.scanner.util.AnnotationIndexReader.readIndexFile;
+
+import java.util.*;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.BundleContext;
+import org.springframework.beans.BeanInstantiationException;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
+
+/**
+ * Registers the indexed components of a bundle in a bean definition registry, along with the post-processors
+ * required to import/export OSGi services and the handler mapping of its indexed controllers.
+ * <p/>
+ * This is what both the scan-indexes element and the XML-free {@link IndexScanningApplicationContextPreProcessor}
+ * run, they only differ in where the settings come from.
+ */
+public class IndexedComponentRegistration
+{
+    public static final String JAVAX_INJECT_CLASSNAME = "javax.inject.Inject";
+    public static final String LAZY_COMPONENTS_HEADER = "Spring-Scanner-Lazy-Components";
+    public static final long DEFAULT_WARM_UP_REPORT_SECONDS = 300;
+    public static final String REQUEST_MAPPING_HANDLER_MAPPING_BEAN_NAME = "indexedRequestMappingHandlerMapping";
+
+    private static final String REQUEST_MAPPING_HANDLER_MAPPING_CLASSNAME = "org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping";
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final BeanDefinitionRegistry registry;
+    private final BundleContext bundleContext;
+    private final ClassLoader classLoader;
+    private Environment environment;
+    private boolean preloadClasses = true;
+    private boolean lazyComponents;
+    private long warmUpReportSeconds = DEFAULT_WARM_UP_REPORT_SECONDS;
+    private boolean generateImportProxies;
+    private boolean deferExports;
+
+    /**
+     * @param registry
+     * @param bundleContext the context of the bundle being scanned, or null
+     * @param classLoader the classloader of the bundle, used to find the generated registrar
+     */
+    public IndexedComponentRegistration(BeanDefinitionRegistry registry, BundleContext bundleContext, ClassLoader classLoader)
+    {
+        this.registry = registry;
+        this.bundleContext = bundleContext;
+        this.classLoader = classLoader;
+    }
+
+    public void setEnvironment(Environment environment)
+    {
+        this.environment = environment;
+    }
+
+    public void setPreloadClasses(boolean preloadClasses)
+    {
+        this.preloadClasses = preloadClasses;
+    }
+
+    public void setLazyComponents(boolean lazyComponents)
+    {
+        this.lazyComponents = lazyComponents;
+    }
+
+    /**
+     * @param warmUpReportSeconds when to report the created lazy components, 0 or less for no report
+     */
+    public void setWarmUpReportSeconds(long warmUpReportSeconds)
+    {
+        this.warmUpReportSeconds = warmUpReportSeconds;
+    }
+
+    public void setGenerateImportProxies(boolean generateImportProxies)
+    {
+        this.generateImportProxies = generateImportProxies;
+    }
+
+    public void setDeferExports(boolean deferExports)
+    {
+        this.deferExports = deferExports;
+    }
+
+    /**
+     * Scans the index, or runs the generated registrar, and registers the bean definitions of the components
+     * @return the registered bean definitions
+     */
+    public Set<BeanDefinitionHolder> registerComponents()
+    {
+        ClassIndexBeanDefinitionScanner scanner = new ClassIndexBeanDefinitionScanner(registry, bundleContext);
+        scanner.setPreloadClasses(preloadClasses);
+        scanner.setLazyByDefault(lazyComponents);
+        scanner.setEnvironment(environment);
+        Set<BeanDefinitionHolder> beanDefinitions;
+
+        // Prefer the build-time generated registrar over reading the index
+        IndexedComponentRegistrar registrar = loadRegistrar(classLoader);
+        if (null != registrar && registry instanceof BeanFactory)
+        {
+            beanDefinitions = scanner.doScan(registrar.getCandidateComponents((BeanFactory) registry));
+        }
+        else
+        {
+            beanDefinitions = scanner.doScan();
+        }
+
+        if (lazyComponents && warmUpReportSeconds > 0)
+        {
+            registerWarmUpReport(beanDefinitions);
+        }
+
+        return beanDefinitions;
+    }
+
+    /**
+     * Registers our custom post-processors along with the standard @Autowired processor
+     * @param source
+     * @return the registered post-processor definitions
+     */
+    public Set<BeanDefinitionHolder> registerPostProcessors(Object source)
+    {
+        Set<BeanDefinitionHolder> processorDefinitions = new LinkedHashSet<BeanDefinitionHolder>();
+        processorDefinitions.addAll(AnnotationConfigUtils.registerAnnotationConfigProcessors(registry, source));
+
+        //Let's be nice and support javax.inject.Inject annotations
+        BeanDefinitionHolder javaxInject = getJavaxInjectPostProcessor(source);
+        if(null != javaxInject)
+        {
+            processorDefinitions.add(javaxInject);
+        }
+        processorDefinitions.add(getComponentImportPostProcessor(source));
+        processorDefinitions.add(getServiceExportPostProcessor(source));
+
+        return processorDefinitions;
+    }
+
+    /**
+     * Registers a handler mapping for the controllers listed in the request mappings index, if the bundle has one and
+     * Spring MVC is available to it
+     * @param source
+     * @return the registered handler mapping definition, or null
+     */
+    public BeanDefinitionHolder registerRequestMappings(Object source)
+    {
+        if (!ClassUtils.isPresent(REQUEST_MAPPING_HANDLER_MAPPING_CLASSNAME, getClass().getClassLoader()))
+        {
+            return null;
+        }
+
+        List<ComponentIndexEntry> mappingEntries = readIndexEntries(ClassIndexFiles.MAPPINGS_INDEX_FILE, classLoader);
+        if (mappingEntries.isEmpty())
+        {
+            return null;
+        }
+
+        RootBeanDefinition def = new RootBeanDefinition(getRequestMappingHandlerMappingClass());
+        def.getConstructorArgumentValues().addIndexedArgumentValue(0, mappingEntries);
+        def.setSource(source);
+        def.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+
+        registry.registerBeanDefinition(REQUEST_MAPPING_HANDLER_MAPPING_BEAN_NAME, def);
+        return new BeanDefinitionHolder(def, REQUEST_MAPPING_HANDLER_MAPPING_BEAN_NAME);
+    }
+
+    /**
+     * @param bundleContext
+     * @return true if the bundle has the Spring-Scanner-Lazy-Components manifest header set to true
+     */
+    public static boolean isLazyComponentsHeader(BundleContext bundleContext)
+    {
+        if (null == bundleContext)
+        {
+            return false;
+        }
+
+        return Boolean.parseBoolean(StringUtils.trim(bundleContext.getBundle().getHeaders().get(LAZY_COMPONENTS_HEADER)));
+    }
+
+    /**
+     * Loads the registrar generated by the ComponentAnnotationProcessor, if the bundle has one
+     * @param classLoader
+     * @return the registrar or null
+     */
+    protected IndexedComponentRegistrar loadRegistrar(ClassLoader classLoader)
+    {
+        List<String> registrarClassNames = readIndexFile(ClassIndexFiles.REGISTRAR_FILE, classLoader);
+        if (registrarClassNames.isEmpty() || StringUtils.isBlank(registrarClassNames.get(0)))
+        {
+            return null;
+        }
+
+        String registrarClassName = registrarClassNames.get(0).trim();
+        try
+        {
+            Class<?> registrarClass = ClassUtils.forName(registrarClassName, classLoader);
+            return (IndexedComponentRegistrar) BeanUtils.instantiateClass(registrarClass);
+        }
+        catch (ClassNotFoundException e)
+        {
+            logger.warn("Component registrar [" + registrarClassName + "] listed but not found, falling back to the component index");
+        }
+        catch (BeanInstantiationException e)
+        {
+            logger.warn("Cannot create component registrar [" + registrarClassName + "], falling back to the component index", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * kept apart so the web classes are only loaded once we know Spring MVC is there
+     */
+    private Class<?> getRequestMappingHandlerMappingClass()
+    {
+        return IndexedRequestMappingHandlerMapping.class;
+    }
+
+    /**
+     * registers the report of the lazy components created during the warm-up period
+     */
+    private void registerWarmUpReport(Set<BeanDefinitionHolder> beanDefinitions)
+    {
+        List<String> beanNames = new ArrayList<String>();
+        for (BeanDefinitionHolder holder : beanDefinitions)
+        {
+            beanNames.add(holder.getBeanName());
+        }
+
+        RootBeanDefinition def = new RootBeanDefinition(ComponentWarmUpReport.class);
+        def.getConstructorArgumentValues().addIndexedArgumentValue(0, beanNames);
+        def.getConstructorArgumentValues().addIndexedArgumentValue(1, warmUpReportSeconds);
+        def.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+
+        registry.registerBeanDefinition("componentWarmUpReport", def);
+    }
+
+    private BeanDefinitionHolder getJavaxInjectPostProcessor(Object source)
+    {
+        if(ClassUtils.isPresent(JAVAX_INJECT_CLASSNAME, getClass().getClassLoader()))
+        {
+            try
+            {
+                Class injectClass = getClass().getClassLoader().loadClass(JAVAX_INJECT_CLASSNAME);
+                Map<String,Object> properties = new HashMap<String, Object>();
+                properties.put("autowiredAnnotationType",injectClass);
+
+                RootBeanDefinition def = new RootBeanDefinition(AutowiredAnnotationBeanPostProcessor.class);
+                def.setSource(source);
+                def.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+                def.setPropertyValues(new MutablePropertyValues(properties));
+
+                return registerBeanPostProcessor(def, "javaxInjectBeanPostProcessor");
+            }
+            catch (ClassNotFoundException e)
+            {
+               //ignore
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Helper to convert a post-processor into a proper holder
+     * @param definition
+     * @param beanName
+     * @return
+     */
+    private BeanDefinitionHolder registerBeanPostProcessor(RootBeanDefinition definition, String beanName)
+    {
+        definition.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+
+        registry.registerBeanDefinition(beanName, definition);
+        return new BeanDefinitionHolder(definition, beanName);
+    }
+
+    private BeanDefinitionHolder getComponentImportPostProcessor(Object source)
+    {
+        RootBeanDefinition def = new RootBeanDefinition(ComponentImportBeanFactoryPostProcessor.class);
+        def.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
+        def.setSource(source);
+        def.getPropertyValues().add("generateProxies", generateImportProxies);
+
+        return registerBeanPostProcessor(def, "componentImportBeanFactoryPostProcessor");
+    }
+
+    private BeanDefinitionHolder getServiceExportPostProcessor(Object source)
+    {
+        RootBeanDefinition def = new RootBeanDefinition(ServiceExporterBeanPostProcessor.class);
+        def.setSource(source);
+        def.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
+        def.getPropertyValues().add("deferExports", deferExports);
+
+        return registerBeanPostProcessor(def, "serviceExportBeanPostProcessor");
+    }
+}
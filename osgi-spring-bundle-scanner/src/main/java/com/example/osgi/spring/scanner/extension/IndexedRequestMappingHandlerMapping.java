@@ -0,0 +1,156 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.aop.scope.ScopedProxyUtils;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
+import com.example.osgi.spring.scanner.util.RequestMappingEntry;
+
+/**
+ * A RequestMappingHandlerMapping which registers the handler methods listed in the request mappings index of a
+ * bundle, instead of introspecting every bean of the context for @RequestMapping methods.
+ * <p/>
+ * Only the listed methods are looked up by reflection, their mappings are rebuilt from the index.
+ * If the bundle has no request mappings index the handler methods are detected as usual.
+ */
+public class IndexedRequestMappingHandlerMapping extends RequestMappingHandlerMapping
+{
+    private final List<ComponentIndexEntry> mappingEntries;
+
+    /**
+     * @param mappingEntries the entries of the request mappings index
+     */
+    public IndexedRequestMappingHandlerMapping(List<ComponentIndexEntry> mappingEntries)
+    {
+        this.mappingEntries = (null == mappingEntries) ? Collections.<ComponentIndexEntry>emptyList() : mappingEntries;
+    }
+
+    @Override
+    protected void initHandlerMethods()
+    {
+        if (mappingEntries.isEmpty())
+        {
+            super.initHandlerMethods();
+            return;
+        }
+
+        ClassLoader classLoader = obtainApplicationContext().getClassLoader();
+        for (ComponentIndexEntry indexEntry : mappingEntries)
+        {
+            RequestMappingEntry mappingEntry = RequestMappingEntry.fromIndexEntry(indexEntry);
+            if (null == mappingEntry)
+            {
+                logger.warn("Ignoring request mapping index entry without a handler method: " + indexEntry.toIndexLine());
+                continue;
+            }
+
+            try
+            {
+                registerIndexedMapping(mappingEntry, classLoader);
+            }
+            catch (ClassNotFoundException e)
+            {
+                logger.warn("Handler class [" + e.getMessage() + "] listed in the request mapping index but not found");
+            }
+        }
+
+        handlerMethodsInitialized(getHandlerMethods());
+    }
+
+    /**
+     * registers the indexed handler method on every bean of its class
+     */
+    private void registerIndexedMapping(RequestMappingEntry mappingEntry, ClassLoader classLoader) throws ClassNotFoundException
+    {
+        Class<?> handlerClass = ClassUtils.forName(mappingEntry.getHandlerClassName(), classLoader);
+
+        Class<?>[] parameterTypes = new Class<?>[mappingEntry.getParameterTypes().size()];
+        for (int i = 0; i < parameterTypes.length; i++)
+        {
+            parameterTypes[i] = ClassUtils.forName(mappingEntry.getParameterTypes().get(i), classLoader);
+        }
+
+        Method method = ReflectionUtils.findMethod(handlerClass, mappingEntry.getMethodName(), parameterTypes);
+        if (null == method)
+        {
+            logger.warn("Handler method [" + mappingEntry.getMethodName() + "] of [" + mappingEntry.getHandlerClassName()
+                    + "] listed in the request mapping index but not found");
+            return;
+        }
+
+        RequestMappingInfo info = createRequestMappingInfo(toRequestMapping(mappingEntry.getMethodAttributes(), method),
+                getCustomMethodCondition(method));
+        if (mappingEntry.hasTypeMapping())
+        {
+            RequestMappingInfo typeInfo = createRequestMappingInfo(toRequestMapping(mappingEntry.getTypeAttributes(), handlerClass),
+                    getCustomTypeCondition(handlerClass));
+            info = typeInfo.combine(info);
+        }
+
+        for (String beanName : obtainApplicationContext().getBeanNamesForType(handlerClass, true, false))
+        {
+            if (ScopedProxyUtils.isScopedTarget(beanName))
+            {
+                continue;
+            }
+
+            Class<?> beanType = obtainApplicationContext().getType(beanName);
+            if (null == beanType || !isHandler(beanType))
+            {
+                continue;
+            }
+
+            Class<?> userType = ClassUtils.getUserClass(beanType);
+            registerHandlerMethod(beanName, AopUtils.selectInvocableMethod(method, userType), info);
+        }
+    }
+
+    /**
+     * rebuilds the @RequestMapping the index entry was written from
+     */
+    private static RequestMapping toRequestMapping(Map<String, List<String>> attributes, AnnotatedElement element)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        String[] paths = toArray(attributes.get(RequestMappingEntry.PATH));
+        values.put("path", paths);
+        values.put("value", paths);
+        values.put(RequestMappingEntry.PARAMS, toArray(attributes.get(RequestMappingEntry.PARAMS)));
+        values.put(RequestMappingEntry.HEADERS, toArray(attributes.get(RequestMappingEntry.HEADERS)));
+        values.put(RequestMappingEntry.CONSUMES, toArray(attributes.get(RequestMappingEntry.CONSUMES)));
+        values.put(RequestMappingEntry.PRODUCES, toArray(attributes.get(RequestMappingEntry.PRODUCES)));
+
+        List<RequestMethod> requestMethods = new ArrayList<RequestMethod>();
+        for (String requestMethod : toList(attributes.get(RequestMappingEntry.METHOD)))
+        {
+            requestMethods.add(RequestMethod.valueOf(requestMethod));
+        }
+        values.put(RequestMappingEntry.METHOD, requestMethods.toArray(new RequestMethod[requestMethods.size()]));
+
+        return AnnotationUtils.synthesizeAnnotation(values, RequestMapping.class, element);
+    }
+
+    private static List<String> toList(List<String> values)
+    {
+        return (null == values) ? Collections.<String>emptyList() : values;
+    }
+
+    private static String[] toArray(List<String> values)
+    {
+        return toList(values).toArray(new String[0]);
+    }
+}
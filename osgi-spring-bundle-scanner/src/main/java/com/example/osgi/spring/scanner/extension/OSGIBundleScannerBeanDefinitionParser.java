@@ -2,20 +2,19 @@ package com.example.osgi.spring.scanner.extension;
 
 import java.util.*;
 
-import org.springframework.beans.MutablePropertyValues;
-import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.gemini.blueprint.context.ConfigurableOsgiBundleApplicationContext;
+import org.osgi.framework.BundleContext;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinitionHolder;
 import org.springframework.beans.factory.parsing.BeanComponentDefinition;
 import org.springframework.beans.factory.parsing.CompositeComponentDefinition;
-import org.springframework.beans.factory.support.AbstractBeanDefinition;
-import org.springframework.beans.factory.support.BeanDefinitionRegistry;
-import org.springframework.beans.factory.support.RootBeanDefinition;
 import org.springframework.beans.factory.xml.BeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.springframework.beans.factory.xml.XmlReaderContext;
-import org.springframework.context.annotation.AnnotationConfigUtils;
-import org.springframework.util.ClassUtils;
+import org.springframework.core.io.ResourceLoader;
 import org.w3c.dom.Element;
 
 /**
@@ -25,16 +24,92 @@ import org.w3c.dom.Element;
 public class OSGIBundleScannerBeanDefinitionParser implements BeanDefinitionParser
 {
 
-    public static final String JAVAX_INJECT_CLASSNAME = "javax.inject.Inject";
+    public static final String DEFER_EXPORTS_ATTRIBUTE = "defer-exports";
+    public static final String GENERATE_IMPORT_PROXIES_ATTRIBUTE = "generate-import-proxies";
+    public static final String PRELOAD_CLASSES_ATTRIBUTE = "preload-classes";
+    public static final String LAZY_COMPONENTS_ATTRIBUTE = "lazy-components";
+    public static final String WARM_UP_REPORT_ATTRIBUTE = "warm-up-report-seconds";
+
+    protected final Log logger = LogFactory.getLog(getClass());
 
     @Override
     public BeanDefinition parse(Element element, ParserContext parserContext)
     {
         // Actually scan for bean definitions and register them.
-        ClassIndexBeanDefinitionScanner scanner = new ClassIndexBeanDefinitionScanner(parserContext.getReaderContext().getRegistry());
-        Set<BeanDefinitionHolder> beanDefinitions = scanner.doScan();
-        
-        registerComponents(parserContext.getReaderContext(), beanDefinitions, element);
+        BundleContext bundleContext = getBundleContext(parserContext);
+
+        IndexedComponentRegistration registration = new IndexedComponentRegistration(parserContext.getReaderContext().getRegistry(),
+                bundleContext, Thread.currentThread().getContextClassLoader());
+        registration.setEnvironment(parserContext.getReaderContext().getEnvironment());
+        registration.setPreloadClasses(!"false".equals(element.getAttribute(PRELOAD_CLASSES_ATTRIBUTE)));
+        registration.setLazyComponents(isLazyComponents(element, bundleContext));
+        registration.setGenerateImportProxies(Boolean.parseBoolean(element.getAttribute(GENERATE_IMPORT_PROXIES_ATTRIBUTE)));
+        registration.setDeferExports(Boolean.parseBoolean(element.getAttribute(DEFER_EXPORTS_ATTRIBUTE)));
+
+        String warmUpSeconds = StringUtils.trim(element.getAttribute(WARM_UP_REPORT_ATTRIBUTE));
+        if (StringUtils.isNotEmpty(warmUpSeconds))
+        {
+            if (isNonNegativeNumber(warmUpSeconds))
+            {
+                registration.setWarmUpReportSeconds(Long.parseLong(warmUpSeconds));
+            }
+            else
+            {
+                //the schema isn't validated by every context
+                parserContext.getReaderContext().error("The " + WARM_UP_REPORT_ATTRIBUTE + " attribute must be a number of seconds, not ["
+                        + warmUpSeconds + "]", element);
+            }
+        }
+
+        Set<BeanDefinitionHolder> beanDefinitions = registration.registerComponents();
+
+        registerComponents(parserContext.getReaderContext(), registration, beanDefinitions, element);
+
+        return null;
+    }
+
+    private static boolean isNonNegativeNumber(String value)
+    {
+        try
+        {
+            return Long.parseLong(value) >= 0;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Components are lazy by default if the lazy-components attribute says so or, if it isn't set,
+     * the bundle has the Spring-Scanner-Lazy-Components manifest header set to true
+     * @param element
+     * @param bundleContext
+     * @return
+     */
+    protected boolean isLazyComponents(Element element, BundleContext bundleContext)
+    {
+        String lazyComponents = element.getAttribute(LAZY_COMPONENTS_ATTRIBUTE);
+        if (StringUtils.isBlank(lazyComponents))
+        {
+            return IndexedComponentRegistration.isLazyComponentsHeader(bundleContext);
+        }
+
+        return Boolean.parseBoolean(StringUtils.trim(lazyComponents));
+    }
+
+    /**
+     * Gets the bundle context of the application context being populated, if it is an OSGi bundle context
+     * @param parserContext
+     * @return the bundle context or null
+     */
+    protected BundleContext getBundleContext(ParserContext parserContext)
+    {
+        ResourceLoader resourceLoader = parserContext.getReaderContext().getResourceLoader();
+        if (resourceLoader instanceof ConfigurableOsgiBundleApplicationContext)
+        {
+            return ((ConfigurableOsgiBundleApplicationContext) resourceLoader).getBundleContext();
+        }
 
         return null;
     }
@@ -44,10 +119,11 @@ public class OSGIBundleScannerBeanDefinitionParser implements BeanDefinitionPars
      * Also adds in the post-processors required to import/export OSGi services.
      * Finally fires the component registered event with our root component.
      * @param readerContext
+     * @param registration
      * @param beanDefinitions
      * @param element
      */
-    protected void registerComponents(XmlReaderContext readerContext, Set<BeanDefinitionHolder> beanDefinitions, Element element)
+    protected void registerComponents(XmlReaderContext readerContext, IndexedComponentRegistration registration, Set<BeanDefinitionHolder> beanDefinitions, Element element)
     {
         Object source = readerContext.extractSource(element);
         CompositeComponentDefinition compositeDef = new CompositeComponentDefinition(element.getTagName(), source);
@@ -60,82 +136,17 @@ public class OSGIBundleScannerBeanDefinitionParser implements BeanDefinitionPars
         }
 
         //add our custom post-processors along with the standard @Autowired processor
-        Set<BeanDefinitionHolder> processorDefinitions = new LinkedHashSet<BeanDefinitionHolder>();
-        processorDefinitions.addAll(AnnotationConfigUtils.registerAnnotationConfigProcessors(readerContext.getRegistry(), source));
-        
-        //Let's be nice and support javax.inject.Inject annotations
-        BeanDefinitionHolder javaxInject = getJavaxInjectPostProcessor(readerContext.getRegistry(), source);
-        if(null != javaxInject)
-        {
-            processorDefinitions.add(javaxInject);
-        }
-        processorDefinitions.add(getComponentImportPostProcessor(readerContext.getRegistry(), source));
-        processorDefinitions.add(getServiceExportPostProcessor(readerContext.getRegistry(), source));
-
-        for (BeanDefinitionHolder processorDefinition : processorDefinitions)
+        for (BeanDefinitionHolder processorDefinition : registration.registerPostProcessors(source))
         {
             compositeDef.addNestedComponent(new BeanComponentDefinition(processorDefinition));
         }
 
-        readerContext.fireComponentRegistered(compositeDef);
-    }
-
-    private BeanDefinitionHolder getJavaxInjectPostProcessor(BeanDefinitionRegistry registry, Object source)
-    {
-        if(ClassUtils.isPresent(JAVAX_INJECT_CLASSNAME, getClass().getClassLoader()))
+        BeanDefinitionHolder requestMappings = registration.registerRequestMappings(source);
+        if (null != requestMappings)
         {
-            try
-            {
-                Class injectClass = getClass().getClassLoader().loadClass(JAVAX_INJECT_CLASSNAME);
-                Map<String,Object> properties = new HashMap<String, Object>();
-                properties.put("autowiredAnnotationType",injectClass);
-                
-                RootBeanDefinition def = new RootBeanDefinition(AutowiredAnnotationBeanPostProcessor.class);
-                def.setSource(source);
-                def.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
-                def.setPropertyValues(new MutablePropertyValues(properties));
-                
-                return registerBeanPostProcessor(registry, def, "javaxInjectBeanPostProcessor");
-            }
-            catch (ClassNotFoundException e)
-            {
-               //ignore
-            }
+            compositeDef.addNestedComponent(new BeanComponentDefinition(requestMappings));
         }
-        
-        return null;
-    }
-
-    /**
-     * Helper to convert a post-processor into a proper holder
-     * @param registry
-     * @param definition
-     * @param beanName
-     * @return
-     */
-    private BeanDefinitionHolder registerBeanPostProcessor(BeanDefinitionRegistry registry, RootBeanDefinition definition, String beanName)
-    {
-        definition.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
 
-        registry.registerBeanDefinition(beanName, definition);
-        return new BeanDefinitionHolder(definition, beanName);
-    }
-
-    private BeanDefinitionHolder getComponentImportPostProcessor(BeanDefinitionRegistry registry, Object source)
-    {
-        RootBeanDefinition def = new RootBeanDefinition(ComponentImportBeanFactoryPostProcessor.class);
-        def.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
-        def.setSource(source);
-        
-        return registerBeanPostProcessor(registry, def, "componentImportBeanFactoryPostProcessor");
-    }
-
-    private BeanDefinitionHolder getServiceExportPostProcessor(BeanDefinitionRegistry registry, Object source)
-    {
-        RootBeanDefinition def = new RootBeanDefinition(ServiceExporterBeanPostProcessor.class);
-        def.setSource(source);
-        def.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
-
-        return registerBeanPostProcessor(registry, def, "serviceExportBeanPostProcessor");
+        readerContext.fireComponentRegistered(compositeDef);
     }
 }
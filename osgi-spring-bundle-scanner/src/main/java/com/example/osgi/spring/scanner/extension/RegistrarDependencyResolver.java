@@ -0,0 +1,142 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.annotation.AnnotationUtils;
+
+/**
+ * Resolves the constructor arguments of the components created by a generated IndexedComponentRegistrar.
+ * <p/>
+ * Every argument goes through the bean factory's dependency resolution, the same way Spring resolves the arguments of
+ * an autowired constructor, so qualifiers, primary beans and parameter names are taken into account. Component imports
+ * are injected by the name their import bean is registered under. The component is registered as dependent on the beans
+ * injected into it, so they aren't destroyed before it.
+ * <p/>
+ * The generated registrar creates one resolver per component. The constructor and its parameters are looked up when
+ * the component is first created and kept for the next creations, e.g. of prototype components.
+ */
+public final class RegistrarDependencyResolver
+{
+    private static final String COMPONENT_IMPORT_SUFFIX = ".ComponentImport";
+
+    private final String beanName;
+    private volatile ConstructorParameters constructorParameters;
+
+    /**
+     * @param beanName the name of the component
+     */
+    public RegistrarDependencyResolver(String beanName)
+    {
+        this.beanName = beanName;
+    }
+
+    /**
+     * @param beanFactory the factory the component is created by
+     * @param type the class of the component
+     * @param parameterTypes the parameter types of the constructor used to create the component
+     * @return the arguments to call the constructor with
+     */
+    public Object[] resolveConstructorArguments(BeanFactory beanFactory, Class<?> type, Class<?>... parameterTypes)
+    {
+        ConfigurableListableBeanFactory factory = (ConfigurableListableBeanFactory) beanFactory;
+        ConstructorParameters resolved = getConstructorParameters(type, parameterTypes);
+
+        Object[] arguments = new Object[parameterTypes.length];
+        Set<String> autowiredBeanNames = new LinkedHashSet<String>();
+        for (int i = 0; i < arguments.length; i++)
+        {
+            String importBeanName = resolved.importBeanNames[i];
+            if (null != importBeanName)
+            {
+                arguments[i] = factory.getBean(importBeanName, parameterTypes[i]);
+                autowiredBeanNames.add(importBeanName);
+            }
+            else
+            {
+                // resolving the dependency can change the nesting level of the parameter, so it gets a copy
+                DependencyDescriptor descriptor = new DependencyDescriptor(new MethodParameter(resolved.parameters[i]), true);
+                arguments[i] = factory.resolveDependency(descriptor, beanName, autowiredBeanNames, factory.getTypeConverter());
+            }
+        }
+
+        for (String autowiredBeanName : autowiredBeanNames)
+        {
+            if (factory.containsBean(autowiredBeanName))
+            {
+                factory.registerDependentBean(autowiredBeanName, beanName);
+            }
+        }
+
+        return arguments;
+    }
+
+    private ConstructorParameters getConstructorParameters(Class<?> type, Class<?>[] parameterTypes)
+    {
+        ConstructorParameters parameters = constructorParameters;
+        if (null == parameters)
+        {
+            Constructor<?> constructor;
+            try
+            {
+                constructor = type.getConstructor(parameterTypes);
+            }
+            catch (NoSuchMethodException e)
+            {
+                throw new BeanCreationException(beanName, "The generated component registrar doesn't match the class of the component", e);
+            }
+
+            parameters = new ConstructorParameters(constructor);
+            constructorParameters = parameters;
+        }
+
+        return parameters;
+    }
+
+    /**
+     * imports are registered under their annotation value or the uncapitalized simple name of the type
+     * @return the name of the import bean for the parameter, or null if it isn't a component import
+     */
+    private static String getImportBeanName(MethodParameter parameter)
+    {
+        for (Annotation annotation : parameter.getParameterAnnotations())
+        {
+            if (annotation.annotationType().getName().endsWith(COMPONENT_IMPORT_SUFFIX))
+            {
+                Object value = AnnotationUtils.getValue(annotation);
+                return (value instanceof String && StringUtils.isNotBlank((String) value))
+                        ? (String) value : StringUtils.uncapitalize(parameter.getParameterType().getSimpleName());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * the parameters of a component constructor, along with the import bean names of the component import parameters
+     */
+    private static final class ConstructorParameters
+    {
+        private final MethodParameter[] parameters;
+        private final String[] importBeanNames;
+
+        private ConstructorParameters(Constructor<?> constructor)
+        {
+            parameters = new MethodParameter[constructor.getParameterCount()];
+            importBeanNames = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++)
+            {
+                parameters[i] = new MethodParameter(constructor, i);
+                importBeanNames[i] = getImportBeanName(parameters[i]);
+            }
+        }
+    }
+}
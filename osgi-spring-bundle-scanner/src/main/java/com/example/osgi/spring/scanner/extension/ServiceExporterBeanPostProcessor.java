@@ -1,29 +1,69 @@
 package com.example.osgi.spring.scanner.extension;
 
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.ServiceRegistration;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.util.ClassUtils;
 
 import com.example.osgi.spring.scanner.annotation.export.ExportAsService;
+import com.example.osgi.spring.scanner.util.BundleComponentIndex;
 
 /**
  * A BeanPostProcessor that exports OSGi services for beans annotated with both a *Component annotation and the ExportAsService annotation
  * This essentially does the same thing as the "public=true" on an atlassian plugin.xml component entry.
  * <p/>
  * This is implemented as a BeanPostProcessor because we need to service to come and go as the bean is created/destroyed
+ * <p/>
+ * Whether a class is exported, and as which interfaces, is worked out once per class and cached. For classes of an indexed
+ * bundle the exports index is used, so beans which aren't exported never have their annotations or interfaces reflected on.
+ * <p/>
+ * With deferExports set, services of beans created while the context is refreshing are queued and registered as a batch
+ * once the context has been refreshed, rather than one ServiceEvent at a time in the middle of the refresh.
+ * <p/>
+ * Lazily exported services (see {@link ExportAsService#lazy()}) are registered with a ServiceFactory when the context has
+ * been refreshed. Their beans are lazy-init and only created when another bundle first gets the service.
  */
-public class ServiceExporterBeanPostProcessor implements DestructionAwareBeanPostProcessor
+public class ServiceExporterBeanPostProcessor implements DestructionAwareBeanPostProcessor, ApplicationListener<ContextRefreshedEvent>, DisposableBean
 {
 
     public static final String OSGI_SERVICE_SUFFIX = "_osgiService";
-    
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
     private final ExportedSeviceManager serviceManager;
     private final BundleContext bundleContext;
     private ConfigurableListableBeanFactory beanFactory;
+    private volatile BundleComponentIndex index;
+    private final Map<String, PendingExport> pendingExports = Collections.synchronizedMap(new LinkedHashMap<String, PendingExport>());
+    private volatile boolean deferExports;
+    private volatile boolean refreshed;
+
+    private final ClassValue<ExportMetadata> exportMetadata = new ClassValue<ExportMetadata>()
+    {
+        @Override
+        protected ExportMetadata computeValue(Class<?> type)
+        {
+            return createExportMetadata(type);
+        }
+    };
 
     public ServiceExporterBeanPostProcessor(BundleContext bundleContext,ConfigurableListableBeanFactory beanFactory)
     {
@@ -32,12 +72,37 @@ public class ServiceExporterBeanPostProcessor implements DestructionAwareBeanPos
         this.serviceManager = new ExportedSeviceManager();
     }
 
+    /**
+     * @param deferExports true to register the services of beans created during the refresh once the context is refreshed
+     */
+    public void setDeferExports(boolean deferExports)
+    {
+        this.deferExports = deferExports;
+    }
+
+    public ExportedSeviceManager getServiceManager()
+    {
+        return serviceManager;
+    }
+
     @Override
     public void postProcessBeforeDestruction(Object bean, String beanName) throws BeansException
     {
 
+        if(serviceManager.hasLazyService(beanName))
+        {
+            serviceManager.unregisterLazyService(beanName);
+            return;
+        }
+
         if(isPublicComponent(bean))
         {
+            if(null != pendingExports.remove(beanName))
+            {
+                //never registered
+                return;
+            }
+
             String serviceName = getServiceName(beanName);
             serviceManager.unregisterService(bundleContext, bean);
 
@@ -62,42 +127,129 @@ public class ServiceExporterBeanPostProcessor implements DestructionAwareBeanPos
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException
     {
-        Class<?>[] interfaces;
+        ExportMetadata metadata = exportMetadata.get(bean.getClass());
 
-        if (isPublicComponent(bean))
+        //lazy services are already registered, the bean is being created for its first consumer
+        if (metadata.isExported() && !serviceManager.hasLazyService(beanName))
         {
-            String serviceName = getServiceName(beanName);
-            interfaces = bean.getClass().getAnnotation(ExportAsService.class).value();
-
-            //if they didn't specify any interfaces, calculate them
-            if (interfaces.length < 1)
+            if (!deferExports || !defer(bean, beanName, metadata))
             {
-                interfaces = bean.getClass().getInterfaces();
-                
-                //if we still don't have any, just export with the classname (yes, OSGi allows this.
-                if (interfaces.length < 1)
-                {
-                    interfaces = new Class<?>[]{bean.getClass()};
-                }
+                exportService(bean, beanName, metadata);
             }
+        }
 
-            try
+        return bean;
+    }
+
+    /**
+     * registers the services queued while our context was refreshing, and the lazy services
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event)
+    {
+        if (event.getApplicationContext().getAutowireCapableBeanFactory() != beanFactory)
+        {
+            return;
+        }
+
+        registerLazyServices();
+
+        Map<String, PendingExport> exports;
+        synchronized (pendingExports)
+        {
+            refreshed = true;
+            exports = new LinkedHashMap<String, PendingExport>(pendingExports);
+            pendingExports.clear();
+        }
+
+        long registrations = serviceManager.getRegistrationCount();
+        long time = serviceManager.getRegistrationTime(TimeUnit.NANOSECONDS);
+
+        for (Map.Entry<String, PendingExport> export : exports.entrySet())
+        {
+            exportService(export.getValue().bean, export.getKey(), export.getValue().metadata);
+        }
+
+        if (logger.isDebugEnabled() && !exports.isEmpty())
+        {
+            logger.debug("Registered " + (serviceManager.getRegistrationCount() - registrations) + " deferred services for bundle ["
+                    + bundleContext.getBundle().getSymbolicName() + "] in "
+                    + TimeUnit.NANOSECONDS.toMillis(serviceManager.getRegistrationTime(TimeUnit.NANOSECONDS) - time) + "ms");
+        }
+    }
+
+    /**
+     * unregisters the lazy services, including those whose beans were never created
+     */
+    @Override
+    public void destroy()
+    {
+        serviceManager.unregisterLazyServices();
+    }
+
+    /**
+     * registers a ServiceFactory for every lazily exported bean which hasn't been created during the refresh
+     */
+    private void registerLazyServices()
+    {
+        Map<String, List<String>> exports = getIndexedExports();
+        if (null == exports || index.getLazyExports().isEmpty())
+        {
+            return;
+        }
+
+        Set<String> lazyExports = index.getLazyExports();
+        for (String beanName : beanFactory.getBeanDefinitionNames())
+        {
+            BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+            String className = definition.getBeanClassName();
+
+            if (definition.isLazyInit() && lazyExports.contains(className) && !beanFactory.containsSingleton(beanName))
             {
-                ServiceRegistration<?> reg = serviceManager.registerService(bundleContext, bean, beanName, new Hashtable<String, Object>(), interfaces);
-                beanFactory.initializeBean(reg, serviceName);
+                List<String> interfaces = exports.get(className);
+                serviceManager.registerLazyService(bundleContext, beanFactory, beanName, new Hashtable<String, Object>(),
+                        interfaces.toArray(new String[interfaces.size()]));
             }
-            catch (Exception e)
+        }
+    }
+
+    /**
+     * queues an export until the context is refreshed
+     * @return false if the context has already been refreshed
+     */
+    private boolean defer(Object bean, String beanName, ExportMetadata metadata)
+    {
+        synchronized (pendingExports)
+        {
+            if (refreshed)
             {
-                e.printStackTrace();
+                return false;
             }
+
+            pendingExports.put(beanName, new PendingExport(bean, metadata));
+            return true;
         }
+    }
 
-        return bean;
+    private void exportService(Object bean, String beanName, ExportMetadata metadata)
+    {
+        String serviceName = getServiceName(beanName);
+
+        try
+        {
+            ServiceRegistration<?> reg = serviceManager.registerService(bundleContext, bean, beanName, new Hashtable<String, Object>(), metadata.getInterfaces());
+            beanFactory.initializeBean(reg, serviceName);
+        }
+        catch (Exception e)
+        {
+            logger.error("Cannot export bean [" + beanName + "] of bundle [" + bundleContext.getBundle().getSymbolicName()
+                    + "] as an OSGi service", e);
+        }
     }
-    
-    private boolean isPublicComponent(Object bean) 
+
+    private boolean isPublicComponent(Object bean)
     {
-        return bean.getClass().isAnnotationPresent(ExportAsService.class);
+        return exportMetadata.get(bean.getClass()).isExported();
     }
 
     private String getServiceName(String beanName)
@@ -105,4 +257,112 @@ public class ServiceExporterBeanPostProcessor implements DestructionAwareBeanPos
         return beanName + OSGI_SERVICE_SUFFIX;
     }
 
+    /**
+     * Works out if a class is exported and as which interfaces.
+     * The exports index of our bundle is authoritative for the classes defined by our bundle, anything else is reflected on.
+     */
+    private ExportMetadata createExportMetadata(Class<?> type)
+    {
+        Map<String, List<String>> exports = getIndexedExports();
+
+        if (null != exports && bundleContext.getBundle().equals(FrameworkUtil.getBundle(type)))
+        {
+            List<String> interfaceNames = exports.get(type.getName());
+            if (null == interfaceNames)
+            {
+                return ExportMetadata.NOT_EXPORTED;
+            }
+
+            try
+            {
+                Class<?>[] interfaces = new Class<?>[interfaceNames.size()];
+                for (int i = 0; i < interfaces.length; i++)
+                {
+                    interfaces[i] = ClassUtils.forName(interfaceNames.get(i), type.getClassLoader());
+                }
+
+                return new ExportMetadata(interfaces);
+            }
+            catch (ClassNotFoundException e)
+            {
+                //the index doesn't match the class, fall back to reflection
+            }
+        }
+
+        ExportAsService exportAsService = type.getAnnotation(ExportAsService.class);
+        if (null == exportAsService)
+        {
+            return ExportMetadata.NOT_EXPORTED;
+        }
+
+        Class<?>[] interfaces = exportAsService.value();
+
+        //if they didn't specify any interfaces, calculate them
+        if (interfaces.length < 1)
+        {
+            interfaces = type.getInterfaces();
+
+            //if we still don't have any, just export with the classname (yes, OSGi allows this.
+            if (interfaces.length < 1)
+            {
+                interfaces = new Class<?>[]{type};
+            }
+        }
+
+        return new ExportMetadata(interfaces);
+    }
+
+    /**
+     * @return the exports index of our bundle, or null if the bundle has no exports index, e.g. as it was compiled with an
+     * older version of the scanner's annotation processors
+     */
+    private Map<String, List<String>> getIndexedExports()
+    {
+        if (null == index)
+        {
+            index = BundleComponentIndex.forBundle(bundleContext);
+        }
+
+        return index.isExportsIndexed() ? index.getExports() : null;
+    }
+
+    /**
+     * A service waiting for the context to be refreshed
+     */
+    private static class PendingExport
+    {
+        private final Object bean;
+        private final ExportMetadata metadata;
+
+        private PendingExport(Object bean, ExportMetadata metadata)
+        {
+            this.bean = bean;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * The cached export information of a single class
+     */
+    private static class ExportMetadata
+    {
+        private static final ExportMetadata NOT_EXPORTED = new ExportMetadata(null);
+
+        private final Class<?>[] interfaces;
+
+        private ExportMetadata(Class<?>[] interfaces)
+        {
+            this.interfaces = interfaces;
+        }
+
+        public boolean isExported()
+        {
+            return null != interfaces;
+        }
+
+        public Class<?>[] getInterfaces()
+        {
+            return interfaces;
+        }
+    }
 }
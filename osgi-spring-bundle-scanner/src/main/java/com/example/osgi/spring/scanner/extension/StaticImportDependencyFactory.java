@@ -0,0 +1,66 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.gemini.blueprint.extender.OsgiServiceDependencyFactory;
+import org.eclipse.gemini.blueprint.service.importer.DefaultOsgiServiceDependency;
+import org.eclipse.gemini.blueprint.service.importer.OsgiServiceDependency;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+
+/**
+ * Makes the services of non-dynamic component imports mandatory dependencies of the application context, the same
+ * way Gemini does for its own mandatory imports.  The context then waits for them before any bean is created, instead
+ * of the StaticServiceFactoryBean failing because the bundle exporting the service hasn't been started yet.
+ * <p/>
+ * Only the bean definitions are looked at, the factory beans aren't created to find the services.
+ */
+public class StaticImportDependencyFactory implements OsgiServiceDependencyFactory
+{
+    @Override
+    public Collection<OsgiServiceDependency> getServiceDependencies(BundleContext bundleContext, ConfigurableListableBeanFactory beanFactory)
+            throws InvalidSyntaxException
+    {
+        List<OsgiServiceDependency> dependencies = new ArrayList<OsgiServiceDependency>();
+
+        for (String beanName : beanFactory.getBeanDefinitionNames())
+        {
+            BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+            if (!StaticServiceFactoryBean.class.getName().equals(definition.getBeanClassName()))
+            {
+                continue;
+            }
+
+            String serviceInterface = getServiceInterface(definition);
+            if (null == serviceInterface)
+            {
+                continue;
+            }
+
+            PropertyValue filter = definition.getPropertyValues().getPropertyValue("filter");
+            String serviceFilter = StaticServiceFactoryBean.createFilter(serviceInterface, null == filter ? null : (String) filter.getValue());
+
+            dependencies.add(new DefaultOsgiServiceDependency(beanName, bundleContext.createFilter(serviceFilter), true));
+        }
+
+        return dependencies;
+    }
+
+    private static String getServiceInterface(BeanDefinition definition)
+    {
+        ConstructorArgumentValues.ValueHolder argument = definition.getConstructorArgumentValues().getIndexedArgumentValue(1, null);
+        Object value = null == argument ? null : argument.getValue();
+
+        if (value instanceof Class)
+        {
+            return ((Class<?>) value).getName();
+        }
+        return value instanceof String ? (String) value : null;
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.gemini.blueprint.service.ServiceUnavailableException;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Imports a service for a non-dynamic component import (see ComponentImport#dynamic()).
+ * <p/>
+ * The best matching service is looked up once, when the bean is created, and the service object itself is injected.
+ * There is no proxy: if that service goes away the application context owning this bean is refreshed, which looks
+ * up the service again. The refresh happens on a separate thread, once a replacement service has been registered or
+ * the replacement timeout has passed. All the static imports of a context share one restart: once one of them has
+ * scheduled it, the services going away in the meantime don't refresh the context again, and a context which is
+ * closing or still refreshing isn't refreshed at all.
+ * <p/>
+ * The service is a mandatory dependency of the context (see StaticImportDependencyFactory), so the context isn't
+ * created before it is available, whatever order the bundles are started in.
+ */
+public class StaticServiceFactoryBean implements FactoryBean<Object>, InitializingBean, DisposableBean, ApplicationContextAware, ServiceListener
+{
+    public static final long DEFAULT_REPLACEMENT_TIMEOUT = 30000;
+
+    //whether a restart is pending for a context, shared by all its static imports
+    private static final Map<ApplicationContext, AtomicBoolean> RESTARTS = Collections.synchronizedMap(new WeakHashMap<ApplicationContext, AtomicBoolean>());
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final BundleContext bundleContext;
+    private final Class<?> serviceInterface;
+    private String filter = "";
+    private long replacementTimeout = DEFAULT_REPLACEMENT_TIMEOUT;
+
+    private ApplicationContext applicationContext;
+    private ServiceReference<?> reference;
+    private Object service;
+    private volatile boolean destroyed;
+
+    public StaticServiceFactoryBean(BundleContext bundleContext, Class<?> serviceInterface)
+    {
+        this.bundleContext = bundleContext;
+        this.serviceInterface = serviceInterface;
+    }
+
+    public void setFilter(String filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * @param replacementTimeout how long to wait for a replacement service before refreshing the context, in milliseconds
+     */
+    public void setReplacementTimeout(long replacementTimeout)
+    {
+        this.replacementTimeout = replacementTimeout;
+    }
+
+    /**
+     * @return the filter matching the services which can be injected for the given interface and additional filter
+     */
+    public static String createFilter(Class<?> serviceInterface, String filter)
+    {
+        return createFilter(serviceInterface.getName(), filter);
+    }
+
+    static String createFilter(String serviceInterface, String filter)
+    {
+        String objectClass = "(" + Constants.OBJECTCLASS + "=" + serviceInterface + ")";
+        return StringUtils.isBlank(filter) ? objectClass : "(&" + objectClass + filter + ")";
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext)
+    {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws InvalidSyntaxException
+    {
+        ServiceReference<?>[] references = bundleContext.getServiceReferences(serviceInterface.getName(), StringUtils.isBlank(filter) ? null : filter);
+
+        if (null != references)
+        {
+            for (ServiceReference<?> candidate : references)
+            {
+                if (null == reference || candidate.compareTo(reference) > 0)
+                {
+                    reference = candidate;
+                }
+            }
+        }
+
+        service = (null == reference) ? null : bundleContext.getService(reference);
+        if (null == service)
+        {
+            throw new ServiceUnavailableException(createFilter(serviceInterface, filter));
+        }
+
+        //only listen for the one service we've got
+        bundleContext.addServiceListener(this, "(" + Constants.SERVICE_ID + "=" + reference.getProperty(Constants.SERVICE_ID) + ")");
+    }
+
+    @Override
+    public void destroy()
+    {
+        destroyed = true;
+        bundleContext.removeServiceListener(this);
+
+        if (null != reference)
+        {
+            try
+            {
+                bundleContext.ungetService(reference);
+            }
+            catch (IllegalStateException e)
+            {
+                //our bundle is already stopped
+            }
+        }
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event)
+    {
+        if (ServiceEvent.UNREGISTERING == event.getType() && !destroyed)
+        {
+            destroyed = true;
+            bundleContext.removeServiceListener(this);
+            refreshContext(event.getServiceReference().getProperty(Constants.SERVICE_ID));
+        }
+    }
+
+    /**
+     * refreshes the owning context once the service has gone and a replacement is there, unless the bundle or the
+     * framework are stopping, the context isn't up or another of its imports has already scheduled the refresh
+     */
+    private void refreshContext(Object serviceId)
+    {
+        if (!(applicationContext instanceof ConfigurableApplicationContext) || !isRunning())
+        {
+            return;
+        }
+
+        final ConfigurableApplicationContext context = (ConfigurableApplicationContext) applicationContext;
+        final AtomicBoolean restartPending = getRestartPending(context);
+        if (!isUp(context) || !restartPending.compareAndSet(false, true))
+        {
+            logger.debug("Service [" + serviceInterface.getName() + "] imported by [" + context.getDisplayName() + "] went away, the context is already being restarted or isn't up");
+            return;
+        }
+
+        final String replacementFilter = "(&" + createFilter(serviceInterface, filter) + "(!(" + Constants.SERVICE_ID + "=" + serviceId + ")))";
+        Thread refresher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                logger.info("Service [" + serviceInterface.getName() + "] imported by [" + context.getDisplayName() + "] went away, waiting for a replacement");
+
+                try
+                {
+                    if (!waitForReplacement(replacementFilter))
+                    {
+                        logger.warn("No replacement for service [" + serviceInterface.getName() + "] imported by [" + context.getDisplayName() + "] within "
+                                + replacementTimeout + "ms, the context waits for it while refreshing");
+                    }
+                    if (isRunning() && isUp(context))
+                    {
+                        context.refresh();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error("Cannot refresh [" + context.getDisplayName() + "] after service [" + serviceInterface.getName() + "] went away", e);
+                }
+                finally
+                {
+                    restartPending.set(false);
+                }
+            }
+        }, "static-import-refresh-" + bundleContext.getBundle().getSymbolicName());
+
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    private static AtomicBoolean getRestartPending(ApplicationContext context)
+    {
+        synchronized (RESTARTS)
+        {
+            AtomicBoolean restartPending = RESTARTS.get(context);
+            if (null == restartPending)
+            {
+                restartPending = new AtomicBoolean();
+                RESTARTS.put(context, restartPending);
+            }
+            return restartPending;
+        }
+    }
+
+    /**
+     * @return whether the context has finished refreshing and isn't closing: its lifecycle beans only run in between
+     */
+    private static boolean isUp(ConfigurableApplicationContext context)
+    {
+        try
+        {
+            return context.isActive() && context.isRunning();
+        }
+        catch (IllegalStateException e)
+        {
+            //the context has no lifecycle processor yet
+            return false;
+        }
+    }
+
+    /**
+     * @return whether a service matching the filter was registered before the replacement timeout passed
+     */
+    boolean waitForReplacement(String replacementFilter) throws InterruptedException
+    {
+        ServiceTracker<Object, Object> tracker;
+        try
+        {
+            tracker = new ServiceTracker<Object, Object>(bundleContext, bundleContext.createFilter(replacementFilter), null);
+        }
+        catch (InvalidSyntaxException e)
+        {
+            logger.error("Cannot wait for a replacement of service [" + serviceInterface.getName() + "]", e);
+            return false;
+        }
+
+        tracker.open();
+        try
+        {
+            return null != tracker.waitForService(replacementTimeout);
+        }
+        finally
+        {
+            try
+            {
+                tracker.close();
+            }
+            catch (IllegalStateException e)
+            {
+                //our bundle stopped while waiting
+            }
+        }
+    }
+
+    private boolean isRunning()
+    {
+        try
+        {
+            return Bundle.ACTIVE == bundleContext.getBundle().getState()
+                    && Bundle.ACTIVE == bundleContext.getBundle(Constants.SYSTEM_BUNDLE_LOCATION).getState();
+        }
+        catch (IllegalStateException e)
+        {
+            //our bundle is already stopped
+            return false;
+        }
+    }
+
+    @Override
+    public Object getObject()
+    {
+        return service;
+    }
+
+    @Override
+    public Class<?> getObjectType()
+    {
+        return serviceInterface;
+    }
+
+    @Override
+    public boolean isSingleton()
+    {
+        return true;
+    }
+}
@@ -1,18 +1,37 @@
 package com.example.osgi.spring.scanner.processor;
 
-import java.lang.annotation.Annotation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import org.apache.commons.lang.StringUtils;
 
 import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentConditions;
+import com.example.osgi.spring.scanner.util.ComponentDependencyGraph;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
 
 /**
  * Handles spring's @Component and our product specific *Component annotations and creates class index files for them.
@@ -26,40 +45,321 @@ import com.example.osgi.spring.scanner.util.ClassIndexFiles;
  * 
  * com.some.component.without.a.name.MyClass
  * com.some.component.with.a.name.MyClass#myBeanName
+ *
+ * Components whose constructor depends on other components of the bundle list the classes of those components:
+ *
+ * com.some.component.MyService##com.some.component.MyRepository,com.some.component.MyClient
+ *
+ * Components annotated with @Lazy(false) are flagged as eager:
+ *
+ * com.some.component.MyStartupTask###eager
+ *
+ * The @Profile and @ConditionalOnProperty conditions of components are listed in META-INF/plugin-components/conditions
+ * so the scanner can skip components which are switched off without loading their classes:
+ *
+ * com.some.component.MyDevTool##profile:dev|test,property:tools.enabled=true
+ * 
+ * When the osgi.scanner.registrar option is set (e.g. -Aosgi.scanner.registrar=com.some.plugin.ComponentRegistrar) a registrar
+ * class with that name is generated as well and listed in META-INF/plugin-components/registrar. The scanner then registers
+ * the components through the registrar instead of reading the index. The registrar source is generated at the end of the
+ * first round that finds components, so it is compiled in a later round like any other generated source. Components only
+ * found in later rounds, e.g. in sources generated by other processors, can't be added to it any more; the registrar is
+ * then left out of META-INF/plugin-components/registrar and the index is used.
  */
 @SupportedAnnotationTypes({"org.springframework.stereotype.Component", "javax.inject.Named", "com.atlassian.plugin.spring.scanner.annotation.component.*"})
+@SupportedOptions(ComponentAnnotationProcessor.REGISTRAR_OPTION)
 public class ComponentAnnotationProcessor extends IndexWritingAnnotationProcessor
 {
     public static final String SPRING_COMPONENT_ANNOTATION = "org.springframework.stereotype.Component";
+    public static final String REGISTRAR_OPTION = "osgi.scanner.registrar";
+    public static final String LAZY_ANNOTATION = "org.springframework.context.annotation.Lazy";
+    public static final String PROFILE_ANNOTATION = "org.springframework.context.annotation.Profile";
+    public static final String CONDITIONAL_ON_PROPERTY_ANNOTATION = "org.springframework.boot.autoconfigure.condition.ConditionalOnProperty";
+
+    private final Set<String> conditionEntries = new TreeSet<String>();
+    //the classes of the components in the generated registrar, null until it has been generated
+    private Set<String> registrarComponents;
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
     {
+        recordConditions(annotations, roundEnv);
         doProcess(annotations,roundEnv,ClassIndexFiles.COMPONENT_KEY);
+
+        if (!roundEnv.processingOver())
+        {
+            try
+            {
+                writeRegistrarSource();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
         
         return false;
     }
 
+    /**
+     * generates the registrar, if requested, for the components found so far.
+     * Sources generated in the last round aren't compiled, so this can't wait for the index to be written.
+     */
+    private void writeRegistrarSource() throws IOException
+    {
+        String registrarClassName = processingEnv.getOptions().get(REGISTRAR_OPTION);
+        Set<String> entries = getAnnotatedTypeMap().get(ClassIndexFiles.COMPONENT_KEY);
+        if (null != registrarComponents || StringUtils.isBlank(registrarClassName) || null == entries || entries.isEmpty())
+        {
+            return;
+        }
+
+        List<ComponentIndexEntry> indexEntries = parseEntries(resolveDependencies(entries));
+        new RegistrarSourceWriter(processingEnv).write(registrarClassName, new ComponentDependencyGraph(indexEntries).getOrderedComponents());
+        registrarComponents = getClassNames(indexEntries);
+    }
+
+    /**
+     * collects the conditions of the annotated classes of this round
+     */
+    private void recordConditions(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        for (TypeElement anno : annotations)
+        {
+            for (Element element : roundEnv.getElementsAnnotatedWith(anno))
+            {
+                if (!(element instanceof TypeElement))
+                {
+                    continue;
+                }
+
+                List<String> conditions = getConditions((TypeElement) element);
+                if (!conditions.isEmpty())
+                {
+                    String className = processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+                    conditionEntries.add(new ComponentIndexEntry(className, "", 0, conditions).toIndexLine());
+                }
+            }
+        }
+    }
+
+    /**
+     * reads the @Profile and @ConditionalOnProperty conditions of a class.
+     * Conditions which can't be written to the index, and properties which match if missing, are left out so the component
+     * is kept, as it would have been without the conditions index
+     */
+    private List<String> getConditions(TypeElement typeElement)
+    {
+        List<String> conditions = new ArrayList<String>();
+
+        for (AnnotationMirror annotation : typeElement.getAnnotationMirrors())
+        {
+            String annotationName = ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+
+            if (PROFILE_ANNOTATION.equals(annotationName))
+            {
+                List<String> profiles = getStringValues(annotation, "value");
+                if (!profiles.isEmpty())
+                {
+                    addCondition(conditions, ComponentConditions.profileCondition(profiles));
+                }
+            }
+            else if (CONDITIONAL_ON_PROPERTY_ANNOTATION.equals(annotationName) && !getBooleanValue(annotation, "matchIfMissing"))
+            {
+                String prefix = getStringValue(annotation, "prefix");
+                String havingValue = getStringValue(annotation, "havingValue");
+                List<String> names = getStringValues(annotation, "name");
+                names.addAll(getStringValues(annotation, "value"));
+
+                for (String name : names)
+                {
+                    addCondition(conditions, ComponentConditions.propertyCondition(prefix, name, havingValue));
+                }
+            }
+        }
+
+        return conditions;
+    }
+
+    private void addCondition(List<String> conditions, String condition)
+    {
+        if (!condition.contains(ComponentIndexEntry.SEPARATOR) && !condition.contains(ComponentIndexEntry.VALUE_SEPARATOR))
+        {
+            conditions.add(condition);
+        }
+    }
+
+    /**
+     * records the types of the parameters of the constructor Spring will use.
+     * These are resolved to the components they are satisfied by once all components are known, see writeIndexFiles
+     */
     @Override
-    public TypeAndAnnotation getTypeAndAnnotation(Element element, TypeElement anno)
+    protected List<String> getIndexValues(TypeAndAnnotation typeAndAnnotation)
     {
-        TypeElement typeElement = null;
-        Annotation annotation = null;
-        TypeAndAnnotation typeAndAnnotation = null;
-        Class componentAnnoClass;
-        try
+        ExecutableElement constructor = new RegistrarSourceWriter(processingEnv).findConstructor(typeAndAnnotation.getTypeElement());
+        if (null == constructor)
+        {
+            return Collections.emptyList();
+        }
+
+        List<String> parameterTypes = new ArrayList<String>();
+        for (VariableElement parameter : constructor.getParameters())
+        {
+            Element parameterType = processingEnv.getTypeUtils().asElement(processingEnv.getTypeUtils().erasure(parameter.asType()));
+            if (parameterType instanceof TypeElement)
+            {
+                parameterTypes.add(processingEnv.getElementUtils().getBinaryName((TypeElement) parameterType).toString());
+            }
+        }
+
+        return parameterTypes;
+    }
+
+    /**
+     * flags components which must be created eagerly, even if the bundle makes its components lazy by default
+     */
+    @Override
+    protected int getIndexFlags(TypeAndAnnotation typeAndAnnotation)
+    {
+        TypeElement lazyAnnotation = processingEnv.getElementUtils().getTypeElement(LAZY_ANNOTATION);
+        if (null == lazyAnnotation)
+        {
+            return 0;
+        }
+
+        AnnotationMirror lazy = getAnnotationMirror(typeAndAnnotation.getTypeElement(), lazyAnnotation);
+        return (null != lazy && !getBooleanValue(lazy, "value", true)) ? ComponentIndexEntry.FLAG_EAGER : 0;
+    }
+
+    /**
+     * replaces the constructor parameter types of every component with the components which can be injected for them
+     * before the index is written, so the index holds the dependency graph between the components of the bundle
+     */
+    @Override
+    protected void writeIndexFiles(String indexKey) throws IOException
+    {
+        for (Set<String> entries : getAnnotatedTypeMap().values())
+        {
+            Set<String> resolved = resolveDependencies(entries);
+            entries.clear();
+            entries.addAll(resolved);
+        }
+
+        super.writeIndexFiles(indexKey);
+    }
+
+    private Set<String> resolveDependencies(Set<String> entries)
+    {
+        Types types = processingEnv.getTypeUtils();
+
+        //elements from earlier rounds aren't reliable, so look everything up again
+        Map<ComponentIndexEntry, TypeMirror> components = new LinkedHashMap<ComponentIndexEntry, TypeMirror>();
+        for (String entry : entries)
+        {
+            ComponentIndexEntry component = ComponentIndexEntry.parse(entry);
+            TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(component.getClassName().replace('$', '.'));
+            components.put(component, (null == typeElement) ? null : types.erasure(typeElement.asType()));
+        }
+
+        Set<String> resolved = new TreeSet<String>();
+        for (ComponentIndexEntry component : components.keySet())
+        {
+            Set<String> dependencies = new TreeSet<String>();
+            for (String parameterTypeName : component.getValues())
+            {
+                TypeElement parameterType = processingEnv.getElementUtils().getTypeElement(parameterTypeName.replace('$', '.'));
+                if (null == parameterType)
+                {
+                    continue;
+                }
+
+                TypeMirror parameterMirror = types.erasure(parameterType.asType());
+                for (Map.Entry<ComponentIndexEntry, TypeMirror> candidate : components.entrySet())
+                {
+                    if (null != candidate.getValue() && candidate.getKey() != component && types.isAssignable(candidate.getValue(), parameterMirror))
+                    {
+                        dependencies.add(candidate.getKey().getClassName());
+                    }
+                }
+            }
+
+            resolved.add(new ComponentIndexEntry(component.getClassName(), component.getBeanName(), component.getFlags(),
+                    new ArrayList<String>(dependencies)).toIndexLine());
+        }
+
+        return resolved;
+    }
+
+    /**
+     * writes the conditions index and lists the registrar generated for the bundle, if it has all of its components,
+     * once the component index has been written
+     */
+    @Override
+    protected void indexFileWritten(Set<String> entries, String resourceName) throws IOException
+    {
+        if (!ClassIndexFiles.COMPONENT_INDEX_FILE.equals(resourceName))
+        {
+            return;
+        }
+
+        if (!conditionEntries.isEmpty())
+        {
+            writeIndexFile(conditionEntries, ClassIndexFiles.CONDITIONS_INDEX_FILE, processingEnv.getFiler());
+        }
+
+        String registrarClassName = processingEnv.getOptions().get(REGISTRAR_OPTION);
+        if (StringUtils.isBlank(registrarClassName) || null == registrarComponents)
+        {
+            return;
+        }
+
+        if (!registrarComponents.equals(getClassNames(parseEntries(entries))))
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Components were found after the registrar ["
+                    + registrarClassName + "] was generated, the component index is used instead of the registrar");
+            return;
+        }
+
+        FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ClassIndexFiles.REGISTRAR_FILE);
+        Writer writer = file.openWriter();
+        writer.write(registrarClassName);
+        writer.write("\n");
+        writer.close();
+    }
+
+    private List<ComponentIndexEntry> parseEntries(Set<String> entries)
+    {
+        List<ComponentIndexEntry> indexEntries = new ArrayList<ComponentIndexEntry>(entries.size());
+        for (String entry : entries)
         {
-            componentAnnoClass = Class.forName(anno.getQualifiedName().toString());
+            indexEntries.add(ComponentIndexEntry.parse(entry));
         }
-        catch (ClassNotFoundException e)
+
+        return indexEntries;
+    }
+
+    private Set<String> getClassNames(List<ComponentIndexEntry> indexEntries)
+    {
+        Set<String> classNames = new TreeSet<String>();
+        for (ComponentIndexEntry entry : indexEntries)
         {
-            return typeAndAnnotation;
+            classNames.add(entry.getClassName());
         }
 
+        return classNames;
+    }
+
+    @Override
+    public TypeAndAnnotation getTypeAndAnnotation(Element element, TypeElement anno)
+    {
+        TypeElement typeElement = null;
+        AnnotationMirror annotation = null;
+        TypeAndAnnotation typeAndAnnotation = null;
+
         if (element instanceof TypeElement)
         {
             typeElement = (TypeElement) element;
-            annotation = typeElement.getAnnotation(componentAnnoClass);
+            annotation = getAnnotationMirror(typeElement, anno);
 
             typeAndAnnotation = new TypeAndAnnotation(typeElement, annotation);
         }
@@ -69,7 +369,7 @@ public class ComponentAnnotationProcessor extends IndexWritingAnnotationProcesso
             if (ElementKind.PARAMETER.equals(variableElement.getKind()) && ElementKind.CONSTRUCTOR.equals(variableElement.getEnclosingElement().getKind()))
             {
                 typeElement = (TypeElement) processingEnv.getTypeUtils().asElement(variableElement.asType());
-                annotation = variableElement.getAnnotation(componentAnnoClass);
+                annotation = getAnnotationMirror(variableElement, anno);
                 typeAndAnnotation = new TypeAndAnnotation(typeElement, annotation);
             }
         }
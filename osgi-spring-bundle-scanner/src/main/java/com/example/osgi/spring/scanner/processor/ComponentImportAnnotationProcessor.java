@@ -1,16 +1,17 @@
 package com.example.osgi.spring.scanner.processor;
 
-import java.lang.annotation.Annotation;
 import java.util.Set;
 
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 
 import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
 
 /**
  * Handles *ComponentImport annotations and creates class index files for them.
@@ -24,8 +25,12 @@ import com.example.osgi.spring.scanner.util.ClassIndexFiles;
  *
  * com.some.component.without.a.name.MyClass
  * com.some.component.with.a.name.MyClass#myBeanName
+ *
+ * Imports which aren't dynamic are flagged as static:
+ *
+ * com.some.component.MyClass#myBeanName##static
  */
-@SupportedAnnotationTypes("com.atlassian.plugin.spring.scanner.annotation.imports.*")
+@SupportedAnnotationTypes({"com.example.osgi.spring.scanner.annotation.imports.*", "com.atlassian.plugin.spring.scanner.annotation.imports.*"})
 public class ComponentImportAnnotationProcessor extends IndexWritingAnnotationProcessor
 {
     @Override
@@ -41,17 +46,8 @@ public class ComponentImportAnnotationProcessor extends IndexWritingAnnotationPr
     public TypeAndAnnotation getTypeAndAnnotation(Element element, TypeElement anno)
     {
         TypeElement typeElement = null;
-        Annotation annotation = null;
+        AnnotationMirror annotation = null;
         TypeAndAnnotation typeAndAnnotation = null;
-        Class componentAnnoClass;
-        try
-        {
-            componentAnnoClass = Class.forName(anno.getQualifiedName().toString());
-        }
-        catch (ClassNotFoundException e)
-        {
-            return typeAndAnnotation;
-        }
 
         if (element instanceof VariableElement)
         {
@@ -59,7 +55,7 @@ public class ComponentImportAnnotationProcessor extends IndexWritingAnnotationPr
             if (ElementKind.PARAMETER.equals(variableElement.getKind()) && ElementKind.CONSTRUCTOR.equals(variableElement.getEnclosingElement().getKind()))
             {
                 typeElement = (TypeElement) processingEnv.getTypeUtils().asElement(variableElement.asType());
-                annotation = variableElement.getAnnotation(componentAnnoClass);
+                annotation = getAnnotationMirror(variableElement, anno);
                 typeAndAnnotation = new TypeAndAnnotation(typeElement, annotation);
             }
         }
@@ -67,4 +63,9 @@ public class ComponentImportAnnotationProcessor extends IndexWritingAnnotationPr
         return typeAndAnnotation;
     }
 
+    @Override
+    protected int getIndexFlags(TypeAndAnnotation typeAndAnnotation)
+    {
+        return getBooleanValue(typeAndAnnotation.getAnnotation(), "dynamic", true) ? 0 : ComponentIndexEntry.FLAG_STATIC;
+    }
 }
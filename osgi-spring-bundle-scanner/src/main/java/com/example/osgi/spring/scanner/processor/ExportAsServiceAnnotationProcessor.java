@@ -0,0 +1,107 @@
+package com.example.osgi.spring.scanner.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
+
+/**
+ * Handles the ExportAsService annotation and creates the exports index file for it.
+ * Exported services are listed in META-INF/plugin-components/exports
+ *
+ * Entries in this file are the fully qualified class name of the exported component followed by the interfaces it is
+ * exported as. These are the interfaces listed on the annotation or, if there are none, the interfaces implemented by the
+ * class itself, or the class if it doesn't implement any.
+ *
+ * Example:
+ *
+ * com.some.component.MyClass##com.some.api.MyService,com.some.api.MyOtherService
+ *
+ * Services exported lazily are flagged as such:
+ *
+ * com.some.component.MyLazyClass##com.some.api.MyService#lazy
+ */
+@SupportedAnnotationTypes("com.example.osgi.spring.scanner.annotation.export.ExportAsService")
+public class ExportAsServiceAnnotationProcessor extends IndexWritingAnnotationProcessor
+{
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        doProcess(annotations, roundEnv, ClassIndexFiles.EXPORTS_KEY);
+
+        return false;
+    }
+
+    @Override
+    public TypeAndAnnotation getTypeAndAnnotation(Element element, TypeElement anno)
+    {
+        if (element instanceof TypeElement)
+        {
+            return new TypeAndAnnotation((TypeElement) element, getAnnotationMirror(element, anno));
+        }
+
+        return null;
+    }
+
+    @Override
+    protected int getIndexFlags(TypeAndAnnotation typeAndAnnotation)
+    {
+        return getBooleanValue(typeAndAnnotation.getAnnotation(), "lazy") ? ComponentIndexEntry.FLAG_LAZY : 0;
+    }
+
+    /**
+     * resolves the interfaces the service is exported as, the same way the ServiceExporterBeanPostProcessor does at runtime
+     */
+    @Override
+    protected List<String> getIndexValues(TypeAndAnnotation typeAndAnnotation)
+    {
+        List<String> interfaces = new ArrayList<String>();
+
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : typeAndAnnotation.getAnnotation().getElementValues().entrySet())
+        {
+            if (value.getKey().getSimpleName().contentEquals("value") && value.getValue().getValue() instanceof List)
+            {
+                for (Object interfaceValue : (List<?>) value.getValue().getValue())
+                {
+                    addBinaryName(interfaces, (TypeMirror) ((AnnotationValue) interfaceValue).getValue());
+                }
+            }
+        }
+
+        if (interfaces.isEmpty())
+        {
+            for (TypeMirror interfaceType : typeAndAnnotation.getTypeElement().getInterfaces())
+            {
+                addBinaryName(interfaces, interfaceType);
+            }
+        }
+
+        if (interfaces.isEmpty())
+        {
+            addBinaryName(interfaces, typeAndAnnotation.getTypeElement().asType());
+        }
+
+        return interfaces;
+    }
+
+    private void addBinaryName(List<String> names, TypeMirror type)
+    {
+        Element element = processingEnv.getTypeUtils().asElement(processingEnv.getTypeUtils().erasure(type));
+        if (element instanceof TypeElement)
+        {
+            names.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+        }
+    }
+}
@@ -1,38 +1,42 @@
 package com.example.osgi.spring.scanner.processor;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.tools.FileObject;
 import javax.tools.StandardLocation;
 
-import org.apache.commons.lang.StringUtils;
-
+import com.example.osgi.spring.scanner.util.BinaryComponentIndex;
 import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
 
 /**
- * The base class for all processors that need to write class index files
+ * The base class for all processors that need to write class index files.
+ *
+ * Processors only work on annotation mirrors and always write the complete, sorted index for the sources being compiled,
+ * so they are registered as aggregating incremental processors for Gradle (see META-INF/gradle/incremental.annotation.processors).
  */
 public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor implements Processor
 {
-    private Map<String, Set<String>> annotatedTypeMap = new HashMap<String, Set<String>>();
+    private Map<String, Set<String>> annotatedTypeMap = new TreeMap<String, Set<String>>();
     
     @Override
     public SourceVersion getSupportedSourceVersion()
@@ -56,48 +60,16 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
                         continue;
                     }
 
-                    //get the lower-case name of the product from the annotation
-                    String lowerFilterName = indexKey;
-
                     //get the bean name specififed on the annotation (as it's value) if any
-                    String nameFromAnnotation = "";
-                    try
-                    {
-                        Annotation componentAnno = typeAndAnnotation.getAnnotation();
-                        Method valueMethod = componentAnno.getClass().getDeclaredMethod("value");
-                        nameFromAnnotation = (String) valueMethod.invoke(componentAnno);
-                    }
-                    catch (NoSuchMethodException e)
-                    {
-                        //ignore
-                    }
-                    catch (InvocationTargetException e)
-                    {
-                        //ignore
-                    }
-                    catch (IllegalAccessException e)
-                    {
-                        //ignore
-                    }
-
-                    //Build the string to put in the index file. Always starts with fully qualified classname
-                    StringBuilder sb = new StringBuilder(typeAndAnnotation.getTypeElement().getQualifiedName().toString());
-
-                    //if we have a custom bean name, tack it on
-                    if (StringUtils.isNotBlank(nameFromAnnotation))
-                    {
-                        sb.append("#").append(nameFromAnnotation);
-                    }
+                    String nameFromAnnotation = getStringValue(typeAndAnnotation.getAnnotation(), "value");
 
-                    String typeName = sb.toString();
-                    
-                    //get the proper list to add our type to based on product name (or cross-product)
-                    Set<String> typeNames = getAnnotatedTypeNames(lowerFilterName);
+                    //Build the string to put in the index file. Always starts with the binary classname so it can be loaded,
+                    //followed by the custom bean name and any additional values if we have them
+                    String className = processingEnv.getElementUtils().getBinaryName(typeAndAnnotation.getTypeElement()).toString();
+                    String typeName = new ComponentIndexEntry(className, nameFromAnnotation, getIndexFlags(typeAndAnnotation), getIndexValues(typeAndAnnotation)).toIndexLine();
 
-                    if (!typeNames.contains(typeName))
-                    {
-                        typeNames.add(typeName);
-                    }
+                    //add our type to the entries of the index being written
+                    getAnnotatedTypeNames(indexKey).add(typeName);
                 }
             }
 
@@ -125,42 +97,143 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
     public abstract TypeAndAnnotation getTypeAndAnnotation(Element element, TypeElement anno);
 
     /**
-     * Reads an existing index file (if any) and adds it's entries to the passed in set
+     * Returns the additional values to store with the index entry of an annotated type. None by default.
+     * @param typeAndAnnotation
+     * @return
      */
-    protected void readOldIndexFile(Set<String> entries, String resourceName, Filer filer) throws IOException
+    protected List<String> getIndexValues(TypeAndAnnotation typeAndAnnotation)
     {
-        BufferedReader reader = null;
-        try
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the flags to store with the index entry of an annotated type. None by default.
+     * @param typeAndAnnotation
+     * @return
+     */
+    protected int getIndexFlags(TypeAndAnnotation typeAndAnnotation)
+    {
+        return 0;
+    }
+
+    /**
+     * Finds the mirror of the given annotation type on an element
+     * @param element
+     * @param anno
+     * @return the annotation mirror or null if the element isn't annotated with it
+     */
+    protected AnnotationMirror getAnnotationMirror(Element element, TypeElement anno)
+    {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors())
         {
-            FileObject resource = filer.getResource(StandardLocation.CLASS_OUTPUT, "", resourceName);
-            Reader resourceReader = resource.openReader(true);
-            reader = new BufferedReader(resourceReader);
+            if (processingEnv.getTypeUtils().isSameType(annotation.getAnnotationType(), anno.asType()))
+            {
+                return annotation;
+            }
+        }
+
+        return null;
+    }
 
-            String line = reader.readLine();
-            while (line != null)
+    /**
+     * Reads an explicitly set String member of an annotation
+     * @param annotation
+     * @param name
+     * @return the value, or an empty string if it isn't set or isn't a String
+     */
+    protected String getStringValue(AnnotationMirror annotation, String name)
+    {
+        if (null == annotation)
+        {
+            return "";
+        }
+
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet())
+        {
+            if (value.getKey().getSimpleName().contentEquals(name) && value.getValue().getValue() instanceof String)
             {
-                entries.add(line);
-                line = reader.readLine();
+                return (String) value.getValue().getValue();
             }
         }
-        catch (FileNotFoundException e)
+
+        return "";
+    }
+
+    /**
+     * Reads an explicitly set String or String[] member of an annotation
+     * @param annotation
+     * @param name
+     * @return the values, or an empty list if it isn't set
+     */
+    protected List<String> getStringValues(AnnotationMirror annotation, String name)
+    {
+        List<String> values = new ArrayList<String>();
+        if (null == annotation)
         {
+            return values;
         }
-        catch (IOException e)
+
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet())
         {
-            // Thrown by Eclipse JDT when not found
+            if (!value.getKey().getSimpleName().contentEquals(name))
+            {
+                continue;
+            }
+
+            Object member = value.getValue().getValue();
+            if (member instanceof String)
+            {
+                values.add((String) member);
+            }
+            else if (member instanceof List)
+            {
+                for (Object element : (List<?>) member)
+                {
+                    if (((AnnotationValue) element).getValue() instanceof String)
+                    {
+                        values.add((String) ((AnnotationValue) element).getValue());
+                    }
+                }
+            }
         }
-        catch (UnsupportedOperationException e)
+
+        return values;
+    }
+
+    /**
+     * Reads an explicitly set boolean member of an annotation
+     * @param annotation
+     * @param name
+     * @return the value, or false if it isn't set
+     */
+    protected boolean getBooleanValue(AnnotationMirror annotation, String name)
+    {
+        return getBooleanValue(annotation, name, false);
+    }
+
+    /**
+     * Reads an explicitly set boolean member of an annotation
+     * @param annotation
+     * @param name
+     * @param defaultValue
+     * @return the value, or the default value if it isn't set
+     */
+    protected boolean getBooleanValue(AnnotationMirror annotation, String name, boolean defaultValue)
+    {
+        if (null == annotation)
         {
-            // Java6 does not support reading old index files
+            return defaultValue;
         }
-        finally
+
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet())
         {
-            if (reader != null)
+            if (value.getKey().getSimpleName().contentEquals(name) && value.getValue().getValue() instanceof Boolean)
             {
-                reader.close();
+                return (Boolean) value.getValue().getValue();
             }
         }
+
+        return defaultValue;
     }
 
     /**
@@ -181,7 +254,7 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
     {
         if (!getAnnotatedTypeMap().containsKey(lowerFilterName))
         {
-            getAnnotatedTypeMap().put(lowerFilterName, new HashSet<String>());
+            getAnnotatedTypeMap().put(lowerFilterName, new TreeSet<String>());
         }
 
         return getAnnotatedTypeMap().get(lowerFilterName);
@@ -211,7 +284,8 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
     }
 
     /**
-     * writes out a single index file
+     * writes out a single index file, along with its binary counterpart.
+     * Entries are sorted so the output only depends on the sources and stays build-cache friendly.
      * @param elementNameList
      * @param resourceName
      * @param filer
@@ -220,14 +294,12 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
     protected void writeIndexFile(Iterable<String> elementNameList, String resourceName, Filer filer)
             throws IOException
     {
-        Set<String> entries = new HashSet<String>();
+        Set<String> entries = new TreeSet<String>();
         for (String elementName : elementNameList)
         {
             entries.add(elementName);
         }
 
-        readOldIndexFile(entries, resourceName, filer);
-
         FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resourceName);
         Writer writer = file.openWriter();
         for (String entry : entries)
@@ -236,6 +308,47 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
             writer.write("\n");
         }
         writer.close();
+
+        writeBinaryIndexFile(entries, resourceName, filer);
+        indexFileWritten(entries, resourceName);
+    }
+
+    /**
+     * called after an index file has been written with the complete set of entries it contains.
+     * Subclasses can override this to generate additional output from the index.
+     * @param entries
+     * @param resourceName
+     * @throws IOException
+     */
+    protected void indexFileWritten(Set<String> entries, String resourceName) throws IOException
+    {
+    }
+
+    /**
+     * writes out the binary form of an index file next to the text file
+     * @param entries
+     * @param resourceName the name of the text index file
+     * @param filer
+     * @throws IOException
+     */
+    protected void writeBinaryIndexFile(Set<String> entries, String resourceName, Filer filer) throws IOException
+    {
+        List<ComponentIndexEntry> indexEntries = new ArrayList<ComponentIndexEntry>(entries.size());
+        for (String entry : entries)
+        {
+            indexEntries.add(ComponentIndexEntry.parse(entry));
+        }
+
+        FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resourceName + ClassIndexFiles.BINARY_INDEX_SUFFIX);
+        OutputStream out = file.openOutputStream();
+        try
+        {
+            BinaryComponentIndex.write(indexEntries, out);
+        }
+        finally
+        {
+            out.close();
+        }
     }
 
     /**
@@ -244,9 +357,9 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
     protected class TypeAndAnnotation
     {
         private final TypeElement typeElement;
-        private final Annotation annotation;
+        private final AnnotationMirror annotation;
 
-        protected TypeAndAnnotation(TypeElement typeElement, Annotation annotation)
+        protected TypeAndAnnotation(TypeElement typeElement, AnnotationMirror annotation)
         {
             this.typeElement = typeElement;
             this.annotation = annotation;
@@ -257,7 +370,7 @@ public abstract class IndexWritingAnnotationProcessor extends AbstractProcessor
             return typeElement;
         }
 
-        public Annotation getAnnotation()
+        public AnnotationMirror getAnnotation()
         {
             return annotation;
         }
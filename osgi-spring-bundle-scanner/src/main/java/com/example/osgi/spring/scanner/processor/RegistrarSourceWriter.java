@@ -0,0 +1,302 @@
+package com.example.osgi.spring.scanner.processor;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.JavaFileObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
+
+/**
+ * Generates the source of an IndexedComponentRegistrar for the components of a bundle.
+ *
+ * For every component the generated registrar creates a RootBeanDefinition with the scope, lazy and primary settings
+ * taken from the annotations on the class. The definitions name their class rather than refer to it, so the component
+ * classes are only loaded when the beans are created. When the constructor Spring would pick can be called directly
+ * (public class, public constructor, plain non-generic parameter types) an instance supplier is generated as well, so
+ * Spring doesn't have to pick the constructor reflectively. Its arguments are still resolved by the bean factory, see
+ * RegistrarDependencyResolver. Anything else is left to Spring's normal constructor resolution.
+ */
+public class RegistrarSourceWriter
+{
+    private static final String SCOPE_ANNOTATION = "org.springframework.context.annotation.Scope";
+    private static final String LAZY_ANNOTATION = "org.springframework.context.annotation.Lazy";
+    private static final String PRIMARY_ANNOTATION = "org.springframework.context.annotation.Primary";
+    private static final String VALUE_ANNOTATION = "org.springframework.beans.factory.annotation.Value";
+    private static final String AUTOWIRED_ANNOTATION = "org.springframework.beans.factory.annotation.Autowired";
+    private static final String INJECT_ANNOTATION = "javax.inject.Inject";
+    private static final String DEPENDENCY_RESOLVER = "com.example.osgi.spring.scanner.extension.RegistrarDependencyResolver";
+
+    private final ProcessingEnvironment processingEnv;
+    private int resolvers;
+
+    public RegistrarSourceWriter(ProcessingEnvironment processingEnv)
+    {
+        this.processingEnv = processingEnv;
+    }
+
+    /**
+     * writes the registrar source for the given index entries
+     * @param registrarClassName the fully qualified name of the registrar to generate
+     * @param entries
+     * @throws IOException
+     */
+    public void write(String registrarClassName, Iterable<ComponentIndexEntry> entries) throws IOException
+    {
+        String packageName = StringUtils.substringBeforeLast(registrarClassName, ".");
+        String simpleName = StringUtils.substringAfterLast(registrarClassName, ".");
+        if (!registrarClassName.contains("."))
+        {
+            packageName = "";
+            simpleName = registrarClassName;
+        }
+
+        JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(registrarClassName);
+        Writer writer = sourceFile.openWriter();
+        try
+        {
+            if (packageName.length() > 0)
+            {
+                writer.write("package " + packageName + ";\n\n");
+            }
+
+            writer.write("import java.util.LinkedHashMap;\n");
+            writer.write("import java.util.Map;\n\n");
+            writer.write("import org.springframework.beans.factory.BeanFactory;\n");
+            writer.write("import org.springframework.beans.factory.config.BeanDefinition;\n");
+            writer.write("import org.springframework.beans.factory.support.RootBeanDefinition;\n\n");
+            writer.write("/**\n * Generated by the osgi-spring-bundle-scanner ComponentAnnotationProcessor. Do not edit.\n */\n");
+            writer.write("public final class " + simpleName + " implements com.example.osgi.spring.scanner.extension.IndexedComponentRegistrar\n{\n");
+            writer.write("    @Override\n");
+            writer.write("    public Map<String, BeanDefinition> getCandidateComponents(final BeanFactory beanFactory)\n    {\n");
+            writer.write("        Map<String, BeanDefinition> candidates = new LinkedHashMap<String, BeanDefinition>();\n");
+            writer.write("        RootBeanDefinition definition;\n");
+
+            for (ComponentIndexEntry entry : entries)
+            {
+                TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(entry.getClassName().replace('$', '.'));
+                if (null != typeElement)
+                {
+                    writeDefinition(writer, typeElement, entry);
+                }
+            }
+
+            writer.write("\n        return candidates;\n    }\n}\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private void writeDefinition(Writer writer, TypeElement typeElement, ComponentIndexEntry entry) throws IOException
+    {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(typeElement).toString();
+        String beanName = entry.hasBeanName() ? entry.getBeanName() : Introspector.decapitalize(StringUtils.substringAfterLast("." + binaryName, ".").replace('$', '.'));
+
+        writer.write("\n");
+        writer.write("        definition = new RootBeanDefinition(\"" + binaryName + "\");\n");
+        if (isAccessible(typeElement))
+        {
+            writeInstanceSupplier(writer, typeElement, beanName);
+        }
+
+        AnnotationMirror scope = findAnnotation(typeElement, SCOPE_ANNOTATION);
+        if (null != scope)
+        {
+            String scopeName = getStringValue(scope, "value");
+            if (StringUtils.isBlank(scopeName))
+            {
+                scopeName = getStringValue(scope, "scopeName");
+            }
+            if (StringUtils.isNotBlank(scopeName))
+            {
+                writer.write("        definition.setScope(\"" + scopeName + "\");\n");
+            }
+        }
+
+        AnnotationMirror lazy = findAnnotation(typeElement, LAZY_ANNOTATION);
+        if (null != lazy)
+        {
+            Object lazyValue = getValue(lazy, "value");
+            writer.write("        definition.setLazyInit(" + (null == lazyValue || Boolean.TRUE.equals(lazyValue)) + ");\n");
+        }
+
+        if (null != findAnnotation(typeElement, PRIMARY_ANNOTATION))
+        {
+            writer.write("        definition.setPrimary(true);\n");
+        }
+
+        writer.write("        candidates.put(\"" + beanName + "\", definition);\n");
+    }
+
+    /**
+     * writes a lambda creating the component as the instance supplier of the definition, unless Spring should resolve
+     * the constructor. The component and argument classes are only referred to inside the lambda.
+     */
+    private void writeInstanceSupplier(Writer writer, TypeElement typeElement, String beanName) throws IOException
+    {
+        ExecutableElement constructor = findConstructor(typeElement);
+        if (null == constructor || !constructor.getModifiers().contains(Modifier.PUBLIC) || !constructor.getThrownTypes().isEmpty())
+        {
+            return;
+        }
+
+        String className = typeElement.getQualifiedName().toString();
+        List<String> parameterTypes = new ArrayList<String>();
+        List<String> arguments = new ArrayList<String>();
+        for (VariableElement parameter : constructor.getParameters())
+        {
+            String parameterType = getParameterType(parameter);
+            if (null == parameterType)
+            {
+                return;
+            }
+            arguments.add("(" + parameterType + ") arguments[" + parameterTypes.size() + "]");
+            parameterTypes.add(parameterType + ".class");
+        }
+
+        if (parameterTypes.isEmpty())
+        {
+            writer.write("        definition.setInstanceSupplier(() -> new " + className + "());\n");
+            return;
+        }
+
+        // one resolver per component, it keeps the constructor parameters between creations
+        String resolver = "resolver" + (++resolvers);
+        writer.write("        final " + DEPENDENCY_RESOLVER + " " + resolver + " = new " + DEPENDENCY_RESOLVER + "(\"" + beanName + "\");\n");
+        writer.write("        definition.setInstanceSupplier(() ->\n        {\n"
+                + "            Object[] arguments = " + resolver + ".resolveConstructorArguments(beanFactory, "
+                + className + ".class, " + StringUtils.join(parameterTypes, ", ") + ");\n"
+                + "            return new " + className + "(" + StringUtils.join(arguments, ", ") + ");\n"
+                + "        });\n");
+    }
+
+    /**
+     * picks the constructor the same way Spring would for an annotation-driven component
+     */
+    ExecutableElement findConstructor(TypeElement typeElement)
+    {
+        List<ExecutableElement> constructors = new ArrayList<ExecutableElement>();
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements()))
+        {
+            if (!constructor.getModifiers().contains(Modifier.PRIVATE))
+            {
+                constructors.add(constructor);
+            }
+        }
+
+        if (constructors.size() == 1)
+        {
+            return constructors.get(0);
+        }
+
+        ExecutableElement defaultConstructor = null;
+        for (ExecutableElement constructor : constructors)
+        {
+            if (null != findAnnotation(constructor, AUTOWIRED_ANNOTATION) || null != findAnnotation(constructor, INJECT_ANNOTATION))
+            {
+                return constructor;
+            }
+            if (constructor.getParameters().isEmpty())
+            {
+                defaultConstructor = constructor;
+            }
+        }
+
+        return defaultConstructor;
+    }
+
+    /**
+     * gets the name the generated source refers to the type of a constructor parameter with, or returns null if the
+     * argument needs Spring's constructor resolution
+     */
+    private String getParameterType(VariableElement parameter)
+    {
+        TypeMirror type = parameter.asType();
+        if (type.getKind() != TypeKind.DECLARED || !((DeclaredType) type).getTypeArguments().isEmpty()
+                || null != findAnnotation(parameter, VALUE_ANNOTATION))
+        {
+            return null;
+        }
+
+        TypeElement parameterType = (TypeElement) ((DeclaredType) type).asElement();
+        return isAccessible(parameterType) ? parameterType.getQualifiedName().toString() : null;
+    }
+
+    /**
+     * checks if the generated registrar can refer to the type directly
+     */
+    private boolean isAccessible(TypeElement typeElement)
+    {
+        Element current = typeElement;
+        while (current instanceof TypeElement)
+        {
+            if (!current.getModifiers().contains(Modifier.PUBLIC))
+            {
+                return false;
+            }
+            if (((TypeElement) current).getNestingKind() == NestingKind.MEMBER && !current.getModifiers().contains(Modifier.STATIC)
+                    && current.getKind() == ElementKind.CLASS)
+            {
+                return false;
+            }
+            current = current.getEnclosingElement();
+        }
+
+        return true;
+    }
+
+    private AnnotationMirror findAnnotation(Element element, String annotationName)
+    {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors())
+        {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName))
+            {
+                return annotation;
+            }
+        }
+
+        return null;
+    }
+
+    private Object getValue(AnnotationMirror annotation, String name)
+    {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet())
+        {
+            if (value.getKey().getSimpleName().contentEquals(name))
+            {
+                return value.getValue().getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private String getStringValue(AnnotationMirror annotation, String name)
+    {
+        Object value = getValue(annotation, name);
+
+        return (null == value) ? "" : value.toString();
+    }
+}
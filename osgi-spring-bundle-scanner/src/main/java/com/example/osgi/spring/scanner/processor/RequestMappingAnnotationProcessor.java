@@ -0,0 +1,191 @@
+package com.example.osgi.spring.scanner.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.RequestMappingEntry;
+
+/**
+ * Handles Spring MVC's @RequestMapping and its composed @GetMapping, @PostMapping... annotations on controller methods
+ * and creates the request mappings index for them, so the routes of a bundle can be registered without looking for
+ * handler methods by reflection.
+ * Mappings are listed in META-INF/plugin-components/mappings
+ *
+ * Entries in this file are the fully qualified class name of the controller followed by the handler method and the
+ * mapping attributes of the method and its class, see {@link RequestMappingEntry}.
+ *
+ * Example:
+ *
+ * com.some.web.ItemController##handler:get(long),path:/{id},method:GET,type.path:/items
+ */
+@SupportedAnnotationTypes({"org.springframework.web.bind.annotation.RequestMapping", "org.springframework.web.bind.annotation.GetMapping",
+        "org.springframework.web.bind.annotation.PostMapping", "org.springframework.web.bind.annotation.PutMapping",
+        "org.springframework.web.bind.annotation.DeleteMapping", "org.springframework.web.bind.annotation.PatchMapping"})
+public class RequestMappingAnnotationProcessor extends IndexWritingAnnotationProcessor
+{
+    public static final String REQUEST_MAPPING_ANNOTATION = "org.springframework.web.bind.annotation.RequestMapping";
+
+    private static final String[] STRING_ATTRIBUTES = {RequestMappingEntry.PARAMS, RequestMappingEntry.HEADERS,
+            RequestMappingEntry.CONSUMES, RequestMappingEntry.PRODUCES};
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        doProcess(annotations, roundEnv, ClassIndexFiles.MAPPINGS_KEY);
+
+        return false;
+    }
+
+    /**
+     * only handler methods are indexed, the mapping of their class is added to each of them
+     */
+    @Override
+    public TypeAndAnnotation getTypeAndAnnotation(Element element, TypeElement anno)
+    {
+        if (element instanceof ExecutableElement && element.getEnclosingElement() instanceof TypeElement)
+        {
+            return new HandlerMethod((TypeElement) element.getEnclosingElement(), getAnnotationMirror(element, anno), (ExecutableElement) element);
+        }
+
+        return null;
+    }
+
+    @Override
+    protected List<String> getIndexValues(TypeAndAnnotation typeAndAnnotation)
+    {
+        HandlerMethod handlerMethod = (HandlerMethod) typeAndAnnotation;
+        List<String> values = new ArrayList<String>();
+
+        List<String> parameterTypes = new ArrayList<String>();
+        for (VariableElement parameter : handlerMethod.getMethod().getParameters())
+        {
+            parameterTypes.add(getTypeName(parameter.asType()));
+        }
+        values.add(RequestMappingEntry.handlerValue(handlerMethod.getMethod().getSimpleName().toString(), parameterTypes));
+
+        addMappingValues(values, handlerMethod.getAnnotation(), "");
+
+        TypeElement requestMapping = processingEnv.getElementUtils().getTypeElement(REQUEST_MAPPING_ANNOTATION);
+        AnnotationMirror typeMapping = (null == requestMapping) ? null : getAnnotationMirror(handlerMethod.getTypeElement(), requestMapping);
+        if (null != typeMapping)
+        {
+            addMappingValues(values, typeMapping, RequestMappingEntry.TYPE_PREFIX);
+        }
+
+        return values;
+    }
+
+    /**
+     * adds the paths, request methods and string attributes of a mapping. The composed annotations imply their request method.
+     */
+    private void addMappingValues(List<String> values, AnnotationMirror mapping, String prefix)
+    {
+        List<String> paths = getStringValues(mapping, "path");
+        paths.addAll(getStringValues(mapping, "value"));
+        for (String path : paths)
+        {
+            values.add(RequestMappingEntry.attributeValue(prefix + RequestMappingEntry.PATH, path));
+        }
+
+        String annotationName = mapping.getAnnotationType().asElement().getSimpleName().toString();
+        if (annotationName.endsWith("Mapping") && !REQUEST_MAPPING_ANNOTATION.endsWith("." + annotationName))
+        {
+            String requestMethod = annotationName.substring(0, annotationName.length() - "Mapping".length()).toUpperCase();
+            values.add(RequestMappingEntry.attributeValue(prefix + RequestMappingEntry.METHOD, requestMethod));
+        }
+        else
+        {
+            for (String requestMethod : getEnumValues(mapping, "method"))
+            {
+                values.add(RequestMappingEntry.attributeValue(prefix + RequestMappingEntry.METHOD, requestMethod));
+            }
+        }
+
+        for (String attribute : STRING_ATTRIBUTES)
+        {
+            for (String value : getStringValues(mapping, attribute))
+            {
+                values.add(RequestMappingEntry.attributeValue(prefix + attribute, value));
+            }
+        }
+    }
+
+    private List<String> getEnumValues(AnnotationMirror annotation, String name)
+    {
+        List<String> values = new ArrayList<String>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet())
+        {
+            if (!value.getKey().getSimpleName().contentEquals(name))
+            {
+                continue;
+            }
+
+            Object member = value.getValue().getValue();
+            List<?> elements = (member instanceof List) ? (List<?>) member : java.util.Collections.singletonList(value.getValue());
+            for (Object element : elements)
+            {
+                Object constant = ((AnnotationValue) element).getValue();
+                if (constant instanceof VariableElement)
+                {
+                    values.add(((VariableElement) constant).getSimpleName().toString());
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * the name of a parameter type as ClassUtils.forName understands it
+     */
+    private String getTypeName(TypeMirror type)
+    {
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+        if (erasure.getKind() == TypeKind.ARRAY)
+        {
+            return getTypeName(((ArrayType) erasure).getComponentType()) + "[]";
+        }
+
+        Element element = processingEnv.getTypeUtils().asElement(erasure);
+        if (element instanceof TypeElement)
+        {
+            return processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+        }
+
+        return erasure.toString();
+    }
+
+    /**
+     * the controller class and mapping of a handler method, along with the method itself
+     */
+    private class HandlerMethod extends TypeAndAnnotation
+    {
+        private final ExecutableElement method;
+
+        private HandlerMethod(TypeElement typeElement, AnnotationMirror annotation, ExecutableElement method)
+        {
+            super(typeElement, annotation);
+            this.method = method;
+        }
+
+        private ExecutableElement getMethod()
+        {
+            return method;
+        }
+    }
+}
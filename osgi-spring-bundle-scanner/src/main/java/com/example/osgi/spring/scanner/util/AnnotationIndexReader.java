@@ -82,6 +82,64 @@ public class AnnotationIndexReader
         return entries;
     }
 
+    /**
+     * reads the entries of an index from a bundle, preferring the binary index and falling back to the text index
+     * @param resourceFile the text index file
+     * @param bundle
+     * @return
+     */
+    public static List<ComponentIndexEntry> readIndexEntries(String resourceFile, Bundle bundle)
+    {
+        return readIndexEntries(bundle.getResource(resourceFile + ClassIndexFiles.BINARY_INDEX_SUFFIX), bundle.getResource(resourceFile));
+    }
+
+    /**
+     * reads the entries of an index from a classloader, preferring the binary index and falling back to the text index
+     * @param resourceFile the text index file
+     * @param classLoader
+     * @return
+     */
+    public static List<ComponentIndexEntry> readIndexEntries(String resourceFile, ClassLoader classLoader)
+    {
+        return readIndexEntries(classLoader.getResource(resourceFile + ClassIndexFiles.BINARY_INDEX_SUFFIX), classLoader.getResource(resourceFile));
+    }
+
+    /**
+     * reads the binary index if there is one in a format we understand, otherwise the text index
+     * @param binaryUrl
+     * @param textUrl
+     * @return
+     */
+    public static List<ComponentIndexEntry> readIndexEntries(URL binaryUrl, URL textUrl)
+    {
+        if (null != binaryUrl)
+        {
+            try
+            {
+                List<ComponentIndexEntry> entries = BinaryComponentIndex.read(binaryUrl);
+                if (null != entries)
+                {
+                    return entries;
+                }
+            }
+            catch (IOException e)
+            {
+                //fall back to the text index
+            }
+        }
+
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        for (String line : readIndexFile(textUrl))
+        {
+            if (line.trim().length() > 0)
+            {
+                entries.add(ComponentIndexEntry.parse(line));
+            }
+        }
+
+        return entries;
+    }
+
     public static List<String> readIndexFile(URL url)
     {
         List<String> resources = new ArrayList<String>();
@@ -0,0 +1,336 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary form of a class index file.
+ *
+ * The binary index is written by the annotation processors next to the text index (with the
+ * {@link ClassIndexFiles#BINARY_INDEX_SUFFIX} suffix) and is laid out as follows:
+ *
+ * <pre>
+ * int    magic ("PCIX")
+ * int    format version
+ * int    string count
+ * int    record count
+ * int    value list count (version 2)
+ * int[]  absolute offset of every string in the string table
+ * int[]  absolute offset of every value list (version 2)
+ * record[] fixed-width records: int classNameIndex, int beanNameIndex (-1 if none), int flags,
+ *          int valueListIndex (-1 if none, version 2)
+ * value lists: int length followed by the string index of every value (version 2)
+ * string table: unsigned short byte length followed by the UTF-8 bytes of the string
+ * </pre>
+ *
+ * Version 1 indexes (without value lists) can still be read.
+ *
+ * Index files found on the file system are memory-mapped, anything else (e.g. entries inside a bundle jar) is read
+ * into a single buffer. Strings are decoded straight from that buffer without any line parsing.
+ */
+public class BinaryComponentIndex
+{
+    public static final int MAGIC = 0x50434958;
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE_V1 = 16;
+    private static final int RECORD_SIZE_V1 = 12;
+    private static final int HEADER_SIZE = 20;
+    private static final int RECORD_SIZE = 16;
+    private static final int NONE = -1;
+
+    /**
+     * writes the given entries in the binary index format
+     * @param entries
+     * @param out
+     * @throws IOException
+     */
+    public static void write(Collection<ComponentIndexEntry> entries, OutputStream out) throws IOException
+    {
+        Map<String, Integer> stringIndexes = new LinkedHashMap<String, Integer>();
+        List<List<String>> valueLists = new ArrayList<List<String>>();
+        for (ComponentIndexEntry entry : entries)
+        {
+            addString(stringIndexes, entry.getClassName());
+            if (entry.hasBeanName())
+            {
+                addString(stringIndexes, entry.getBeanName());
+            }
+            if (entry.hasValues())
+            {
+                for (String value : entry.getValues())
+                {
+                    addString(stringIndexes, value);
+                }
+                valueLists.add(entry.getValues());
+            }
+        }
+
+        List<byte[]> encodedStrings = new ArrayList<byte[]>(stringIndexes.size());
+        for (String value : stringIndexes.keySet())
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF)
+            {
+                throw new IOException("Index entry is too long to be written to a binary index [" + value + "]");
+            }
+            encodedStrings.add(bytes);
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(buffer);
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(encodedStrings.size());
+        data.writeInt(entries.size());
+        data.writeInt(valueLists.size());
+
+        int offset = HEADER_SIZE + (encodedStrings.size() * 4) + (valueLists.size() * 4) + (entries.size() * RECORD_SIZE);
+        int stringsStart = offset;
+        for (List<String> values : valueLists)
+        {
+            stringsStart += 4 + (values.size() * 4);
+        }
+
+        int stringOffset = stringsStart;
+        for (byte[] bytes : encodedStrings)
+        {
+            data.writeInt(stringOffset);
+            stringOffset += 2 + bytes.length;
+        }
+
+        for (List<String> values : valueLists)
+        {
+            data.writeInt(offset);
+            offset += 4 + (values.size() * 4);
+        }
+
+        int valueListIndex = 0;
+        for (ComponentIndexEntry entry : entries)
+        {
+            data.writeInt(stringIndexes.get(entry.getClassName()));
+            data.writeInt(entry.hasBeanName() ? stringIndexes.get(entry.getBeanName()) : NONE);
+            data.writeInt(entry.getFlags());
+            data.writeInt(entry.hasValues() ? valueListIndex++ : NONE);
+        }
+
+        for (List<String> values : valueLists)
+        {
+            data.writeInt(values.size());
+            for (String value : values)
+            {
+                data.writeInt(stringIndexes.get(value));
+            }
+        }
+
+        for (byte[] bytes : encodedStrings)
+        {
+            data.writeShort(bytes.length);
+            data.write(bytes);
+        }
+
+        data.flush();
+        buffer.writeTo(out);
+    }
+
+    /**
+     * reads the binary index at the given url.
+     * @param url
+     * @return the entries, or null if the url doesn't point to a binary index this version can read
+     * @throws IOException
+     */
+    public static List<ComponentIndexEntry> read(URL url) throws IOException
+    {
+        return read(openBuffer(url));
+    }
+
+    /**
+     * reads the entries from a buffer containing a binary index.
+     * Every count, index and offset is checked against the buffer, so a truncated or corrupt index is rejected rather
+     * than failing halfway through.
+     * @param buffer
+     * @return the entries, or null if the buffer doesn't contain a complete binary index this version can read
+     */
+    public static List<ComponentIndexEntry> read(ByteBuffer buffer)
+    {
+        if (buffer.limit() < HEADER_SIZE_V1 || buffer.getInt(0) != MAGIC)
+        {
+            return null;
+        }
+
+        int version = buffer.getInt(4);
+        if ((version != 1 && version != VERSION) || (version == VERSION && buffer.limit() < HEADER_SIZE))
+        {
+            return null;
+        }
+
+        int stringCount = buffer.getInt(8);
+        int recordCount = buffer.getInt(12);
+        int listCount = (version == 1) ? 0 : buffer.getInt(16);
+        int headerSize = (version == 1) ? HEADER_SIZE_V1 : HEADER_SIZE;
+        int recordSize = (version == 1) ? RECORD_SIZE_V1 : RECORD_SIZE;
+
+        //the offset tables and the records must fit, which also keeps the counts from being used to size anything huge
+        if (stringCount < 0 || recordCount < 0 || listCount < 0
+                || headerSize + (4L * stringCount) + (4L * listCount) + ((long) recordSize * recordCount) > buffer.limit())
+        {
+            return null;
+        }
+
+        int listOffsetsStart = headerSize + (stringCount * 4);
+        int recordsStart = listOffsetsStart + (listCount * 4);
+
+        String[] strings = new String[stringCount];
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>(recordCount);
+
+        try
+        {
+            for (int i = 0; i < recordCount; i++)
+            {
+                int record = recordsStart + (i * recordSize);
+                String className = getString(buffer, headerSize, strings, buffer.getInt(record));
+                String beanName = getString(buffer, headerSize, strings, buffer.getInt(record + 4));
+                int flags = buffer.getInt(record + 8);
+
+                List<String> values = Collections.emptyList();
+                int valueList = (version == 1) ? NONE : buffer.getInt(record + 12);
+                if (NONE != valueList)
+                {
+                    checkIndex(valueList, listCount);
+                    int listOffset = buffer.getInt(listOffsetsStart + (valueList * 4));
+                    int length = buffer.getInt(listOffset);
+                    checkRange(buffer, listOffset + 4L, 4L * length);
+
+                    values = new ArrayList<String>(length);
+                    for (int v = 0; v < length; v++)
+                    {
+                        values.add(getString(buffer, headerSize, strings, buffer.getInt(listOffset + 4 + (v * 4))));
+                    }
+                }
+
+                entries.add(new ComponentIndexEntry(className, beanName, flags, values));
+            }
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            //truncated or corrupt
+            return null;
+        }
+
+        return entries;
+    }
+
+    private static void addString(Map<String, Integer> stringIndexes, String value)
+    {
+        if (!stringIndexes.containsKey(value))
+        {
+            stringIndexes.put(value, stringIndexes.size());
+        }
+    }
+
+    /**
+     * decodes a string from the string table, caching it so shared strings are only decoded once
+     */
+    private static String getString(ByteBuffer buffer, int headerSize, String[] strings, int index)
+    {
+        if (NONE == index)
+        {
+            return "";
+        }
+
+        checkIndex(index, strings.length);
+        if (null == strings[index])
+        {
+            int offset = buffer.getInt(headerSize + (index * 4));
+            int length = buffer.getShort(offset) & 0xFFFF;
+            checkRange(buffer, offset + 2L, length);
+
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + 2);
+            view.get(bytes);
+
+            strings[index] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return strings[index];
+    }
+
+    private static void checkIndex(int index, int count)
+    {
+        if (index < 0 || index >= count)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + count);
+        }
+    }
+
+    private static void checkRange(ByteBuffer buffer, long offset, long length)
+    {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit())
+        {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " outside of " + buffer.limit() + " bytes");
+        }
+    }
+
+    /**
+     * memory-maps file urls, reads anything else fully into a heap buffer
+     */
+    private static ByteBuffer openBuffer(URL url) throws IOException
+    {
+        if ("file".equals(url.getProtocol()))
+        {
+            try
+            {
+                FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ);
+                try
+                {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                finally
+                {
+                    channel.close();
+                }
+            }
+            catch (URISyntaxException e)
+            {
+                //fall through and read it as a stream
+            }
+        }
+
+        InputStream in = url.openStream();
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read = in.read(chunk);
+            while (read != -1)
+            {
+                out.write(chunk, 0, read);
+                read = in.read(chunk);
+            }
+
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * An immutable, in-memory view of the class index files of a single bundle revision.
+ */
+public class BundleComponentIndex
+{
+    private final long bundleId;
+    private final BundleRevision revision;
+    private final List<ComponentIndexEntry> components;
+    private final List<ComponentIndexEntry> imports;
+    private final Map<String, List<String>> exports;
+    private final Set<String> lazyExports;
+    private final Map<String, List<String>> conditions;
+    private final boolean exportsIndexed;
+
+    /**
+     * @param exportsIndexed true if the exports are known for every class of the bundle, rather than only for the
+     * classes listed in an exports index which may not be there
+     */
+    public BundleComponentIndex(long bundleId, BundleRevision revision, List<ComponentIndexEntry> components, List<ComponentIndexEntry> imports,
+            List<ComponentIndexEntry> exports, List<ComponentIndexEntry> conditions, boolean exportsIndexed)
+    {
+        this.bundleId = bundleId;
+        this.revision = revision;
+        this.exportsIndexed = exportsIndexed;
+        this.components = Collections.unmodifiableList(components);
+        this.imports = Collections.unmodifiableList(imports);
+
+        Map<String, List<String>> exportedInterfaces = new HashMap<String, List<String>>();
+        Set<String> lazyExportedClasses = new HashSet<String>();
+        for (ComponentIndexEntry export : exports)
+        {
+            exportedInterfaces.put(export.getClassName(), export.getValues());
+            if (export.hasFlag(ComponentIndexEntry.FLAG_LAZY))
+            {
+                lazyExportedClasses.add(export.getClassName());
+            }
+        }
+        this.exports = Collections.unmodifiableMap(exportedInterfaces);
+        this.lazyExports = Collections.unmodifiableSet(lazyExportedClasses);
+
+        Map<String, List<String>> componentConditions = new HashMap<String, List<String>>();
+        for (ComponentIndexEntry condition : conditions)
+        {
+            componentConditions.put(condition.getClassName(), condition.getValues());
+        }
+        this.conditions = Collections.unmodifiableMap(componentConditions);
+    }
+
+    /**
+     * reads the index files of the current revision of a bundle.
+     * Uses the bundle entries directly so the bundle's classloader doesn't need to be created.
+     * @param bundle
+     * @return
+     */
+    public static BundleComponentIndex read(Bundle bundle)
+    {
+        List<ComponentIndexEntry> components = AnnotationIndexReader.readIndexEntries(
+                bundle.getEntry(ClassIndexFiles.COMPONENT_INDEX_FILE + ClassIndexFiles.BINARY_INDEX_SUFFIX),
+                bundle.getEntry(ClassIndexFiles.COMPONENT_INDEX_FILE));
+
+        List<ComponentIndexEntry> imports = AnnotationIndexReader.readIndexEntries(
+                bundle.getEntry(ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE + ClassIndexFiles.BINARY_INDEX_SUFFIX),
+                bundle.getEntry(ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE));
+
+        URL exportsBinaryUrl = bundle.getEntry(ClassIndexFiles.EXPORTS_INDEX_FILE + ClassIndexFiles.BINARY_INDEX_SUFFIX);
+        URL exportsTextUrl = bundle.getEntry(ClassIndexFiles.EXPORTS_INDEX_FILE);
+        List<ComponentIndexEntry> exports = AnnotationIndexReader.readIndexEntries(exportsBinaryUrl, exportsTextUrl);
+
+        List<ComponentIndexEntry> conditions = AnnotationIndexReader.readIndexEntries(
+                bundle.getEntry(ClassIndexFiles.CONDITIONS_INDEX_FILE + ClassIndexFiles.BINARY_INDEX_SUFFIX),
+                bundle.getEntry(ClassIndexFiles.CONDITIONS_INDEX_FILE));
+
+        return new BundleComponentIndex(bundle.getBundleId(), bundle.adapt(BundleRevision.class), components, imports, exports, conditions,
+                null != exportsBinaryUrl || null != exportsTextUrl);
+    }
+
+    /**
+     * gets the index of the bundle owning the given context, from the ComponentIndexRegistry service if it is available
+     * or by reading the index files otherwise
+     * @param bundleContext
+     * @return
+     */
+    public static BundleComponentIndex forBundle(BundleContext bundleContext)
+    {
+        Bundle bundle = bundleContext.getBundle();
+        ServiceReference<ComponentIndexRegistry> reference = bundleContext.getServiceReference(ComponentIndexRegistry.class);
+
+        if (null != reference)
+        {
+            ComponentIndexRegistry registry = bundleContext.getService(reference);
+            try
+            {
+                if (null != registry)
+                {
+                    return registry.getIndex(bundle);
+                }
+            }
+            finally
+            {
+                bundleContext.ungetService(reference);
+            }
+        }
+
+        return read(bundle);
+    }
+
+    public long getBundleId()
+    {
+        return bundleId;
+    }
+
+    /**
+     * @return the bundle revision the index was read from
+     */
+    public BundleRevision getRevision()
+    {
+        return revision;
+    }
+
+    public List<ComponentIndexEntry> getComponents()
+    {
+        return components;
+    }
+
+    public List<ComponentIndexEntry> getImports()
+    {
+        return imports;
+    }
+
+    /**
+     * @return a map of the class names of the components exported as OSGi services -> the interfaces they are exported as
+     */
+    public Map<String, List<String>> getExports()
+    {
+        return exports;
+    }
+
+    /**
+     * @return the class names of the components exported as lazy OSGi services
+     */
+    public Set<String> getLazyExports()
+    {
+        return lazyExports;
+    }
+
+    /**
+     * @return a map of the class names of the components with profile or property conditions -> their conditions
+     */
+    public Map<String, List<String>> getConditions()
+    {
+        return conditions;
+    }
+
+    /**
+     * @return true if the bundle was compiled with the scanner's annotation processors
+     */
+    public boolean isIndexed()
+    {
+        return hasComponents() || hasImports() || hasExports();
+    }
+
+    /**
+     * The exports index is only written for bundles with exported services, so a bundle compiled with an older scanner,
+     * or without any exports, has a component index but no exports index.
+     * @return true if the exports index can be trusted to list every exported class of the bundle
+     */
+    public boolean isExportsIndexed()
+    {
+        return exportsIndexed;
+    }
+
+    public boolean hasExports()
+    {
+        return !exports.isEmpty();
+    }
+
+    public boolean hasComponents()
+    {
+        return !components.isEmpty();
+    }
+
+    public boolean hasImports()
+    {
+        return !imports.isEmpty();
+    }
+}
@@ -0,0 +1,606 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.*;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.springframework.asm.AnnotationVisitor;
+import org.springframework.asm.ClassReader;
+import org.springframework.asm.ClassVisitor;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.SpringAsmInfo;
+import org.springframework.asm.Type;
+
+import com.example.osgi.spring.scanner.annotation.export.ExportAsService;
+import com.example.osgi.spring.scanner.annotation.imports.ComponentImport;
+
+/**
+ * Builds the index of a bundle which wasn't compiled with the scanner's annotation processors, e.g. a third-party jar,
+ * by reading its class files with ASM. The classes aren't loaded.
+ * <p/>
+ * Only bundles listing the packages to scan in the Spring-Scanner-Scan-Packages manifest header are scanned, sub-packages
+ * included. Classes on an embedded Bundle-ClassPath aren't found.
+ * <p/>
+ * The index is the one the processors would have written, except that components are recognised by Spring's stereotype
+ * annotations and @Named only: custom stereotypes, which would need their meta-annotations loaded, aren't.
+ */
+public class BytecodeComponentScanner
+{
+    public static final String SCAN_PACKAGES_HEADER = "Spring-Scanner-Scan-Packages";
+
+    private static final Set<String> COMPONENT_ANNOTATIONS = descriptors(
+            "org.springframework.stereotype.Component",
+            "org.springframework.stereotype.Service",
+            "org.springframework.stereotype.Repository",
+            "org.springframework.stereotype.Controller",
+            "org.springframework.web.bind.annotation.RestController",
+            "org.springframework.context.annotation.Configuration",
+            "javax.inject.Named");
+    private static final Set<String> AUTOWIRE_ANNOTATIONS = descriptors(
+            "org.springframework.beans.factory.annotation.Autowired",
+            "javax.inject.Inject");
+    private static final Set<String> IMPORT_ANNOTATIONS = descriptors(
+            ComponentImport.class.getName(),
+            "com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport");
+    private static final String EXPORT_ANNOTATION = Type.getDescriptor(ExportAsService.class);
+    private static final String LAZY_ANNOTATION = descriptor("org.springframework.context.annotation.Lazy");
+    private static final String PROFILE_ANNOTATION = descriptor("org.springframework.context.annotation.Profile");
+    private static final String CONDITIONAL_ON_PROPERTY_ANNOTATION = descriptor("org.springframework.boot.autoconfigure.condition.ConditionalOnProperty");
+
+    private static final int NOT_CONCRETE = Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ENUM;
+    private static final int READ_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private static final Log log = LogFactory.getLog(BytecodeComponentScanner.class);
+
+    /**
+     * @param bundle
+     * @return the packages listed in the Spring-Scanner-Scan-Packages header of the bundle, empty if it hasn't got one
+     */
+    public static List<String> getScanPackages(Bundle bundle)
+    {
+        List<String> packages = new ArrayList<String>();
+        String header = bundle.getHeaders().get(SCAN_PACKAGES_HEADER);
+        if (StringUtils.isNotBlank(header))
+        {
+            for (String scanPackage : StringUtils.split(header, ", "))
+            {
+                packages.add(scanPackage.trim());
+            }
+        }
+
+        return packages;
+    }
+
+    /**
+     * reads the class files of the given packages and builds the index of the current revision of the bundle from them
+     * @param bundle
+     * @param packages
+     * @return
+     */
+    public BundleComponentIndex scan(Bundle bundle, List<String> packages)
+    {
+        Map<String, ScannedClass> classes = new TreeMap<String, ScannedClass>();
+        for (String scanPackage : packages)
+        {
+            Enumeration<URL> classFiles = bundle.findEntries(scanPackage.replace('.', '/'), "*.class", true);
+            while (null != classFiles && classFiles.hasMoreElements())
+            {
+                ScannedClass scannedClass = read(classFiles.nextElement());
+                if (null != scannedClass)
+                {
+                    classes.put(scannedClass.className, scannedClass);
+                }
+            }
+        }
+
+        Set<String> components = new TreeSet<String>();
+        Set<String> imports = new TreeSet<String>();
+        Set<String> exports = new TreeSet<String>();
+        Set<String> conditions = new TreeSet<String>();
+
+        for (ScannedClass scannedClass : classes.values())
+        {
+            imports.addAll(scannedClass.getImportLines());
+
+            if (null != scannedClass.export)
+            {
+                exports.add(scannedClass.getExportLine());
+            }
+
+            if (null != scannedClass.component)
+            {
+                List<String> componentConditions = scannedClass.getConditions();
+                if (!componentConditions.isEmpty())
+                {
+                    conditions.add(new ComponentIndexEntry(scannedClass.className, "", 0, componentConditions).toIndexLine());
+                }
+
+                if (scannedClass.isConcrete())
+                {
+                    components.add(new ComponentIndexEntry(scannedClass.className, scannedClass.component.getString("value"),
+                            scannedClass.getFlags(), getDependencies(scannedClass, classes)).toIndexLine());
+                }
+            }
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Scanned " + classes.size() + " classes of bundle [" + bundle.getSymbolicName() + "], found " + components.size()
+                    + " components, " + imports.size() + " imports and " + exports.size() + " exports");
+        }
+
+        return new BundleComponentIndex(bundle.getBundleId(), bundle.adapt(BundleRevision.class), parse(components), parse(imports),
+                parse(exports), parse(conditions), true);
+    }
+
+    private ScannedClass read(URL classFile)
+    {
+        try
+        {
+            InputStream in = classFile.openStream();
+            try
+            {
+                ScannedClass scannedClass = new ScannedClass();
+                new ClassReader(in).accept(scannedClass, READ_FLAGS);
+                return scannedClass;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Cannot read class file [" + classFile + "], skipping it", e);
+        }
+        catch (IllegalArgumentException e)
+        {
+            //the class file version is newer than ASM understands
+            log.warn("Cannot parse class file [" + classFile + "], skipping it", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * resolves the constructor parameter types of a component to the scanned components which can be injected for them.
+     * Assignability is only known through the scanned classes, as nothing is loaded.
+     */
+    private static List<String> getDependencies(ScannedClass component, Map<String, ScannedClass> classes)
+    {
+        ScannedConstructor constructor = component.findConstructor();
+        if (null == constructor)
+        {
+            return Collections.emptyList();
+        }
+
+        Set<String> dependencies = new TreeSet<String>();
+        for (String parameterType : constructor.getParameterClassNames())
+        {
+            for (ScannedClass candidate : classes.values())
+            {
+                if (candidate != component && null != candidate.component && candidate.isConcrete()
+                        && getSuperTypes(candidate, classes).contains(parameterType))
+                {
+                    dependencies.add(candidate.className);
+                }
+            }
+        }
+
+        return new ArrayList<String>(dependencies);
+    }
+
+    private static Set<String> getSuperTypes(ScannedClass scannedClass, Map<String, ScannedClass> classes)
+    {
+        Set<String> superTypes = new HashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.add(scannedClass.className);
+
+        while (!pending.isEmpty())
+        {
+            String typeName = pending.poll();
+            if (!superTypes.add(typeName))
+            {
+                continue;
+            }
+
+            ScannedClass type = classes.get(typeName);
+            if (null != type)
+            {
+                if (null != type.superName)
+                {
+                    pending.add(type.superName);
+                }
+                pending.addAll(type.interfaces);
+            }
+        }
+
+        return superTypes;
+    }
+
+    private static List<ComponentIndexEntry> parse(Set<String> lines)
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>(lines.size());
+        for (String line : lines)
+        {
+            entries.add(ComponentIndexEntry.parse(line));
+        }
+
+        return entries;
+    }
+
+    private static Set<String> descriptors(String... classNames)
+    {
+        Set<String> descriptors = new HashSet<String>();
+        for (String className : classNames)
+        {
+            descriptors.add(descriptor(className));
+        }
+
+        return descriptors;
+    }
+
+    private static String descriptor(String className)
+    {
+        return "L" + className.replace('.', '/') + ";";
+    }
+
+    /**
+     * The annotations and constructors of a class file
+     */
+    private static class ScannedClass extends ClassVisitor
+    {
+        private String internalName;
+        private String className;
+        private String superName;
+        private List<String> interfaces = new ArrayList<String>();
+        private int access;
+        private boolean innerClass;
+        private AnnotationValues component;
+        private AnnotationValues lazy;
+        private AnnotationValues export;
+        private AnnotationValues profile;
+        private AnnotationValues conditionalOnProperty;
+        private final List<ScannedConstructor> constructors = new ArrayList<ScannedConstructor>();
+
+        private ScannedClass()
+        {
+            super(SpringAsmInfo.ASM_VERSION);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            this.internalName = name;
+            this.className = Type.getObjectType(name).getClassName();
+            this.superName = (null == superName) ? null : Type.getObjectType(superName).getClassName();
+            this.access = access;
+
+            if (null != interfaces)
+            {
+                for (String interfaceName : interfaces)
+                {
+                    this.interfaces.add(Type.getObjectType(interfaceName).getClassName());
+                }
+            }
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access)
+        {
+            //inner classes and local/anonymous classes can't be created on their own
+            if (name.equals(internalName) && (null == outerName || (access & Opcodes.ACC_STATIC) == 0))
+            {
+                innerClass = true;
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible)
+        {
+            if (COMPONENT_ANNOTATIONS.contains(descriptor) && null == component)
+            {
+                component = new AnnotationValues();
+                return component;
+            }
+            if (LAZY_ANNOTATION.equals(descriptor))
+            {
+                lazy = new AnnotationValues();
+                return lazy;
+            }
+            if (EXPORT_ANNOTATION.equals(descriptor))
+            {
+                export = new AnnotationValues();
+                return export;
+            }
+            if (PROFILE_ANNOTATION.equals(descriptor))
+            {
+                profile = new AnnotationValues();
+                return profile;
+            }
+            if (CONDITIONAL_ON_PROPERTY_ANNOTATION.equals(descriptor))
+            {
+                conditionalOnProperty = new AnnotationValues();
+                return conditionalOnProperty;
+            }
+
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            if (!"<init>".equals(name) || (access & Opcodes.ACC_SYNTHETIC) != 0)
+            {
+                return null;
+            }
+
+            ScannedConstructor constructor = new ScannedConstructor(access, descriptor);
+            constructors.add(constructor);
+            return constructor;
+        }
+
+        private boolean isConcrete()
+        {
+            return (access & NOT_CONCRETE) == 0 && !innerClass;
+        }
+
+        /**
+         * picks the constructor the same way Spring would for an annotation-driven component
+         */
+        private ScannedConstructor findConstructor()
+        {
+            List<ScannedConstructor> candidates = new ArrayList<ScannedConstructor>();
+            for (ScannedConstructor constructor : constructors)
+            {
+                if ((constructor.access & Opcodes.ACC_PRIVATE) == 0)
+                {
+                    candidates.add(constructor);
+                }
+            }
+
+            if (candidates.size() == 1)
+            {
+                return candidates.get(0);
+            }
+
+            ScannedConstructor defaultConstructor = null;
+            for (ScannedConstructor constructor : candidates)
+            {
+                if (constructor.autowired)
+                {
+                    return constructor;
+                }
+                if (constructor.parameterTypes.length == 0)
+                {
+                    defaultConstructor = constructor;
+                }
+            }
+
+            return defaultConstructor;
+        }
+
+        private int getFlags()
+        {
+            return (null != lazy && !lazy.getBoolean("value", true)) ? ComponentIndexEntry.FLAG_EAGER : 0;
+        }
+
+        private List<String> getImportLines()
+        {
+            List<String> lines = new ArrayList<String>();
+            for (ScannedConstructor constructor : constructors)
+            {
+                for (Map.Entry<Integer, AnnotationValues> parameterImport : constructor.imports.entrySet())
+                {
+                    Type parameterType = constructor.parameterTypes[parameterImport.getKey()];
+                    if (parameterType.getSort() == Type.OBJECT)
+                    {
+                        AnnotationValues values = parameterImport.getValue();
+                        lines.add(new ComponentIndexEntry(parameterType.getClassName(), values.getString("value"),
+                                values.getBoolean("dynamic", true) ? 0 : ComponentIndexEntry.FLAG_STATIC).toIndexLine());
+                    }
+                }
+            }
+
+            return lines;
+        }
+
+        /**
+         * the interfaces listed on @ExportAsService or, if there are none, the interfaces of the class, or the class itself
+         */
+        private String getExportLine()
+        {
+            List<String> exportedInterfaces = new ArrayList<String>();
+            for (Object value : export.getValues("value"))
+            {
+                if (value instanceof Type)
+                {
+                    exportedInterfaces.add(((Type) value).getClassName());
+                }
+            }
+
+            if (exportedInterfaces.isEmpty())
+            {
+                exportedInterfaces.addAll(interfaces);
+            }
+
+            if (exportedInterfaces.isEmpty())
+            {
+                exportedInterfaces.add(className);
+            }
+
+            return new ComponentIndexEntry(className, "", export.getBoolean("lazy", false) ? ComponentIndexEntry.FLAG_LAZY : 0,
+                    exportedInterfaces).toIndexLine();
+        }
+
+        /**
+         * the @Profile and @ConditionalOnProperty conditions, left out the same way the ComponentAnnotationProcessor does
+         */
+        private List<String> getConditions()
+        {
+            List<String> conditions = new ArrayList<String>();
+
+            if (null != profile && !profile.getStrings("value").isEmpty())
+            {
+                addCondition(conditions, ComponentConditions.profileCondition(profile.getStrings("value")));
+            }
+
+            if (null != conditionalOnProperty && !conditionalOnProperty.getBoolean("matchIfMissing", false))
+            {
+                List<String> names = conditionalOnProperty.getStrings("name");
+                names.addAll(conditionalOnProperty.getStrings("value"));
+
+                for (String name : names)
+                {
+                    addCondition(conditions, ComponentConditions.propertyCondition(conditionalOnProperty.getString("prefix"), name,
+                            conditionalOnProperty.getString("havingValue")));
+                }
+            }
+
+            return conditions;
+        }
+
+        private void addCondition(List<String> conditions, String condition)
+        {
+            if (!condition.contains(ComponentIndexEntry.SEPARATOR) && !condition.contains(ComponentIndexEntry.VALUE_SEPARATOR))
+            {
+                conditions.add(condition);
+            }
+        }
+    }
+
+    /**
+     * The parameter types and annotations of a constructor
+     */
+    private static class ScannedConstructor extends MethodVisitor
+    {
+        private final int access;
+        private final Type[] parameterTypes;
+        private boolean autowired;
+        private final Map<Integer, AnnotationValues> imports = new TreeMap<Integer, AnnotationValues>();
+
+        private ScannedConstructor(int access, String descriptor)
+        {
+            super(SpringAsmInfo.ASM_VERSION);
+            this.access = access;
+            this.parameterTypes = Type.getArgumentTypes(descriptor);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible)
+        {
+            if (AUTOWIRE_ANNOTATIONS.contains(descriptor))
+            {
+                autowired = true;
+            }
+
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible)
+        {
+            if (IMPORT_ANNOTATIONS.contains(descriptor) && parameter < parameterTypes.length)
+            {
+                AnnotationValues values = new AnnotationValues();
+                imports.put(parameter, values);
+                return values;
+            }
+
+            return null;
+        }
+
+        private List<String> getParameterClassNames()
+        {
+            List<String> classNames = new ArrayList<String>();
+            for (Type parameterType : parameterTypes)
+            {
+                if (parameterType.getSort() == Type.OBJECT)
+                {
+                    classNames.add(parameterType.getClassName());
+                }
+            }
+
+            return classNames;
+        }
+    }
+
+    /**
+     * The values set on an annotation. Defaults aren't in the class file, so they are supplied when reading a value.
+     */
+    private static class AnnotationValues extends AnnotationVisitor
+    {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        private AnnotationValues()
+        {
+            super(SpringAsmInfo.ASM_VERSION);
+        }
+
+        @Override
+        public void visit(String name, Object value)
+        {
+            values.put(name, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name)
+        {
+            final List<Object> elements = new ArrayList<Object>();
+            values.put(name, elements);
+
+            return new AnnotationVisitor(SpringAsmInfo.ASM_VERSION)
+            {
+                @Override
+                public void visit(String name, Object value)
+                {
+                    elements.add(value);
+                }
+            };
+        }
+
+        private String getString(String name)
+        {
+            Object value = values.get(name);
+            return (value instanceof String) ? (String) value : "";
+        }
+
+        private boolean getBoolean(String name, boolean defaultValue)
+        {
+            Object value = values.get(name);
+            return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+        }
+
+        private List<Object> getValues(String name)
+        {
+            Object value = values.get(name);
+            if (value instanceof List)
+            {
+                return new ArrayList<Object>((List<?>) value);
+            }
+
+            return (null == value) ? new ArrayList<Object>() : new ArrayList<Object>(Collections.singletonList(value));
+        }
+
+        private List<String> getStrings(String name)
+        {
+            List<String> strings = new ArrayList<String>();
+            for (Object value : getValues(name))
+            {
+                if (value instanceof String)
+                {
+                    strings.add((String) value);
+                }
+            }
+
+            return strings;
+        }
+    }
+}
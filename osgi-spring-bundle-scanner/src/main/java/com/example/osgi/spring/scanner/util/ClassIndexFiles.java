@@ -3,10 +3,24 @@ package com.example.osgi.spring.scanner.util;
 public class ClassIndexFiles
 {
     public static final String INDEX_FILES_DIR = "META-INF/plugin-components";
+
+    public static final String BINARY_INDEX_SUFFIX = ".idx";
     
     public static final String COMPONENT_KEY = "component";
     public static final String COMPONENT_INDEX_FILE = INDEX_FILES_DIR + "/" + COMPONENT_KEY;
 
     public static final String COMPONENT_IMPORT_KEY = "imports";
     public static final String COMPONENT_IMPORT_INDEX_FILE = INDEX_FILES_DIR + "/" + COMPONENT_IMPORT_KEY;
+
+    public static final String EXPORTS_KEY = "exports";
+    public static final String EXPORTS_INDEX_FILE = INDEX_FILES_DIR + "/" + EXPORTS_KEY;
+
+    public static final String CONDITIONS_KEY = "conditions";
+    public static final String CONDITIONS_INDEX_FILE = INDEX_FILES_DIR + "/" + CONDITIONS_KEY;
+
+    public static final String MAPPINGS_KEY = "mappings";
+    public static final String MAPPINGS_INDEX_FILE = INDEX_FILES_DIR + "/" + MAPPINGS_KEY;
+
+    public static final String REGISTRAR_KEY = "registrar";
+    public static final String REGISTRAR_FILE = INDEX_FILES_DIR + "/" + REGISTRAR_KEY;
 }
@@ -0,0 +1,101 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Loads indexed classes in the background so that class loading, linking and verification overlap with the
+ * rest of the context creation instead of happening one class at a time during the refresh.
+ * <p/>
+ * All bundles share one small fork-join pool of daemon threads. Preloading is best effort: classes that can't be
+ * loaded are skipped and will fail, if at all, when the context actually needs them.
+ */
+public class ClassPreloader
+{
+    private static final Log log = LogFactory.getLog(ClassPreloader.class);
+
+    private static final int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int BATCH_SIZE = 16;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+    {
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+        {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("osgi-scanner-preload-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, null, true);
+
+    /**
+     * starts loading the given classes and returns immediately
+     * @param classNames
+     * @param classLoader
+     */
+    public static void preload(Collection<String> classNames, ClassLoader classLoader)
+    {
+        if (null == classLoader || classNames.isEmpty())
+        {
+            return;
+        }
+
+        POOL.execute(new PreloadAction(new ArrayList<String>(classNames), classLoader));
+    }
+
+    /**
+     * loads its classes itself when there are only a few, otherwise splits them in two
+     */
+    private static class PreloadAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> classNames;
+        private final ClassLoader classLoader;
+
+        private PreloadAction(List<String> classNames, ClassLoader classLoader)
+        {
+            this.classNames = classNames;
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (classNames.size() > BATCH_SIZE)
+            {
+                int middle = classNames.size() / 2;
+                invokeAll(new PreloadAction(classNames.subList(0, middle), classLoader),
+                        new PreloadAction(classNames.subList(middle, classNames.size()), classLoader));
+                return;
+            }
+
+            for (String className : classNames)
+            {
+                try
+                {
+                    Class.forName(className, false, classLoader);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    log.debug("Cannot preload class [" + className + "]");
+                }
+                catch (LinkageError e)
+                {
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Cannot preload class [" + className + "]: " + e);
+                    }
+                }
+            }
+        }
+    }
+}
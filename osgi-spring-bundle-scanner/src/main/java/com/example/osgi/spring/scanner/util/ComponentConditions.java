@@ -0,0 +1,94 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.core.env.Environment;
+
+/**
+ * Evaluates the component conditions recorded in the conditions index against the environment of a context.
+ * <p/>
+ * A condition is either a profile condition, matching if any of its profiles is accepted (profiles may be negated with !):
+ * <pre>profile:dev|!prod</pre>
+ * or a property condition, matching if the property is set and isn't false, or is set to the given value:
+ * <pre>property:feature.enabled</pre>
+ * <pre>property:feature.mode=fast</pre>
+ * A component is only registered if all of its conditions match.
+ */
+public class ComponentConditions
+{
+    public static final String PROFILE_PREFIX = "profile:";
+    public static final String PROFILE_SEPARATOR = "|";
+    public static final String PROPERTY_PREFIX = "property:";
+    public static final String PROPERTY_VALUE_SEPARATOR = "=";
+
+    /**
+     * @param profiles
+     * @return the condition matching if any of the profiles is accepted
+     */
+    public static String profileCondition(List<String> profiles)
+    {
+        return PROFILE_PREFIX + StringUtils.join(profiles, PROFILE_SEPARATOR);
+    }
+
+    /**
+     * @param prefix the prefix of the property name, with or without the trailing dot
+     * @param name
+     * @param havingValue the value the property must have, or empty if it only mustn't be false
+     * @return the condition matching the property
+     */
+    public static String propertyCondition(String prefix, String name, String havingValue)
+    {
+        String propertyPrefix = StringUtils.trim(prefix);
+        if (StringUtils.isNotBlank(propertyPrefix) && !propertyPrefix.endsWith("."))
+        {
+            propertyPrefix = propertyPrefix + ".";
+        }
+
+        return PROPERTY_PREFIX + StringUtils.defaultString(propertyPrefix) + name
+                + (StringUtils.isNotEmpty(havingValue) ? PROPERTY_VALUE_SEPARATOR + havingValue : "");
+    }
+
+    /**
+     * @param conditions
+     * @param environment
+     * @return true if all conditions match, or there aren't any
+     */
+    public static boolean matches(List<String> conditions, Environment environment)
+    {
+        for (String condition : conditions)
+        {
+            if (!matches(condition, environment))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean matches(String condition, Environment environment)
+    {
+        if (condition.startsWith(PROFILE_PREFIX))
+        {
+            return environment.acceptsProfiles(StringUtils.split(condition.substring(PROFILE_PREFIX.length()), PROFILE_SEPARATOR));
+        }
+
+        if (condition.startsWith(PROPERTY_PREFIX))
+        {
+            String property = condition.substring(PROPERTY_PREFIX.length());
+            String expectedValue = StringUtils.substringAfter(property, PROPERTY_VALUE_SEPARATOR);
+            String value = environment.getProperty(StringUtils.substringBefore(property, PROPERTY_VALUE_SEPARATOR));
+
+            if (null == value)
+            {
+                return false;
+            }
+
+            return StringUtils.isEmpty(expectedValue) ? !"false".equalsIgnoreCase(value) : expectedValue.equalsIgnoreCase(value);
+        }
+
+        //not a condition we know, keep the component
+        return true;
+    }
+}
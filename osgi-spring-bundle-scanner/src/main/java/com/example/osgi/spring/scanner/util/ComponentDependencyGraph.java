@@ -0,0 +1,134 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The constructor dependencies between the components of a bundle, as recorded in the component index.
+ * <p/>
+ * The values of a component index entry are the class names of the other components its constructor depends on.
+ * The graph orders the components in waves: the first wave has no dependencies on other components and every later
+ * wave only depends on earlier waves. Components in the same wave don't depend on each other.
+ */
+public class ComponentDependencyGraph
+{
+    private final List<List<ComponentIndexEntry>> waves;
+
+    public ComponentDependencyGraph(Collection<ComponentIndexEntry> components)
+    {
+        this.waves = Collections.unmodifiableList(computeWaves(components));
+    }
+
+    /**
+     * @return the components in topological waves, dependencies first
+     */
+    public List<List<ComponentIndexEntry>> getWaves()
+    {
+        return waves;
+    }
+
+    /**
+     * @return all components, ordered so that every component comes after the components it depends on
+     */
+    public List<ComponentIndexEntry> getOrderedComponents()
+    {
+        List<ComponentIndexEntry> ordered = new ArrayList<ComponentIndexEntry>();
+        for (List<ComponentIndexEntry> wave : waves)
+        {
+            ordered.addAll(wave);
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Kahn's algorithm, keeping the index order within a wave.
+     * Components left over because of a dependency cycle are put in a last wave.
+     */
+    private static List<List<ComponentIndexEntry>> computeWaves(Collection<ComponentIndexEntry> components)
+    {
+        Map<String, ComponentIndexEntry> byClassName = new LinkedHashMap<String, ComponentIndexEntry>();
+        for (ComponentIndexEntry component : components)
+        {
+            byClassName.put(component.getClassName(), component);
+        }
+
+        Map<String, Integer> remainingDependencies = new HashMap<String, Integer>();
+        Map<String, List<String>> dependants = new HashMap<String, List<String>>();
+        for (ComponentIndexEntry component : byClassName.values())
+        {
+            int count = 0;
+            for (String dependency : component.getValues())
+            {
+                if (byClassName.containsKey(dependency) && !dependency.equals(component.getClassName()))
+                {
+                    count++;
+                    if (!dependants.containsKey(dependency))
+                    {
+                        dependants.put(dependency, new ArrayList<String>());
+                    }
+                    dependants.get(dependency).add(component.getClassName());
+                }
+            }
+            remainingDependencies.put(component.getClassName(), count);
+        }
+
+        List<List<ComponentIndexEntry>> waves = new ArrayList<List<ComponentIndexEntry>>();
+        List<ComponentIndexEntry> wave = new ArrayList<ComponentIndexEntry>();
+        for (ComponentIndexEntry component : byClassName.values())
+        {
+            if (remainingDependencies.get(component.getClassName()) == 0)
+            {
+                wave.add(component);
+            }
+        }
+
+        int placed = 0;
+        while (!wave.isEmpty())
+        {
+            waves.add(wave);
+            placed += wave.size();
+
+            List<ComponentIndexEntry> next = new ArrayList<ComponentIndexEntry>();
+            for (ComponentIndexEntry component : wave)
+            {
+                List<String> componentDependants = dependants.get(component.getClassName());
+                if (null == componentDependants)
+                {
+                    continue;
+                }
+
+                for (String dependant : componentDependants)
+                {
+                    int remaining = remainingDependencies.get(dependant) - 1;
+                    remainingDependencies.put(dependant, remaining);
+                    if (remaining == 0)
+                    {
+                        next.add(byClassName.get(dependant));
+                    }
+                }
+            }
+            wave = next;
+        }
+
+        if (placed < byClassName.size())
+        {
+            List<ComponentIndexEntry> cyclic = new ArrayList<ComponentIndexEntry>();
+            for (ComponentIndexEntry component : byClassName.values())
+            {
+                if (remainingDependencies.get(component.getClassName()) > 0)
+                {
+                    cyclic.add(component);
+                }
+            }
+            waves.add(cyclic);
+        }
+
+        return waves;
+    }
+}
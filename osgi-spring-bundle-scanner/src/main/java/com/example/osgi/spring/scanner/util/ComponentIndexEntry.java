@@ -0,0 +1,181 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A single entry of a class index file.
+ *
+ * In the text index an entry is stored as the fully qualified class name, optionally followed by the bean name,
+ * a comma separated list of values (e.g. the interfaces of an exported service) and a comma separated list of flag names,
+ * all separated by #.
+ * In the binary index the same information is stored as a fixed-width record.
+ * Entries are serializable, as the request mapping entries end up in a bean definition kept in the bean definition
+ * snapshot cache.
+ */
+public class ComponentIndexEntry implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    public static final String SEPARATOR = "#";
+    public static final String VALUE_SEPARATOR = ",";
+
+    /**
+     * the component is exported as a lazy OSGi service
+     */
+    public static final int FLAG_LAZY = 1;
+
+    /**
+     * the component import is injected as the service object itself rather than a dynamic proxy
+     */
+    public static final int FLAG_STATIC = 2;
+
+    /**
+     * the component is explicitly not lazy (@Lazy(false)), even when the bundle's components are lazy by default
+     */
+    public static final int FLAG_EAGER = 4;
+
+    /**
+     * the names of the flags in the text index, the name at index i stands for the flag 1 << i
+     */
+    private static final String[] FLAG_NAMES = {"lazy", "static", "eager"};
+
+    private final String className;
+    private final String beanName;
+    private final int flags;
+    private final List<String> values;
+
+    public ComponentIndexEntry(String className, String beanName, int flags)
+    {
+        this(className, beanName, flags, Collections.<String>emptyList());
+    }
+
+    public ComponentIndexEntry(String className, String beanName, int flags, List<String> values)
+    {
+        this.className = className;
+        this.beanName = (null == beanName) ? "" : beanName;
+        this.flags = flags;
+        this.values = Collections.unmodifiableList(values);
+    }
+
+    /**
+     * parses a single line of a text index file
+     * @param line
+     * @return
+     */
+    public static ComponentIndexEntry parse(String line)
+    {
+        String[] fields = StringUtils.splitPreserveAllTokens(line.trim(), SEPARATOR);
+        String beanName = (fields.length > 1) ? fields[1] : "";
+        List<String> values = Collections.emptyList();
+
+        if (fields.length > 2 && StringUtils.isNotBlank(fields[2]))
+        {
+            values = Arrays.asList(StringUtils.split(fields[2], VALUE_SEPARATOR));
+        }
+
+        int flags = 0;
+        if (fields.length > 3 && StringUtils.isNotBlank(fields[3]))
+        {
+            List<String> flagNames = Arrays.asList(FLAG_NAMES);
+            for (String flagName : StringUtils.split(fields[3], VALUE_SEPARATOR))
+            {
+                int bit = flagNames.indexOf(flagName);
+                if (bit >= 0)
+                {
+                    flags |= (1 << bit);
+                }
+            }
+        }
+
+        return new ComponentIndexEntry(fields[0], beanName, flags, values);
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    /**
+     * @return the bean name defined on the annotation, or an empty string if there wasn't one
+     */
+    public String getBeanName()
+    {
+        return beanName;
+    }
+
+    public boolean hasBeanName()
+    {
+        return StringUtils.isNotBlank(beanName);
+    }
+
+    /**
+     * @return the flags of this entry, e.g. {@link #FLAG_LAZY}
+     */
+    public int getFlags()
+    {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag)
+    {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * @return the additional values of this entry, e.g. the interfaces of an exported service
+     */
+    public List<String> getValues()
+    {
+        return values;
+    }
+
+    public boolean hasValues()
+    {
+        return !values.isEmpty();
+    }
+
+    /**
+     * @return the line representing this entry in a text index file
+     */
+    public String toIndexLine()
+    {
+        StringBuilder line = new StringBuilder(className);
+
+        if (hasBeanName() || hasValues() || 0 != flags)
+        {
+            line.append(SEPARATOR).append(beanName);
+        }
+
+        if (hasValues() || 0 != flags)
+        {
+            line.append(SEPARATOR).append(StringUtils.join(values, VALUE_SEPARATOR));
+        }
+
+        if (0 != flags)
+        {
+            List<String> flagNames = new ArrayList<String>();
+            for (int bit = 0; bit < FLAG_NAMES.length; bit++)
+            {
+                if (hasFlag(1 << bit))
+                {
+                    flagNames.add(FLAG_NAMES[bit]);
+                }
+            }
+            line.append(SEPARATOR).append(StringUtils.join(flagNames, VALUE_SEPARATOR));
+        }
+
+        return line.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return toIndexLine();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.util.Collection;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * OSGi service holding the parsed class index files of every resolved bundle in the framework.
+ * Each bundle's indexes are read once when it is resolved and dropped again when it is updated or uninstalled.
+ */
+public interface ComponentIndexRegistry
+{
+    /**
+     * gets the index of the current revision of a bundle, reading it if it hasn't been read yet
+     * @param bundle
+     * @return
+     */
+    BundleComponentIndex getIndex(Bundle bundle);
+
+    /**
+     * @return the ids of the bundles whose index lists components
+     */
+    Collection<Long> getBundlesWithComponents();
+
+    /**
+     * @return the ids of the bundles whose index lists component imports
+     */
+    Collection<Long> getBundlesWithImports();
+
+    /**
+     * @return the ids of the bundles whose index lists components exported as OSGi services
+     */
+    Collection<Long> getBundlesWithExports();
+}
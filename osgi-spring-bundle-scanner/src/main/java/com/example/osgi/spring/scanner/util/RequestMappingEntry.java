@@ -0,0 +1,171 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A single handler method listed in the request mappings index.
+ * <p/>
+ * The values of the index entry are the handler method and the attributes of its @RequestMapping, followed by those of
+ * the @RequestMapping of its class, prefixed with "type.":
+ * <pre>com.some.web.ItemController##handler:list(java.lang.String;int),path:/items,method:GET,produces:application/json,type.path:/api</pre>
+ * Attribute values are escaped so they can hold the separators of the index.
+ */
+public class RequestMappingEntry
+{
+    public static final String HANDLER = "handler";
+    public static final String TYPE_PREFIX = "type.";
+    public static final String PATH = "path";
+    public static final String METHOD = "method";
+    public static final String PARAMS = "params";
+    public static final String HEADERS = "headers";
+    public static final String CONSUMES = "consumes";
+    public static final String PRODUCES = "produces";
+
+    private static final String NAME_SEPARATOR = ":";
+    private static final String PARAMETER_SEPARATOR = ";";
+
+    private final String handlerClassName;
+    private final String methodName;
+    private final List<String> parameterTypes;
+    private final Map<String, List<String>> methodAttributes;
+    private final Map<String, List<String>> typeAttributes;
+
+    private RequestMappingEntry(String handlerClassName, String methodName, List<String> parameterTypes,
+            Map<String, List<String>> methodAttributes, Map<String, List<String>> typeAttributes)
+    {
+        this.handlerClassName = handlerClassName;
+        this.methodName = methodName;
+        this.parameterTypes = Collections.unmodifiableList(parameterTypes);
+        this.methodAttributes = Collections.unmodifiableMap(methodAttributes);
+        this.typeAttributes = Collections.unmodifiableMap(typeAttributes);
+    }
+
+    /**
+     * @param methodName
+     * @param parameterTypes the names of the parameter types, as understood by ClassUtils.forName
+     * @return the index value naming the handler method
+     */
+    public static String handlerValue(String methodName, List<String> parameterTypes)
+    {
+        return HANDLER + NAME_SEPARATOR + methodName + "(" + StringUtils.join(parameterTypes, PARAMETER_SEPARATOR) + ")";
+    }
+
+    /**
+     * @param attribute the name of the attribute, prefixed with "type." for the mapping of the class
+     * @param value
+     * @return the index value for a single value of a mapping attribute
+     */
+    public static String attributeValue(String attribute, String value)
+    {
+        return attribute + NAME_SEPARATOR + escape(value);
+    }
+
+    /**
+     * @param entry an entry of the request mappings index
+     * @return the mapping, or null if the entry doesn't name a handler method
+     */
+    public static RequestMappingEntry fromIndexEntry(ComponentIndexEntry entry)
+    {
+        String handler = null;
+        Map<String, List<String>> methodAttributes = new LinkedHashMap<String, List<String>>();
+        Map<String, List<String>> typeAttributes = new LinkedHashMap<String, List<String>>();
+
+        for (String value : entry.getValues())
+        {
+            String name = StringUtils.substringBefore(value, NAME_SEPARATOR);
+            String attributeValue = StringUtils.substringAfter(value, NAME_SEPARATOR);
+
+            if (HANDLER.equals(name))
+            {
+                handler = attributeValue;
+            }
+            else if (name.startsWith(TYPE_PREFIX))
+            {
+                addValue(typeAttributes, name.substring(TYPE_PREFIX.length()), unescape(attributeValue));
+            }
+            else
+            {
+                addValue(methodAttributes, name, unescape(attributeValue));
+            }
+        }
+
+        if (null == handler || !handler.endsWith(")") || !handler.contains("("))
+        {
+            return null;
+        }
+
+        String parameters = StringUtils.substringBetween(handler, "(", ")");
+        List<String> parameterTypes = new ArrayList<String>();
+        for (String parameterType : StringUtils.split(parameters, PARAMETER_SEPARATOR))
+        {
+            parameterTypes.add(parameterType);
+        }
+
+        return new RequestMappingEntry(entry.getClassName(), StringUtils.substringBefore(handler, "("), parameterTypes, methodAttributes,
+                typeAttributes);
+    }
+
+    public String getHandlerClassName()
+    {
+        return handlerClassName;
+    }
+
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    public List<String> getParameterTypes()
+    {
+        return parameterTypes;
+    }
+
+    /**
+     * @return the attributes of the @RequestMapping of the method, by attribute name
+     */
+    public Map<String, List<String>> getMethodAttributes()
+    {
+        return methodAttributes;
+    }
+
+    /**
+     * @return the attributes of the @RequestMapping of the handler class, by attribute name. Empty if it hasn't got one.
+     */
+    public Map<String, List<String>> getTypeAttributes()
+    {
+        return typeAttributes;
+    }
+
+    /**
+     * @return true if the handler class has a @RequestMapping of its own
+     */
+    public boolean hasTypeMapping()
+    {
+        return !typeAttributes.isEmpty();
+    }
+
+    private static void addValue(Map<String, List<String>> attributes, String name, String value)
+    {
+        if (!attributes.containsKey(name))
+        {
+            attributes.put(name, new ArrayList<String>());
+        }
+        attributes.get(name).add(value);
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("%", "%25").replace(ComponentIndexEntry.SEPARATOR, "%23").replace(ComponentIndexEntry.VALUE_SEPARATOR, "%2C");
+    }
+
+    private static String unescape(String value)
+    {
+        return value.replace("%2C", ComponentIndexEntry.VALUE_SEPARATOR).replace("%23", ComponentIndexEntry.SEPARATOR).replace("%25", "%");
+    }
+}
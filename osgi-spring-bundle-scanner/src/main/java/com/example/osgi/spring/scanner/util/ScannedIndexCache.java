@@ -0,0 +1,220 @@
+package com.example.osgi.spring.scanner.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.extender.external.PersistentData;
+
+/**
+ * Keeps the indexes built by the {@link BytecodeComponentScanner} on disk, so a bundle is scanned once per version
+ * instead of on every start of the framework.
+ * <p/>
+ * Every bundle gets a directory holding its index files in the binary index format. The directory is named after the
+ * bundle's symbolic name and a fingerprint of its key in the persistent data (see PersistentData#getBundleKey) and of
+ * the scanned packages, which changes whenever the bundle is installed again or updated. Older directories of the bundle are removed when a new one
+ * is written.
+ */
+public class ScannedIndexCache
+{
+    private static final int CACHE_VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 32;
+    private static final String[] INDEX_KEYS = {ClassIndexFiles.COMPONENT_KEY, ClassIndexFiles.COMPONENT_IMPORT_KEY,
+            ClassIndexFiles.EXPORTS_KEY, ClassIndexFiles.CONDITIONS_KEY};
+
+    private static final Log log = LogFactory.getLog(ScannedIndexCache.class);
+
+    private final File directory;
+    private final BytecodeComponentScanner scanner;
+
+    /**
+     * @param directory where the indexes are kept. If null, bundles are scanned every time.
+     * @param scanner
+     */
+    public ScannedIndexCache(File directory, BytecodeComponentScanner scanner)
+    {
+        this.directory = directory;
+        this.scanner = scanner;
+    }
+
+    /**
+     * gets the index of the current revision of a bundle from the cache, scanning the bundle if it isn't cached yet
+     * @param bundle
+     * @param packages the packages to scan
+     * @return
+     */
+    public BundleComponentIndex getIndex(Bundle bundle, List<String> packages)
+    {
+        if (null == directory)
+        {
+            return scanner.scan(bundle, packages);
+        }
+
+        String prefix = getPrefix(bundle);
+        File entry = new File(directory, prefix + getFingerprint(bundle, packages));
+
+        BundleComponentIndex index = read(bundle, entry);
+        if (null == index)
+        {
+            index = scanner.scan(bundle, packages);
+            write(index, prefix, entry);
+        }
+
+        return index;
+    }
+
+    private BundleComponentIndex read(Bundle bundle, File entry)
+    {
+        if (!entry.isDirectory())
+        {
+            return null;
+        }
+
+        List<List<ComponentIndexEntry>> indexes = new ArrayList<List<ComponentIndexEntry>>();
+        try
+        {
+            for (String indexKey : INDEX_KEYS)
+            {
+                List<ComponentIndexEntry> entries = BinaryComponentIndex.read(getIndexFile(entry, indexKey).toURI().toURL());
+                if (null == entries)
+                {
+                    return null;
+                }
+                indexes.add(entries);
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Cannot read the cached index of bundle [" + bundle.getSymbolicName() + "], scanning it again", e);
+            return null;
+        }
+
+        return new BundleComponentIndex(bundle.getBundleId(), bundle.adapt(BundleRevision.class), indexes.get(0), indexes.get(1),
+                indexes.get(2), indexes.get(3), true);
+    }
+
+    /**
+     * writes the index to a temporary directory which is then moved into place, so a half-written entry is never read
+     */
+    private void write(BundleComponentIndex index, String prefix, File entry)
+    {
+        File temporary = null;
+        try
+        {
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new IOException("Cannot create directory " + directory);
+            }
+
+            temporary = Files.createTempDirectory(directory.toPath(), "scan").toFile();
+            writeIndexFile(index.getComponents(), getIndexFile(temporary, ClassIndexFiles.COMPONENT_KEY));
+            writeIndexFile(index.getImports(), getIndexFile(temporary, ClassIndexFiles.COMPONENT_IMPORT_KEY));
+            writeIndexFile(toExportEntries(index), getIndexFile(temporary, ClassIndexFiles.EXPORTS_KEY));
+            writeIndexFile(toConditionEntries(index), getIndexFile(temporary, ClassIndexFiles.CONDITIONS_KEY));
+
+            removeOldEntries(prefix);
+            Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.warn("Cannot cache the scanned index in " + entry + ", the bundle will be scanned again on the next start", e);
+        }
+        finally
+        {
+            if (null != temporary && temporary.exists())
+            {
+                FileSystemUtils.deleteRecursively(temporary);
+            }
+        }
+    }
+
+    private void removeOldEntries(String prefix)
+    {
+        File[] entries = directory.listFiles();
+        if (null == entries)
+        {
+            return;
+        }
+
+        for (File oldEntry : entries)
+        {
+            //the fingerprint is a fixed length, so bundles whose name starts with this one's aren't matched
+            if (oldEntry.getName().startsWith(prefix) && oldEntry.getName().length() == prefix.length() + FINGERPRINT_LENGTH)
+            {
+                FileSystemUtils.deleteRecursively(oldEntry);
+            }
+        }
+    }
+
+    private static void writeIndexFile(Collection<ComponentIndexEntry> entries, File file) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            BinaryComponentIndex.write(entries, out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * the exports are only kept by class name in memory, so they are turned back into index entries
+     */
+    private static List<ComponentIndexEntry> toExportEntries(BundleComponentIndex index)
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        for (String className : index.getExports().keySet())
+        {
+            int flags = index.getLazyExports().contains(className) ? ComponentIndexEntry.FLAG_LAZY : 0;
+            entries.add(new ComponentIndexEntry(className, "", flags, index.getExports().get(className)));
+        }
+
+        return entries;
+    }
+
+    private static List<ComponentIndexEntry> toConditionEntries(BundleComponentIndex index)
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        for (String className : index.getConditions().keySet())
+        {
+            entries.add(new ComponentIndexEntry(className, "", 0, index.getConditions().get(className)));
+        }
+
+        return entries;
+    }
+
+    private static File getIndexFile(File entry, String indexKey)
+    {
+        return new File(entry, indexKey + ClassIndexFiles.BINARY_INDEX_SUFFIX);
+    }
+
+    private static String getPrefix(Bundle bundle)
+    {
+        return StringUtils.defaultString(bundle.getSymbolicName(), "bundle-" + bundle.getBundleId()).replaceAll("[^A-Za-z0-9._-]", "_") + "-";
+    }
+
+    private static String getFingerprint(Bundle bundle, List<String> packages)
+    {
+        String fingerprint = CACHE_VERSION + ";" + BinaryComponentIndex.VERSION + ";" + PersistentData.getBundleKey(bundle)
+                + ";" + StringUtils.join(packages, ",");
+
+        return DigestUtils.md5DigestAsHex(fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+}
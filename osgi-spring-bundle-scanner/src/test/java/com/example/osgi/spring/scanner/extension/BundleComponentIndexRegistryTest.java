@@ -0,0 +1,128 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.wiring.BundleRevision;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.scanner.util.BundleComponentIndex;
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexRegistry;
+
+public class BundleComponentIndexRegistryTest
+{
+    private File directory;
+    private BundleComponentIndexRegistry registry;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("registry").toFile();
+        registry = new BundleComponentIndexRegistry();
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void resolvedBundlesAreIndexedUntilTheyAreUninstalled() throws Exception
+    {
+        Bundle components = mockBundle(1L, ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.FirstComponent");
+        Bundle imports = mockBundle(2L, ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE, "com.example.api.Service");
+        Bundle plain = mockBundle(3L, null, null);
+
+        registry.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, components));
+        registry.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, imports));
+        registry.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, plain));
+
+        assertEquals(Arrays.asList(1L), new ArrayList<Long>(registry.getBundlesWithComponents()));
+        assertEquals(Arrays.asList(2L), new ArrayList<Long>(registry.getBundlesWithImports()));
+        assertTrue(registry.getBundlesWithExports().isEmpty());
+        assertEquals("com.example.plugin.FirstComponent", registry.getIndex(components).getComponents().get(0).getClassName());
+
+        registry.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, components));
+
+        assertTrue(registry.getBundlesWithComponents().isEmpty());
+        assertEquals(Arrays.asList(2L), new ArrayList<Long>(registry.getBundlesWithImports()));
+    }
+
+    @Test
+    public void indexIsReadOncePerRevision() throws Exception
+    {
+        Bundle bundle = mockBundle(1L, ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.FirstComponent");
+        registry.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
+
+        BundleComponentIndex index = registry.getIndex(bundle);
+        assertSame(index, registry.getIndex(bundle));
+
+        BundleRevision updated = mock(BundleRevision.class);
+        when(bundle.adapt(BundleRevision.class)).thenReturn(updated);
+
+        BundleComponentIndex updatedIndex = registry.getIndex(bundle);
+        assertNotSame(index, updatedIndex);
+        assertSame(updated, updatedIndex.getRevision());
+        assertSame(updatedIndex, registry.getIndex(bundle));
+    }
+
+    @Test
+    public void bundlesAreIndexedOnDemand() throws Exception
+    {
+        Bundle bundle = mockBundle(1L, ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.FirstComponent");
+
+        assertTrue(registry.getIndex(bundle).hasComponents());
+        assertEquals(Collections.singletonList(1L), new ArrayList<Long>(registry.getBundlesWithComponents()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void contextsUseTheRegistryService() throws Exception
+    {
+        Bundle bundle = mockBundle(1L, ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.FirstComponent");
+        BundleContext bundleContext = mock(BundleContext.class);
+        ServiceReference<ComponentIndexRegistry> reference = mock(ServiceReference.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        when(bundleContext.getServiceReference(ComponentIndexRegistry.class)).thenReturn(reference);
+        when(bundleContext.getService(reference)).thenReturn(registry);
+
+        assertSame(registry.getIndex(bundle), BundleComponentIndex.forBundle(bundleContext));
+    }
+
+    private Bundle mockBundle(long bundleId, String indexFile, String content) throws Exception
+    {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getSymbolicName()).thenReturn("com.example.bundle" + bundleId);
+        when(bundle.adapt(BundleRevision.class)).thenReturn(mock(BundleRevision.class));
+
+        if (null != indexFile)
+        {
+            File file = new File(directory, bundleId + "_" + indexFile.replace('/', '_'));
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            when(bundle.getEntry(indexFile)).thenReturn(file.toURI().toURL());
+        }
+
+        return bundle;
+    }
+}
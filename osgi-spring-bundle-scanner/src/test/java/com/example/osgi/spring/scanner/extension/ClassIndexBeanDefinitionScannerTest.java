@@ -0,0 +1,164 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.extender.external.SnapshotExclusion;
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
+
+public class ClassIndexBeanDefinitionScannerTest
+{
+    private File directory;
+    private Bundle bundle;
+    private BundleContext bundleContext;
+    private DefaultListableBeanFactory registry;
+    private ClassIndexBeanDefinitionScanner scanner;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("scanner").toFile();
+        bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+
+        registry = new DefaultListableBeanFactory();
+        scanner = new ClassIndexBeanDefinitionScanner(registry, bundleContext);
+        scanner.setPreloadClasses(false);
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void componentsAreRegisteredInDependencyOrder() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.Controller##com.example.plugin.Service\n"
+                + "com.example.plugin.Service#namedService#com.example.plugin.Repository\n"
+                + "com.example.plugin.Repository\n");
+
+        scanner.doScan();
+
+        assertEquals(Arrays.asList("repository", "namedService", "controller"), Arrays.asList(registry.getBeanDefinitionNames()));
+        assertFalse(registry.getBeanDefinition("controller").isLazyInit());
+    }
+
+    @Test
+    public void componentsAreLazyByDefaultUnlessFlaggedEager() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.Service\ncom.example.plugin.Startup###eager\n");
+        scanner.setLazyByDefault(true);
+
+        scanner.doScan();
+
+        assertTrue(registry.getBeanDefinition("service").isLazyInit());
+        assertFalse(registry.getBeanDefinition("startup").isLazyInit());
+    }
+
+    @Test
+    public void componentIndexIsReadOncePerScan() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.Service\ncom.example.plugin.Startup###eager\n");
+        final AtomicInteger reads = new AtomicInteger();
+        scanner = new ClassIndexBeanDefinitionScanner(registry, bundleContext)
+        {
+            @Override
+            protected List<ComponentIndexEntry> getComponentEntries()
+            {
+                reads.incrementAndGet();
+                return super.getComponentEntries();
+            }
+        };
+        scanner.setPreloadClasses(false);
+        scanner.setLazyByDefault(true);
+
+        scanner.doScan();
+
+        assertEquals(1, reads.get());
+        assertTrue(registry.getBeanDefinition("service").isLazyInit());
+        assertFalse(registry.getBeanDefinition("startup").isLazyInit());
+    }
+
+    @Test
+    public void lazyExportsAreAlwaysLazy() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.Service\ncom.example.plugin.Exported\n");
+        addIndexFile(ClassIndexFiles.EXPORTS_INDEX_FILE, "com.example.plugin.Exported##java.lang.Runnable#lazy\n");
+
+        scanner.doScan();
+
+        assertFalse(registry.getBeanDefinition("service").isLazyInit());
+        assertTrue(registry.getBeanDefinition("exported").isLazyInit());
+    }
+
+    @Test
+    public void componentsWhoseConditionsDontMatchAreNotRegistered() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.Service\ncom.example.plugin.DevTools\ncom.example.plugin.Feature\n");
+        addIndexFile(ClassIndexFiles.CONDITIONS_INDEX_FILE, "com.example.plugin.DevTools##profile:dev\n"
+                + "com.example.plugin.Feature##property:feature.enabled\n");
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", Collections.<String, Object>singletonMap("feature.enabled", "true")));
+        scanner.setEnvironment(environment);
+
+        scanner.doScan();
+
+        assertEquals(Arrays.asList("service", "feature"), Arrays.asList(registry.getBeanDefinitionNames()));
+        assertEquals("conditional components", SnapshotExclusion.clear());
+    }
+
+    @Test
+    public void conditionsAreIgnoredWithoutAnEnvironment() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.DevTools\n");
+        addIndexFile(ClassIndexFiles.CONDITIONS_INDEX_FILE, "com.example.plugin.DevTools##profile:dev\n");
+
+        scanner.doScan();
+
+        assertTrue(registry.containsBeanDefinition("devTools"));
+    }
+
+    @Test
+    public void warmUpReportListsTheCreatedComponents() throws Exception
+    {
+        registry.registerSingleton("created", new Object());
+        ComponentWarmUpReport report = new ComponentWarmUpReport(Arrays.asList("created", "neverCreated"), 0);
+        report.setBeanFactory(registry);
+
+        assertEquals(Arrays.asList("created"), report.getInstantiatedBeans());
+        assertEquals(Arrays.asList("neverCreated"), report.getUninstantiatedBeans());
+    }
+
+    private void addIndexFile(String name, String content) throws Exception
+    {
+        File file = new File(directory, name.replace('/', '_'));
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        when(bundle.getEntry(name)).thenReturn(file.toURI().toURL());
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+public class FlightRecorderEventsTest
+{
+    private static final String COMPONENT_SCAN_EVENT = "com.example.osgi.ComponentScan";
+    private static final String SERVICE_EXPORT_EVENT = "com.example.osgi.ServiceExport";
+    private static final String SERVICE_UNEXPORT_EVENT = "com.example.osgi.ServiceUnexport";
+
+    private File file;
+    private Bundle bundle;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        assumeTrue(FlightRecorder.isAvailable());
+        file = File.createTempFile("events", ".jfr");
+        bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        when(bundle.getVersion()).thenReturn(new Version(1, 2, 3));
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (null != file)
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void nothingIsRecordedWhileTheEventsAreDisabled()
+    {
+        assertNull(FlightRecorderEvents.beginComponentScan());
+        assertNull(FlightRecorderEvents.beginServiceExport());
+        assertNull(FlightRecorderEvents.beginServiceUnexport());
+
+        FlightRecorderEvents.endComponentScan(null, bundle, 1, 1);
+        FlightRecorderEvents.endServiceExport(null, bundle, "service", "com.example.plugin.Service", new Object[0], false);
+        FlightRecorderEvents.endServiceUnexport(null, bundle, "service", null);
+    }
+
+    @Test
+    public void scansAndExportsAreRecorded() throws Exception
+    {
+        Recording recording = new Recording();
+        try
+        {
+            recording.enable(COMPONENT_SCAN_EVENT).withoutThreshold();
+            recording.enable(SERVICE_EXPORT_EVENT).withoutThreshold();
+            recording.enable(SERVICE_UNEXPORT_EVENT).withoutThreshold();
+            recording.start();
+
+            FlightRecorderEvents.endComponentScan(FlightRecorderEvents.beginComponentScan(), bundle, 5, 3);
+            FlightRecorderEvents.endServiceExport(FlightRecorderEvents.beginServiceExport(), bundle, "service",
+                    "com.example.plugin.Service", new Object[]{"com.example.api.Service", "java.lang.Runnable"}, true);
+            FlightRecorderEvents.endServiceUnexport(FlightRecorderEvents.beginServiceUnexport(), null, "service", null);
+
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        finally
+        {
+            recording.close();
+        }
+
+        RecordedEvent scan = readEvent(COMPONENT_SCAN_EVENT);
+        assertEquals("com.example.plugin", scan.getString("bundle"));
+        assertEquals("1.2.3", scan.getString("version"));
+        assertEquals(5, scan.getInt("candidates"));
+        assertEquals(3, scan.getInt("registered"));
+
+        RecordedEvent export = readEvent(SERVICE_EXPORT_EVENT);
+        assertEquals("service", export.getString("beanName"));
+        assertEquals("com.example.plugin.Service", export.getString("beanClass"));
+        assertEquals("[com.example.api.Service, java.lang.Runnable]", export.getString("interfaces"));
+        assertTrue(export.getBoolean("lazy"));
+
+        RecordedEvent unexport = readEvent(SERVICE_UNEXPORT_EVENT);
+        assertEquals("service", unexport.getString("beanName"));
+        assertNull(unexport.getString("bundle"));
+    }
+
+    private RecordedEvent readEvent(String name) throws Exception
+    {
+        List<RecordedEvent> events = readEvents(name);
+        assertEquals(1, events.size());
+        return events.get(0);
+    }
+
+    private List<RecordedEvent> readEvents(String name) throws Exception
+    {
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath()))
+        {
+            if (name.equals(event.getEventType().getName()))
+            {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.osgi.spring.scanner.extension;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.framework.Felix;
+import org.eclipse.gemini.blueprint.service.importer.support.OsgiServiceProxyFactoryBean;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Compares calls through the proxy of a GeneratedServiceProxyFactoryBean with calls through Gemini's
+ * OsgiServiceProxyFactoryBean, both importing the same service of an embedded Felix framework the way
+ * ComponentImportBeanFactoryPostProcessor sets them up.
+ * <p/>
+ * Not a test: run the main method with the test classpath, optionally passing the number of calls per round. Every
+ * proxy is called for a few warm-up rounds before the measured rounds, and the best round is reported along with the
+ * time taken to create each proxy.
+ */
+public class ImportProxyBenchmark
+{
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception
+    {
+        int calls = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+        File directory = Files.createTempDirectory("benchmark").toFile();
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(Constants.FRAMEWORK_STORAGE, directory.getPath());
+        Felix framework = new Felix(config);
+        framework.start();
+
+        try
+        {
+            BundleContext bundleContext = framework.getBundleContext();
+            Counter service = new AddingCounter();
+            bundleContext.registerService(Counter.class, service, null);
+
+            long start = System.nanoTime();
+            GeneratedServiceProxyFactoryBean generated = new GeneratedServiceProxyFactoryBean(bundleContext, Counter.class);
+            generated.afterPropertiesSet();
+            Counter generatedProxy = (Counter) generated.getObject();
+            long generatedCreation = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            OsgiServiceProxyFactoryBean gemini = new OsgiServiceProxyFactoryBean();
+            gemini.setBundleContext(bundleContext);
+            gemini.setBeanClassLoader(ImportProxyBenchmark.class.getClassLoader());
+            gemini.setInterfaces(new Class<?>[]{Counter.class});
+            gemini.afterPropertiesSet();
+            Counter geminiProxy = (Counter) gemini.getObject();
+            long geminiCreation = System.nanoTime() - start;
+
+            System.out.println("calls per round: " + calls);
+            report("direct", service, calls, 0);
+            report("generated proxy", generatedProxy, calls, generatedCreation);
+            report("gemini proxy", geminiProxy, calls, geminiCreation);
+
+            generated.destroy();
+            gemini.destroy();
+        }
+        finally
+        {
+            framework.stop();
+            framework.waitForStop(10000);
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    private static void report(String name, Counter counter, int calls, long creationNanos)
+    {
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            call(counter, calls);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            call(counter, calls);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format("%-16s %8.1f ns/call   created in %6.2f ms", name, (double) best / calls, creationNanos / 1e6));
+    }
+
+    private static void call(Counter counter, int calls)
+    {
+        long total = 0;
+        for (int i = 0; i < calls; i++)
+        {
+            total = counter.add(total, i);
+        }
+
+        //keeps the calls from being optimised away
+        if (total == 42)
+        {
+            System.out.println();
+        }
+    }
+
+    public interface Counter
+    {
+        long add(long total, int value);
+    }
+
+    private static class AddingCounter implements Counter
+    {
+        @Override
+        public long add(long total, int value)
+        {
+            return total + value;
+        }
+    }
+}
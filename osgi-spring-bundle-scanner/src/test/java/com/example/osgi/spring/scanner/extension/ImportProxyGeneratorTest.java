@@ -0,0 +1,166 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.gemini.blueprint.service.ServiceUnavailableException;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+
+public class ImportProxyGeneratorTest
+{
+    @Test
+    public void callsAreDelegatedToTheCurrentTarget() throws Exception
+    {
+        AtomicReference<Object> target = new AtomicReference<Object>(new FixedGreeter("Hello"));
+        Greeter proxy = (Greeter) ImportProxyGenerator.createProxy(Greeter.class, target);
+
+        assertEquals("Hello, world", proxy.greet("world", 1));
+        assertEquals(3L, proxy.count(1, 2L));
+
+        target.set(new FixedGreeter("Bye"));
+        assertEquals("Bye, world", proxy.greet("world", 1));
+        assertEquals("greeter Bye", proxy.toString());
+    }
+
+    @Test
+    public void checkedExceptionsOfTheTargetArePassedOn() throws Exception
+    {
+        Greeter proxy = (Greeter) ImportProxyGenerator.createProxy(Greeter.class, new AtomicReference<Object>(new FixedGreeter("Hello")));
+
+        try
+        {
+            proxy.greet("world", -1);
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("negative", e.getMessage());
+        }
+    }
+
+    @Test
+    public void interfacesRedeclaringObjectMethodsCanBeProxied()
+    {
+        AtomicReference<Object> target = new AtomicReference<Object>(new FixedGreeter("Hello"));
+        Described proxy = (Described) ImportProxyGenerator.createProxy(Described.class, target);
+
+        assertEquals("Hello", proxy.describe());
+        assertEquals("greeter Hello", proxy.toString());
+        assertTrue(proxy.equals(proxy));
+        assertFalse(proxy.equals(target.get()));
+    }
+
+    @Test
+    public void proxyClassesAreGeneratedOncePerInterface()
+    {
+        Object first = ImportProxyGenerator.createProxy(Greeter.class, new AtomicReference<Object>());
+        Object second = ImportProxyGenerator.createProxy(Greeter.class, new AtomicReference<Object>());
+
+        assertNotSame(first, second);
+        assertEquals(first.getClass(), second.getClass());
+    }
+
+    @Test
+    public void callsFailWhileNoServiceIsAvailable() throws Exception
+    {
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>()
+        {
+            @Override
+            public Filter answer(InvocationOnMock invocation) throws Throwable
+            {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+
+        GeneratedServiceProxyFactoryBean factoryBean = new GeneratedServiceProxyFactoryBean(bundleContext, Greeter.class);
+        factoryBean.afterPropertiesSet();
+        Greeter proxy = (Greeter) factoryBean.getObject();
+
+        try
+        {
+            proxy.greet("world", 1);
+            fail();
+        }
+        catch (ServiceUnavailableException e)
+        {
+            //expected
+        }
+        assertEquals("unavailable service (objectClass=" + Greeter.class.getName() + ")", proxy.toString());
+
+        factoryBean.destroy();
+    }
+
+    public interface Greeter
+    {
+        String greet(String name, int times) throws IOException;
+
+        long count(int first, long second);
+    }
+
+    public interface Described
+    {
+        String describe();
+
+        @Override
+        String toString();
+
+        @Override
+        boolean equals(Object other);
+
+        @Override
+        int hashCode();
+    }
+
+    private static class FixedGreeter implements Greeter, Described
+    {
+        private final String greeting;
+
+        private FixedGreeter(String greeting)
+        {
+            this.greeting = greeting;
+        }
+
+        @Override
+        public String greet(String name, int times) throws IOException
+        {
+            if (times < 0)
+            {
+                throw new IOException("negative");
+            }
+            return greeting + ", " + name;
+        }
+
+        @Override
+        public long count(int first, long second)
+        {
+            return first + second;
+        }
+
+        @Override
+        public String describe()
+        {
+            return greeting;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "greeter " + greeting;
+        }
+    }
+}
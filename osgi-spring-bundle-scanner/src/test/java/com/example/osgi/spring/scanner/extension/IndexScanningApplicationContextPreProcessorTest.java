@@ -0,0 +1,128 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Hashtable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+
+public class IndexScanningApplicationContextPreProcessorTest
+{
+    private File directory;
+    private Hashtable<String, String> headers;
+    private Bundle bundle;
+    private BundleContext bundleContext;
+    private IndexScanningApplicationContextPreProcessor preProcessor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("bootstrap").toFile();
+        headers = new Hashtable<String, String>();
+
+        bundle = mock(Bundle.class);
+        bundleContext = mock(BundleContext.class);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        when(bundle.getHeaders()).thenReturn(headers);
+        when(bundle.getBundleContext()).thenReturn(bundleContext);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+
+        preProcessor = new IndexScanningApplicationContextPreProcessor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void bundlesWithAComponentIndexAndNoXmlAreSpringPowered() throws Exception
+    {
+        assertFalse(preProcessor.isSpringPoweredBundle(bundle));
+
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, Repository.class.getName());
+        assertTrue(preProcessor.isSpringPoweredBundle(bundle));
+
+        headers.put(IndexScanningApplicationContextPreProcessor.SPRING_SCANNER_HEADER, "false");
+        assertFalse(preProcessor.isSpringPoweredBundle(bundle));
+    }
+
+    @Test
+    public void springScannerHeaderMakesABundleSpringPowered()
+    {
+        headers.put(IndexScanningApplicationContextPreProcessor.SPRING_SCANNER_HEADER, " true ");
+
+        assertTrue(preProcessor.isSpringPoweredBundle(bundle));
+    }
+
+    @Test
+    public void bundlesWithXmlConfigurationAreLeftToTheScanIndexesElement() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, Repository.class.getName());
+        when(bundle.findEntries("META-INF/spring", "*.xml", false))
+                .thenReturn(Collections.enumeration(Collections.singletonList(new File(directory, "spring-scanner.xml").toURI().toURL())));
+
+        assertFalse(preProcessor.isSpringPoweredBundle(bundle));
+
+        GenericApplicationContext applicationContext = new GenericApplicationContext();
+        preProcessor.process(bundle, applicationContext);
+        assertTrue(applicationContext.getBeanFactoryPostProcessors().isEmpty());
+    }
+
+    @Test
+    public void indexedComponentsAreRegisteredAndWiredOnRefresh() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, Repository.class.getName() + "\n" + Service.class.getName() + "\n");
+
+        //registered by the OSGi application contexts of the extender
+        GenericApplicationContext applicationContext = new GenericApplicationContext();
+        applicationContext.getBeanFactory().registerSingleton("bundleContext", bundleContext);
+        preProcessor.process(bundle, applicationContext);
+        applicationContext.refresh();
+        try
+        {
+            Service service = applicationContext.getBean(Service.class);
+            assertSame(applicationContext.getBean("indexScanningApplicationContextPreProcessorTest.Repository"), service.repository);
+            assertTrue(applicationContext.containsBean("serviceExportBeanPostProcessor"));
+        }
+        finally
+        {
+            applicationContext.close();
+        }
+    }
+
+    private void addIndexFile(String name, String content) throws Exception
+    {
+        File file = new File(directory, name.replace('/', '_'));
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        when(bundle.getEntry(name)).thenReturn(file.toURI().toURL());
+    }
+
+    public static class Repository
+    {
+    }
+
+    public static class Service
+    {
+        @Autowired
+        private Repository repository;
+    }
+}
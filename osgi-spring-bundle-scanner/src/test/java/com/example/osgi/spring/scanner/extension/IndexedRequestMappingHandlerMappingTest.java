@@ -0,0 +1,161 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import com.example.osgi.spring.scanner.processor.RequestMappingAnnotationProcessor;
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+import com.example.osgi.spring.scanner.util.ComponentIndexEntry;
+
+public class IndexedRequestMappingHandlerMappingTest
+{
+    private static final String CONTROLLER = "com.example.sample.ItemController";
+
+    private File directory;
+    private File classes;
+    private URLClassLoader classLoader;
+    private StaticWebApplicationContext applicationContext;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("mappings").toFile();
+        classes = new File(directory, "classes");
+        classes.mkdirs();
+
+        File source = new File(directory, "src/" + CONTROLLER.replace('.', '/') + ".java");
+        source.getParentFile().mkdirs();
+        Files.write(source.toPath(), ("package com.example.sample;\n"
+                + "import org.springframework.web.bind.annotation.*;\n"
+                + "@RestController @RequestMapping(path = \"/items\", produces = \"application/json\")\n"
+                + "public class ItemController {\n"
+                + " @GetMapping(\"/{id}\") public String get(@PathVariable long id) { return \"\"; }\n"
+                + " @PostMapping(consumes = \"application/json\", params = \"draft\") public void create(@RequestBody String[] item) {}\n"
+                + " @RequestMapping(path = {\"/search\", \"/find\"}, method = {RequestMethod.GET, RequestMethod.HEAD}, headers = \"X-Search\")"
+                + " public java.util.List<String> search(@RequestParam(\"q\") String query, int limit) { return null; }\n"
+                + " public String notMapped() { return \"\"; }\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        compile(source);
+
+        classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+        applicationContext = new StaticWebApplicationContext();
+        applicationContext.setClassLoader(classLoader);
+        applicationContext.registerSingleton("itemController", classLoader.loadClass(CONTROLLER));
+        applicationContext.refresh();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        applicationContext.close();
+        classLoader.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void indexedMappingsMatchTheDetectedMappings() throws Exception
+    {
+        List<ComponentIndexEntry> entries = readMappingEntries();
+        assertEquals(3, entries.size());
+
+        Map<RequestMappingInfo, String> indexed = getMappings(new IndexedRequestMappingHandlerMapping(entries));
+        Map<RequestMappingInfo, String> detected = getMappings(new RequestMappingHandlerMapping());
+
+        assertEquals(3, detected.size());
+        assertEquals(detected, indexed);
+    }
+
+    @Test
+    public void handlerMethodsAreDetectedWithoutAnIndex() throws Exception
+    {
+        Map<RequestMappingInfo, String> mappings = getMappings(new IndexedRequestMappingHandlerMapping(null));
+
+        assertEquals(getMappings(new RequestMappingHandlerMapping()), mappings);
+    }
+
+    @Test
+    public void entriesOfMissingClassesAreSkipped() throws Exception
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>(readMappingEntries());
+        entries.add(ComponentIndexEntry.parse("com.example.sample.Missing##handler:get(long),path:/missing"));
+
+        Map<RequestMappingInfo, String> mappings = getMappings(new IndexedRequestMappingHandlerMapping(entries));
+
+        assertEquals(3, mappings.size());
+        for (String handler : mappings.values())
+        {
+            assertTrue(handler, handler.contains(CONTROLLER + "."));
+        }
+    }
+
+    private Map<RequestMappingInfo, String> getMappings(RequestMappingHandlerMapping handlerMapping)
+    {
+        handlerMapping.setApplicationContext(applicationContext);
+        handlerMapping.afterPropertiesSet();
+
+        Map<RequestMappingInfo, String> mappings = new HashMap<RequestMappingInfo, String>();
+        for (Map.Entry<RequestMappingInfo, HandlerMethod> mapping : handlerMapping.getHandlerMethods().entrySet())
+        {
+            mappings.put(mapping.getKey(), mapping.getValue().getBean() + " " + mapping.getValue().getMethod());
+        }
+
+        return mappings;
+    }
+
+    private List<ComponentIndexEntry> readMappingEntries() throws Exception
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        for (String line : Files.readAllLines(new File(classes, ClassIndexFiles.MAPPINGS_INDEX_FILE).toPath(), StandardCharsets.UTF_8))
+        {
+            if (!line.trim().isEmpty())
+            {
+                entries.add(ComponentIndexEntry.parse(line));
+            }
+        }
+
+        return entries;
+    }
+
+    private void compile(File source) throws Exception
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        try
+        {
+            List<String> options = Arrays.asList("-d", classes.getPath(), "-classpath", System.getProperty("java.class.path"));
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(Collections.singletonList(source)));
+            task.setProcessors(Collections.singletonList(new RequestMappingAnnotationProcessor()));
+            assertTrue(task.call());
+        }
+        finally
+        {
+            fileManager.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.springframework.beans.factory.parsing.BeanDefinitionParsingException;
+import org.springframework.beans.factory.parsing.Problem;
+import org.springframework.beans.factory.parsing.ProblemReporter;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.ByteArrayResource;
+import org.w3c.dom.Element;
+
+public class OSGIBundleScannerBeanDefinitionParserTest
+{
+    @Test
+    public void invalidWarmUpReportSecondsAreReportedAgainstTheElement()
+    {
+        for (String seconds : new String[]{"five", "-1"})
+        {
+            Problem error = load("<scanner:scan-indexes warm-up-report-seconds='" + seconds + "'/>");
+
+            assertNotNull("[" + seconds + "] was accepted", error);
+            assertEquals("The warm-up-report-seconds attribute must be a number of seconds, not [" + seconds + "]", error.getMessage());
+            assertEquals("scan-indexes", ((Element) error.getLocation().getSource()).getLocalName());
+        }
+    }
+
+    /**
+     * loads the element without validating it, as the extender's contexts do
+     * @return the error reported while parsing it, if any
+     */
+    private static Problem load(String element)
+    {
+        final Problem[] error = new Problem[1];
+        XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(new DefaultListableBeanFactory());
+        reader.setValidationMode(XmlBeanDefinitionReader.VALIDATION_NONE);
+        reader.setNamespaceAware(true);
+        reader.setProblemReporter(new ProblemReporter()
+        {
+            @Override
+            public void fatal(Problem problem)
+            {
+                error[0] = problem;
+            }
+
+            @Override
+            public void error(Problem problem)
+            {
+                error[0] = problem;
+                //stop before the components are registered, as the default reporter does
+                throw new BeanDefinitionParsingException(problem);
+            }
+
+            @Override
+            public void warning(Problem problem)
+            {
+            }
+        });
+
+        try
+        {
+            reader.loadBeanDefinitions(new ByteArrayResource(("<beans xmlns='http://www.springframework.org/schema/beans' "
+                    + "xmlns:scanner='http://www.example.com/schema/osgi-bundle-scanner'>" + element + "</beans>").getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (BeanDefinitionParsingException e)
+        {
+            //reported
+        }
+        return error[0];
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import com.example.osgi.spring.scanner.annotation.export.ExportAsService;
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+
+public class ServiceExporterBeanPostProcessorTest
+{
+    private File directory;
+    private BundleContext bundleContext;
+    private ServiceRegistration<?> registration;
+    private DefaultListableBeanFactory beanFactory;
+    private ServiceExporterBeanPostProcessor postProcessor;
+
+    @Before
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("exports").toFile();
+        File exportsIndex = new File(directory, "exports");
+        Files.write(exportsIndex.toPath(), (LazyTask.class.getName() + "##java.lang.Runnable#lazy\n").getBytes(StandardCharsets.UTF_8));
+
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        when(bundle.getHeaders()).thenReturn(new Hashtable<String, String>());
+        when(bundle.getEntry(ClassIndexFiles.EXPORTS_INDEX_FILE)).thenReturn(exportsIndex.toURI().toURL());
+
+        registration = mock(ServiceRegistration.class);
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        when(bundleContext.registerService(any(String[].class), any(), any(Dictionary.class))).thenReturn((ServiceRegistration) registration);
+
+        beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("lazyTask", BeanDefinitionBuilder.genericBeanDefinition(LazyTask.class).setLazyInit(true).getBeanDefinition());
+        postProcessor = new ServiceExporterBeanPostProcessor(bundleContext, beanFactory);
+        beanFactory.addBeanPostProcessor(postProcessor);
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void lazyServicesCreateTheirBeanOnTheFirstRequest()
+    {
+        refresh();
+
+        ArgumentCaptor<String[]> interfaces = ArgumentCaptor.forClass(String[].class);
+        ArgumentCaptor<Object> service = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Dictionary> properties = ArgumentCaptor.forClass(Dictionary.class);
+        verify(bundleContext).registerService(interfaces.capture(), service.capture(), properties.capture());
+
+        assertArrayEquals(new String[]{"java.lang.Runnable"}, interfaces.getValue());
+        assertEquals("lazyTask", properties.getValue().get("org.springframework.osgi.bean.name"));
+        assertFalse(beanFactory.containsSingleton("lazyTask"));
+
+        ServiceFactory<Object> serviceFactory = (ServiceFactory<Object>) service.getValue();
+        Object bean = serviceFactory.getService(mock(Bundle.class), (ServiceRegistration<Object>) registration);
+
+        assertSame(beanFactory.getBean("lazyTask"), bean);
+        assertTrue(postProcessor.getServiceManager().hasLazyService("lazyTask"));
+        assertEquals(1, postProcessor.getServiceManager().getRegistrationCount());
+
+        beanFactory.destroySingletons();
+
+        verify(registration).unregister();
+        assertFalse(postProcessor.getServiceManager().hasLazyService("lazyTask"));
+    }
+
+    @Test
+    public void lazyServicesWithoutABeanAreUnregisteredWithTheContext()
+    {
+        refresh();
+        verify(registration, never()).unregister();
+
+        postProcessor.destroy();
+
+        verify(registration).unregister();
+        assertFalse(beanFactory.containsSingleton("lazyTask"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void beansCreatedDuringTheRefreshAreNotExportedLazily()
+    {
+        beanFactory.getBean("lazyTask");
+        refresh();
+
+        verify(bundleContext).registerService(eq(new String[]{Runnable.class.getName()}), any(), any(Dictionary.class));
+        assertFalse(postProcessor.getServiceManager().hasLazyService("lazyTask"));
+        assertEquals(1, postProcessor.getServiceManager().getRegistrationCount());
+    }
+
+    private void refresh()
+    {
+        ApplicationContext applicationContext = mock(ApplicationContext.class);
+        when(applicationContext.getAutowireCapableBeanFactory()).thenReturn(beanFactory);
+        postProcessor.onApplicationEvent(new ContextRefreshedEvent(applicationContext));
+    }
+
+    @ExportAsService(lazy = true)
+    public static class LazyTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.osgi.spring.scanner.extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.gemini.blueprint.service.importer.OsgiServiceDependency;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+public class StaticServiceFactoryBeanTest
+{
+    private BundleContext bundleContext;
+    private List<ServiceListener> listeners;
+    private ConfigurableApplicationContext applicationContext;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getState()).thenReturn(Bundle.ACTIVE);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+
+        listeners = new CopyOnWriteArrayList<ServiceListener>();
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        when(bundleContext.getBundle(Constants.SYSTEM_BUNDLE_LOCATION)).thenReturn(bundle);
+        when(bundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>()
+        {
+            @Override
+            public Filter answer(InvocationOnMock invocation) throws Throwable
+            {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                listeners.add((ServiceListener) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(bundleContext).addServiceListener(any(ServiceListener.class), anyString());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                listeners.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(bundleContext).removeServiceListener(any(ServiceListener.class));
+
+        applicationContext = mock(ConfigurableApplicationContext.class);
+        when(applicationContext.isActive()).thenReturn(true);
+        when(applicationContext.isRunning()).thenReturn(true);
+    }
+
+    @Test
+    public void highestRankedServiceIsInjected() throws Exception
+    {
+        Runnable lower = mock(Runnable.class);
+        Runnable higher = mock(Runnable.class);
+        ServiceReference<?> lowerReference = register(1L, 0, lower);
+        ServiceReference<?> higherReference = register(2L, 10, higher);
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), "(name=test)"))
+                .thenReturn(new ServiceReference<?>[]{lowerReference, higherReference});
+
+        StaticServiceFactoryBean factoryBean = createFactoryBean("(name=test)");
+
+        assertSame(higher, factoryBean.getObject());
+    }
+
+    @Test
+    public void contextIsRefreshedOnceAReplacementIsRegistered() throws Exception
+    {
+        ServiceReference<?> reference = register(1L, 0, mock(Runnable.class));
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), null)).thenReturn(new ServiceReference<?>[]{reference});
+        createFactoryBean(null);
+
+        fire(ServiceEvent.UNREGISTERING, reference);
+        Thread.sleep(100);
+        verify(applicationContext, never()).refresh();
+
+        fire(ServiceEvent.REGISTERED, register(2L, 0, mock(Runnable.class)));
+        verify(applicationContext, timeout(5000)).refresh();
+    }
+
+    @Test
+    public void contextIsRefreshedWhenNoReplacementComesInTime() throws Exception
+    {
+        ServiceReference<?> reference = register(1L, 0, mock(Runnable.class));
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), null)).thenReturn(new ServiceReference<?>[]{reference});
+        StaticServiceFactoryBean factoryBean = createFactoryBean(null);
+        factoryBean.setReplacementTimeout(50);
+
+        fire(ServiceEvent.UNREGISTERING, reference);
+
+        verify(applicationContext, timeout(5000)).refresh();
+    }
+
+    @Test
+    public void importsLosingTheirServicesTogetherRefreshTheContextOnce() throws Exception
+    {
+        ServiceReference<?> first = register(1L, 0, mock(Runnable.class));
+        ServiceReference<?> second = register(2L, 0, mock(Runnable.class));
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), "(name=first)")).thenReturn(new ServiceReference<?>[]{first});
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), "(name=second)")).thenReturn(new ServiceReference<?>[]{second});
+        createFactoryBean("(name=first)").setReplacementTimeout(200);
+        createFactoryBean("(name=second)").setReplacementTimeout(200);
+
+        fire(ServiceEvent.UNREGISTERING, first);
+        fire(ServiceEvent.UNREGISTERING, second);
+        verify(applicationContext, timeout(5000)).refresh();
+        Thread.sleep(300);
+        verify(applicationContext, times(1)).refresh();
+
+        //the restart is over, the next import losing its service refreshes the context again
+        ServiceReference<?> third = register(3L, 0, mock(Runnable.class));
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), "(name=third)")).thenReturn(new ServiceReference<?>[]{third});
+        createFactoryBean("(name=third)").setReplacementTimeout(50);
+        fire(ServiceEvent.UNREGISTERING, third);
+        verify(applicationContext, timeout(5000).times(2)).refresh();
+    }
+
+    @Test
+    public void contextIsNotRefreshedWhileClosingOrRefreshing() throws Exception
+    {
+        ServiceReference<?> reference = register(1L, 0, mock(Runnable.class));
+        when(bundleContext.getServiceReferences(Runnable.class.getName(), null)).thenReturn(new ServiceReference<?>[]{reference});
+        createFactoryBean(null).setReplacementTimeout(50);
+        when(applicationContext.isRunning()).thenReturn(false);
+
+        fire(ServiceEvent.UNREGISTERING, reference);
+        Thread.sleep(200);
+
+        verify(applicationContext, never()).refresh();
+    }
+
+    @Test
+    public void staticImportsAreMandatoryDependencies() throws Exception
+    {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("filtered", BeanDefinitionBuilder.rootBeanDefinition(StaticServiceFactoryBean.class)
+                .addConstructorArgValue(bundleContext)
+                .addConstructorArgValue(Runnable.class)
+                .addPropertyValue("filter", "(name=test)")
+                .getBeanDefinition());
+        beanFactory.registerBeanDefinition("unfiltered", BeanDefinitionBuilder.rootBeanDefinition(StaticServiceFactoryBean.class)
+                .addConstructorArgValue(bundleContext)
+                .addConstructorArgValue(Comparable.class)
+                .getBeanDefinition());
+        beanFactory.registerBeanDefinition("other", BeanDefinitionBuilder.rootBeanDefinition(Object.class).getBeanDefinition());
+
+        Collection<OsgiServiceDependency> dependencies = new StaticImportDependencyFactory().getServiceDependencies(bundleContext, beanFactory);
+
+        List<String> filters = new ArrayList<String>();
+        for (OsgiServiceDependency dependency : dependencies)
+        {
+            assertTrue(dependency.isMandatory());
+            filters.add(dependency.getBeanName() + " " + dependency.getServiceFilter());
+        }
+        assertEquals(2, filters.size());
+        assertTrue(filters.contains("filtered (&(objectClass=java.lang.Runnable)(name=test))"));
+        assertTrue(filters.contains("unfiltered (objectClass=java.lang.Comparable)"));
+    }
+
+    private StaticServiceFactoryBean createFactoryBean(String filter) throws Exception
+    {
+        StaticServiceFactoryBean factoryBean = new StaticServiceFactoryBean(bundleContext, Runnable.class);
+        factoryBean.setFilter(filter);
+        factoryBean.setApplicationContext(applicationContext);
+        factoryBean.afterPropertiesSet();
+        return factoryBean;
+    }
+
+    private ServiceReference<?> register(long serviceId, final int ranking, Object service)
+    {
+        ServiceReference<?> reference = mock(ServiceReference.class);
+        when(reference.getProperty(Constants.SERVICE_ID)).thenReturn(serviceId);
+        when(reference.getProperty(Constants.SERVICE_RANKING)).thenReturn(ranking);
+        when(reference.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[]{Runnable.class.getName()});
+        when(reference.getPropertyKeys()).thenReturn(new String[]{Constants.SERVICE_ID, Constants.SERVICE_RANKING, Constants.OBJECTCLASS});
+        when(reference.compareTo(any())).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable
+            {
+                ServiceReference<?> other = (ServiceReference<?>) invocation.getArguments()[0];
+                return Integer.compare(ranking, (Integer) other.getProperty(Constants.SERVICE_RANKING));
+            }
+        });
+        Mockito.<Object>when(bundleContext.getService(reference)).thenReturn(service);
+        return reference;
+    }
+
+    private void fire(int type, ServiceReference<?> reference)
+    {
+        for (ServiceListener listener : listeners)
+        {
+            listener.serviceChanged(new ServiceEvent(type, reference));
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.osgi.spring.scanner.processor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.scanner.extension.IndexedComponentRegistrar;
+import com.example.osgi.spring.scanner.util.ClassIndexFiles;
+
+public class ComponentAnnotationProcessorTest
+{
+    private static final String REGISTRAR = "com.example.sample.SampleRegistrar";
+
+    private File directory;
+    private File sources;
+    private File classes;
+    private DiagnosticCollector<JavaFileObject> diagnostics;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("processor").toFile();
+        sources = new File(directory, "src");
+        classes = new File(directory, "classes");
+        classes.mkdirs();
+        diagnostics = new DiagnosticCollector<JavaFileObject>();
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void registrarIsGeneratedBeforeTheLastRound() throws Exception
+    {
+        addSource("com.example.sample.Repository", "@org.springframework.stereotype.Component public class Repository {}");
+        addSource("com.example.sample.Service", "@org.springframework.stereotype.Component public class Service {"
+                + " public final Repository repository;"
+                + " public Service(Repository repository) { this.repository = repository; } }");
+
+        assertTrue(compile(REGISTRAR));
+
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+        {
+            assertFalse(diagnostic.getMessage(null), diagnostic.getKind() == Diagnostic.Kind.WARNING || diagnostic.getKind() == Diagnostic.Kind.MANDATORY_WARNING);
+        }
+        assertTrue(new File(classes, REGISTRAR.replace('.', '/') + ".class").isFile());
+        assertEquals(REGISTRAR, read(ClassIndexFiles.REGISTRAR_FILE).trim());
+        assertEquals(Arrays.asList("com.example.sample.Repository", "com.example.sample.Service##com.example.sample.Repository"),
+                Arrays.asList(read(ClassIndexFiles.COMPONENT_INDEX_FILE).trim().split("\n")));
+    }
+
+    @Test
+    public void generatedRegistrarResolvesAndRecordsConstructorDependencies() throws Exception
+    {
+        addSource("com.example.sample.Repository", "@org.springframework.stereotype.Component public class Repository {}");
+        addSource("com.example.sample.Service", "@org.springframework.stereotype.Component public class Service {"
+                + " public final Repository repository;"
+                + " public Service(Repository repository) { this.repository = repository; } }");
+        assertTrue(compile(REGISTRAR));
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+        try
+        {
+            DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+            beanFactory.setBeanClassLoader(classLoader);
+            IndexedComponentRegistrar registrar = (IndexedComponentRegistrar) classLoader.loadClass(REGISTRAR).newInstance();
+            Map<String, BeanDefinition> candidates = registrar.getCandidateComponents(beanFactory);
+            for (Map.Entry<String, BeanDefinition> candidate : candidates.entrySet())
+            {
+                AbstractBeanDefinition definition = (AbstractBeanDefinition) candidate.getValue();
+                assertFalse(definition.hasBeanClass());
+                assertNotNull(definition.getInstanceSupplier());
+                beanFactory.registerBeanDefinition(candidate.getKey(), definition);
+            }
+
+            Object service = beanFactory.getBean("service");
+            assertSame(beanFactory.getBean("repository"), service.getClass().getField("repository").get(service));
+            assertArrayEquals(new String[]{"service"}, beanFactory.getDependentBeans("repository"));
+        }
+        finally
+        {
+            classLoader.close();
+        }
+    }
+
+    @Test
+    public void generatedRegistrarCreatesPrototypesAgainWithTheirDependencies() throws Exception
+    {
+        addSource("com.example.sample.Repository", "@org.springframework.stereotype.Component public class Repository {}");
+        addSource("com.example.sample.Request", "@org.springframework.stereotype.Component"
+                + " @org.springframework.context.annotation.Scope(\"prototype\") public class Request {"
+                + " public final Repository repository;"
+                + " public Request(Repository repository) { this.repository = repository; } }");
+        assertTrue(compile(REGISTRAR));
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+        try
+        {
+            DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+            beanFactory.setBeanClassLoader(classLoader);
+            IndexedComponentRegistrar registrar = (IndexedComponentRegistrar) classLoader.loadClass(REGISTRAR).newInstance();
+            for (Map.Entry<String, BeanDefinition> candidate : registrar.getCandidateComponents(beanFactory).entrySet())
+            {
+                beanFactory.registerBeanDefinition(candidate.getKey(), candidate.getValue());
+            }
+
+            Object first = beanFactory.getBean("request");
+            Object second = beanFactory.getBean("request");
+            assertNotSame(first, second);
+            assertSame(beanFactory.getBean("repository"), first.getClass().getField("repository").get(first));
+            assertSame(beanFactory.getBean("repository"), second.getClass().getField("repository").get(second));
+        }
+        finally
+        {
+            classLoader.close();
+        }
+    }
+
+    @Test
+    public void indexIsWrittenWithoutARegistrar() throws Exception
+    {
+        addSource("com.example.sample.Repository", "@org.springframework.stereotype.Component(\"repo\") public class Repository {}");
+
+        assertTrue(compile(null));
+
+        assertEquals("com.example.sample.Repository#repo", read(ClassIndexFiles.COMPONENT_INDEX_FILE).trim());
+        assertFalse(new File(classes, ClassIndexFiles.REGISTRAR_FILE).exists());
+    }
+
+    @Test
+    public void interfaceDependenciesAreRecordedAsTheImplementingComponent() throws Exception
+    {
+        addSource("com.example.sample.Repository", "public interface Repository {}");
+        addSource("com.example.sample.JdbcRepository", "@org.springframework.stereotype.Component public class JdbcRepository implements Repository {}");
+        addSource("com.example.sample.Service", "@org.springframework.stereotype.Component public class Service {"
+                + " public Service(Repository repository, Runnable task) {} }");
+
+        assertTrue(compile(null));
+
+        assertEquals(Arrays.asList("com.example.sample.JdbcRepository", "com.example.sample.Service##com.example.sample.JdbcRepository"),
+                Arrays.asList(read(ClassIndexFiles.COMPONENT_INDEX_FILE).trim().split("\n")));
+    }
+
+    @Test
+    public void eagerComponentsAreFlagged() throws Exception
+    {
+        addSource("com.example.sample.Lazy", "@org.springframework.stereotype.Component"
+                + " @org.springframework.context.annotation.Lazy public class Lazy {}");
+        addSource("com.example.sample.Startup", "@org.springframework.stereotype.Component"
+                + " @org.springframework.context.annotation.Lazy(false) public class Startup {}");
+
+        assertTrue(compile(null));
+
+        assertEquals(Arrays.asList("com.example.sample.Lazy", "com.example.sample.Startup###eager"),
+                Arrays.asList(read(ClassIndexFiles.COMPONENT_INDEX_FILE).trim().split("\n")));
+    }
+
+    @Test
+    public void profileConditionsAreIndexed() throws Exception
+    {
+        addSource("com.example.sample.DevTools", "@org.springframework.stereotype.Component"
+                + " @org.springframework.context.annotation.Profile({\"dev\", \"!prod\"}) public class DevTools {}");
+        addSource("com.example.sample.Service", "@org.springframework.stereotype.Component public class Service {}");
+
+        assertTrue(compile(null));
+
+        assertEquals("com.example.sample.DevTools##profile:dev|!prod", read(ClassIndexFiles.CONDITIONS_INDEX_FILE).trim());
+    }
+
+    @Test
+    public void componentsAreIndexedFromMirrorsByBinaryName() throws Exception
+    {
+        addSource("com.example.sample.Outer", "public class Outer {"
+                + " @org.springframework.stereotype.Component(value = \"inner\") public static class Inner {} }");
+        addSource("com.example.sample.Named", "@org.springframework.stereotype.Component(\"named\") public class Named {}");
+        addSource("com.example.sample.Anonymous", "@org.springframework.stereotype.Component public class Anonymous {}");
+
+        assertTrue(compile(null));
+
+        assertEquals(Arrays.asList("com.example.sample.Anonymous", "com.example.sample.Named#named", "com.example.sample.Outer$Inner#inner"),
+                Arrays.asList(read(ClassIndexFiles.COMPONENT_INDEX_FILE).trim().split("\n")));
+    }
+
+    @Test
+    public void importsAreIndexedFromConstructorParameters() throws Exception
+    {
+        addSource("com.example.sample.Consumer", "public class Consumer {"
+                + " public Consumer(@com.example.osgi.spring.scanner.annotation.imports.ComponentImport(\"task\") Runnable task,"
+                + " @com.example.osgi.spring.scanner.annotation.imports.ComponentImport(dynamic = false) java.util.concurrent.Executor executor) {} }");
+
+        assertTrue(compile(null, new ComponentImportAnnotationProcessor()));
+
+        assertEquals(Arrays.asList("java.lang.Runnable#task", "java.util.concurrent.Executor###static"),
+                Arrays.asList(read(ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE).trim().split("\n")));
+        assertTrue(new File(classes, ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE + ClassIndexFiles.BINARY_INDEX_SUFFIX).isFile());
+    }
+
+    private void addSource(String className, String body) throws Exception
+    {
+        File file = new File(sources, className.replace('.', '/') + ".java");
+        file.getParentFile().mkdirs();
+        String packageName = className.substring(0, className.lastIndexOf('.'));
+        Files.write(file.toPath(), ("package " + packageName + ";\n" + body + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean compile(String registrar) throws Exception
+    {
+        return compile(registrar, new ComponentAnnotationProcessor());
+    }
+
+    private boolean compile(String registrar, Processor... processors) throws Exception
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        try
+        {
+            List<File> files = listJavaFiles(sources);
+            List<String> options = new ArrayList<String>(Arrays.asList("-d", classes.getPath(), "-classpath", System.getProperty("java.class.path")));
+            if (null != registrar)
+            {
+                options.add("-A" + ComponentAnnotationProcessor.REGISTRAR_OPTION + "=" + registrar);
+            }
+
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Arrays.asList(processors));
+            return task.call();
+        }
+        finally
+        {
+            fileManager.close();
+        }
+    }
+
+    private String read(String resource) throws Exception
+    {
+        return new String(Files.readAllBytes(new File(classes, resource).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static List<File> listJavaFiles(File directory)
+    {
+        List<File> files = new ArrayList<File>();
+        for (File file : directory.listFiles())
+        {
+            if (file.isDirectory())
+            {
+                files.addAll(listJavaFiles(file));
+            }
+            else if (file.getName().endsWith(".java"))
+            {
+                files.add(file);
+            }
+        }
+
+        return files;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryComponentIndexTest
+{
+    @Test
+    public void entriesSurviveARoundTrip() throws Exception
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        entries.add(ComponentIndexEntry.parse("com.example.plugin.FirstComponent"));
+        entries.add(ComponentIndexEntry.parse("com.example.plugin.SecondComponent#namedBean"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryComponentIndex.write(entries, out);
+
+        List<ComponentIndexEntry> read = BinaryComponentIndex.read(ByteBuffer.wrap(out.toByteArray()));
+
+        assertEquals(2, read.size());
+        assertEquals("com.example.plugin.FirstComponent", read.get(0).getClassName());
+        assertFalse(read.get(0).hasBeanName());
+        assertEquals("com.example.plugin.SecondComponent", read.get(1).getClassName());
+        assertTrue(read.get(1).hasBeanName());
+        assertEquals("namedBean", read.get(1).getBeanName());
+    }
+
+    @Test
+    public void valuesAndFlagsSurviveARoundTrip() throws Exception
+    {
+        ComponentIndexEntry entry = ComponentIndexEntry.parse("com.example.plugin.LazyService##com.example.api.Service#lazy");
+        assertEquals("com.example.plugin.LazyService##com.example.api.Service#lazy", entry.toIndexLine());
+
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        entries.add(entry);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryComponentIndex.write(entries, out);
+
+        ComponentIndexEntry read = BinaryComponentIndex.read(ByteBuffer.wrap(out.toByteArray())).get(0);
+
+        assertTrue(read.hasFlag(ComponentIndexEntry.FLAG_LAZY));
+        assertEquals(1, read.getValues().size());
+        assertEquals("com.example.api.Service", read.getValues().get(0));
+    }
+
+    @Test
+    public void unknownContentIsNotReadAsAnIndex()
+    {
+        assertNull(BinaryComponentIndex.read(ByteBuffer.wrap("com.example.plugin.FirstComponent\n".getBytes())));
+    }
+
+    @Test
+    public void truncatedIndexIsNotRead() throws Exception
+    {
+        byte[] index = writeSampleIndex();
+
+        for (int length = 0; length < index.length; length++)
+        {
+            assertNull("truncated to " + length + " bytes", BinaryComponentIndex.read(ByteBuffer.wrap(Arrays.copyOf(index, length))));
+        }
+    }
+
+    @Test
+    public void corruptIndexIsNotRead() throws Exception
+    {
+        byte[] index = writeSampleIndex();
+
+        // every int of the header, the offset tables and the records pointing somewhere it can't
+        for (int offset = 8; offset + 4 <= index.length; offset += 4)
+        {
+            for (int value : new int[]{-2, Integer.MAX_VALUE, Integer.MIN_VALUE, index.length})
+            {
+                ByteBuffer corrupt = ByteBuffer.wrap(index.clone());
+                corrupt.putInt(offset, value);
+                try
+                {
+                    BinaryComponentIndex.read(corrupt);
+                }
+                catch (RuntimeException e)
+                {
+                    throw new AssertionError("failed with " + value + " at " + offset, e);
+                }
+            }
+        }
+
+        ByteBuffer corrupt = ByteBuffer.wrap(index.clone());
+        corrupt.putInt(8, 1000);
+        assertNull(BinaryComponentIndex.read(corrupt));
+    }
+
+    @Test
+    public void corruptBinaryIndexFallsBackToTheTextIndex() throws Exception
+    {
+        byte[] index = writeSampleIndex();
+        File directory = Files.createTempDirectory("index").toFile();
+        try
+        {
+            File binary = new File(directory, "components.bin");
+            Files.write(binary.toPath(), Arrays.copyOf(index, index.length - 3));
+            File text = new File(directory, "components");
+            Files.write(text.toPath(), "com.example.plugin.TextComponent\n".getBytes(StandardCharsets.UTF_8));
+
+            List<ComponentIndexEntry> entries = AnnotationIndexReader.readIndexEntries(binary.toURI().toURL(), text.toURI().toURL());
+
+            assertEquals(1, entries.size());
+            assertEquals("com.example.plugin.TextComponent", entries.get(0).getClassName());
+        }
+        finally
+        {
+            for (File file : directory.listFiles())
+            {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static byte[] writeSampleIndex() throws Exception
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        entries.add(ComponentIndexEntry.parse("com.example.plugin.FirstComponent#first"));
+        entries.add(ComponentIndexEntry.parse("com.example.plugin.LazyService##com.example.api.Service,com.example.api.Other#lazy"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryComponentIndex.write(entries, out);
+        return out.toByteArray();
+    }
+}
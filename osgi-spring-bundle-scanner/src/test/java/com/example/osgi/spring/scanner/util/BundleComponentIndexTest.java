@@ -0,0 +1,86 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class BundleComponentIndexTest
+{
+    private File directory;
+    private Bundle bundle;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("index").toFile();
+        bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(5L);
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void componentIndexWithoutExportsIndexLeavesExportsUnknown() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.FirstComponent");
+
+        BundleComponentIndex index = BundleComponentIndex.read(bundle);
+
+        assertTrue(index.isIndexed());
+        assertFalse(index.isExportsIndexed());
+        assertTrue(index.getExports().isEmpty());
+    }
+
+    @Test
+    public void exportsIndexListsTheExportedClasses() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.COMPONENT_INDEX_FILE, "com.example.plugin.FirstComponent");
+        addIndexFile(ClassIndexFiles.EXPORTS_INDEX_FILE, "com.example.plugin.FirstComponent##com.example.api.Service#lazy");
+
+        BundleComponentIndex index = BundleComponentIndex.read(bundle);
+
+        assertTrue(index.isExportsIndexed());
+        assertEquals(Arrays.asList("com.example.api.Service"), index.getExports().get("com.example.plugin.FirstComponent"));
+        assertTrue(index.getLazyExports().contains("com.example.plugin.FirstComponent"));
+    }
+
+    @Test
+    public void emptyExportsIndexIsTrusted() throws Exception
+    {
+        addIndexFile(ClassIndexFiles.EXPORTS_INDEX_FILE, "");
+
+        BundleComponentIndex index = BundleComponentIndex.read(bundle);
+
+        assertTrue(index.isExportsIndexed());
+        assertFalse(index.hasExports());
+    }
+
+    private void addIndexFile(String name, String content) throws Exception
+    {
+        File file = new File(directory, name.replace('/', '_'));
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        URL url = file.toURI().toURL();
+        when(bundle.getEntry(name)).thenReturn(url);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.scanner.processor.ComponentAnnotationProcessor;
+import com.example.osgi.spring.scanner.processor.ComponentImportAnnotationProcessor;
+import com.example.osgi.spring.scanner.processor.ExportAsServiceAnnotationProcessor;
+
+public class BytecodeComponentScannerTest
+{
+    private File directory;
+    private File sources;
+    private File classes;
+    private Bundle bundle;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("bytecode").toFile();
+        sources = new File(directory, "src");
+        classes = new File(directory, "classes");
+        classes.mkdirs();
+
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put(BytecodeComponentScanner.SCAN_PACKAGES_HEADER, "com.example.sample, com.example.other");
+        bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        when(bundle.getHeaders()).thenReturn(headers);
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void scanPackagesAreReadFromTheManifest()
+    {
+        assertEquals(Arrays.asList("com.example.sample", "com.example.other"), BytecodeComponentScanner.getScanPackages(bundle));
+        assertTrue(BytecodeComponentScanner.getScanPackages(mockBundleWithoutHeaders()).isEmpty());
+    }
+
+    @Test
+    public void scannedIndexMatchesTheIndexOfTheAnnotationProcessors() throws Exception
+    {
+        addSource("com.example.sample.Greeting", "public interface Greeting { String greet(); }");
+        addSource("com.example.sample.Repository", "@org.springframework.stereotype.Component public class Repository {}");
+        addSource("com.example.sample.Service", "@org.springframework.stereotype.Component(\"service\") public class Service {"
+                + " public Service(Repository repository,"
+                + " @com.example.osgi.spring.scanner.annotation.imports.ComponentImport(\"clock\") java.time.Clock clock,"
+                + " @com.example.osgi.spring.scanner.annotation.imports.ComponentImport(dynamic = false) Runnable task) {} }");
+        addSource("com.example.sample.Greeter", "@org.springframework.stereotype.Component"
+                + " @com.example.osgi.spring.scanner.annotation.export.ExportAsService(lazy = true)"
+                + " public class Greeter implements Greeting { public Greeter(Greeting fallback) {} public String greet() { return \"\"; } }");
+        addSource("com.example.sample.DevTools", "@org.springframework.stereotype.Component"
+                + " @org.springframework.context.annotation.Profile(\"dev\") @org.springframework.context.annotation.Lazy(false)"
+                + " @com.example.osgi.spring.scanner.annotation.export.ExportAsService(Runnable.class)"
+                + " public class DevTools implements Runnable { public void run() {} }");
+        addSource("com.example.sample.Outer", "public class Outer {"
+                + " @org.springframework.stereotype.Component public static class Nested {} }");
+        addSource("com.example.other.Client", "@org.springframework.stereotype.Component public class Client {"
+                + " @org.springframework.beans.factory.annotation.Autowired public Client(com.example.sample.Service service) {}"
+                + " public Client() {} }");
+        compile();
+
+        BundleComponentIndex index = new BytecodeComponentScanner().scan(bundle, BytecodeComponentScanner.getScanPackages(bundle));
+
+        assertEquals(Arrays.asList("com.example.other.Client##com.example.sample.Service", "com.example.sample.DevTools###eager",
+                "com.example.sample.Greeter", "com.example.sample.Outer$Nested", "com.example.sample.Repository",
+                "com.example.sample.Service#service#com.example.sample.DevTools,com.example.sample.Repository"), toIndexLines(index.getComponents()));
+        assertEquals(readIndex(ClassIndexFiles.COMPONENT_INDEX_FILE), toIndexLines(index.getComponents()));
+        assertEquals(readIndex(ClassIndexFiles.COMPONENT_IMPORT_INDEX_FILE), toIndexLines(index.getImports()));
+        assertEquals(readIndex(ClassIndexFiles.CONDITIONS_INDEX_FILE), toIndexLines(toEntries(index.getConditions(), 0)));
+        assertEquals(readIndex(ClassIndexFiles.EXPORTS_INDEX_FILE), toIndexLines(toExportEntries(index)));
+        assertTrue(index.isExportsIndexed());
+    }
+
+    @Test
+    public void unreadableClassFilesAreSkipped() throws Exception
+    {
+        addSource("com.example.sample.Repository", "@org.springframework.stereotype.Component public class Repository {}");
+        compile();
+        Files.write(new File(classes, "com/example/sample/Broken.class").toPath(), new byte[]{(byte) 0xCA, (byte) 0xFE});
+
+        BundleComponentIndex index = new BytecodeComponentScanner().scan(bundle, Collections.singletonList("com.example.sample"));
+
+        assertEquals(Arrays.asList("com.example.sample.Repository"), toIndexLines(index.getComponents()));
+    }
+
+    private Bundle mockBundleWithoutHeaders()
+    {
+        Bundle bundleWithoutHeaders = mock(Bundle.class);
+        when(bundleWithoutHeaders.getHeaders()).thenReturn(new Hashtable<String, String>());
+        return bundleWithoutHeaders;
+    }
+
+    private void addSource(String className, String body) throws Exception
+    {
+        File file = new File(sources, className.replace('.', '/') + ".java");
+        file.getParentFile().mkdirs();
+        String packageName = className.substring(0, className.lastIndexOf('.'));
+        Files.write(file.toPath(), ("package " + packageName + ";\n" + body + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * compiles the sources with the annotation processors, and makes the class files entries of the bundle
+     */
+    private void compile() throws Exception
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        try
+        {
+            List<String> options = Arrays.asList("-d", classes.getPath(), "-classpath", System.getProperty("java.class.path"));
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(listFiles(sources, ".java")));
+            task.setProcessors(Arrays.asList(new ComponentAnnotationProcessor(), new ComponentImportAnnotationProcessor(),
+                    new ExportAsServiceAnnotationProcessor()));
+            assertTrue(task.call());
+        }
+        finally
+        {
+            fileManager.close();
+        }
+
+        for (String scanPackage : Arrays.asList("com.example.sample", "com.example.other"))
+        {
+            File packageDirectory = new File(classes, scanPackage.replace('.', '/'));
+            List<URL> classFiles = new ArrayList<URL>();
+            if (packageDirectory.isDirectory())
+            {
+                for (File classFile : listFiles(packageDirectory, ".class"))
+                {
+                    classFiles.add(classFile.toURI().toURL());
+                }
+            }
+            when(bundle.findEntries(scanPackage.replace('.', '/'), "*.class", true)).thenReturn(Collections.enumeration(classFiles));
+        }
+    }
+
+    private List<String> readIndex(String resource) throws Exception
+    {
+        File file = new File(classes, resource);
+        List<String> lines = new ArrayList<String>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+        {
+            if (!line.trim().isEmpty())
+            {
+                lines.add(line.trim());
+            }
+        }
+
+        return lines;
+    }
+
+    private static List<String> toIndexLines(List<ComponentIndexEntry> entries)
+    {
+        List<String> lines = new ArrayList<String>();
+        for (ComponentIndexEntry entry : entries)
+        {
+            lines.add(entry.toIndexLine());
+        }
+        Collections.sort(lines);
+
+        return lines;
+    }
+
+    private static List<ComponentIndexEntry> toEntries(Map<String, List<String>> values, int flags)
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        for (Map.Entry<String, List<String>> value : values.entrySet())
+        {
+            entries.add(new ComponentIndexEntry(value.getKey(), "", flags, value.getValue()));
+        }
+
+        return entries;
+    }
+
+    private static List<ComponentIndexEntry> toExportEntries(BundleComponentIndex index)
+    {
+        List<ComponentIndexEntry> entries = new ArrayList<ComponentIndexEntry>();
+        for (Map.Entry<String, List<String>> export : index.getExports().entrySet())
+        {
+            int flags = index.getLazyExports().contains(export.getKey()) ? ComponentIndexEntry.FLAG_LAZY : 0;
+            entries.add(new ComponentIndexEntry(export.getKey(), "", flags, export.getValue()));
+        }
+
+        return entries;
+    }
+
+    private static List<File> listFiles(File directory, String suffix)
+    {
+        List<File> files = new ArrayList<File>();
+        for (File file : directory.listFiles())
+        {
+            if (file.isDirectory())
+            {
+                files.addAll(listFiles(file, suffix));
+            }
+            else if (file.getName().endsWith(suffix))
+            {
+                files.add(file);
+            }
+        }
+
+        return files;
+    }
+}
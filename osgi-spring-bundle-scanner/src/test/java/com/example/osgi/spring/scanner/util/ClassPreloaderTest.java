@@ -0,0 +1,86 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ClassPreloaderTest
+{
+    private static final AtomicBoolean INITIALIZED = new AtomicBoolean();
+
+    @Test
+    public void classesAreLoadedInTheBackgroundWithoutBeingInitialized() throws Exception
+    {
+        List<String> classNames = new ArrayList<String>();
+        classNames.add(Uninitialized.class.getName());
+        for (int i = 0; i < 40; i++)
+        {
+            classNames.add("com.example.missing.Component" + i);
+        }
+
+        RecordingClassLoader classLoader = new RecordingClassLoader(classNames.size());
+        ClassPreloader.preload(classNames, classLoader);
+
+        assertTrue(classLoader.loaded.await(10, TimeUnit.SECONDS));
+        assertEquals(classNames.size(), classLoader.classNames.size());
+        assertFalse(INITIALIZED.get());
+        for (String threadName : classLoader.threadNames)
+        {
+            assertTrue(threadName, threadName.startsWith("osgi-scanner-preload-"));
+        }
+    }
+
+    @Test
+    public void nothingIsLoadedWithoutClassesOrClassLoader() throws Exception
+    {
+        RecordingClassLoader classLoader = new RecordingClassLoader(1);
+
+        ClassPreloader.preload(Collections.<String>emptyList(), classLoader);
+        ClassPreloader.preload(Collections.singletonList(Uninitialized.class.getName()), null);
+
+        assertFalse(classLoader.loaded.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static class RecordingClassLoader extends ClassLoader
+    {
+        private final Set<String> classNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Set<String> threadNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final CountDownLatch loaded;
+
+        private RecordingClassLoader(int count)
+        {
+            super(ClassPreloaderTest.class.getClassLoader());
+            this.loaded = new CountDownLatch(count);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+        {
+            if (classNames.add(name))
+            {
+                threadNames.add(Thread.currentThread().getName());
+                loaded.countDown();
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    public static class Uninitialized
+    {
+        static
+        {
+            INITIALIZED.set(true);
+        }
+    }
+}
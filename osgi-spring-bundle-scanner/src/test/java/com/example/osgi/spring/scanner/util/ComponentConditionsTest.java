@@ -0,0 +1,82 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+public class ComponentConditionsTest
+{
+    private StandardEnvironment environment;
+
+    @Before
+    public void setUp()
+    {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("feature.enabled", "true");
+        properties.put("feature.disabled", "FALSE");
+        properties.put("feature.mode", "fast");
+
+        environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+        environment.setActiveProfiles("dev");
+    }
+
+    @Test
+    public void conditionsAreWrittenInTheIndexFormat()
+    {
+        assertEquals("profile:dev|!prod", ComponentConditions.profileCondition(Arrays.asList("dev", "!prod")));
+        assertEquals("property:feature.enabled", ComponentConditions.propertyCondition("feature", "enabled", ""));
+        assertEquals("property:feature.mode=fast", ComponentConditions.propertyCondition("feature.", "mode", "fast"));
+        assertEquals("property:mode", ComponentConditions.propertyCondition("", "mode", null));
+    }
+
+    @Test
+    public void profileConditionsMatchIfAnyProfileIsAccepted()
+    {
+        assertTrue(matches("profile:dev"));
+        assertTrue(matches("profile:test|dev"));
+        assertTrue(matches("profile:!prod"));
+        assertFalse(matches("profile:prod"));
+        assertFalse(matches("profile:!dev"));
+    }
+
+    @Test
+    public void propertyConditionsMatchSetPropertiesWhichArentFalse()
+    {
+        assertTrue(matches("property:feature.enabled"));
+        assertFalse(matches("property:feature.disabled"));
+        assertFalse(matches("property:feature.missing"));
+        assertTrue(matches("property:feature.mode=FAST"));
+        assertFalse(matches("property:feature.mode=slow"));
+        assertFalse(matches("property:feature.missing=fast"));
+    }
+
+    @Test
+    public void allConditionsMustMatch()
+    {
+        assertTrue(ComponentConditions.matches(Collections.<String>emptyList(), environment));
+        assertTrue(ComponentConditions.matches(Arrays.asList("profile:dev", "property:feature.enabled"), environment));
+        assertFalse(ComponentConditions.matches(Arrays.asList("profile:dev", "property:feature.disabled"), environment));
+    }
+
+    @Test
+    public void unknownConditionsMatch()
+    {
+        assertTrue(matches("bean:com.example.Missing"));
+    }
+
+    private boolean matches(String condition)
+    {
+        return ComponentConditions.matches(Collections.singletonList(condition), environment);
+    }
+}
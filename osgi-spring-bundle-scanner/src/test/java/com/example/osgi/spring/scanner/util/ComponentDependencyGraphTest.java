@@ -0,0 +1,86 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ComponentDependencyGraphTest
+{
+    @Test
+    public void componentsAreOrderedInWavesDependenciesFirst()
+    {
+        ComponentDependencyGraph graph = new ComponentDependencyGraph(Arrays.asList(
+                ComponentIndexEntry.parse("com.example.Controller##com.example.Service,com.example.Repository"),
+                ComponentIndexEntry.parse("com.example.Service##com.example.Repository"),
+                ComponentIndexEntry.parse("com.example.Repository"),
+                ComponentIndexEntry.parse("com.example.Clock")));
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("com.example.Repository", "com.example.Clock"),
+                Arrays.asList("com.example.Service"),
+                Arrays.asList("com.example.Controller")), getWaveClassNames(graph.getWaves()));
+        assertEquals(Arrays.asList("com.example.Repository", "com.example.Clock", "com.example.Service", "com.example.Controller"),
+                getClassNames(graph.getOrderedComponents()));
+    }
+
+    @Test
+    public void unknownAndSelfDependenciesAreIgnored()
+    {
+        ComponentDependencyGraph graph = new ComponentDependencyGraph(Arrays.asList(
+                ComponentIndexEntry.parse("com.example.Service##com.example.Service,com.example.OtherBundleService"),
+                ComponentIndexEntry.parse("com.example.Repository")));
+
+        assertEquals(Collections.singletonList(Arrays.asList("com.example.Service", "com.example.Repository")), getWaveClassNames(graph.getWaves()));
+    }
+
+    @Test
+    public void cyclesAndTheirDependantsGoInTheLastWave()
+    {
+        ComponentDependencyGraph graph = new ComponentDependencyGraph(Arrays.asList(
+                ComponentIndexEntry.parse("com.example.First##com.example.Second,com.example.Repository"),
+                ComponentIndexEntry.parse("com.example.Second##com.example.First"),
+                ComponentIndexEntry.parse("com.example.Controller##com.example.First"),
+                ComponentIndexEntry.parse("com.example.Service##com.example.Repository"),
+                ComponentIndexEntry.parse("com.example.Repository")));
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("com.example.Repository"),
+                Arrays.asList("com.example.Service"),
+                Arrays.asList("com.example.First", "com.example.Second", "com.example.Controller")), getWaveClassNames(graph.getWaves()));
+        assertEquals(5, graph.getOrderedComponents().size());
+    }
+
+    @Test
+    public void emptyIndexHasNoWaves()
+    {
+        assertEquals(0, new ComponentDependencyGraph(Collections.<ComponentIndexEntry>emptyList()).getWaves().size());
+    }
+
+    private static List<List<String>> getWaveClassNames(List<List<ComponentIndexEntry>> waves)
+    {
+        List<List<String>> classNames = new ArrayList<List<String>>();
+        for (List<ComponentIndexEntry> wave : waves)
+        {
+            classNames.add(getClassNames(wave));
+        }
+
+        return classNames;
+    }
+
+    private static List<String> getClassNames(Collection<ComponentIndexEntry> components)
+    {
+        List<String> classNames = new ArrayList<String>();
+        for (ComponentIndexEntry component : components)
+        {
+            classNames.add(component.getClassName());
+        }
+
+        return classNames;
+    }
+}
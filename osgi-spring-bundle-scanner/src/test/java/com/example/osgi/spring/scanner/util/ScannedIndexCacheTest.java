@@ -0,0 +1,121 @@
+package com.example.osgi.spring.scanner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.springframework.util.FileSystemUtils;
+
+public class ScannedIndexCacheTest
+{
+    private static final List<String> PACKAGES = Collections.singletonList("com.example.plugin");
+
+    private File directory;
+    private Bundle bundle;
+    private BytecodeComponentScanner scanner;
+    private ScannedIndexCache cache;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("cache").toFile();
+        bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(5L);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        when(bundle.getVersion()).thenReturn(new Version(1, 0, 0));
+        when(bundle.getLocation()).thenReturn("file:plugin.jar");
+        when(bundle.getLastModified()).thenReturn(1000L);
+
+        BundleComponentIndex index = new BundleComponentIndex(5L, null,
+                Arrays.asList(ComponentIndexEntry.parse("com.example.plugin.Service#service#com.example.plugin.Repository"),
+                        ComponentIndexEntry.parse("com.example.plugin.Repository###eager")),
+                Arrays.asList(ComponentIndexEntry.parse("java.lang.Runnable#task##static")),
+                Arrays.asList(ComponentIndexEntry.parse("com.example.plugin.Service##java.lang.Runnable#lazy")),
+                Arrays.asList(ComponentIndexEntry.parse("com.example.plugin.Service##profile:dev")), true);
+
+        scanner = mock(BytecodeComponentScanner.class);
+        when(scanner.scan(bundle, PACKAGES)).thenReturn(index);
+        cache = new ScannedIndexCache(new File(directory, "scanned"), scanner);
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void bundlesAreScannedOncePerVersion()
+    {
+        BundleComponentIndex scanned = cache.getIndex(bundle, PACKAGES);
+        BundleComponentIndex cached = new ScannedIndexCache(new File(directory, "scanned"), scanner).getIndex(bundle, PACKAGES);
+
+        verify(scanner, times(1)).scan(bundle, PACKAGES);
+        assertEquals(toIndexLines(scanned.getComponents()), toIndexLines(cached.getComponents()));
+        assertEquals(toIndexLines(scanned.getImports()), toIndexLines(cached.getImports()));
+        assertEquals(scanned.getExports(), cached.getExports());
+        assertEquals(scanned.getLazyExports(), cached.getLazyExports());
+        assertEquals(scanned.getConditions(), cached.getConditions());
+        assertTrue(cached.isExportsIndexed());
+    }
+
+    @Test
+    public void updatedBundlesAreScannedAgainAndReplaceTheirOldEntry()
+    {
+        cache.getIndex(bundle, PACKAGES);
+        when(bundle.getLastModified()).thenReturn(2000L);
+        cache.getIndex(bundle, PACKAGES);
+
+        verify(scanner, times(2)).scan(bundle, PACKAGES);
+        assertEquals(1, new File(directory, "scanned").listFiles().length);
+    }
+
+    @Test
+    public void corruptEntriesAreScannedAgain() throws Exception
+    {
+        cache.getIndex(bundle, PACKAGES);
+        File entry = new File(directory, "scanned").listFiles()[0];
+        for (File indexFile : entry.listFiles())
+        {
+            Files.write(indexFile.toPath(), new byte[]{1, 2, 3});
+        }
+
+        assertEquals(2, cache.getIndex(bundle, PACKAGES).getComponents().size());
+        verify(scanner, times(2)).scan(bundle, PACKAGES);
+    }
+
+    @Test
+    public void bundlesAreScannedEveryTimeWithoutADirectory()
+    {
+        ScannedIndexCache uncached = new ScannedIndexCache(null, scanner);
+        uncached.getIndex(bundle, PACKAGES);
+        uncached.getIndex(bundle, PACKAGES);
+
+        verify(scanner, times(2)).scan(bundle, PACKAGES);
+    }
+
+    private static List<String> toIndexLines(List<ComponentIndexEntry> entries)
+    {
+        String[] lines = new String[entries.size()];
+        for (int i = 0; i < lines.length; i++)
+        {
+            lines[i] = entries.get(i).toIndexLine();
+        }
+
+        return Arrays.asList(lines);
+    }
+}
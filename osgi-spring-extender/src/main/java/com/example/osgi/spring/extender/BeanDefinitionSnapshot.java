@@ -0,0 +1,548 @@
+package com.example.osgi.spring.extender;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanNameReference;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.AutowireCandidateResolver;
+import org.springframework.beans.factory.support.ChildBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.ManagedArray;
+import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.beans.factory.support.ManagedMap;
+import org.springframework.beans.factory.support.ManagedProperties;
+import org.springframework.beans.factory.support.ManagedSet;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.util.ClassUtils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bean definitions a context loaded from its configuration, in a form that can be written to disk with Java
+ * serialization and turned back into bean definitions.
+ * <p>
+ * Only what XML configuration and the scanner produce is supported: generic, root and child bean definitions holding
+ * bean references, typed strings, managed collections, inner beans and serializable values. Anything else, such as
+ * instance suppliers, method overrides, qualifiers or decorated definitions, makes the definitions unsnapshottable. So
+ * does registering singletons or bean post-processors while loading. The autowire candidate resolver and the
+ * dependency comparator set while loading, e.g. by the annotation config processors, are kept as well.
+ *
+ * @since 2.6
+ */
+class BeanDefinitionSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Definition> definitions;
+    private final Class<?> autowireCandidateResolver;
+    private final boolean annotationAwareOrder;
+
+    private BeanDefinitionSnapshot(List<Definition> definitions, Class<?> autowireCandidateResolver,
+                                   boolean annotationAwareOrder) {
+        this.definitions = definitions;
+        this.autowireCandidateResolver = autowireCandidateResolver;
+        this.annotationAwareOrder = annotationAwareOrder;
+    }
+
+    /**
+     * What the bean factory held before the definitions were loaded
+     */
+    static class Baseline {
+        private final List<String> beanNames;
+        private final int singletonCount;
+        private final int beanPostProcessorCount;
+        private final AutowireCandidateResolver autowireCandidateResolver;
+        private final Object dependencyComparator;
+
+        Baseline(DefaultListableBeanFactory beanFactory) {
+            this.beanNames = Arrays.asList(beanFactory.getBeanDefinitionNames());
+            this.singletonCount = beanFactory.getSingletonCount();
+            this.beanPostProcessorCount = beanFactory.getBeanPostProcessorCount();
+            this.autowireCandidateResolver = beanFactory.getAutowireCandidateResolver();
+            this.dependencyComparator = beanFactory.getDependencyComparator();
+        }
+    }
+
+    /**
+     * @param beanFactory The bean factory the definitions were loaded into
+     * @param baseline    What it held before
+     * @return the definitions loaded since the baseline
+     * @throws NotSnapshottableException if they can't be snapshotted
+     */
+    static BeanDefinitionSnapshot capture(DefaultListableBeanFactory beanFactory, Baseline baseline)
+            throws NotSnapshottableException {
+        if (beanFactory.getSingletonCount() != baseline.singletonCount
+                || beanFactory.getBeanPostProcessorCount() != baseline.beanPostProcessorCount) {
+            throw new NotSnapshottableException("singletons or bean post-processors were registered while loading");
+        }
+
+        Class<?> resolverClass = null;
+        AutowireCandidateResolver resolver = beanFactory.getAutowireCandidateResolver();
+        if (resolver != baseline.autowireCandidateResolver) {
+            resolverClass = resolver.getClass();
+            if (!ClassUtils.hasConstructor(resolverClass)) {
+                throw new NotSnapshottableException("autowire candidate resolver " + resolverClass.getName());
+            }
+        }
+
+        Object comparator = beanFactory.getDependencyComparator();
+        if (comparator != baseline.dependencyComparator && comparator != AnnotationAwareOrderComparator.INSTANCE) {
+            throw new NotSnapshottableException("dependency comparator " + comparator);
+        }
+
+        List<Definition> definitions = new ArrayList<Definition>();
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            if (!baseline.beanNames.contains(beanName)) {
+                definitions.add(encodeDefinition(beanName, beanFactory.getAliases(beanName),
+                        beanFactory.getBeanDefinition(beanName)));
+            }
+        }
+        if (definitions.size() + baseline.beanNames.size() != beanFactory.getBeanDefinitionCount()) {
+            throw new NotSnapshottableException("bean definitions were removed while loading");
+        }
+
+        return new BeanDefinitionSnapshot(definitions, resolverClass, comparator != baseline.dependencyComparator);
+    }
+
+    /**
+     * Registers the definitions in a bean factory. If one can't be registered, those already registered are removed.
+     *
+     * @param beanFactory
+     * @return the number of definitions registered
+     */
+    int restore(DefaultListableBeanFactory beanFactory) {
+        Map<String, BeanDefinition> decoded = new LinkedHashMap<String, BeanDefinition>();
+        for (Definition definition : definitions) {
+            decoded.put(definition.name, decodeDefinition(definition));
+        }
+
+        List<String> registered = new ArrayList<String>();
+        try {
+            for (Definition definition : definitions) {
+                beanFactory.registerBeanDefinition(definition.name, decoded.get(definition.name));
+                registered.add(definition.name);
+                for (String alias : definition.aliases) {
+                    beanFactory.registerAlias(definition.name, alias);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (String beanName : registered) {
+                for (String alias : beanFactory.getAliases(beanName)) {
+                    beanFactory.removeAlias(alias);
+                }
+                beanFactory.removeBeanDefinition(beanName);
+            }
+            throw e;
+        }
+
+        if (autowireCandidateResolver != null) {
+            beanFactory.setAutowireCandidateResolver(
+                    (AutowireCandidateResolver) BeanUtils.instantiateClass(autowireCandidateResolver));
+        }
+        if (annotationAwareOrder) {
+            beanFactory.setDependencyComparator(AnnotationAwareOrderComparator.INSTANCE);
+        }
+        return definitions.size();
+    }
+
+    private static Definition encodeDefinition(String name, String[] aliases, BeanDefinition beanDefinition)
+            throws NotSnapshottableException {
+        Class<?> type = beanDefinition.getClass();
+        if (type != GenericBeanDefinition.class && type != RootBeanDefinition.class && type != ChildBeanDefinition.class) {
+            throw new NotSnapshottableException(type.getName() + " of bean " + name);
+        }
+
+        AbstractBeanDefinition source = (AbstractBeanDefinition) beanDefinition;
+        if (source.getInstanceSupplier() != null || !source.getMethodOverrides().isEmpty()
+                || !source.getQualifiers().isEmpty()) {
+            throw new NotSnapshottableException("instance supplier, method overrides or qualifiers of bean " + name);
+        }
+        if (source instanceof RootBeanDefinition) {
+            RootBeanDefinition root = (RootBeanDefinition) source;
+            if (root.getDecoratedDefinition() != null || root.getQualifiedElement() != null || root.getTargetType() != null) {
+                throw new NotSnapshottableException("decorated or targeted root bean definition " + name);
+            }
+        }
+
+        Definition definition = new Definition();
+        definition.name = name;
+        definition.aliases = aliases;
+        definition.parentName = source.getParentName();
+        definition.beanClass = source.hasBeanClass() ? source.getBeanClass() : source.getBeanClassName();
+        definition.scope = source.getScope();
+        definition.abstractDefinition = source.isAbstract();
+        definition.lazyInit = source.isLazyInit();
+        definition.autowireMode = source.getAutowireMode();
+        definition.dependencyCheck = source.getDependencyCheck();
+        definition.dependsOn = source.getDependsOn();
+        definition.autowireCandidate = source.isAutowireCandidate();
+        definition.primary = source.isPrimary();
+        definition.nonPublicAccessAllowed = source.isNonPublicAccessAllowed();
+        definition.lenientConstructorResolution = source.isLenientConstructorResolution();
+        definition.factoryBeanName = source.getFactoryBeanName();
+        definition.factoryMethodName = source.getFactoryMethodName();
+        definition.initMethodName = source.getInitMethodName();
+        definition.enforceInitMethod = source.isEnforceInitMethod();
+        definition.destroyMethodName = source.getDestroyMethodName();
+        definition.enforceDestroyMethod = source.isEnforceDestroyMethod();
+        definition.synthetic = source.isSynthetic();
+        definition.role = source.getRole();
+        definition.description = source.getDescription();
+        definition.resourceDescription = source.getResourceDescription();
+
+        ConstructorArgumentValues arguments = source.getConstructorArgumentValues();
+        for (Map.Entry<Integer, ConstructorArgumentValues.ValueHolder> argument : arguments.getIndexedArgumentValues().entrySet()) {
+            definition.arguments.add(encodeArgument(argument.getKey(), argument.getValue()));
+        }
+        for (ConstructorArgumentValues.ValueHolder argument : arguments.getGenericArgumentValues()) {
+            definition.arguments.add(encodeArgument(-1, argument));
+        }
+        for (PropertyValue property : source.getPropertyValues().getPropertyValues()) {
+            definition.properties.add(new Property(property.getName(), encode(property.getValue()), property.isOptional()));
+        }
+        for (String attribute : source.attributeNames()) {
+            definition.attributes.put(attribute, encode(source.getAttribute(attribute)));
+        }
+        return definition;
+    }
+
+    private static BeanDefinition decodeDefinition(Definition definition) {
+        GenericBeanDefinition target = new GenericBeanDefinition();
+        target.setParentName(definition.parentName);
+        if (definition.beanClass instanceof Class) {
+            target.setBeanClass((Class<?>) definition.beanClass);
+        } else {
+            target.setBeanClassName((String) definition.beanClass);
+        }
+        target.setScope(definition.scope);
+        target.setAbstract(definition.abstractDefinition);
+        target.setLazyInit(definition.lazyInit);
+        target.setAutowireMode(definition.autowireMode);
+        target.setDependencyCheck(definition.dependencyCheck);
+        target.setDependsOn(definition.dependsOn);
+        target.setAutowireCandidate(definition.autowireCandidate);
+        target.setPrimary(definition.primary);
+        target.setNonPublicAccessAllowed(definition.nonPublicAccessAllowed);
+        target.setLenientConstructorResolution(definition.lenientConstructorResolution);
+        target.setFactoryBeanName(definition.factoryBeanName);
+        target.setFactoryMethodName(definition.factoryMethodName);
+        target.setInitMethodName(definition.initMethodName);
+        target.setEnforceInitMethod(definition.enforceInitMethod);
+        target.setDestroyMethodName(definition.destroyMethodName);
+        target.setEnforceDestroyMethod(definition.enforceDestroyMethod);
+        target.setSynthetic(definition.synthetic);
+        target.setRole(definition.role);
+        target.setDescription(definition.description);
+        target.setResourceDescription(definition.resourceDescription);
+
+        ConstructorArgumentValues arguments = target.getConstructorArgumentValues();
+        for (Argument argument : definition.arguments) {
+            ConstructorArgumentValues.ValueHolder holder = new ConstructorArgumentValues.ValueHolder(
+                    decode(argument.value), argument.type, argument.name);
+            if (argument.index >= 0) {
+                arguments.addIndexedArgumentValue(argument.index, holder);
+            } else {
+                arguments.addGenericArgumentValue(holder);
+            }
+        }
+        for (Property property : definition.properties) {
+            PropertyValue value = new PropertyValue(property.name, decode(property.value));
+            value.setOptional(property.optional);
+            target.getPropertyValues().addPropertyValue(value);
+        }
+        for (Map.Entry<String, Object> attribute : definition.attributes.entrySet()) {
+            target.setAttribute(attribute.getKey(), decode(attribute.getValue()));
+        }
+        return target;
+    }
+
+    private static Argument encodeArgument(int index, ConstructorArgumentValues.ValueHolder holder)
+            throws NotSnapshottableException {
+        return new Argument(index, encode(holder.getValue()), holder.getType(), holder.getName());
+    }
+
+    /**
+     * Turns the metadata of a bean definition value into snapshot values. Other values are kept as they are, they
+     * must be serializable.
+     */
+    private static Object encode(Object value) throws NotSnapshottableException {
+        if (value instanceof TypedStringValue) {
+            TypedStringValue typed = (TypedStringValue) value;
+            return new TypedString(typed.getValue(), typed.getTargetTypeName(), typed.getSpecifiedTypeName(), typed.isDynamic());
+        }
+        if (value instanceof RuntimeBeanReference) {
+            RuntimeBeanReference reference = (RuntimeBeanReference) value;
+            return new Reference(reference.getBeanName(), reference.isToParent(), false);
+        }
+        if (value instanceof RuntimeBeanNameReference) {
+            return new Reference(((RuntimeBeanNameReference) value).getBeanName(), false, true);
+        }
+        if (value instanceof BeanDefinitionHolder) {
+            BeanDefinitionHolder holder = (BeanDefinitionHolder) value;
+            return encodeDefinition(holder.getBeanName(), holder.getAliases(), holder.getBeanDefinition());
+        }
+        if (value instanceof BeanDefinition) {
+            Definition inner = encodeDefinition(null, null, (BeanDefinition) value);
+            inner.anonymous = true;
+            return inner;
+        }
+        if (value instanceof ManagedArray) {
+            ManagedArray array = (ManagedArray) value;
+            return new Managed(Managed.ARRAY, array.getElementTypeName(), null, array.isMergeEnabled(), encodeAll(array));
+        }
+        if (value instanceof ManagedList) {
+            ManagedList<?> list = (ManagedList<?>) value;
+            return new Managed(Managed.LIST, list.getElementTypeName(), null, list.isMergeEnabled(), encodeAll(list));
+        }
+        if (value instanceof ManagedSet) {
+            ManagedSet<?> set = (ManagedSet<?>) value;
+            return new Managed(Managed.SET, set.getElementTypeName(), null, set.isMergeEnabled(), encodeAll(set));
+        }
+        if (value instanceof ManagedMap) {
+            ManagedMap<?, ?> map = (ManagedMap<?, ?>) value;
+            return new Managed(Managed.MAP, map.getKeyTypeName(), map.getValueTypeName(), map.isMergeEnabled(),
+                    encodeEntries(map));
+        }
+        if (value instanceof ManagedProperties) {
+            ManagedProperties properties = (ManagedProperties) value;
+            return new Managed(Managed.PROPERTIES, null, null, properties.isMergeEnabled(), encodeEntries(properties));
+        }
+        if (value == null || value instanceof Serializable) {
+            return value;
+        }
+        throw new NotSnapshottableException("value of type " + value.getClass().getName());
+    }
+
+    private static List<Object> encodeAll(Iterable<?> values) throws NotSnapshottableException {
+        List<Object> encoded = new ArrayList<Object>();
+        for (Object value : values) {
+            encoded.add(encode(value));
+        }
+        return encoded;
+    }
+
+    private static List<Object> encodeEntries(Map<?, ?> map) throws NotSnapshottableException {
+        List<Object> encoded = new ArrayList<Object>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            encoded.add(encode(entry.getKey()));
+            encoded.add(encode(entry.getValue()));
+        }
+        return encoded;
+    }
+
+    private static Object decode(Object value) {
+        if (value instanceof TypedString) {
+            TypedString typed = (TypedString) value;
+            TypedStringValue target = new TypedStringValue(typed.value, typed.targetTypeName);
+            target.setSpecifiedTypeName(typed.specifiedTypeName);
+            if (typed.dynamic) {
+                target.setDynamic();
+            }
+            return target;
+        }
+        if (value instanceof Reference) {
+            Reference reference = (Reference) value;
+            return reference.nameOnly ? new RuntimeBeanNameReference(reference.beanName)
+                    : new RuntimeBeanReference(reference.beanName, reference.toParent);
+        }
+        if (value instanceof Definition) {
+            Definition inner = (Definition) value;
+            BeanDefinition definition = decodeDefinition(inner);
+            return inner.anonymous ? definition : new BeanDefinitionHolder(definition, inner.name, inner.aliases);
+        }
+        if (value instanceof Managed) {
+            return ((Managed) value).decode();
+        }
+        return value;
+    }
+
+    /**
+     * Thrown when loaded bean definitions can't be snapshotted
+     */
+    static class NotSnapshottableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NotSnapshottableException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Definition implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+        private String[] aliases;
+        private boolean anonymous;
+        private String parentName;
+        private Object beanClass;
+        private String scope;
+        private boolean abstractDefinition;
+        private boolean lazyInit;
+        private int autowireMode;
+        private int dependencyCheck;
+        private String[] dependsOn;
+        private boolean autowireCandidate;
+        private boolean primary;
+        private boolean nonPublicAccessAllowed;
+        private boolean lenientConstructorResolution;
+        private String factoryBeanName;
+        private String factoryMethodName;
+        private String initMethodName;
+        private boolean enforceInitMethod;
+        private String destroyMethodName;
+        private boolean enforceDestroyMethod;
+        private boolean synthetic;
+        private int role;
+        private String description;
+        private String resourceDescription;
+        private final List<Argument> arguments = new ArrayList<Argument>();
+        private final List<Property> properties = new ArrayList<Property>();
+        private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+    }
+
+    private static class Argument implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private final Object value;
+        private final String type;
+        private final String name;
+
+        private Argument(int index, Object value, String type, String name) {
+            this.index = index;
+            this.value = value;
+            this.type = type;
+            this.name = name;
+        }
+    }
+
+    private static class Property implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final Object value;
+        private final boolean optional;
+
+        private Property(String name, Object value, boolean optional) {
+            this.name = name;
+            this.value = value;
+            this.optional = optional;
+        }
+    }
+
+    private static class TypedString implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+        private final String targetTypeName;
+        private final String specifiedTypeName;
+        private final boolean dynamic;
+
+        private TypedString(String value, String targetTypeName, String specifiedTypeName, boolean dynamic) {
+            this.value = value;
+            this.targetTypeName = targetTypeName;
+            this.specifiedTypeName = specifiedTypeName;
+            this.dynamic = dynamic;
+        }
+    }
+
+    private static class Reference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String beanName;
+        private final boolean toParent;
+        private final boolean nameOnly;
+
+        private Reference(String beanName, boolean toParent, boolean nameOnly) {
+            this.beanName = beanName;
+            this.toParent = toParent;
+            this.nameOnly = nameOnly;
+        }
+    }
+
+    /**
+     * A managed collection.  Maps and properties hold their keys and values one after the other.
+     */
+    private static class Managed implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final int LIST = 0;
+        private static final int SET = 1;
+        private static final int ARRAY = 2;
+        private static final int MAP = 3;
+        private static final int PROPERTIES = 4;
+
+        private final int kind;
+        private final String typeName;
+        private final String valueTypeName;
+        private final boolean mergeEnabled;
+        private final List<Object> elements;
+
+        private Managed(int kind, String typeName, String valueTypeName, boolean mergeEnabled, List<Object> elements) {
+            this.kind = kind;
+            this.typeName = typeName;
+            this.valueTypeName = valueTypeName;
+            this.mergeEnabled = mergeEnabled;
+            this.elements = elements;
+        }
+
+        private Object decode() {
+            switch (kind) {
+                case LIST: {
+                    ManagedList<Object> list = new ManagedList<Object>(elements.size());
+                    list.setElementTypeName(typeName);
+                    list.setMergeEnabled(mergeEnabled);
+                    for (Object element : elements) {
+                        list.add(BeanDefinitionSnapshot.decode(element));
+                    }
+                    return list;
+                }
+                case SET: {
+                    ManagedSet<Object> set = new ManagedSet<Object>(elements.size());
+                    set.setElementTypeName(typeName);
+                    set.setMergeEnabled(mergeEnabled);
+                    for (Object element : elements) {
+                        set.add(BeanDefinitionSnapshot.decode(element));
+                    }
+                    return set;
+                }
+                case ARRAY: {
+                    ManagedArray array = new ManagedArray(typeName, elements.size());
+                    array.setMergeEnabled(mergeEnabled);
+                    for (Object element : elements) {
+                        array.add(BeanDefinitionSnapshot.decode(element));
+                    }
+                    return array;
+                }
+                case MAP: {
+                    ManagedMap<Object, Object> map = new ManagedMap<Object, Object>(elements.size() / 2);
+                    map.setKeyTypeName(typeName);
+                    map.setValueTypeName(valueTypeName);
+                    map.setMergeEnabled(mergeEnabled);
+                    for (int i = 0; i < elements.size(); i += 2) {
+                        map.put(BeanDefinitionSnapshot.decode(elements.get(i)), BeanDefinitionSnapshot.decode(elements.get(i + 1)));
+                    }
+                    return map;
+                }
+                default: {
+                    ManagedProperties properties = new ManagedProperties();
+                    properties.setMergeEnabled(mergeEnabled);
+                    for (int i = 0; i < elements.size(); i += 2) {
+                        properties.put(BeanDefinitionSnapshot.decode(elements.get(i)), BeanDefinitionSnapshot.decode(elements.get(i + 1)));
+                    }
+                    return properties;
+                }
+            }
+        }
+    }
+}
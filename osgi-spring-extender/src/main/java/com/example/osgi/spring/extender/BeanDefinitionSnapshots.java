@@ -0,0 +1,346 @@
+package com.example.osgi.spring.extender;
+
+import org.eclipse.gemini.blueprint.context.BundleContextAware;
+import org.eclipse.gemini.blueprint.util.OsgiStringUtils;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.SpringVersion;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+
+import com.example.osgi.spring.extender.external.PersistentData;
+import com.example.osgi.spring.extender.external.SnapshotExclusion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the bean definitions each bundle's application context loads from its configuration in the extender's
+ * {@link PersistentData} directory, so a bundle that hasn't changed since the last start of the framework gets them from its snapshot instead of
+ * parsing its XML and reading its component index again.
+ * <p>
+ * A bundle has one snapshot, named after its symbolic name and a fingerprint of everything the definitions are derived
+ * from: the bundle and its fragments, the bundles it is wired to, its configuration locations, the active and default
+ * profiles, and the versions of the framework, Spring and the extender.  Bundles are told apart by
+ * {@link PersistentData#getBundleKey(Bundle)}, like the rest of the persistent data, so their content is never read.
+ * Changing any of them invalidates the snapshot, which is replaced once the definitions have been loaded again.
+ * Definitions that can't be snapshotted, see {@link BeanDefinitionSnapshot} and {@link SnapshotExclusion}, are simply
+ * loaded every time.
+ * <p>
+ * Snapshots are turned off by {@link #setEnabled(boolean)}, or the {@value #ENABLED_PROPERTY} framework property.
+ *
+ * @since 2.6
+ */
+public class BeanDefinitionSnapshots implements BundleContextAware {
+    public static final String ENABLED_PROPERTY = "com.example.osgi.spring.extender.snapshots";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 32;
+    private static final String DIRECTORY = "bean-definition-snapshots";
+
+    private static final Logger log = LoggerFactory.getLogger(BeanDefinitionSnapshots.class);
+
+    private BundleContext bundleContext;
+    private boolean enabled = true;
+    private volatile File directory;
+    private volatile String extenderFingerprint;
+
+    @Override
+    public void setBundleContext(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * @param enabled Whether to keep snapshots, unless the {@value #ENABLED_PROPERTY} framework property says otherwise
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param bundle          The bundle whose definitions are loaded
+     * @param configLocations The configuration locations of its context
+     * @param environment     The environment of its context
+     * @return the snapshot of the definitions, which may not have been taken yet, or null if snapshots are turned off
+     */
+    public Entry open(Bundle bundle, String[] configLocations, Environment environment) {
+        File snapshotDirectory = getDirectory();
+        if (snapshotDirectory == null) {
+            return null;
+        }
+
+        String prefix = getPrefix(bundle);
+        File file = new File(snapshotDirectory, prefix + getFingerprint(bundle, configLocations, environment));
+        return new Entry(bundle, prefix, file);
+    }
+
+    private File getDirectory() {
+        if (bundleContext == null || !isEnabled()) {
+            return null;
+        }
+        if (directory == null) {
+            directory = PersistentData.getFile(bundleContext, DIRECTORY);
+        }
+        return directory;
+    }
+
+    private boolean isEnabled() {
+        String property = bundleContext.getProperty(ENABLED_PROPERTY);
+        if (property != null && !property.trim().isEmpty()) {
+            return Boolean.parseBoolean(property.trim());
+        }
+        return enabled;
+    }
+
+    private String getFingerprint(Bundle bundle, String[] configLocations, Environment environment) {
+        StringBuilder fingerprint = new StringBuilder(getExtenderFingerprint());
+        fingerprint.append(';').append(PersistentData.getBundleKey(bundle));
+        fingerprint.append(';').append(getWiredBundles(bundle));
+        fingerprint.append(';').append(Arrays.toString(configLocations));
+        fingerprint.append(';').append(Arrays.toString(environment.getActiveProfiles()));
+        fingerprint.append(';').append(Arrays.toString(environment.getDefaultProfiles()));
+
+        return DigestUtils.md5DigestAsHex(fingerprint.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String getExtenderFingerprint() {
+        if (extenderFingerprint == null) {
+            Bundle extender = bundleContext.getBundle();
+            extenderFingerprint = FORMAT_VERSION + ";" + SpringVersion.getVersion() + ";"
+                    + bundleContext.getBundle(0).getVersion() + ";" + PersistentData.getBundleKey(extender) + ";"
+                    + getFragments(extender);
+        }
+        return extenderFingerprint;
+    }
+
+    private Set<String> getFragments(Bundle bundle) {
+        Set<String> fragments = new TreeSet<String>();
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring != null) {
+            for (BundleWire wire : wiring.getProvidedWires(BundleRevision.HOST_NAMESPACE)) {
+                fragments.add(PersistentData.getBundleKey(wire.getRequirer().getBundle()));
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * The bundles the classes and resources of a bundle come from, along with its fragments
+     */
+    private Set<String> getWiredBundles(Bundle bundle) {
+        Set<String> wired = getFragments(bundle);
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring != null) {
+            for (BundleWire wire : wiring.getRequiredWires(null)) {
+                Bundle provider = wire.getProvider().getBundle();
+                wired.add(provider.getSymbolicName() + ":" + PersistentData.getBundleKey(provider));
+            }
+        }
+        return wired;
+    }
+
+    private static String getPrefix(Bundle bundle) {
+        String name = StringUtils.hasText(bundle.getSymbolicName()) ? bundle.getSymbolicName()
+                : "bundle-" + bundle.getBundleId();
+        return name.replaceAll("[^A-Za-z0-9._-]", "_") + "-";
+    }
+
+    /**
+     * The snapshot of the definitions of a bundle
+     */
+    public static class Entry {
+        private final Bundle bundle;
+        private final String prefix;
+        private final File file;
+
+        private Entry(Bundle bundle, String prefix, File file) {
+            this.bundle = bundle;
+            this.prefix = prefix;
+            this.file = file;
+        }
+
+        /**
+         * Registers the definitions of the snapshot in a bean factory
+         *
+         * @param beanFactory
+         * @param classLoader The class loader of the bundle, to resolve the bean classes of the definitions
+         * @return whether there was a snapshot and it was restored, otherwise the definitions must be loaded
+         */
+        public boolean restore(DefaultListableBeanFactory beanFactory, ClassLoader classLoader) {
+            if (!file.isFile()) {
+                return false;
+            }
+
+            try {
+                int count = read(classLoader).restore(beanFactory);
+                log.debug("Restored {} bean definitions of bundle [{}] from {}", count,
+                        OsgiStringUtils.nullSafeNameAndSymName(bundle), file);
+                return true;
+            } catch (Exception e) {
+                log.warn("Cannot restore the bean definitions of bundle [" + OsgiStringUtils.nullSafeNameAndSymName(bundle)
+                        + "] from " + file + ", loading them again", e);
+                if (!file.delete()) {
+                    log.debug("Cannot delete {}", file);
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Starts recording the definitions loaded into a bean factory on the calling thread
+         *
+         * @param beanFactory
+         * @return the recording, to be saved once the definitions have been loaded
+         */
+        public Recording record(DefaultListableBeanFactory beanFactory) {
+            SnapshotExclusion.clear();
+            return new Recording(this, beanFactory, new BeanDefinitionSnapshot.Baseline(beanFactory));
+        }
+
+        private BeanDefinitionSnapshot read(ClassLoader classLoader) throws IOException, ClassNotFoundException {
+            ObjectInputStream in = new SnapshotInputStream(new BufferedInputStream(new FileInputStream(file)),
+                    classLoader);
+            try {
+                return (BeanDefinitionSnapshot) in.readObject();
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * writes the snapshot to a temporary file which is then moved into place, so a half-written snapshot is never
+         * read
+         */
+        private void write(BeanDefinitionSnapshot snapshot) {
+            File directory = file.getParentFile();
+            File temporary = null;
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Cannot create directory " + directory);
+                }
+
+                temporary = Files.createTempFile(directory.toPath(), "snapshot", ".tmp").toFile();
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary));
+                try {
+                    ObjectOutputStream objects = new ObjectOutputStream(out);
+                    objects.writeObject(snapshot);
+                    objects.flush();
+                } finally {
+                    out.close();
+                }
+
+                removeOldEntries(directory);
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                log.debug("Saved the bean definitions of bundle [{}] to {}", OsgiStringUtils.nullSafeNameAndSymName(bundle),
+                        file);
+            } catch (IOException e) {
+                log.warn("Cannot save the bean definitions of bundle [" + OsgiStringUtils.nullSafeNameAndSymName(bundle)
+                        + "] to " + file + ", they will be loaded again on the next start", e);
+            } finally {
+                if (temporary != null && temporary.exists() && !temporary.delete()) {
+                    log.debug("Cannot delete {}", temporary);
+                }
+            }
+        }
+
+        private void removeOldEntries(File directory) {
+            File[] entries = directory.listFiles();
+            if (entries == null) {
+                return;
+            }
+
+            for (File oldEntry : entries) {
+                // the fingerprint is a fixed length, so bundles whose name starts with this one's aren't matched
+                if (oldEntry.getName().startsWith(prefix)
+                        && oldEntry.getName().length() == prefix.length() + FINGERPRINT_LENGTH && !oldEntry.delete()) {
+                    log.debug("Cannot delete {}", oldEntry);
+                }
+            }
+        }
+    }
+
+    /**
+     * The definitions being loaded into a bean factory
+     */
+    public static class Recording {
+        private final Entry entry;
+        private final DefaultListableBeanFactory beanFactory;
+        private final BeanDefinitionSnapshot.Baseline baseline;
+
+        private Recording(Entry entry, DefaultListableBeanFactory beanFactory, BeanDefinitionSnapshot.Baseline baseline) {
+            this.entry = entry;
+            this.beanFactory = beanFactory;
+            this.baseline = baseline;
+        }
+
+        /**
+         * Saves the definitions loaded since the recording started, unless they can't be snapshotted
+         */
+        public void save() {
+            String excluded = SnapshotExclusion.clear();
+            if (excluded != null) {
+                log.debug("Not saving the bean definitions of bundle [{}]: {}",
+                        OsgiStringUtils.nullSafeNameAndSymName(entry.bundle), excluded);
+                return;
+            }
+
+            try {
+                entry.write(BeanDefinitionSnapshot.capture(beanFactory, baseline));
+            } catch (BeanDefinitionSnapshot.NotSnapshottableException e) {
+                log.debug("Not saving the bean definitions of bundle [{}]: {}",
+                        OsgiStringUtils.nullSafeNameAndSymName(entry.bundle), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resolves the classes of the snapshot model from the extender, and the classes of the bean definitions from the
+     * bundle
+     */
+    private static class SnapshotInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+
+        SnapshotInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            ClassLoader extenderClassLoader = BeanDefinitionSnapshot.class.getClassLoader();
+            if (classLoader == null || name.startsWith(BeanDefinitionSnapshot.class.getName())) {
+                return ClassUtils.forName(name, extenderClassLoader);
+            }
+
+            try {
+                return ClassUtils.forName(name, classLoader);
+            } catch (ClassNotFoundException e) {
+                return ClassUtils.forName(name, extenderClassLoader);
+            }
+        }
+    }
+}
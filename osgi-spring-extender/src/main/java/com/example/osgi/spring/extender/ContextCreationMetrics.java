@@ -0,0 +1,162 @@
+package com.example.osgi.spring.extender;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.example.osgi.spring.extender.external.ExecutorMetrics;
+
+/**
+ * Counts what goes through the {@link ThreadPoolAsyncTaskExecutor}: tasks queued, running and their outcome, the
+ * threads they run on, and histograms of how long tasks wait before running and how long they run. Context creations
+ * stopped by the {@link ContextCreationWatchdog} are counted as stuck.
+ *
+ * @since 2.6
+ */
+public class ContextCreationMetrics implements ExecutorMetrics {
+    private static final long[] BUCKET_BOUNDS_MILLIS = {10, 50, 100, 500, 1000, 5000, 10000, 30000, 60000};
+
+    private final AtomicLong submittedTasks = new AtomicLong();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong failedTasks = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final AtomicLong abandonedTasks = new AtomicLong();
+    private final AtomicLong timedOutTasks = new AtomicLong();
+    private final AtomicLong stuckContexts = new AtomicLong();
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicInteger peakActiveTasks = new AtomicInteger();
+    private final AtomicInteger liveThreads = new AtomicInteger();
+    private final AtomicInteger peakThreads = new AtomicInteger();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram runTime = new Histogram();
+
+    void taskSubmitted() {
+        submittedTasks.incrementAndGet();
+        queuedTasks.incrementAndGet();
+    }
+
+    void taskRejected() {
+        queuedTasks.decrementAndGet();
+        rejectedTasks.incrementAndGet();
+    }
+
+    /**
+     * a task dropped as it could not start within its start timeout
+     */
+    void taskTimedOut() {
+        queuedTasks.decrementAndGet();
+        timedOutTasks.incrementAndGet();
+    }
+
+    /**
+     * a context creation interrupted by the watchdog
+     */
+    void contextCreationStuck() {
+        stuckContexts.incrementAndGet();
+    }
+
+    void taskStarted(long waitNanos) {
+        queuedTasks.decrementAndGet();
+        updatePeak(peakActiveTasks, activeTasks.incrementAndGet());
+        queueWait.record(waitNanos);
+    }
+
+    void taskFinished(long runNanos, boolean failed) {
+        activeTasks.decrementAndGet();
+        (failed ? failedTasks : completedTasks).incrementAndGet();
+        runTime.record(runNanos);
+    }
+
+    /**
+     * @param queued  tasks dropped from the queue at shutdown
+     * @param running tasks still running when the executor was abandoned
+     */
+    void tasksAbandoned(int queued, int running) {
+        queuedTasks.addAndGet(-queued);
+        abandonedTasks.addAndGet(queued + running);
+    }
+
+    void threadStarted() {
+        updatePeak(peakThreads, liveThreads.incrementAndGet());
+    }
+
+    void threadStopped() {
+        liveThreads.decrementAndGet();
+    }
+
+    int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("submittedTasks", submittedTasks.get());
+        metrics.put("queuedTasks", queuedTasks.get());
+        metrics.put("activeTasks", activeTasks.get());
+        metrics.put("peakActiveTasks", peakActiveTasks.get());
+        metrics.put("completedTasks", completedTasks.get());
+        metrics.put("failedTasks", failedTasks.get());
+        metrics.put("rejectedTasks", rejectedTasks.get());
+        metrics.put("abandonedTasks", abandonedTasks.get());
+        metrics.put("timedOutTasks", timedOutTasks.get());
+        metrics.put("stuckContexts", stuckContexts.get());
+        metrics.put("liveThreads", liveThreads.get());
+        metrics.put("peakThreads", peakThreads.get());
+        metrics.put("queueWaitMillis", queueWait.toMap());
+        metrics.put("runTimeMillis", runTime.toMap());
+        return metrics;
+    }
+
+    private static void updatePeak(AtomicInteger peak, int value) {
+        int current = peak.get();
+        while (value > current && !peak.compareAndSet(current, value)) {
+            current = peak.get();
+        }
+    }
+
+    /**
+     * Counts durations in fixed millisecond buckets, along with their total and maximum
+     */
+    private static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            long max = maxMillis.get();
+            while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+                max = maxMillis.get();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> counts = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                counts.put("le" + BUCKET_BOUNDS_MILLIS[i], buckets.get(i));
+            }
+            counts.put("gt" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1], buckets.get(BUCKET_BOUNDS_MILLIS.length));
+
+            Map<String, Object> histogram = new LinkedHashMap<String, Object>();
+            histogram.put("count", count.get());
+            histogram.put("total", totalMillis.get());
+            histogram.put("max", maxMillis.get());
+            histogram.put("buckets", counts);
+            return histogram;
+        }
+    }
+}
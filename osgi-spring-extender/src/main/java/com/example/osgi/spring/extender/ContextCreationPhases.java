@@ -0,0 +1,143 @@
+package com.example.osgi.spring.extender;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+
+import com.example.osgi.spring.extender.external.PhaseTimings;
+
+/**
+ * Keeps how long the application context of each bundle spent in each phase of its creation:
+ * <ul>
+ * <li>{@value #DISCOVERY}: finding the configuration of the bundle</li>
+ * <li>{@value #PRE_PROCESSING}: running the {@link com.example.osgi.spring.extender.external.ApplicationContextPreProcessor}s</li>
+ * <li>{@value #BEAN_DEFINITION_LOADING}: reading the XML configuration into bean definitions</li>
+ * <li>{@value #REFRESH}: the rest of the refresh, creating the beans</li>
+ * <li>{@value #WAITING_FOR_DEPENDENCIES}: between the refresh stages, waiting for mandatory service imports</li>
+ * <li>{@value #SERVICE_EXPORT}: finishing the refresh, where deferred and lazy services and the context itself are
+ * published</li>
+ * </ul>
+ * Only the latest creation of the most recently created bundles is kept, up to {@link #setMaxBundles(int)}.  Each
+ * creation is also recorded as a flight recorder event, see {@link FlightRecorderEvents}.
+ *
+ * @since 2.6
+ */
+public class ContextCreationPhases implements PhaseTimings {
+    public static final String DISCOVERY = "discovery";
+    public static final String PRE_PROCESSING = "preProcessing";
+    public static final String BEAN_DEFINITION_LOADING = "beanDefinitionLoading";
+    public static final String REFRESH = "refresh";
+    public static final String WAITING_FOR_DEPENDENCIES = "waitingForDependencies";
+    public static final String SERVICE_EXPORT = "serviceExport";
+
+    private static final int DEFAULT_MAX_BUNDLES = 500;
+
+    private final Map<Long, Timing> timings = new LinkedHashMap<Long, Timing>();
+    private int maxBundles = DEFAULT_MAX_BUNDLES;
+
+    /**
+     * @param maxBundles how many bundles to keep the timings of
+     */
+    public void setMaxBundles(int maxBundles) {
+        this.maxBundles = maxBundles;
+    }
+
+    /**
+     * Starts timing the creation of the context of a bundle, replacing its previous timing
+     *
+     * @param bundle
+     * @param startNanos when the creation started, from {@link System#nanoTime()}
+     * @return the timing to record the phases in
+     */
+    public Timing start(Bundle bundle, long startNanos) {
+        Timing timing = new Timing(bundle, startNanos);
+        synchronized (timings) {
+            timings.remove(bundle.getBundleId());
+            timings.put(bundle.getBundleId(), timing);
+            while (timings.size() > maxBundles) {
+                timings.remove(timings.keySet().iterator().next());
+            }
+        }
+        return timing;
+    }
+
+    @Override
+    public List<Map<String, Object>> getTimings() {
+        List<Timing> snapshot;
+        synchronized (timings) {
+            snapshot = new ArrayList<Timing>(timings.values());
+        }
+
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(snapshot.size());
+        for (Timing timing : snapshot) {
+            result.add(timing.toMap());
+        }
+        return result;
+    }
+
+    /**
+     * The phases of one context creation.  The phases run one after the other, though not always on the same thread.
+     */
+    public static class Timing {
+        private final String symbolicName;
+        private final String version;
+        private final long bundleId;
+        private final long started = System.currentTimeMillis();
+        private final long startNanos;
+        private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+        private String state = "creating";
+        private long totalNanos = -1;
+        private Object event;
+
+        private Timing(Bundle bundle, long startNanos) {
+            this.symbolicName = bundle.getSymbolicName();
+            this.version = bundle.getVersion().toString();
+            this.bundleId = bundle.getBundleId();
+            this.startNanos = startNanos;
+            this.event = FlightRecorderEvents.beginContextCreation();
+        }
+
+        /**
+         * Adds time to a phase
+         *
+         * @param phase
+         * @param nanos
+         */
+        public synchronized void record(String phase, long nanos) {
+            Long previous = phaseNanos.get(phase);
+            phaseNanos.put(phase, previous != null ? previous + nanos : nanos);
+        }
+
+        /**
+         * @param failed true if the context creation failed
+         */
+        public synchronized void finished(boolean failed) {
+            state = failed ? "failed" : "created";
+            totalNanos = System.nanoTime() - startNanos;
+
+            FlightRecorderEvents.endContextCreation(event, symbolicName, version, state, phaseNanos);
+            event = null;
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> phases = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+                phases.put(phase.getKey(), TimeUnit.NANOSECONDS.toMillis(phase.getValue()));
+            }
+
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("bundle", symbolicName);
+            map.put("version", version);
+            map.put("bundleId", bundleId);
+            map.put("started", started);
+            map.put("state", state);
+            map.put("totalMillis", totalNanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos) : null);
+            map.put("phaseMillis", phases);
+            return map;
+        }
+    }
+}
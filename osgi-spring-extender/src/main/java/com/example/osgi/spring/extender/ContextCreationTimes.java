@@ -0,0 +1,257 @@
+package com.example.osgi.spring.extender;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Remembers how long the application context of each bundle took to create, and which bundles' services it used, so
+ * the next boot can start the contexts on the longest dependency chains first.
+ * <p>
+ * The priority of a bundle is its own creation time plus the highest priority of the bundles using its services,
+ * i.e. the length of the longest chain of context creations waiting on it. Bundles are keyed by symbolic name, so the
+ * times carry over bundle updates.
+ *
+ * @since 2.6
+ */
+public class ContextCreationTimes {
+    private static final Logger log = LoggerFactory.getLogger(ContextCreationTimes.class);
+
+    private static final String DURATION_SUFFIX = ".duration";
+    private static final String USES_SUFFIX = ".uses";
+
+    private final File file;
+    private final Map<String, Long> durations = new HashMap<String, Long>();
+    private final Map<String, Set<String>> uses = new HashMap<String, Set<String>>();
+    private final Map<String, Long> recorded = new HashMap<String, Long>();
+    private final Map<String, Set<String>> recordedUses = new HashMap<String, Set<String>>();
+    private Map<String, Long> priorities = Collections.emptyMap();
+
+    /**
+     * @param file where the times are kept between boots, or null to only keep them in memory
+     */
+    public ContextCreationTimes(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the times recorded by previous boots
+     */
+    public synchronized void load() {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read the context creation times from " + file + "; contexts will start in arrival order", e);
+            return;
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (key.endsWith(DURATION_SUFFIX)) {
+                try {
+                    durations.put(key.substring(0, key.length() - DURATION_SUFFIX.length()), Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    log.debug("Ignoring invalid context creation time {}={}", key, value);
+                }
+            } else if (key.endsWith(USES_SUFFIX) && !value.isEmpty()) {
+                Set<String> providers = new LinkedHashSet<String>();
+                for (String provider : value.split(",")) {
+                    providers.add(provider.trim());
+                }
+                uses.put(key.substring(0, key.length() - USES_SUFFIX.length()), providers);
+            }
+        }
+
+        priorities = computePriorities();
+        log.debug("Loaded the context creation times of {} bundles", durations.size());
+    }
+
+    /**
+     * Records the context creation time of a bundle in this boot
+     *
+     * @param bundle
+     * @param millis
+     */
+    public synchronized void record(Bundle bundle, long millis) {
+        String name = getName(bundle);
+        recorded.put(name, millis);
+        recordedUses.put(name, new LinkedHashSet<String>());
+    }
+
+    /**
+     * @param bundle
+     * @return the length in milliseconds of the longest chain of context creations starting with this bundle, 0 if the
+     *         bundle is unknown
+     */
+    public synchronized long getPriority(Bundle bundle) {
+        Long priority = priorities.get(getName(bundle));
+        return priority != null ? priority : 0;
+    }
+
+    /**
+     * Merges the times recorded in this boot, along with the services their bundles have used so far, and writes
+     * them out. Contexts waiting for a service only use it once it shows up, so this is called again later on.
+     *
+     * @param bundles the installed bundles
+     */
+    public synchronized void save(Bundle[] bundles) {
+        if (recorded.isEmpty()) {
+            return;
+        }
+
+        for (Bundle bundle : bundles) {
+            String name = getName(bundle);
+            Long duration = recorded.get(name);
+            if (duration == null) {
+                continue;
+            }
+
+            Set<String> providers = recordedUses.get(name);
+            providers.addAll(getProviders(bundle));
+            durations.put(name, duration);
+            uses.put(name, providers);
+        }
+        priorities = computePriorities();
+
+        if (file == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> duration : durations.entrySet()) {
+            properties.setProperty(duration.getKey() + DURATION_SUFFIX, String.valueOf(duration.getValue()));
+        }
+        for (Map.Entry<String, Set<String>> providers : uses.entrySet()) {
+            if (!providers.getValue().isEmpty()) {
+                properties.setProperty(providers.getKey() + USES_SUFFIX, join(providers.getValue()));
+            }
+        }
+
+        try {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create directory " + parent);
+            }
+
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, "Application context creation times in milliseconds, and the bundles whose services they use");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write the context creation times to " + file, e);
+        }
+    }
+
+    /**
+     * the bundles whose services the bundle uses, other than itself and the framework
+     */
+    private static Set<String> getProviders(Bundle bundle) {
+        Set<String> providers = new LinkedHashSet<String>();
+        ServiceReference<?>[] servicesInUse;
+        try {
+            servicesInUse = bundle.getServicesInUse();
+        } catch (IllegalStateException e) {
+            // uninstalled in the meantime
+            return providers;
+        }
+
+        if (servicesInUse != null) {
+            for (ServiceReference<?> reference : servicesInUse) {
+                Bundle provider = reference.getBundle();
+                if (provider != null && provider.getBundleId() != 0 && provider.getBundleId() != bundle.getBundleId()) {
+                    providers.add(getName(provider));
+                }
+            }
+        }
+        return providers;
+    }
+
+    private Map<String, Long> computePriorities() {
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> user : uses.entrySet()) {
+            for (String provider : user.getValue()) {
+                Set<String> providerDependents = dependents.get(provider);
+                if (providerDependents == null) {
+                    providerDependents = new HashSet<String>();
+                    dependents.put(provider, providerDependents);
+                }
+                providerDependents.add(user.getKey());
+            }
+        }
+
+        Map<String, Long> computed = new HashMap<String, Long>();
+        Set<String> names = new HashSet<String>(durations.keySet());
+        names.addAll(dependents.keySet());
+        for (String name : names) {
+            computePriority(name, dependents, computed, new HashSet<String>());
+        }
+        return computed;
+    }
+
+    private long computePriority(String name, Map<String, Set<String>> dependents, Map<String, Long> computed, Set<String> visiting) {
+        Long priority = computed.get(name);
+        if (priority != null) {
+            return priority;
+        }
+        if (!visiting.add(name)) {
+            // services used both ways, the cycle adds nothing to the chain
+            return 0;
+        }
+
+        long longestDependent = 0;
+        Set<String> nameDependents = dependents.get(name);
+        if (nameDependents != null) {
+            for (String dependent : nameDependents) {
+                longestDependent = Math.max(longestDependent, computePriority(dependent, dependents, computed, visiting));
+            }
+        }
+        visiting.remove(name);
+
+        Long duration = durations.get(name);
+        long length = (duration != null ? duration : 0) + longestDependent;
+        computed.put(name, length);
+        return length;
+    }
+
+    private static String getName(Bundle bundle) {
+        return bundle.getSymbolicName() != null ? bundle.getSymbolicName() : bundle.getLocation();
+    }
+
+    private static String join(Set<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.osgi.spring.extender;
+
+import org.eclipse.gemini.blueprint.context.ConfigurableOsgiBundleApplicationContext;
+import org.eclipse.gemini.blueprint.util.OsgiStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects application context creations that run on a thread for longer than their budget.
+ * <p>
+ * Contexts register the thread working on them for the duration of each refresh stage, so the time spent waiting for
+ * service dependencies between the stages isn't counted. When a stage overruns, the stack of its thread is logged and
+ * the thread is interrupted, which fails the refresh of most contexts. If the thread still hasn't let go after a grace
+ * period the context is closed from another thread, releasing its beans and services.
+ *
+ * @since 2.6
+ */
+public class ContextCreationWatchdog {
+    private static final Logger log = LoggerFactory.getLogger(ContextCreationWatchdog.class);
+
+    private static final long MAX_CHECK_INTERVAL_MILLIS = 10000;
+    private static final long MAX_GRACE_MILLIS = 30000;
+
+    private static final ConcurrentMap<Thread, ContextCreation> creations = new ConcurrentHashMap<Thread, ContextCreation>();
+
+    private final long budgetMillis;
+    private final long graceMillis;
+    private final ContextCreationMetrics metrics;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param budgetMillis how long a refresh stage may run on a thread
+     * @param metrics
+     */
+    public ContextCreationWatchdog(long budgetMillis, ContextCreationMetrics metrics) {
+        this.budgetMillis = budgetMillis;
+        this.graceMillis = Math.min(budgetMillis, MAX_GRACE_MILLIS);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the calling thread as working on the context, unless it already is
+     *
+     * @param context
+     * @return true if the thread was registered, and must call {@link #exit()} when done
+     */
+    public static boolean enter(ConfigurableOsgiBundleApplicationContext context) {
+        return creations.putIfAbsent(Thread.currentThread(), new ContextCreation(context)) == null;
+    }
+
+    /**
+     * Unregisters the calling thread, and clears the interrupt the watchdog may have left on it
+     */
+    public static void exit() {
+        ContextCreation creation = creations.remove(Thread.currentThread());
+        if (creation != null && creation.interrupted) {
+            Thread.interrupted();
+        }
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        long interval = Math.max(1000, Math.min(MAX_CHECK_INTERVAL_MILLIS, budgetMillis / 4));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ContextCreationWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+        log.debug("Watching for context creations running longer than {} ms", budgetMillis);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Map.Entry<Thread, ContextCreation> entry : creations.entrySet()) {
+            Thread thread = entry.getKey();
+            ContextCreation creation = entry.getValue();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(now - creation.started);
+
+            try {
+                if (!creation.interrupted && elapsed > budgetMillis) {
+                    interrupt(thread, creation, elapsed);
+                } else if (creation.interrupted && !creation.closed && elapsed > budgetMillis + graceMillis) {
+                    close(thread, creation);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Watchdog failed to stop the context creation of " + creation.name, e);
+            }
+        }
+    }
+
+    private void interrupt(Thread thread, ContextCreation creation, long elapsed) {
+        Exception stack = new Exception("Stack of " + thread.getName());
+        stack.setStackTrace(thread.getStackTrace());
+        log.error("Application context creation of " + creation.name + " has been running for " + elapsed
+                + " ms, longer than its budget of " + budgetMillis + " ms; interrupting " + thread.getName(), stack);
+
+        creation.interrupted = true;
+        metrics.contextCreationStuck();
+        thread.interrupt();
+    }
+
+    private void close(Thread thread, final ContextCreation creation) {
+        log.error("Application context creation of {} did not stop when interrupted; closing the context", creation.name);
+
+        creation.closed = true;
+        // closing may wait for the stuck refresh, so it doesn't hold up the watchdog
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    creation.context.close();
+                } catch (RuntimeException e) {
+                    log.warn("Cannot close the application context of " + creation.name, e);
+                }
+            }
+        }, "ContextCreationWatchdog::Close " + creation.name);
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /**
+     * A refresh stage of a context running on a thread
+     */
+    private static class ContextCreation {
+        private final ConfigurableOsgiBundleApplicationContext context;
+        private final String name;
+        private final long started = System.nanoTime();
+        private volatile boolean interrupted;
+        private volatile boolean closed;
+
+        private ContextCreation(ConfigurableOsgiBundleApplicationContext context) {
+            this.context = context;
+            this.name = OsgiStringUtils.nullSafeNameAndSymName(context.getBundle());
+        }
+    }
+}
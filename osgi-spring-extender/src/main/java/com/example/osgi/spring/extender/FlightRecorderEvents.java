@@ -0,0 +1,122 @@
+package com.example.osgi.spring.extender;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the extender.  Events are only created when the JVM has JFR (Java 11, or 8u262 and
+ * later) and the bundle can see it, see the jdk.jfr system package set by the host.  The event classes are nested so they
+ * are only loaded once a method has checked that.
+ *
+ * @since 2.6
+ */
+final class FlightRecorderEvents {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * @return a started context creation event, or null if it isn't recorded
+     */
+    static Object beginContextCreation() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        ContextCreationEvent event = new ContextCreationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param contextCreation the event from {@link #beginContextCreation()}
+     * @param phaseNanos      the time spent in each phase by name, see {@link ContextCreationPhases}
+     */
+    static void endContextCreation(Object contextCreation, String bundle, String version, String state,
+                                   Map<String, Long> phaseNanos) {
+        if (contextCreation == null) {
+            return;
+        }
+
+        ContextCreationEvent event = (ContextCreationEvent) contextCreation;
+        event.end();
+        if (event.shouldCommit()) {
+            event.bundle = bundle;
+            event.version = version;
+            event.state = state;
+            event.discovery = phase(phaseNanos, ContextCreationPhases.DISCOVERY);
+            event.preProcessing = phase(phaseNanos, ContextCreationPhases.PRE_PROCESSING);
+            event.beanDefinitionLoading = phase(phaseNanos, ContextCreationPhases.BEAN_DEFINITION_LOADING);
+            event.refresh = phase(phaseNanos, ContextCreationPhases.REFRESH);
+            event.waitingForDependencies = phase(phaseNanos, ContextCreationPhases.WAITING_FOR_DEPENDENCIES);
+            event.serviceExport = phase(phaseNanos, ContextCreationPhases.SERVICE_EXPORT);
+            event.commit();
+        }
+    }
+
+    private static long phase(Map<String, Long> phaseNanos, String phase) {
+        Long nanos = phaseNanos.get(phase);
+        return nanos != null ? TimeUnit.NANOSECONDS.toMillis(nanos) : 0;
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    @Name("com.example.osgi.ContextCreation")
+    @Label("Application Context Creation")
+    @Description("Creation of the Spring application context of a bundle, up to publishing it")
+    @Category({"OSGi", "Spring"})
+    static class ContextCreationEvent extends Event {
+        @Label("Bundle")
+        String bundle;
+
+        @Label("Version")
+        String version;
+
+        @Label("State")
+        String state;
+
+        @Label("Discovery")
+        @Timespan(Timespan.MILLISECONDS)
+        long discovery;
+
+        @Label("Pre-processing")
+        @Timespan(Timespan.MILLISECONDS)
+        long preProcessing;
+
+        @Label("Bean Definition Loading")
+        @Timespan(Timespan.MILLISECONDS)
+        long beanDefinitionLoading;
+
+        @Label("Refresh")
+        @Timespan(Timespan.MILLISECONDS)
+        long refresh;
+
+        @Label("Waiting For Dependencies")
+        @Timespan(Timespan.MILLISECONDS)
+        long waitingForDependencies;
+
+        @Label("Service Export")
+        @Timespan(Timespan.MILLISECONDS)
+        long serviceExport;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.osgi.spring.extender;
+
+import org.eclipse.gemini.blueprint.context.BundleContextAware;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.CachedIntrospectionResults;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the reflective metadata Spring keeps about classes between the application contexts of all bundles, and
+ * evicts it by bundle.
+ * <p>
+ * The class loader of every resolved bundle is accepted by {@link CachedIntrospectionResults}, so the bean property
+ * metadata of its classes is held by the shared cache rather than softly, whichever context first needed it.  As a
+ * class is only ever defined by one bundle revision, the cache is effectively keyed by class and defining revision.
+ * The contexts don't reset Spring's common caches after refreshing either, so the annotation, reflection and
+ * generic type metadata built by one context is kept for the next.
+ * <p>
+ * When a bundle is updated, unresolved or uninstalled, the metadata of the classes of its revision is evicted.  The
+ * annotation, reflection and generic type caches can only be cleared as a whole, so they are cleared then too; they
+ * hold their entries softly, so they don't keep the classes of the revision from being unloaded in the meantime.
+ *
+ * @since 2.6
+ */
+public class IntrospectionCache implements SynchronousBundleListener, BundleContextAware {
+    private static final Logger log = LoggerFactory.getLogger(IntrospectionCache.class);
+
+    // the class loader accepted for each bundle, as the wiring of an updated bundle may already be gone
+    private final Map<Long, ClassLoader> classLoaders = new ConcurrentHashMap<Long, ClassLoader>();
+    private BundleContext bundleContext;
+
+    @Override
+    public void setBundleContext(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * Starts listening for bundle events and accepts the class loaders of the bundles which are already resolved
+     */
+    public void start() {
+        bundleContext.addBundleListener(this);
+
+        for (Bundle bundle : bundleContext.getBundles()) {
+            if ((bundle.getState() & (Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING)) != 0) {
+                accept(bundle);
+            }
+        }
+    }
+
+    public void stop() {
+        bundleContext.removeBundleListener(this);
+        for (Long bundleId : classLoaders.keySet()) {
+            evict(bundleId);
+        }
+        clearCommonCaches();
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.RESOLVED:
+                accept(event.getBundle());
+                break;
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UNINSTALLED:
+                if (evict(event.getBundle().getBundleId())) {
+                    clearCommonCaches();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void accept(Bundle bundle) {
+        // the classes of the system bundle are already cached by Spring
+        if (bundle.getBundleId() == 0) {
+            return;
+        }
+
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        ClassLoader classLoader = wiring != null ? wiring.getClassLoader() : null;
+        if (classLoader == null) {
+            return;
+        }
+
+        ClassLoader previous = classLoaders.put(bundle.getBundleId(), classLoader);
+        if (previous != classLoader) {
+            if (previous != null) {
+                CachedIntrospectionResults.clearClassLoader(previous);
+            }
+            CachedIntrospectionResults.acceptClassLoader(classLoader);
+        }
+    }
+
+    /**
+     * @return whether the bundle had an accepted class loader
+     */
+    private boolean evict(long bundleId) {
+        ClassLoader classLoader = classLoaders.remove(bundleId);
+        if (classLoader == null) {
+            return false;
+        }
+
+        CachedIntrospectionResults.clearClassLoader(classLoader);
+        log.debug("Evicted the introspection metadata of bundle {}", bundleId);
+        return true;
+    }
+
+    private static void clearCommonCaches() {
+        ReflectionUtils.clearCache();
+        AnnotationUtils.clearCache();
+        ResolvableType.clearCache();
+    }
+}
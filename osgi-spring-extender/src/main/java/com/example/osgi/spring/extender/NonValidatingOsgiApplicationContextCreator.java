@@ -28,11 +28,36 @@ public class NonValidatingOsgiApplicationContextCreator implements OsgiApplicati
     private final List<ApplicationContextPreProcessor> applicationContextPreProcessors;
 
     private ConfigurationScanner configurationScanner = new DefaultConfigurationScanner();
+    private ThreadPoolAsyncTaskExecutor taskExecutor;
+    private ContextCreationPhases phases;
+    private BeanDefinitionSnapshots snapshots;
 
     public NonValidatingOsgiApplicationContextCreator(List<ApplicationContextPreProcessor> applicationContextPreProcessors) {
         this.applicationContextPreProcessors = applicationContextPreProcessors;
     }
 
+    /**
+     * @param taskExecutor The executor creating the contexts, told which bundle each context creation is for, and
+     *                     how long it took
+     */
+    public void setTaskExecutor(ThreadPoolAsyncTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * @param phases Where the time spent in each phase of creating the contexts is kept
+     */
+    public void setPhases(ContextCreationPhases phases) {
+        this.phases = phases;
+    }
+
+    /**
+     * @param snapshots Where the bean definitions of the contexts are kept between starts of the framework
+     */
+    public void setSnapshots(BeanDefinitionSnapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
     /**
      * Creates an application context that disables validation.  Most of this code is copy/pasted from
      * {@link DefaultOsgiApplicationContextCreator}
@@ -42,6 +67,7 @@ public class NonValidatingOsgiApplicationContextCreator implements OsgiApplicati
      * @throws Exception If anything goes wrong
      */
     public DelegatedExecutionOsgiBundleApplicationContext createApplicationContext(BundleContext bundleContext) throws Exception {
+        long start = System.nanoTime();
         Bundle bundle = bundleContext.getBundle();
         ApplicationContextConfiguration config = new ApplicationContextConfiguration(bundle, configurationScanner);
         if (log.isTraceEnabled())
@@ -53,18 +79,42 @@ public class NonValidatingOsgiApplicationContextCreator implements OsgiApplicati
             return null;
         }
 
+        ContextCreationPhases.Timing timing = phases != null ? phases.start(bundle, start) : null;
+        long preProcessingStart = System.nanoTime();
+        if (timing != null) {
+            timing.record(ContextCreationPhases.DISCOVERY, preProcessingStart - start);
+        }
+
         log.info("Discovered configurations " + ObjectUtils.nullSafeToString(config.getConfigurationLocations())
                 + " in bundle [" + OsgiStringUtils.nullSafeNameAndSymName(bundle) + "]");
 
         // This is the one new line, which uses our application context and not the other one
-        DelegatedExecutionOsgiBundleApplicationContext sdoac = new NonValidatingOsgiBundleXmlApplicationContext(
+        NonValidatingOsgiBundleXmlApplicationContext sdoac = new NonValidatingOsgiBundleXmlApplicationContext(
                 config.getConfigurationLocations());
 
         sdoac.setBundleContext(bundleContext);
         sdoac.setPublishContextAsService(config.isPublishContextAsService());
 
-        for (ApplicationContextPreProcessor processor : applicationContextPreProcessors) {
-            processor.process(bundle, sdoac);
+        boolean processed = false;
+        try {
+            for (ApplicationContextPreProcessor processor : applicationContextPreProcessors) {
+                processor.process(bundle, sdoac);
+            }
+            processed = true;
+        } finally {
+            if (timing != null) {
+                timing.record(ContextCreationPhases.PRE_PROCESSING, System.nanoTime() - preProcessingStart);
+                if (!processed) {
+                    timing.finished(true);
+                }
+            }
+        }
+        sdoac.setPhaseTiming(timing);
+        sdoac.setSnapshots(snapshots);
+        sdoac.setTaskExecutor(taskExecutor);
+
+        if (taskExecutor != null) {
+            taskExecutor.contextCreated(bundle);
         }
 
         return sdoac;
@@ -1,48 +1,140 @@
 package com.example.osgi.spring.extender;
 
+import org.eclipse.gemini.blueprint.context.BundleContextAware;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 
+import com.example.osgi.spring.extender.external.PersistentData;
+
+import java.lang.reflect.Method;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Executes spring tasks using a cached thread pool that expands as necessary.  Overrides the default Spring executor
  * that spawns a new thread for every application context creation.
+ * <p>
+ * In the {@code virtual} thread mode every task runs on its own virtual thread instead, so the contexts waiting for
+ * their service dependencies don't each hold a platform thread. The mode is set on the bean or with the
+ * {@value #THREAD_MODE_PROPERTY} framework property, which takes precedence. If the JVM has no virtual threads the
+ * cached pool is used.
+ * <p>
+ * The number of contexts created at once can be bounded with the concurrency setting or the
+ * {@value #CONCURRENCY_PROPERTY} framework property, either to a number of threads or to {@code cores}. Waiting
+ * contexts are then started longest dependency chain first, based on the {@link ContextCreationTimes} recorded by
+ * previous boots in the extender's {@link PersistentData} directory. The second refresh stage of a context, once its
+ * service dependencies are there, waits at the priority of its bundle too, see {@link #forBundle(Bundle)}. The times
+ * are the refresh times the contexts report, see {@link #contextRefreshed(Bundle, long)}.
+ * <p>
+ * What goes through the executor is counted by its {@link ContextCreationMetrics}.
+ * <p>
+ * Tasks which could not start within their start timeout are dropped. A {@link ContextCreationWatchdog} interrupts
+ * context creations running longer than the creation budget, set on the bean or with the
+ * {@value #CREATION_BUDGET_PROPERTY} framework property, in seconds. A budget of 0 turns the watchdog off.
  *
  * @since 2.5.0
  */
-public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
+public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor, BundleContextAware {
+    public static final String THREAD_MODE_PROPERTY = "com.example.osgi.spring.extender.thread.mode";
+    public static final String PLATFORM_THREAD_MODE = "platform";
+    public static final String VIRTUAL_THREAD_MODE = "virtual";
+    public static final String CONCURRENCY_PROPERTY = "com.example.osgi.spring.extender.concurrency";
+    public static final String UNBOUNDED_CONCURRENCY = "unbounded";
+    public static final String CORES_CONCURRENCY = "cores";
+    public static final String CONTEXT_CREATION_TIMES_FILE = "context-creation-times.properties";
+    public static final String CREATION_BUDGET_PROPERTY = "com.example.osgi.spring.extender.creation.budget.seconds";
+    public static final long DEFAULT_CREATION_BUDGET_SECONDS = 600;
+
     private static final Logger log = LoggerFactory.getLogger(ThreadPoolAsyncTaskExecutor.class);
+    private static final String THREAD_NAME_PREFIX = "ThreadPoolAsyncTaskExecutor::Thread ";
+
+    private final ThreadLocal<Bundle> nextContextBundle = new ThreadLocal<Bundle>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger pendingTasks = new AtomicInteger();
 
-    private final ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory());
+    private String threadMode = PLATFORM_THREAD_MODE;
+    private String concurrency = UNBOUNDED_CONCURRENCY;
+    private BundleContext bundleContext;
+    private ExecutorService executor;
+    private ContextCreationTimes contextCreationTimes;
+    private ContextCreationMetrics metrics = new ContextCreationMetrics();
+    private long creationBudgetSeconds = DEFAULT_CREATION_BUDGET_SECONDS;
+    private ContextCreationWatchdog watchdog;
+
+    /**
+     * @param threadMode {@code platform} for the cached thread pool, {@code virtual} for virtual threads
+     */
+    public void setThreadMode(String threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    /**
+     * @param concurrency {@code unbounded} to create every context at once, {@code cores} to create as many as there
+     *                    are processors, or the number of contexts to create at once
+     */
+    public void setConcurrency(String concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param creationBudgetSeconds how long a context creation may run on a thread before the watchdog stops it, 0
+     *                              for no limit
+     */
+    public void setCreationBudgetSeconds(long creationBudgetSeconds) {
+        this.creationBudgetSeconds = creationBudgetSeconds;
+    }
+
+    public void setMetrics(ContextCreationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void setBundleContext(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
 
     /**
      * Executes the runnable
      *
      * @param task         The runnable task
-     * @param startTimeout The start timeout (ignored)
+     * @param startTimeout The time in milliseconds within which the task must start, or it is dropped.
+     *                     {@link #TIMEOUT_IMMEDIATE} puts it ahead of every queued task, {@link #TIMEOUT_INDEFINITE}
+     *                     or a negative value waits as long as it takes.
      */
     @Override
     public void execute(Runnable task, long startTimeout) {
-        // yes, we ignore the start timeout
-        executor.execute(task);
+        Bundle bundle = nextContextBundle.get();
+        nextContextBundle.remove();
+        schedule(task, bundle, startTimeout);
     }
 
     @Override
     public Future<?> submit(Runnable task) {
-        return executor.submit(task);
+        FutureTask<Object> future = new FutureTask<Object>(task, null);
+        schedule(future, null, TIMEOUT_INDEFINITE);
+        return future;
     }
 
     @Override
     public <T> Future<T> submit(Callable<T> task) {
-        return executor.submit(task);
+        FutureTask<T> future = new FutureTask<T>(task);
+        schedule(future, null, TIMEOUT_INDEFINITE);
+        return future;
     }
 
     /**
@@ -52,7 +144,48 @@ public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
      */
     @Override
     public void execute(Runnable task) {
-        this.execute(task, -1);
+        this.execute(task, TIMEOUT_INDEFINITE);
+    }
+
+    /**
+     * Tells the executor that the next task executed by the calling thread creates the context of the bundle. The
+     * extender creates a context and then executes its creation from the same thread.
+     *
+     * @param bundle The bundle whose context has just been created
+     */
+    public void contextCreated(Bundle bundle) {
+        nextContextBundle.set(bundle);
+    }
+
+    /**
+     * @param bundle The bundle whose context is being created
+     * @return an executor for the continuations of the context creation of the bundle, i.e. its second refresh stage,
+     *         which runs them at the priority of the bundle
+     */
+    public TaskExecutor forBundle(final Bundle bundle) {
+        return new TaskExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                schedule(task, bundle, TIMEOUT_INDEFINITE);
+            }
+        };
+    }
+
+    /**
+     * Records how long the context of a bundle took to refresh, both refresh stages together but not the wait for
+     * service dependencies in between. The longest chains of these times are started first on the next boot.
+     *
+     * @param bundle The bundle whose context was refreshed
+     * @param millis The time spent in the refresh stages
+     */
+    public void contextRefreshed(Bundle bundle, long millis) {
+        ContextCreationTimes times;
+        synchronized (this) {
+            times = contextCreationTimes;
+        }
+        if (times != null) {
+            times.record(bundle, millis);
+        }
     }
 
     /**
@@ -62,6 +195,20 @@ public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
     public void shutdown() {
         log.debug("Attempting to shutdown ExecutorService");
 
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor == null) {
+            // nothing was ever executed, so there are no threads to stop
+            log.debug("ExecutorService was never created");
+            return;
+        }
+
+        saveContextCreationTimes();
+        if (watchdog != null) {
+            watchdog.stop();
+        }
         executor.shutdown();
         try {
             if (executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -71,7 +218,8 @@ public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
                 //shutdownNow() and give it another 5 seconds
                 log.warn("ExecutorService did not shutdown within the timeout; forcing shutdown");
 
-                executor.shutdownNow();
+                List<Runnable> neverRun = executor.shutdownNow();
+                metrics.tasksAbandoned(neverRun.size(), 0);
                 if (executor.awaitTermination(5, TimeUnit.SECONDS)) {
                     //The forced shutdown has brought the executor down. Not ideal, but acceptable
                     log.debug("ExecutorService has been forced to shutdown");
@@ -79,7 +227,12 @@ public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
                     //We can't delay execution indefinitely waiting, so log a warning. The JVM may not shut down
                     //if this service does not stop (because it uses non-daemon threads), so this may be helpful
                     //in debugging should that happen.
-                    log.warn("ExecutorService did not shutdown; it will be abandoned");
+                    metrics.tasksAbandoned(0, metrics.getActiveTasks());
+                    log.warn("ExecutorService did not shutdown; it will be abandoned with {} tasks running",
+                            metrics.getActiveTasks());
+                }
+                if (!neverRun.isEmpty()) {
+                    log.warn("{} queued tasks were dropped at shutdown", neverRun.size());
                 }
             }
         } catch (InterruptedException e) {
@@ -89,6 +242,247 @@ public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
         }
     }
 
+    private void schedule(Runnable task, Bundle bundle, long startTimeout) {
+        ExecutorService executor = getExecutor();
+        // tasks for no bundle in particular go before the context creations, as do tasks to start immediately
+        long priority = bundle != null && startTimeout != TIMEOUT_IMMEDIATE
+                ? contextCreationTimes.getPriority(bundle) : Long.MAX_VALUE;
+        // immediate tasks go first rather than being dropped as soon as they have to wait
+        long startDeadline = startTimeout > TIMEOUT_IMMEDIATE && startTimeout != TIMEOUT_INDEFINITE
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startTimeout) : Long.MAX_VALUE;
+
+        pendingTasks.incrementAndGet();
+        metrics.taskSubmitted();
+        try {
+            executor.execute(new ContextCreationTask(task, bundle, priority, sequence.getAndIncrement(), startDeadline));
+        } catch (RejectedExecutionException e) {
+            metrics.taskRejected();
+            pendingTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes out the context creation times whenever the executor runs out of work
+     */
+    private void taskCompleted() {
+        if (pendingTasks.decrementAndGet() == 0) {
+            saveContextCreationTimes();
+        }
+    }
+
+    private void saveContextCreationTimes() {
+        if (bundleContext == null) {
+            return;
+        }
+
+        try {
+            contextCreationTimes.save(bundleContext.getBundles());
+        } catch (IllegalStateException e) {
+            log.debug("Extender bundle stopped; context creation times are not saved");
+        }
+    }
+
+    /**
+     * Creates the executor on first use, once the thread mode, concurrency and bundle context have been set
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            contextCreationTimes = new ContextCreationTimes(
+                    bundleContext != null ? PersistentData.getFile(bundleContext, CONTEXT_CREATION_TIMES_FILE) : null);
+            contextCreationTimes.load();
+            executor = createExecutor(getSetting(THREAD_MODE_PROPERTY, threadMode, PLATFORM_THREAD_MODE),
+                    getConcurrency());
+
+            long budgetSeconds = getCreationBudgetSeconds();
+            if (budgetSeconds > 0) {
+                watchdog = new ContextCreationWatchdog(TimeUnit.SECONDS.toMillis(budgetSeconds), metrics);
+                watchdog.start();
+            }
+        }
+        return executor;
+    }
+
+    private long getCreationBudgetSeconds() {
+        String setting = getSetting(CREATION_BUDGET_PROPERTY, String.valueOf(creationBudgetSeconds), "0");
+        try {
+            return Long.parseLong(setting);
+        } catch (NumberFormatException e) {
+            log.warn("Unknown creation budget '{}'; using {} seconds", setting, DEFAULT_CREATION_BUDGET_SECONDS);
+            return DEFAULT_CREATION_BUDGET_SECONDS;
+        }
+    }
+
+    private String getSetting(String propertyName, String value, String defaultValue) {
+        String property = bundleContext != null ? bundleContext.getProperty(propertyName) : null;
+        String setting = property != null && !property.trim().isEmpty() ? property : value;
+        return setting != null ? setting.trim().toLowerCase() : defaultValue;
+    }
+
+    /**
+     * @return the number of contexts to create at once, 0 for no limit
+     */
+    private int getConcurrency() {
+        String setting = getSetting(CONCURRENCY_PROPERTY, concurrency, UNBOUNDED_CONCURRENCY);
+        if (UNBOUNDED_CONCURRENCY.equals(setting) || setting.isEmpty()) {
+            return 0;
+        }
+        if (CORES_CONCURRENCY.equals(setting)) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        try {
+            return Math.max(0, Integer.parseInt(setting));
+        } catch (NumberFormatException e) {
+            log.warn("Unknown concurrency '{}'; creating every context at once", setting);
+            return 0;
+        }
+    }
+
+    private ExecutorService createExecutor(String mode, int concurrency) {
+        ThreadFactory threadFactory = null;
+        if (VIRTUAL_THREAD_MODE.equals(mode)) {
+            threadFactory = createVirtualThreadFactory();
+            if (threadFactory != null) {
+                log.info("Creating application contexts on virtual threads");
+            } else {
+                log.warn("Virtual threads are not supported by this JVM; falling back to the cached thread pool");
+            }
+        } else if (!PLATFORM_THREAD_MODE.equals(mode)) {
+            log.warn("Unknown thread mode '{}'; using the cached thread pool", mode);
+        }
+
+        if (concurrency > 0) {
+            log.info("Creating at most {} application contexts at once, longest dependency chains first", concurrency);
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(),
+                    new CountingThreadFactory(threadFactory != null ? threadFactory : new NamedThreadFactory()));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+
+        if (threadFactory != null) {
+            ExecutorService virtualThreadExecutor = createThreadPerTaskExecutor(new CountingThreadFactory(threadFactory));
+            if (virtualThreadExecutor != null) {
+                return virtualThreadExecutor;
+            }
+        }
+        return Executors.newCachedThreadPool(new CountingThreadFactory(new NamedThreadFactory()));
+    }
+
+    /**
+     * Looks up the virtual thread API reflectively, as we are compiled against Java 8
+     *
+     * @return a factory of named virtual threads, or null if the JVM has none
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    private static ExecutorService createThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("Thread per task executors are not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Task ordered by the length of the dependency chain waiting on its bundle, then by arrival
+     */
+    private class ContextCreationTask implements Runnable, Comparable<ContextCreationTask> {
+        private final Runnable task;
+        private final Bundle bundle;
+        private final long priority;
+        private final long sequence;
+        private final long startDeadline;
+        private final long submitted = System.nanoTime();
+
+        private ContextCreationTask(Runnable task, Bundle bundle, long priority, long sequence, long startDeadline) {
+            this.task = task;
+            this.bundle = bundle;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.startDeadline = startDeadline;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            if (start - startDeadline > 0) {
+                timedOut(start);
+                return;
+            }
+
+            metrics.taskStarted(start - submitted);
+            boolean failed = true;
+            try {
+                task.run();
+                failed = false;
+            } finally {
+                long runTime = System.nanoTime() - start;
+                metrics.taskFinished(runTime, failed);
+                taskCompleted();
+            }
+        }
+
+        private void timedOut(long now) {
+            log.warn("Task {} could not start within its start timeout, waited {} ms; dropping it",
+                    bundle != null ? bundle.getSymbolicName() : task, TimeUnit.NANOSECONDS.toMillis(now - submitted));
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+
+            metrics.taskTimedOut();
+            taskCompleted();
+        }
+
+        @Override
+        public int compareTo(ContextCreationTask other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Thread factory that counts the live threads of the executor
+     */
+    private class CountingThreadFactory implements ThreadFactory {
+        private final ThreadFactory threadFactory;
+
+        private CountingThreadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    metrics.threadStarted();
+                    try {
+                        r.run();
+                    } finally {
+                        metrics.threadStopped();
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Thread factory that names the threads for the executor
      */
@@ -99,7 +493,7 @@ public class ThreadPoolAsyncTaskExecutor implements AsyncTaskExecutor {
         public Thread newThread(Runnable r) {
             Thread thread = new Thread(r);
             thread.setDaemon(false);
-            thread.setName("ThreadPoolAsyncTaskExecutor::Thread " + counter.incrementAndGet());
+            thread.setName(THREAD_NAME_PREFIX + counter.incrementAndGet());
             return thread;
         }
     }
@@ -0,0 +1,21 @@
+package com.example.osgi.spring.extender.external;
+
+import java.util.Map;
+
+/**
+ * Metrics of an executor of the extender, published as an OSGi service.  The metrics only hold JDK types, so they can
+ * be read from outside the framework without sharing this interface.
+ *
+ * @since 2.6
+ */
+public interface ExecutorMetrics {
+    /**
+     * Service property naming the executor
+     */
+    String EXECUTOR_PROPERTY = "executor";
+
+    /**
+     * @return a snapshot of the metrics by name. Values are numbers, or maps of numbers for histograms.
+     */
+    Map<String, Object> getMetrics();
+}
@@ -0,0 +1,59 @@
+package com.example.osgi.spring.extender.external;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Where the extender and its fragments keep what they learn about the bundles between starts of the framework, such as
+ * scanned component indexes.
+ * <p>
+ * The framework deletes its storage area at every launch when {@value Constants#FRAMEWORK_STORAGE_CLEAN} is
+ * {@value Constants#FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT}, so the data is kept in the directory named by the
+ * {@value #DIRECTORY_PROPERTY} framework property.  Without it the data goes in the data area of the bundle, which
+ * only survives a restart when the storage area isn't cleaned.
+ * <p>
+ * Whatever is kept about a bundle is keyed by {@link #getBundleKey(Bundle)}, so it is dropped once the bundle is
+ * updated or reinstalled.
+ *
+ * @since 2.6
+ */
+public final class PersistentData {
+    public static final String DIRECTORY_PROPERTY = "com.example.osgi.spring.extender.data.dir";
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentData.class);
+
+    private PersistentData() {
+    }
+
+    /**
+     * @param bundleContext The context of the bundle keeping the data
+     * @param name          The name of the file or directory
+     * @return where to keep the data, or null if there is nowhere to keep it
+     */
+    public static File getFile(BundleContext bundleContext, String name) {
+        String directory = bundleContext.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null && !directory.trim().isEmpty()) {
+            return new File(directory.trim(), name);
+        }
+
+        if (Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT.equals(bundleContext.getProperty(Constants.FRAMEWORK_STORAGE_CLEAN))) {
+            log.warn("{} is not set and the framework storage is cleaned at every launch, so {} won't be kept between starts",
+                    DIRECTORY_PROPERTY, name);
+        }
+        return bundleContext.getDataFile(name);
+    }
+
+    /**
+     * @param bundle The bundle the data is about
+     * @return what identifies the content of the bundle without reading it: its version, its location and the time it
+     * was last installed or updated
+     */
+    public static String getBundleKey(Bundle bundle) {
+        return bundle.getVersion() + ";" + bundle.getLocation() + ";" + bundle.getLastModified();
+    }
+}
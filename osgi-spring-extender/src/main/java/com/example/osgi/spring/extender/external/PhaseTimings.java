@@ -0,0 +1,18 @@
+package com.example.osgi.spring.extender.external;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings of the phases of creating the application context of each bundle, published as an OSGi service.  The
+ * timings only hold JDK types, so they can be read from outside the framework without sharing this interface.
+ *
+ * @since 2.6
+ */
+public interface PhaseTimings {
+    /**
+     * @return a snapshot of the timings of the most recent context creations, oldest first. Each holds the bundle, the
+     * state of the creation, its total time and the milliseconds spent in each phase by name.
+     */
+    List<Map<String, Object>> getTimings();
+}
@@ -0,0 +1,36 @@
+package com.example.osgi.spring.extender.external;
+
+/**
+ * Keeps the bean definitions being loaded on the calling thread out of the bean definition snapshot cache.  Code run
+ * while a context loads its definitions, such as a namespace handler, calls this when what it registers depends on more
+ * than the content of the bundle, e.g. on properties of the environment.  The definitions of a context are loaded on a
+ * single thread.
+ *
+ * @since 2.6
+ */
+public final class SnapshotExclusion {
+    private static final ThreadLocal<String> reason = new ThreadLocal<String>();
+
+    private SnapshotExclusion() {
+    }
+
+    /**
+     * @param why Why the definitions can't be snapshotted, for the logs
+     */
+    public static void exclude(String why) {
+        if (reason.get() == null) {
+            reason.set(why);
+        }
+    }
+
+    /**
+     * Clears the exclusion of the calling thread
+     *
+     * @return why the definitions loaded since the last call are excluded, or null if they aren't
+     */
+    public static String clear() {
+        String why = reason.get();
+        reason.remove();
+        return why;
+    }
+}
@@ -1,12 +1,34 @@
 package org.eclipse.gemini.blueprint.context.support;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.example.osgi.spring.extender.BeanDefinitionSnapshots;
+import com.example.osgi.spring.extender.ContextCreationPhases;
+import com.example.osgi.spring.extender.ContextCreationWatchdog;
+import com.example.osgi.spring.extender.IntrospectionCache;
+import com.example.osgi.spring.extender.ThreadPoolAsyncTaskExecutor;
 import org.eclipse.gemini.blueprint.context.BundleContextAware;
+import org.eclipse.gemini.blueprint.context.OsgiBundleApplicationContextExecutor;
 import org.eclipse.gemini.blueprint.context.support.OsgiBundleXmlApplicationContext;
+import org.eclipse.gemini.blueprint.extender.internal.dependencies.startup.DependencyWaiterApplicationContextExecutor;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
 import org.springframework.beans.factory.annotation.QualifierAnnotationAutowireCandidateResolver;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
 
 /**
@@ -16,11 +38,179 @@ import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandl
  *
  * This class exists in the same package as the parent so the log messages won't get confused as the parent class
  * logs against the instance class.
+ *
+ * The time spent in each refresh stage, and waiting between them, is recorded in the phase timing of the context when
+ * it has one.
+ *
+ * When the context has the context creation executor, its second refresh stage is run by the executor at the priority
+ * of the bundle, like the first, and the time spent in both stages is reported to the executor as the creation time of
+ * the bundle.
+ *
+ * When the context has bean definition snapshots, the definitions are restored from the snapshot of the bundle instead
+ * of being loaded from the configuration, if there is one.
+ *
+ * A request mapping handler mapping is only added to contexts which define web handlers but no handler mapping of their
+ * own, e.g. the one registered for the request mappings index of the bundle.
+ *
+ * Refreshing the context leaves Spring's common metadata caches alone, they are shared by the contexts of all bundles.
  */
 public class NonValidatingOsgiBundleXmlApplicationContext extends OsgiBundleXmlApplicationContext {
+
+    public static final String REQUEST_MAPPING_HANDLER_MAPPING_BEAN_NAME = "requestMappingHandlerMapping";
+
+    private volatile ContextCreationPhases.Timing phaseTiming;
+    private BeanDefinitionSnapshots snapshots;
+    private ThreadPoolAsyncTaskExecutor taskExecutor;
+    private OsgiBundleApplicationContextExecutor executor;
+    // time of the refresh stages so far, without the wait in between
+    private volatile long refreshStagesNanos;
+    // time of the nested phases of the running refresh stage, left out of the refresh phase
+    private volatile long nestedPhaseNanos;
+    private volatile long startRefreshFinished;
 	
     public NonValidatingOsgiBundleXmlApplicationContext(final String[] configLocations) {
         super(configLocations);
+        addBeanFactoryPostProcessor(new HandlerMappingBeanFactoryPostProcessor());
+    }
+
+    /**
+     * @param phaseTiming Where to record the time spent in each phase of the refresh, or null not to
+     */
+    public void setPhaseTiming(final ContextCreationPhases.Timing phaseTiming) {
+        this.phaseTiming = phaseTiming;
+    }
+
+    /**
+     * @param snapshots Where the bean definitions are kept between starts of the framework, or null not to keep them
+     */
+    public void setSnapshots(final BeanDefinitionSnapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * @param taskExecutor The executor creating the contexts, or null to leave the second refresh stage to the executor
+     *                     of the extender
+     */
+    public void setTaskExecutor(final ThreadPoolAsyncTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public void setExecutor(final OsgiBundleApplicationContextExecutor executor) {
+        super.setExecutor(executor);
+        this.executor = executor;
+    }
+
+    /**
+     * Each refresh stage is watched separately, so waiting for mandatory service dependencies in between doesn't count
+     * against the creation budget.
+     */
+    @Override
+    public void startRefresh() {
+        // the extender gives the dependency waiter its task executor after creating it, so it is replaced only now
+        if (taskExecutor != null && executor instanceof DependencyWaiterApplicationContextExecutor) {
+            ((DependencyWaiterApplicationContextExecutor) executor).setTaskExecutor(taskExecutor.forBundle(getBundle()));
+        }
+
+        boolean entered = ContextCreationWatchdog.enter(this);
+        long start = System.nanoTime();
+        boolean refreshed = false;
+        try {
+            super.startRefresh();
+            refreshed = true;
+        } finally {
+            refreshStageFinished(start, !refreshed, false);
+            if (entered) {
+                ContextCreationWatchdog.exit();
+            }
+        }
+        startRefreshFinished = System.nanoTime();
+    }
+
+    @Override
+    public void completeRefresh() {
+        boolean entered = ContextCreationWatchdog.enter(this);
+        long start = System.nanoTime();
+        ContextCreationPhases.Timing timing = phaseTiming;
+        if (timing != null && startRefreshFinished != 0) {
+            timing.record(ContextCreationPhases.WAITING_FOR_DEPENDENCIES, start - startRefreshFinished);
+        }
+
+        boolean refreshed = false;
+        try {
+            super.completeRefresh();
+            refreshed = true;
+        } finally {
+            refreshStageFinished(start, !refreshed, true);
+            if (entered) {
+                ContextCreationWatchdog.exit();
+            }
+        }
+    }
+
+    @Override
+    protected void loadBeanDefinitions(final DefaultListableBeanFactory beanFactory) throws IOException, BeansException {
+        long start = System.nanoTime();
+        try {
+            BeanDefinitionSnapshots.Entry snapshot = snapshots != null
+                    ? snapshots.open(getBundle(), getConfigLocations(), getEnvironment()) : null;
+            if (snapshot == null || !snapshot.restore(beanFactory, getClassLoader())) {
+                BeanDefinitionSnapshots.Recording recording = snapshot != null ? snapshot.record(beanFactory) : null;
+                super.loadBeanDefinitions(beanFactory);
+                if (recording != null) {
+                    recording.save();
+                }
+            }
+        } finally {
+            nestedPhaseFinished(ContextCreationPhases.BEAN_DEFINITION_LOADING, start);
+        }
+    }
+
+    @Override
+    protected void finishRefresh() {
+        long start = System.nanoTime();
+        try {
+            super.finishRefresh();
+        } finally {
+            nestedPhaseFinished(ContextCreationPhases.SERVICE_EXPORT, start);
+        }
+    }
+
+    private void nestedPhaseFinished(final String phase, final long start) {
+        ContextCreationPhases.Timing timing = phaseTiming;
+        if (timing != null) {
+            long nanos = System.nanoTime() - start;
+            nestedPhaseNanos += nanos;
+            timing.record(phase, nanos);
+        }
+    }
+
+    private void refreshStageFinished(final long start, final boolean failed, final boolean last) {
+        long stageNanos = System.nanoTime() - start;
+        refreshStagesNanos += stageNanos;
+        if (failed || last) {
+            if (taskExecutor != null) {
+                taskExecutor.contextRefreshed(getBundle(), TimeUnit.NANOSECONDS.toMillis(refreshStagesNanos));
+            }
+            refreshStagesNanos = 0;
+        }
+
+        ContextCreationPhases.Timing timing = phaseTiming;
+        if (timing != null) {
+            timing.record(ContextCreationPhases.REFRESH, stageNanos - nestedPhaseNanos);
+            nestedPhaseNanos = 0;
+            if (failed || last) {
+                timing.finished(failed);
+            }
+        }
+    }
+
+    /**
+     * Spring's common caches are shared by the contexts of all bundles, so refreshing one context doesn't clear them.
+     * They are evicted when a bundle goes away instead, see {@link IntrospectionCache}.
+     */
+    @Override
+    protected void resetCommonCaches() {
     }
 
     @Override
@@ -37,13 +227,61 @@ public class NonValidatingOsgiBundleXmlApplicationContext extends OsgiBundleXmlA
     protected void customizeBeanFactory(final DefaultListableBeanFactory beanFactory) {
         super.customizeBeanFactory(beanFactory);
         
-        
-        // TODO: Maybe take this back out?!?!?
-        beanFactory.createBean(RequestMappingHandlerMapping.class);
         beanFactory.addBeanPostProcessor(new BundleContextAwareBeanPostProcessor());
         beanFactory.setAutowireCandidateResolver(new QualifierAnnotationAutowireCandidateResolver());
     }
 
+    /**
+     * Registers a lazy request mapping handler mapping if the bean factory has web handlers but no handler mapping.
+     * Runs after the bean definition registry post-processors, so the handlers they register are seen too.  Only the
+     * annotation metadata of scanned definitions and the bean classes already resolved are looked at, no class is
+     * loaded and no bean is created to find out.  The handlers of indexed bundles come with the handler mapping of
+     * their request mappings index.
+     */
+    private static class HandlerMappingBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+        @Override
+        public void postProcessBeanFactory(final ConfigurableListableBeanFactory beanFactory) throws BeansException {
+            // looking for handler mappings predicts the bean types, so it only happens when there are handlers
+            if (!(beanFactory instanceof BeanDefinitionRegistry)
+                    || !hasHandlers(beanFactory)
+                    || beanFactory.getBeanNamesForType(HandlerMapping.class, true, false).length > 0) {
+                return;
+            }
+
+            RootBeanDefinition def = new RootBeanDefinition(RequestMappingHandlerMapping.class);
+            def.setLazyInit(true);
+            def.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+            ((BeanDefinitionRegistry) beanFactory).registerBeanDefinition(REQUEST_MAPPING_HANDLER_MAPPING_BEAN_NAME, def);
+        }
+
+        private boolean hasHandlers(final ConfigurableListableBeanFactory beanFactory) {
+            for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                if (isHandler(beanFactory.getBeanDefinition(beanName))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isHandler(final BeanDefinition definition) {
+            if (definition.isAbstract() || definition.getFactoryMethodName() != null) {
+                return false;
+            }
+            if (definition instanceof AnnotatedBeanDefinition) {
+                AnnotationMetadata metadata = ((AnnotatedBeanDefinition) definition).getMetadata();
+                return metadata.isAnnotated(Controller.class.getName())
+                        || metadata.isAnnotated(RequestMapping.class.getName());
+            }
+            if (definition instanceof AbstractBeanDefinition && ((AbstractBeanDefinition) definition).hasBeanClass()) {
+                Class<?> beanClass = ((AbstractBeanDefinition) definition).getBeanClass();
+                return AnnotatedElementUtils.hasAnnotation(beanClass, Controller.class)
+                        || AnnotatedElementUtils.hasAnnotation(beanClass, RequestMapping.class);
+            }
+            // a class name only, which would have to be loaded to find out
+            return false;
+        }
+    }
+
     /**
      * If bean is BundleContextAware then we need to inject the bundle context here.
      */
@@ -0,0 +1,216 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.extender.external.PersistentData;
+import com.example.osgi.spring.extender.external.SnapshotExclusion;
+
+public class BeanDefinitionSnapshotsTest {
+    private static final String CONFIG = "<beans xmlns='http://www.springframework.org/schema/beans'>"
+            + "<bean id='first' name='alias' class='java.util.ArrayList' lazy-init='true'>"
+            + "  <constructor-arg><list><value>one</value><ref bean='second'/>"
+            + "    <bean class='java.lang.StringBuilder'><constructor-arg value='inner'/></bean></list></constructor-arg>"
+            + "</bean>"
+            + "<bean id='second' class='java.lang.String'><constructor-arg value='two'/></bean>"
+            + "<bean id='third' class='java.util.HashMap'>"
+            + "  <constructor-arg><map><entry key='key' value-ref='second'/></map></constructor-arg>"
+            + "</bean>"
+            + "</beans>";
+
+    private File directory;
+    private BundleContext bundleContext;
+    private Bundle bundle;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("snapshots").toFile();
+        // never read, bundles are told apart by their version, location and last modified time
+        bundle = mockBundle(5, "com.example.plugin", new File(directory, "plugin.jar").toURI().toString());
+        Bundle extender = mockBundle(1, "org.eclipse.gemini.blueprint.extender", "extender");
+        Bundle systemBundle = mockBundle(0, "org.apache.felix.framework", "System Bundle");
+
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getProperty(PersistentData.DIRECTORY_PROPERTY)).thenReturn(directory.getPath());
+        when(bundleContext.getBundle()).thenReturn(extender);
+        when(bundleContext.getBundle(0)).thenReturn(systemBundle);
+    }
+
+    @After
+    public void tearDown() {
+        SnapshotExclusion.clear();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void capturedDefinitionsAreRestoredAfterSerialization() throws Exception {
+        DefaultListableBeanFactory loaded = new DefaultListableBeanFactory();
+        BeanDefinitionSnapshot.Baseline baseline = new BeanDefinitionSnapshot.Baseline(loaded);
+        load(loaded);
+
+        BeanDefinitionSnapshot snapshot = serializeAndRead(BeanDefinitionSnapshot.capture(loaded, baseline));
+
+        DefaultListableBeanFactory restored = new DefaultListableBeanFactory();
+        assertEquals(3, snapshot.restore(restored));
+        assertArrayEquals(loaded.getBeanDefinitionNames(), restored.getBeanDefinitionNames());
+        assertArrayEquals(new String[]{"alias"}, restored.getAliases("first"));
+        assertTrue(restored.getBeanDefinition("first").isLazyInit());
+
+        List<?> first = (List<?>) restored.getBean("alias");
+        assertEquals("one", first.get(0));
+        assertSame(restored.getBean("second"), first.get(1));
+        assertEquals("inner", first.get(2).toString());
+        assertEquals("two", ((Map<?, ?>) restored.getBean("third")).get("key"));
+    }
+
+    @Test
+    public void definitionsLoadedAlreadyAreLeftOut() throws Exception {
+        DefaultListableBeanFactory loaded = new DefaultListableBeanFactory();
+        loaded.registerBeanDefinition("existing", new RootBeanDefinition(Object.class));
+        BeanDefinitionSnapshot.Baseline baseline = new BeanDefinitionSnapshot.Baseline(loaded);
+        load(loaded);
+
+        DefaultListableBeanFactory restored = new DefaultListableBeanFactory();
+        BeanDefinitionSnapshot.capture(loaded, baseline).restore(restored);
+
+        assertFalse(restored.containsBeanDefinition("existing"));
+        assertTrue(restored.containsBeanDefinition("first"));
+    }
+
+    @Test(expected = BeanDefinitionSnapshot.NotSnapshottableException.class)
+    public void singletonsRegisteredWhileLoadingCannotBeSnapshotted() throws Exception {
+        DefaultListableBeanFactory loaded = new DefaultListableBeanFactory();
+        BeanDefinitionSnapshot.Baseline baseline = new BeanDefinitionSnapshot.Baseline(loaded);
+        loaded.registerSingleton("singleton", new Object());
+
+        BeanDefinitionSnapshot.capture(loaded, baseline);
+    }
+
+    @Test
+    public void savedSnapshotIsRestoredOnTheNextStart() throws Exception {
+        BeanDefinitionSnapshots snapshots = new BeanDefinitionSnapshots();
+        snapshots.setBundleContext(bundleContext);
+
+        DefaultListableBeanFactory firstStart = new DefaultListableBeanFactory();
+        BeanDefinitionSnapshots.Entry entry = open(snapshots);
+        assertFalse(entry.restore(firstStart, getClass().getClassLoader()));
+        BeanDefinitionSnapshots.Recording recording = entry.record(firstStart);
+        load(firstStart);
+        recording.save();
+
+        // a new instance, as after a restart of the framework
+        snapshots = new BeanDefinitionSnapshots();
+        snapshots.setBundleContext(bundleContext);
+        DefaultListableBeanFactory secondStart = new DefaultListableBeanFactory();
+        assertTrue(open(snapshots).restore(secondStart, getClass().getClassLoader()));
+        assertEquals("two", secondStart.getBean("second"));
+    }
+
+    @Test
+    public void updatedBundleInvalidatesTheSnapshot() throws Exception {
+        BeanDefinitionSnapshots snapshots = new BeanDefinitionSnapshots();
+        snapshots.setBundleContext(bundleContext);
+        saveSnapshot(snapshots);
+
+        when(bundle.getLastModified()).thenReturn(2000L);
+        snapshots = new BeanDefinitionSnapshots();
+        snapshots.setBundleContext(bundleContext);
+
+        assertFalse(open(snapshots).restore(new DefaultListableBeanFactory(), getClass().getClassLoader()));
+    }
+
+    @Test
+    public void excludedDefinitionsAreNotSaved() throws Exception {
+        BeanDefinitionSnapshots snapshots = new BeanDefinitionSnapshots();
+        snapshots.setBundleContext(bundleContext);
+
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        BeanDefinitionSnapshots.Recording recording = open(snapshots).record(beanFactory);
+        load(beanFactory);
+        SnapshotExclusion.exclude("conditional components");
+        recording.save();
+
+        assertFalse(open(snapshots).restore(new DefaultListableBeanFactory(), getClass().getClassLoader()));
+        assertNull(SnapshotExclusion.clear());
+    }
+
+    @Test
+    public void snapshotsCanBeTurnedOff() {
+        when(bundleContext.getProperty(BeanDefinitionSnapshots.ENABLED_PROPERTY)).thenReturn("false");
+        BeanDefinitionSnapshots snapshots = new BeanDefinitionSnapshots();
+        snapshots.setBundleContext(bundleContext);
+
+        assertNull(open(snapshots));
+    }
+
+    private void saveSnapshot(BeanDefinitionSnapshots snapshots) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        BeanDefinitionSnapshots.Entry entry = open(snapshots);
+        assertNotNull(entry);
+        BeanDefinitionSnapshots.Recording recording = entry.record(beanFactory);
+        load(beanFactory);
+        recording.save();
+    }
+
+    private BeanDefinitionSnapshots.Entry open(BeanDefinitionSnapshots snapshots) {
+        return snapshots.open(bundle, new String[]{"osgibundle:/META-INF/spring/*.xml"}, new StandardEnvironment());
+    }
+
+    private static void load(DefaultListableBeanFactory beanFactory) {
+        XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(beanFactory);
+        reader.setValidationMode(XmlBeanDefinitionReader.VALIDATION_NONE);
+        reader.setNamespaceAware(true);
+        reader.loadBeanDefinitions(new ByteArrayResource(CONFIG.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static BeanDefinitionSnapshot serializeAndRead(BeanDefinitionSnapshot snapshot) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(snapshot);
+        out.close();
+
+        return (BeanDefinitionSnapshot) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    private static Bundle mockBundle(long bundleId, String symbolicName, String location) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getSymbolicName()).thenReturn(symbolicName);
+        when(bundle.getLocation()).thenReturn(location);
+        when(bundle.getVersion()).thenReturn(new Version(1, 0, 0));
+        when(bundle.getLastModified()).thenReturn(1000L);
+        when(bundle.getHeaders()).thenReturn(new Hashtable<String, String>());
+        return bundle;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ContextCreationMetricsTest {
+    private final ContextCreationMetrics metrics = new ContextCreationMetrics();
+
+    @Test
+    public void tasksAreCountedThroughTheirLifecycle() {
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskRejected();
+        metrics.taskTimedOut();
+        metrics.taskStarted(0);
+        metrics.taskStarted(0);
+
+        Map<String, Object> running = metrics.getMetrics();
+        assertEquals(4L, running.get("submittedTasks"));
+        assertEquals(0, running.get("queuedTasks"));
+        assertEquals(2, running.get("activeTasks"));
+        assertEquals(1L, running.get("rejectedTasks"));
+        assertEquals(1L, running.get("timedOutTasks"));
+
+        metrics.taskFinished(0, false);
+        metrics.taskFinished(0, true);
+
+        Map<String, Object> finished = metrics.getMetrics();
+        assertEquals(0, finished.get("activeTasks"));
+        assertEquals(2, finished.get("peakActiveTasks"));
+        assertEquals(1L, finished.get("completedTasks"));
+        assertEquals(1L, finished.get("failedTasks"));
+    }
+
+    @Test
+    public void tasksAbandonedAtShutdownAreNoLongerQueued() {
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskStarted(0);
+
+        metrics.tasksAbandoned(2, 0);
+        metrics.tasksAbandoned(0, 1);
+
+        assertEquals(0, metrics.getMetrics().get("queuedTasks"));
+        assertEquals(3L, metrics.getMetrics().get("abandonedTasks"));
+    }
+
+    @Test
+    public void threadsAreCountedWithTheirPeak() {
+        metrics.threadStarted();
+        metrics.threadStarted();
+        metrics.threadStopped();
+        metrics.threadStarted();
+
+        assertEquals(2, metrics.getMetrics().get("liveThreads"));
+        assertEquals(2, metrics.getMetrics().get("peakThreads"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void durationsAreCountedInMillisecondBuckets() {
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskSubmitted();
+        metrics.taskStarted(TimeUnit.MILLISECONDS.toNanos(10));
+        metrics.taskStarted(TimeUnit.MILLISECONDS.toNanos(11));
+        metrics.taskStarted(TimeUnit.SECONDS.toNanos(90));
+
+        Map<String, Object> queueWait = (Map<String, Object>) metrics.getMetrics().get("queueWaitMillis");
+        assertEquals(3L, queueWait.get("count"));
+        assertEquals(90021L, queueWait.get("total"));
+        assertEquals(90000L, queueWait.get("max"));
+
+        Map<String, Object> buckets = (Map<String, Object>) queueWait.get("buckets");
+        assertEquals(10, buckets.size());
+        assertEquals(1L, buckets.get("le10"));
+        assertEquals(1L, buckets.get("le50"));
+        assertEquals(0L, buckets.get("le60000"));
+        assertEquals(1L, buckets.get("gt60000"));
+        assertEquals(0L, ((Map<String, Object>) metrics.getMetrics().get("runTimeMillis")).get("count"));
+    }
+}
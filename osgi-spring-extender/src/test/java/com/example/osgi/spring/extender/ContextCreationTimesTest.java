@@ -0,0 +1,116 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.springframework.util.FileSystemUtils;
+
+public class ContextCreationTimesTest {
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("times").toFile();
+        file = new File(directory, "data/context-creation-times.properties");
+    }
+
+    @After
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void priorityIsTheLongestChainOfContextsWaitingOnABundle() throws Exception {
+        write("api.duration=10\n"
+                + "core.duration=100\ncore.uses=api\n"
+                + "web.duration=300\nweb.uses=core, api\n"
+                + "reports.duration=50\nreports.uses=api\n");
+
+        ContextCreationTimes times = load();
+
+        assertEquals(410, times.getPriority(bundle(1, "api")));
+        assertEquals(400, times.getPriority(bundle(2, "core")));
+        assertEquals(300, times.getPriority(bundle(3, "web")));
+        assertEquals(50, times.getPriority(bundle(4, "reports")));
+        assertEquals(0, times.getPriority(bundle(5, "unknown")));
+    }
+
+    @Test
+    public void servicesUsedBothWaysDontAddUp() throws Exception {
+        write("first.duration=10\nfirst.uses=second\nsecond.duration=20\nsecond.uses=first\n");
+
+        ContextCreationTimes times = load();
+
+        long first = times.getPriority(bundle(1, "first"));
+        long second = times.getPriority(bundle(2, "second"));
+        assertTrue(first >= 10 && first <= 30);
+        assertTrue(second >= 20 && second <= 30);
+    }
+
+    @Test
+    public void recordedTimesAndServiceUseAreSavedForTheNextBoot() {
+        Bundle framework = bundle(0, "org.apache.felix.framework");
+        Bundle api = bundle(1, "api");
+        Bundle web = bundle(2, "web");
+        ServiceReference<?>[] servicesInUse = {reference(api), reference(framework), reference(web)};
+        when(web.getServicesInUse()).thenReturn(servicesInUse);
+
+        ContextCreationTimes times = new ContextCreationTimes(file);
+        times.load();
+        times.record(api, 10);
+        times.record(web, 200);
+        times.save(new Bundle[]{framework, api, web});
+
+        assertEquals(210, times.getPriority(api));
+
+        ContextCreationTimes nextBoot = load();
+        assertEquals(210, nextBoot.getPriority(api));
+        assertEquals(200, nextBoot.getPriority(web));
+    }
+
+    @Test
+    public void unreadableTimesAreIgnored() throws Exception {
+        write("api.duration=fast\nweb.duration=20\n");
+
+        ContextCreationTimes times = load();
+
+        assertEquals(0, times.getPriority(bundle(1, "api")));
+        assertEquals(20, times.getPriority(bundle(2, "web")));
+    }
+
+    private ContextCreationTimes load() {
+        ContextCreationTimes times = new ContextCreationTimes(file);
+        times.load();
+        return times;
+    }
+
+    private void write(String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static Bundle bundle(long bundleId, String symbolicName) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getSymbolicName()).thenReturn(symbolicName);
+        return bundle;
+    }
+
+    private static ServiceReference<?> reference(Bundle provider) {
+        ServiceReference<?> reference = mock(ServiceReference.class);
+        when(reference.getBundle()).thenReturn(provider);
+        return reference;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.gemini.blueprint.context.ConfigurableOsgiBundleApplicationContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class ContextCreationWatchdogTest {
+    private ContextCreationMetrics metrics;
+    private ContextCreationWatchdog watchdog;
+    private ConfigurableOsgiBundleApplicationContext context;
+
+    @Before
+    public void setUp() {
+        metrics = new ContextCreationMetrics();
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+        context = mock(ConfigurableOsgiBundleApplicationContext.class);
+        when(context.getBundle()).thenReturn(bundle);
+    }
+
+    @After
+    public void tearDown() {
+        if (watchdog != null) {
+            watchdog.stop();
+        }
+    }
+
+    @Test
+    public void threadsAreOnlyRegisteredOnce() {
+        assertTrue(ContextCreationWatchdog.enter(context));
+        try {
+            assertFalse(ContextCreationWatchdog.enter(context));
+        } finally {
+            ContextCreationWatchdog.exit();
+        }
+        assertTrue(ContextCreationWatchdog.enter(context));
+        ContextCreationWatchdog.exit();
+    }
+
+    @Test
+    public void stagesOverrunningTheirBudgetAreInterrupted() throws Exception {
+        watchdog = new ContextCreationWatchdog(1, metrics);
+        watchdog.start();
+
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final AtomicBoolean interruptCleared = new AtomicBoolean();
+        Thread refresh = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContextCreationWatchdog.enter(context);
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                    Thread.currentThread().interrupt();
+                } finally {
+                    ContextCreationWatchdog.exit();
+                }
+                interruptCleared.set(!Thread.currentThread().isInterrupted());
+            }
+        });
+        refresh.start();
+        refresh.join(10000);
+
+        assertTrue(interrupted.get());
+        assertTrue(interruptCleared.get());
+        assertEquals(1L, metrics.getMetrics().get("stuckContexts"));
+        verify(context, never()).close();
+    }
+
+    @Test
+    public void contextsNotLettingGoWhenInterruptedAreClosed() throws Exception {
+        watchdog = new ContextCreationWatchdog(1, metrics);
+        watchdog.start();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread refresh = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContextCreationWatchdog.enter(context);
+                try {
+                    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (release.getCount() > 0 && System.nanoTime() < deadline) {
+                        try {
+                            release.await(10, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            // stuck, ignoring interrupts
+                        }
+                    }
+                } finally {
+                    ContextCreationWatchdog.exit();
+                }
+            }
+        });
+        refresh.start();
+
+        verify(context, timeout(10000)).close();
+        release.countDown();
+        refresh.join(10000);
+        assertEquals(1L, metrics.getMetrics().get("stuckContexts"));
+    }
+
+    @Test
+    public void stagesWithinTheirBudgetAreLeftAlone() throws Exception {
+        watchdog = new ContextCreationWatchdog(TimeUnit.MINUTES.toMillis(10), metrics);
+        watchdog.start();
+
+        assertTrue(ContextCreationWatchdog.enter(context));
+        try {
+            Thread.sleep(100);
+        } finally {
+            ContextCreationWatchdog.exit();
+        }
+
+        assertEquals(0L, metrics.getMetrics().get("stuckContexts"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlightRecorderEventsTest {
+    private static final String CONTEXT_CREATION_EVENT = "com.example.osgi.ContextCreation";
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(FlightRecorder.isAvailable());
+        file = File.createTempFile("events", ".jfr");
+    }
+
+    @After
+    public void tearDown() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void nothingIsRecordedWhileTheEventIsDisabled() {
+        assertNull(FlightRecorderEvents.beginContextCreation());
+    }
+
+    @Test
+    public void contextCreationsAreRecordedWithTheirPhases() throws Exception {
+        Map<String, Long> phaseNanos = new HashMap<String, Long>();
+        phaseNanos.put(ContextCreationPhases.REFRESH, TimeUnit.MILLISECONDS.toNanos(120));
+        phaseNanos.put(ContextCreationPhases.SERVICE_EXPORT, TimeUnit.MILLISECONDS.toNanos(5));
+
+        Recording recording = new Recording();
+        try {
+            recording.enable(CONTEXT_CREATION_EVENT).withoutThreshold();
+            recording.start();
+
+            Object event = FlightRecorderEvents.beginContextCreation();
+            assertNotNull(event);
+            FlightRecorderEvents.endContextCreation(event, "com.example.plugin", "1.0.0", "created", phaseNanos);
+
+            recording.stop();
+            recording.dump(file.toPath());
+        } finally {
+            recording.close();
+        }
+
+        List<RecordedEvent> events = readEvents(CONTEXT_CREATION_EVENT);
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("com.example.plugin", event.getString("bundle"));
+        assertEquals("1.0.0", event.getString("version"));
+        assertEquals("created", event.getString("state"));
+        assertEquals(120, event.getDuration("refresh").toMillis());
+        assertEquals(5, event.getDuration("serviceExport").toMillis());
+        assertEquals(0, event.getDuration("discovery").toMillis());
+    }
+
+    @Test
+    public void endingAnUnrecordedCreationDoesNothing() {
+        FlightRecorderEvents.endContextCreation(null, "com.example.plugin", "1.0.0", "created", new HashMap<String, Long>());
+    }
+
+    private List<RecordedEvent> readEvents(String name) throws Exception {
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (name.equals(event.getEventType().getName())) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.wiring.BundleWiring;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.CachedIntrospectionResults;
+
+public class IntrospectionCacheTest {
+    private BundleContext bundleContext;
+    private IntrospectionCache introspectionCache;
+    private BundleClassLoader classLoader;
+    private Bundle bundle;
+
+    @Before
+    public void setUp() {
+        bundleContext = mock(BundleContext.class);
+        introspectionCache = new IntrospectionCache();
+        introspectionCache.setBundleContext(bundleContext);
+        classLoader = new BundleClassLoader();
+        bundle = bundle(7, Bundle.RESOLVED, classLoader);
+    }
+
+    @After
+    public void tearDown() {
+        CachedIntrospectionResults.clearClassLoader(classLoader);
+    }
+
+    @Test
+    public void metadataOfResolvedBundlesIsSharedUntilTheyAreUninstalled() throws Exception {
+        BundleClassLoader installedClassLoader = new BundleClassLoader();
+        Bundle[] bundles = {bundle(0, Bundle.ACTIVE, getClass().getClassLoader()), bundle,
+                bundle(8, Bundle.INSTALLED, installedClassLoader)};
+        when(bundleContext.getBundles()).thenReturn(bundles);
+
+        introspectionCache.start();
+        verify(bundleContext).addBundleListener(introspectionCache);
+        assertTrue(getAcceptedClassLoaders().contains(classLoader));
+        assertFalse(getAcceptedClassLoaders().contains(installedClassLoader));
+        assertFalse(getAcceptedClassLoaders().contains(getClass().getClassLoader()));
+
+        Class<?> beanClass = introspect(classLoader);
+        assertTrue(getStrongClassCache().containsKey(beanClass));
+
+        introspectionCache.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, bundle));
+
+        assertFalse(getStrongClassCache().containsKey(beanClass));
+        assertFalse(getAcceptedClassLoaders().contains(classLoader));
+    }
+
+    @Test
+    public void metadataOfBundlesResolvedLaterIsShared() throws Exception {
+        when(bundleContext.getBundles()).thenReturn(new Bundle[0]);
+        introspectionCache.start();
+
+        introspectionCache.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
+
+        assertTrue(getStrongClassCache().containsKey(introspect(classLoader)));
+    }
+
+    @Test
+    public void metadataOfTheOldRevisionIsEvictedWhenABundleIsUpdated() throws Exception {
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle});
+        introspectionCache.start();
+        Class<?> oldClass = introspect(classLoader);
+
+        introspectionCache.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+        assertFalse(getStrongClassCache().containsKey(oldClass));
+
+        BundleClassLoader newClassLoader = new BundleClassLoader();
+        try {
+            Bundle updated = bundle(7, Bundle.RESOLVED, newClassLoader);
+            introspectionCache.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, updated));
+            Class<?> newClass = introspect(newClassLoader);
+
+            assertNotSame(oldClass, newClass);
+            assertTrue(getStrongClassCache().containsKey(newClass));
+            assertFalse(getAcceptedClassLoaders().contains(classLoader));
+        } finally {
+            CachedIntrospectionResults.clearClassLoader(newClassLoader);
+        }
+    }
+
+    @Test
+    public void stoppingEvictsEveryBundle() throws Exception {
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle});
+        introspectionCache.start();
+        Class<?> beanClass = introspect(classLoader);
+
+        introspectionCache.stop();
+
+        verify(bundleContext).removeBundleListener(introspectionCache);
+        assertFalse(getStrongClassCache().containsKey(beanClass));
+        assertFalse(getAcceptedClassLoaders().contains(classLoader));
+    }
+
+    private static Class<?> introspect(ClassLoader classLoader) throws Exception {
+        Class<?> beanClass = classLoader.loadClass(Bean.class.getName());
+        new BeanWrapperImpl(beanClass.newInstance()).getPropertyDescriptors();
+        return beanClass;
+    }
+
+    private static Bundle bundle(long bundleId, int state, ClassLoader classLoader) {
+        BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getClassLoader()).thenReturn(classLoader);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getState()).thenReturn(state);
+        when(bundle.adapt(BundleWiring.class)).thenReturn(wiring);
+        return bundle;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Class<?>, Object> getStrongClassCache() throws Exception {
+        return (Map<Class<?>, Object>) getCacheField("strongClassCache");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<ClassLoader> getAcceptedClassLoaders() throws Exception {
+        return (Set<ClassLoader>) getCacheField("acceptedClassLoaders");
+    }
+
+    private static Object getCacheField(String name) throws Exception {
+        Field field = CachedIntrospectionResults.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    public static class Bean {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Defines its own copy of the bean class, as a bundle class loader would
+     */
+    private static class BundleClassLoader extends ClassLoader {
+        private BundleClassLoader() {
+            super(IntrospectionCacheTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!Bean.class.getName().equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    byte[] bytes = readClass(name);
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                }
+                return loaded;
+            }
+        }
+
+        private byte[] readClass(String name) throws ClassNotFoundException {
+            InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                        out.write(buffer, 0, read);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
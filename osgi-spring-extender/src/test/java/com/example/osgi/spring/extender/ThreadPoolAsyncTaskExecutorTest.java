@@ -0,0 +1,464 @@
+package com.example.osgi.spring.extender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.Felix;
+import org.eclipse.gemini.blueprint.context.event.OsgiBundleApplicationContextEventMulticasterAdapter;
+import org.eclipse.gemini.blueprint.context.support.NonValidatingOsgiBundleXmlApplicationContext;
+import org.eclipse.gemini.blueprint.extender.OsgiServiceDependencyFactory;
+import org.eclipse.gemini.blueprint.extender.internal.dependencies.startup.DependencyWaiterApplicationContextExecutor;
+import org.eclipse.gemini.blueprint.extender.internal.util.concurrent.Counter;
+import org.eclipse.gemini.blueprint.service.importer.OsgiServiceDependency;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.util.FileSystemUtils;
+
+import com.example.osgi.spring.extender.external.PersistentData;
+
+public class ThreadPoolAsyncTaskExecutorTest {
+    private ThreadPoolAsyncTaskExecutor executor;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new ThreadPoolAsyncTaskExecutor();
+        directory = Files.createTempDirectory("executor").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void tasksRunOnNamedPlatformThreadsByDefault() throws Exception {
+        Thread thread = executor.submit(new CurrentThread()).get();
+
+        assertTrue(thread.getName(), thread.getName().startsWith("ThreadPoolAsyncTaskExecutor::Thread "));
+        assertFalse(thread.isDaemon());
+        assertFalse(isVirtual(thread));
+    }
+
+    @Test
+    public void virtualThreadsAreUsedIfTheJvmHasThem() throws Exception {
+        executor.setThreadMode("virtual");
+
+        Thread thread = executor.submit(new CurrentThread()).get();
+
+        assertTrue(thread.getName(), thread.getName().startsWith("ThreadPoolAsyncTaskExecutor::Thread "));
+        assertEquals(hasVirtualThreads(), isVirtual(thread));
+    }
+
+    @Test
+    public void frameworkPropertyOverridesTheThreadMode() throws Exception {
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.getProperty(ThreadPoolAsyncTaskExecutor.THREAD_MODE_PROPERTY)).thenReturn(" Virtual ");
+        executor.setBundleContext(bundleContext);
+        executor.setThreadMode("platform");
+
+        assertEquals(hasVirtualThreads(), isVirtual(executor.submit(new CurrentThread()).get()));
+    }
+
+    @Test
+    public void unknownThreadModesUseTheCachedPool() throws Exception {
+        executor.setThreadMode("green");
+
+        assertFalse(isVirtual(executor.submit(new CurrentThread()).get()));
+    }
+
+    @Test
+    public void waitingContextsStartLongestDependencyChainFirst() throws Exception {
+        Files.write(new File(directory, ThreadPoolAsyncTaskExecutor.CONTEXT_CREATION_TIMES_FILE).toPath(),
+                ("api.duration=10\nweb.duration=500\nweb.uses=api\ncore.duration=100\n").getBytes(StandardCharsets.ISO_8859_1));
+        BundleContext bundleContext = bundleContext("1");
+        executor.setBundleContext(bundleContext);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        executor.execute(new Blocking(blocking, release));
+        assertTrue(blocking.await(10, TimeUnit.SECONDS));
+
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(5);
+        createContext(bundle(3, "unknown"), new Recording("unknown", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+        createContext(bundle(2, "core"), new Recording("core", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+        createContext(bundle(1, "api"), new Recording("api", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+        createContext(bundle(4, "web"), new Recording("web", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+        executor.execute(new Recording("continuation", started, done));
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("continuation", "api", "web", "core", "unknown"), started);
+    }
+
+    @Test
+    public void contextsStartingImmediatelyGoAheadOfWaitingOnes() throws Exception {
+        Files.write(new File(directory, ThreadPoolAsyncTaskExecutor.CONTEXT_CREATION_TIMES_FILE).toPath(),
+                "core.duration=100\n".getBytes(StandardCharsets.ISO_8859_1));
+        executor.setBundleContext(bundleContext("1"));
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        executor.execute(new Blocking(blocking, release));
+        assertTrue(blocking.await(10, TimeUnit.SECONDS));
+
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2);
+        createContext(bundle(2, "core"), new Recording("core", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+        createContext(bundle(3, "unknown"), new Recording("unknown", started, done), AsyncTaskExecutor.TIMEOUT_IMMEDIATE);
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("unknown", "core"), started);
+    }
+
+    @Test
+    public void tasksThatCannotStartInTimeAreDropped() throws Exception {
+        ContextCreationMetrics metrics = new ContextCreationMetrics();
+        executor.setMetrics(metrics);
+        executor.setBundleContext(bundleContext("1"));
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        executor.execute(new Blocking(blocking, release));
+        assertTrue(blocking.await(10, TimeUnit.SECONDS));
+
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(1);
+        FutureTask<Object> late = new FutureTask<Object>(new Recording("late", started, done), null);
+        executor.execute(late, 50);
+        executor.execute(new Recording("patient", started, done), 10000);
+        Thread.sleep(200);
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("patient"), started);
+        assertTrue(late.isCancelled());
+        assertEquals(1L, metrics.getMetrics().get("timedOutTasks"));
+    }
+
+    @Test
+    public void creationTimesAreSavedOnceTheExecutorRunsOutOfWork() throws Exception {
+        BundleContext bundleContext = bundleContext("1");
+        Bundle core = bundle(2, "core");
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{core});
+        executor.setBundleContext(bundleContext);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        createContext(core, new Runnable() {
+            @Override
+            public void run() {
+                executor.contextRefreshed(core, 42);
+                done.countDown();
+            }
+        }, AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals("42", readContextCreationTimes().getProperty("core.duration"));
+    }
+
+    @Test
+    public void bothRefreshStagesRunAtThePriorityOfTheBundleAndAreTimedTogether() throws Exception {
+        Files.write(new File(directory, ThreadPoolAsyncTaskExecutor.CONTEXT_CREATION_TIMES_FILE).toPath(),
+                ("web.duration=1000\norg.apache.felix.framework.duration=500\ncore.duration=100\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(Constants.FRAMEWORK_STORAGE, new File(directory, "felix").getPath());
+        config.put(PersistentData.DIRECTORY_PROPERTY, directory.getPath());
+        config.put(ThreadPoolAsyncTaskExecutor.CONCURRENCY_PROPERTY, "1");
+        Felix framework = new Felix(config);
+        framework.start();
+        try {
+            BundleContext bundleContext = framework.getBundleContext();
+            executor.setBundleContext(bundleContext);
+            List<String> started = Collections.synchronizedList(new ArrayList<String>());
+            NonValidatingOsgiBundleXmlApplicationContext context = twoStageContext(bundleContext, started);
+
+            // stage one runs, then the context waits for a runnable service
+            CountDownLatch waiting = new CountDownLatch(1);
+            createContext(framework, new Refresh(context, waiting), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+            assertTrue(waiting.await(10, TimeUnit.SECONDS));
+            Thread.sleep(1000);
+
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch blocking = new CountDownLatch(1);
+            executor.execute(new Blocking(blocking, release));
+            assertTrue(blocking.await(10, TimeUnit.SECONDS));
+            CountDownLatch done = new CountDownLatch(2);
+            createContext(bundle(2, "core"), new Recording("core", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+            createContext(bundle(3, "web"), new Recording("web", started, done), AsyncTaskExecutor.TIMEOUT_INDEFINITE);
+            // stage two is queued by the thread registering the service
+            bundleContext.registerService(Runnable.class, new Recording("service", started, new CountDownLatch(1)), null);
+            release.countDown();
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("web", "refreshed", "core"), started);
+            context.close();
+            executor.shutdown();
+
+            long duration = Long.parseLong(readContextCreationTimes().getProperty("org.apache.felix.framework.duration"));
+            assertTrue(String.valueOf(duration), duration >= 200 && duration < 1000);
+        } finally {
+            framework.stop();
+            framework.waitForStop(10000);
+        }
+    }
+
+    @Test
+    public void shutdownDoesNotCreateAnUnusedExecutor() {
+        BundleContext bundleContext = bundleContext("1");
+        executor.setBundleContext(bundleContext);
+
+        executor.shutdown();
+
+        verify(bundleContext, never()).getProperty(anyString());
+        assertFalse(new File(directory, ThreadPoolAsyncTaskExecutor.CONTEXT_CREATION_TIMES_FILE).exists());
+    }
+
+    @Test
+    public void tasksGoingThroughTheExecutorAreCounted() throws Exception {
+        ContextCreationMetrics metrics = new ContextCreationMetrics();
+        executor.setMetrics(metrics);
+
+        executor.submit(new CurrentThread()).get();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("context creation failed");
+            }
+        });
+
+        Map<String, Object> counted = metrics.getMetrics();
+        long deadline = System.currentTimeMillis() + 10000;
+        // run times are recorded last
+        while (!Long.valueOf(2).equals(((Map<?, ?>) counted.get("runTimeMillis")).get("count"))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            counted = metrics.getMetrics();
+        }
+
+        assertEquals(2L, counted.get("submittedTasks"));
+        assertEquals(1L, counted.get("completedTasks"));
+        assertEquals(1L, counted.get("failedTasks"));
+        assertEquals(0, counted.get("queuedTasks"));
+        assertEquals(0, counted.get("activeTasks"));
+        assertTrue((Integer) counted.get("peakThreads") >= 1);
+        assertEquals(2L, ((Map<?, ?>) counted.get("runTimeMillis")).get("count"));
+    }
+
+    /**
+     * A context with no beans of its own, whose refresh stages take 100 ms each, and which depends on a runnable service
+     */
+    private NonValidatingOsgiBundleXmlApplicationContext twoStageContext(final BundleContext bundleContext,
+            final List<String> started) throws Exception {
+        NonValidatingOsgiBundleXmlApplicationContext context = new NonValidatingOsgiBundleXmlApplicationContext(new String[0]);
+        context.setBundleContext(bundleContext);
+        context.setTaskExecutor(executor);
+        context.setPublishContextAsService(false);
+        context.addBeanFactoryPostProcessor(new BeanFactoryPostProcessor() {
+            @Override
+            public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+                sleep(100);
+            }
+        });
+        context.addApplicationListener(new ApplicationListener<ContextRefreshedEvent>() {
+            @Override
+            public void onApplicationEvent(ContextRefreshedEvent event) {
+                started.add("refreshed");
+                sleep(100);
+            }
+        });
+
+        final Filter runnable = bundleContext.createFilter("(objectClass=java.lang.Runnable)");
+        OsgiServiceDependencyFactory dependencyFactory = new OsgiServiceDependencyFactory() {
+            @Override
+            public Collection<OsgiServiceDependency> getServiceDependencies(BundleContext bundleContext,
+                    ConfigurableListableBeanFactory beanFactory) {
+                return Collections.<OsgiServiceDependency>singletonList(new OsgiServiceDependency() {
+                    @Override
+                    public Filter getServiceFilter() {
+                        return runnable;
+                    }
+
+                    @Override
+                    public String getBeanName() {
+                        return "runnable";
+                    }
+
+                    @Override
+                    public boolean isMandatory() {
+                        return true;
+                    }
+                });
+            }
+        };
+
+        // set up the way the extender does it
+        DependencyWaiterApplicationContextExecutor waiter = new DependencyWaiterApplicationContextExecutor(context, false,
+                Collections.singletonList(dependencyFactory));
+        waiter.setTimeout(10000);
+        waiter.setWatchdog(new Timer(true));
+        waiter.setMonitoringCounter(new Counter("contextsStarted"));
+        waiter.setDelegatedMulticaster(new OsgiBundleApplicationContextEventMulticasterAdapter(
+                new SimpleApplicationEventMulticaster()));
+        waiter.setTaskExecutor(executor);
+        return context;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Properties readContextCreationTimes() throws Exception {
+        Properties times = new Properties();
+        InputStream in = new FileInputStream(new File(directory, ThreadPoolAsyncTaskExecutor.CONTEXT_CREATION_TIMES_FILE));
+        try {
+            times.load(in);
+        } finally {
+            in.close();
+        }
+        return times;
+    }
+
+    private void createContext(Bundle bundle, Runnable creation, long startTimeout) {
+        executor.contextCreated(bundle);
+        executor.execute(creation, startTimeout);
+    }
+
+    private BundleContext bundleContext(String concurrency) {
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.getProperty(PersistentData.DIRECTORY_PROPERTY)).thenReturn(directory.getPath());
+        when(bundleContext.getProperty(ThreadPoolAsyncTaskExecutor.CONCURRENCY_PROPERTY)).thenReturn(concurrency);
+        when(bundleContext.getBundles()).thenReturn(new Bundle[0]);
+        return bundleContext;
+    }
+
+    private static Bundle bundle(long bundleId, String symbolicName) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getSymbolicName()).thenReturn(symbolicName);
+        return bundle;
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        if (!hasVirtualThreads()) {
+            return false;
+        }
+        Method isVirtual = Thread.class.getMethod("isVirtual");
+        return (Boolean) isVirtual.invoke(thread);
+    }
+
+    private static class CurrentThread implements Callable<Thread> {
+        @Override
+        public Thread call() {
+            return Thread.currentThread();
+        }
+    }
+
+    private static class Blocking implements Runnable {
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        private Blocking(CountDownLatch started, CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Refresh implements Runnable {
+        private final NonValidatingOsgiBundleXmlApplicationContext context;
+        private final CountDownLatch done;
+
+        private Refresh(NonValidatingOsgiBundleXmlApplicationContext context, CountDownLatch done) {
+            this.context = context;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            context.refresh();
+            done.countDown();
+        }
+    }
+
+    private static class Recording implements Runnable {
+        private final String name;
+        private final List<String> started;
+        private final CountDownLatch done;
+
+        private Recording(String name, List<String> started, CountDownLatch done) {
+            this.name = name;
+            this.started = started;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            started.add(name);
+            done.countDown();
+        }
+    }
+}
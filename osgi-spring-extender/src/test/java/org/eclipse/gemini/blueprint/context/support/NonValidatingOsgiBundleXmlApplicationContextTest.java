@@ -0,0 +1,107 @@
+package org.eclipse.gemini.blueprint.context.support;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.annotation.ScannedGenericBeanDefinition;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+public class NonValidatingOsgiBundleXmlApplicationContextTest {
+    private static final String HANDLER_MAPPING = NonValidatingOsgiBundleXmlApplicationContext.REQUEST_MAPPING_HANDLER_MAPPING_BEAN_NAME;
+
+    private DefaultListableBeanFactory beanFactory;
+    private BeanFactoryPostProcessor postProcessor;
+
+    @Before
+    public void setUp() {
+        beanFactory = new DefaultListableBeanFactory();
+        NonValidatingOsgiBundleXmlApplicationContext context = new NonValidatingOsgiBundleXmlApplicationContext(new String[0]);
+        assertEquals(1, context.getBeanFactoryPostProcessors().size());
+        postProcessor = context.getBeanFactoryPostProcessors().get(0);
+    }
+
+    @Test
+    public void contextsWithoutWebHandlersGetNoHandlerMapping() {
+        beanFactory.registerBeanDefinition("service", new RootBeanDefinition(Service.class));
+
+        postProcessor.postProcessBeanFactory(beanFactory);
+
+        assertFalse(beanFactory.containsBeanDefinition(HANDLER_MAPPING));
+    }
+
+    @Test
+    public void contextsWithControllersGetALazyHandlerMapping() {
+        beanFactory.registerBeanDefinition("service", new RootBeanDefinition(Service.class));
+        beanFactory.registerBeanDefinition("itemController", new RootBeanDefinition(ItemController.class));
+
+        postProcessor.postProcessBeanFactory(beanFactory);
+
+        BeanDefinition handlerMapping = beanFactory.getBeanDefinition(HANDLER_MAPPING);
+        assertEquals(RequestMappingHandlerMapping.class.getName(), handlerMapping.getBeanClassName());
+        assertTrue(handlerMapping.isLazyInit());
+        assertEquals(BeanDefinition.ROLE_INFRASTRUCTURE, handlerMapping.getRole());
+        assertFalse(beanFactory.containsSingleton("itemController"));
+    }
+
+    @Test
+    public void handlersAreFoundFromTheMetadataOfScannedDefinitions() throws Exception {
+        MetadataReader metadataReader = new SimpleMetadataReaderFactory().getMetadataReader(StatusHandler.class.getName());
+        ScannedGenericBeanDefinition definition = new ScannedGenericBeanDefinition(metadataReader);
+        beanFactory.registerBeanDefinition("statusHandler", definition);
+
+        postProcessor.postProcessBeanFactory(beanFactory);
+
+        assertTrue(beanFactory.containsBeanDefinition(HANDLER_MAPPING));
+        assertFalse(definition.hasBeanClass());
+    }
+
+    @Test
+    public void classNamesAreNotLoadedToLookForHandlers() {
+        GenericBeanDefinition definition = new GenericBeanDefinition();
+        definition.setBeanClassName(StatusHandler.class.getName());
+        beanFactory.registerBeanDefinition("statusHandler", definition);
+        GenericBeanDefinition missing = new GenericBeanDefinition();
+        missing.setBeanClassName("com.example.plugin.Missing");
+        beanFactory.registerBeanDefinition("missing", missing);
+
+        postProcessor.postProcessBeanFactory(beanFactory);
+
+        assertFalse(beanFactory.containsBeanDefinition(HANDLER_MAPPING));
+        assertFalse(definition.hasBeanClass());
+    }
+
+    @Test
+    public void existingHandlerMappingsAreKept() {
+        beanFactory.registerBeanDefinition("itemController", new RootBeanDefinition(ItemController.class));
+        beanFactory.registerBeanDefinition("indexedRequestMappingHandlerMapping", new RootBeanDefinition(RequestMappingHandlerMapping.class));
+
+        postProcessor.postProcessBeanFactory(beanFactory);
+
+        assertArrayEquals(new String[]{"indexedRequestMappingHandlerMapping"},
+                beanFactory.getBeanNamesForType(RequestMappingHandlerMapping.class, true, false));
+    }
+
+    public static class Service {
+    }
+
+    @Controller
+    public static class ItemController {
+    }
+
+    @RequestMapping("/status")
+    public static class StatusHandler {
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.osgi.framework.felix;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the metrics the Spring extender publishes as OSGi services, and exposes them over JMX.
+ *
+ * The extender classes live inside the framework, so the services are looked up by interface name and read
+ * reflectively. The metrics themselves only hold JDK types.
+ */
+@Component
+@ManagedResource(objectName = "com.example.osgi.framework:type=ExtenderMetrics", description = "Spring extender metrics")
+public class ExtenderMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(ExtenderMetrics.class);
+	private static final String EXECUTOR_METRICS_INTERFACE = "com.example.osgi.spring.extender.external.ExecutorMetrics";
+	private static final String PHASE_TIMINGS_INTERFACE = "com.example.osgi.spring.extender.external.PhaseTimings";
+	private static final String CONTEXT_CREATION_EXECUTOR = "contextCreation";
+
+	@Autowired
+	private FelixService felixService;
+
+	/**
+	 * @return the metrics of the executor creating the plugin application contexts, or null if the extender hasn't
+	 *         published them (yet)
+	 */
+	@ManagedAttribute(description = "Queued, running and completed context creations, threads and timings")
+	public Map<String, Object> getContextCreationMetrics() {
+		return getExecutorMetrics(CONTEXT_CREATION_EXECUTOR);
+	}
+
+	/**
+	 * @return the time each plugin spent in each phase of creating its application context, or null if the extender
+	 *         hasn't published them (yet)
+	 */
+	@ManagedAttribute(description = "Time spent in each phase of creating the context of each plugin")
+	@SuppressWarnings("unchecked")
+	public List<Map<String, Object>> getContextCreationPhases() {
+		return (List<Map<String, Object>>) readService(PHASE_TIMINGS_INTERFACE, null, "getTimings");
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> getExecutorMetrics(String executor) {
+		return (Map<String, Object>) readService(EXECUTOR_METRICS_INTERFACE, "(executor=" + executor + ")", "getMetrics");
+	}
+
+	/**
+	 * Calls a getter of an extender service
+	 * 
+	 * @return what the getter returned, or null if there is no such service
+	 */
+	private Object readService(String serviceInterface, String filter, String getter) {
+
+		BundleContext bundleContext = felixService.getBundleContext();
+		if (bundleContext == null) {
+			return null;
+		}
+
+		try {
+			ServiceReference<?>[] references = bundleContext.getServiceReferences(serviceInterface, filter);
+			if (references == null || references.length == 0) {
+				return null;
+			}
+
+			Object service = bundleContext.getService(references[0]);
+			if (service == null) {
+				return null;
+			}
+			try {
+				Method method = service.getClass().getMethod(getter);
+				return method.invoke(service);
+			} finally {
+				bundleContext.ungetService(references[0]);
+			}
+		}
+		catch (InvalidSyntaxException | ReflectiveOperationException | IllegalStateException e) {
+			logger.warn("Cannot read " + serviceInterface + (filter != null ? " " + filter : ""), e);
+			return null;
+		}
+
+	}
+
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 
 import org.apache.felix.framework.FrameworkFactory;
 import org.apache.felix.main.AutoProcessor;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.launch.Framework;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,13 +23,16 @@ public class FelixService {
 	private static final Logger logger = LoggerFactory.getLogger(FelixService.class);
 	private static final String SHUTDOWN_HOOK_PROP = "felix.shutdown.hook";
 	
-	private Framework framework = null;
+	private volatile Framework framework = null;
 	
 	@Autowired
 	private SpringAwareFelixBundleListener springAwareFelixBundleListener;
 	
 	@Autowired
 	private SpringPropertiesHelper propertyHelper;
+	
+	@Autowired
+	private StartupReport startupReport;
 
 	public FelixService() {
 		// Start the Felix framework once all the beans have been created
@@ -36,6 +40,14 @@ public class FelixService {
 	    logger.debug("***** FelixService Component Constructed *****");
 	}
 	
+	/**
+	 * @return the context of the system bundle, or null until the framework has been initialised
+	 */
+	public BundleContext getBundleContext() {
+		Framework framework = this.framework;
+		return framework != null ? framework.getBundleContext() : null;
+	}
+	
 	@EventListener(ApplicationReadyEvent.class)
 	void startFramework() {
 		
@@ -67,6 +79,9 @@ public class FelixService {
 	        // Start the framework.
 	        framework.start();
 	        
+	        // Report how long the plugins took once their contexts have been created
+	        startupReport.writeWhenSettled();
+	        
 	        // Wait for framework to stop -- then exit the VM.
 	        logger.info("| Felix : Framework STARTED - listening for shutdown hook");
 	        logger.info("----------------------------------------------------------");
@@ -0,0 +1,102 @@
+package com.example.osgi.framework.felix;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the framework, so bundle lifecycle stalls show up next to GC and lock events in the
+ * same recording.
+ *
+ * The events are only created when the JVM has JFR (Java 11, or 8u262 and later). The event classes are nested, so
+ * they are only loaded once a method has checked it does.
+ */
+final class FrameworkEvents {
+
+	private static final boolean AVAILABLE = isAvailable();
+
+	private FrameworkEvents() {
+	}
+
+	/**
+	 * Records a bundle event
+	 *
+	 * @param bundleEvent
+	 * @param sincePreviousNanos time since the previous event of the bundle, or 0 if it's the first one
+	 */
+	static void bundleChanged(BundleEvent bundleEvent, long sincePreviousNanos) {
+		if (!AVAILABLE) {
+			return;
+		}
+
+		BundleStateChangeEvent event = new BundleStateChangeEvent();
+		if (event.isEnabled()) {
+			Bundle bundle = bundleEvent.getBundle();
+			event.bundle = bundle.getSymbolicName();
+			event.version = bundle.getVersion().toString();
+			event.bundleId = bundle.getBundleId();
+			event.transition = getEventTypeAsString(bundleEvent.getType());
+			event.sincePrevious = sincePreviousNanos;
+			event.commit();
+		}
+	}
+
+	private static String getEventTypeAsString(int type) {
+
+		switch(type) {
+			case BundleEvent.INSTALLED: return "Installed";
+			case BundleEvent.RESOLVED: return "Resolved";
+			case BundleEvent.LAZY_ACTIVATION: return "Lazy Activation";
+			case BundleEvent.STARTING: return "Starting";
+			case BundleEvent.STARTED: return "Started";
+			case BundleEvent.STOPPING: return "Stopping";
+			case BundleEvent.STOPPED: return "Stopped";
+			case BundleEvent.UPDATED: return "Updated";
+			case BundleEvent.UNRESOLVED: return "Unresolved";
+			case BundleEvent.UNINSTALLED: return "Uninstalled";
+			default: return "Unknown";
+		}
+
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, FrameworkEvents.class.getClassLoader());
+			return true;
+		}
+		catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	@Name("com.example.osgi.BundleStateChange")
+	@Label("Bundle State Change")
+	@Description("A bundle changed state")
+	@Category({ "OSGi", "Bundles" })
+	static class BundleStateChangeEvent extends Event {
+
+		@Label("Bundle")
+		String bundle;
+
+		@Label("Version")
+		String version;
+
+		@Label("Bundle Id")
+		long bundleId;
+
+		@Label("Transition")
+		String transition;
+
+		@Label("Since Previous Transition")
+		@Timespan(Timespan.NANOSECONDS)
+		long sincePrevious;
+
+	}
+
+}
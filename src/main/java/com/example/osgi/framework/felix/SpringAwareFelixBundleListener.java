@@ -1,5 +1,8 @@
 package com.example.osgi.framework.felix;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
@@ -19,6 +22,9 @@ public class SpringAwareFelixBundleListener implements BundleListener {
 	@Autowired 
 	RequestMappingHandlerMapping requestMapping;
 	
+	// when each bundle last changed state, for the flight recorder events
+	private final ConcurrentMap<Long, Long> lastChanged = new ConcurrentHashMap<Long, Long>();
+	
 	public SpringAwareFelixBundleListener() {
 	}
 	
@@ -36,6 +42,12 @@ public class SpringAwareFelixBundleListener implements BundleListener {
 				getBundleStateAsString(bundleEvent.getBundle().getState()
 		)));
 		
+		long now = System.nanoTime();
+		long bundleId = bundleEvent.getBundle().getBundleId();
+		Long previous = bundleEvent.getType() == BundleEvent.UNINSTALLED
+				? lastChanged.remove(bundleId) : lastChanged.put(bundleId, now);
+		FrameworkEvents.bundleChanged(bundleEvent, previous != null ? now - previous : 0);
+		
 	}
 
 	private String getBundleStateAsString(int state) {
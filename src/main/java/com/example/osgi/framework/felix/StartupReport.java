@@ -0,0 +1,120 @@
+package com.example.osgi.framework.felix;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes the context creation metrics and the phase timings of every plugin to a JSON file once the boot has settled,
+ * so boots of different releases can be compared.
+ *
+ * The plugin contexts are created asynchronously by the extender, after the framework has started. The boot is taken
+ * to be over when the extender has had no context creation queued or running for the quiet period.
+ *
+ * Nothing is written unless framework.startup.report.file is set.
+ */
+@Component
+public class StartupReport {
+
+	private static final Logger logger = LoggerFactory.getLogger(StartupReport.class);
+	private static final long POLL_MILLIS = 500;
+	private static final long MAX_WAIT_MILLIS = 600000;
+
+	@Autowired
+	private ExtenderMetrics extenderMetrics;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${framework.startup.report.file:}")
+	private String reportFile;
+
+	@Value("${framework.startup.report.quiet.millis:5000}")
+	private long quietMillis;
+
+	/**
+	 * Waits for the boot to settle on a background thread, then writes the report
+	 */
+	void writeWhenSettled() {
+		if (reportFile == null || reportFile.trim().isEmpty()) {
+			return;
+		}
+
+		Thread thread = new Thread("Startup Report") {
+			public void run() {
+				try {
+					waitUntilSettled();
+					write(new File(reportFile.trim()));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void waitUntilSettled() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+		long quietSince = -1;
+
+		while (System.currentTimeMillis() < deadline) {
+			long now = System.currentTimeMillis();
+			if (!isIdle(extenderMetrics.getContextCreationMetrics())) {
+				quietSince = -1;
+			}
+			else if (quietSince < 0) {
+				quietSince = now;
+			}
+			else if (now - quietSince >= quietMillis) {
+				return;
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+
+		logger.warn("| Felix : Plugin contexts still being created after " + MAX_WAIT_MILLIS + "ms, writing the startup report anyway");
+	}
+
+	private boolean isIdle(Map<String, Object> metrics) {
+		if (metrics == null) {
+			// the extender isn't up yet
+			return false;
+		}
+		return ((Number) metrics.get("queuedTasks")).intValue() == 0 && ((Number) metrics.get("activeTasks")).intValue() == 0;
+	}
+
+	private void write(File file) {
+		List<Map<String, Object>> phases = extenderMetrics.getContextCreationPhases();
+
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("generated", System.currentTimeMillis());
+		report.put("uptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime());
+		report.put("contextCreation", extenderMetrics.getContextCreationMetrics());
+		report.put("contexts", phases);
+
+		try {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, report);
+			logger.info("| Felix : Wrote the startup report of " + (phases != null ? phases.size() : 0) + " plugin contexts to " + file);
+		}
+		catch (IOException e) {
+			logger.warn("| Felix : Cannot write the startup report to " + file, e);
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.example.osgi.framework.web;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.osgi.framework.felix.ExtenderMetrics;
+
+/**
+ * Serves the metrics of the OSGi framework as JSON
+ */
+@RestController
+@RequestMapping("/framework/metrics")
+public class FrameworkMetricsController {
+
+	@Autowired
+	private ExtenderMetrics extenderMetrics;
+
+	@GetMapping("/context-creation")
+	public ResponseEntity<Map<String, Object>> contextCreation() {
+		return toResponse(extenderMetrics.getContextCreationMetrics());
+	}
+
+	@GetMapping("/context-creation/phases")
+	public ResponseEntity<List<Map<String, Object>>> contextCreationPhases() {
+		return toResponse(extenderMetrics.getContextCreationPhases());
+	}
+
+	private <T> ResponseEntity<T> toResponse(T metrics) {
+		// the framework or the extender isn't up yet
+		if (metrics == null) {
+			return new ResponseEntity<T>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return new ResponseEntity<T>(metrics, HttpStatus.OK);
+	}
+
+}
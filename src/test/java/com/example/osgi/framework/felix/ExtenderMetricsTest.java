@@ -0,0 +1,85 @@
+package com.example.osgi.framework.felix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ExtenderMetricsTest {
+
+	private static final String EXECUTOR_METRICS_INTERFACE = "com.example.osgi.spring.extender.external.ExecutorMetrics";
+	private static final String PHASE_TIMINGS_INTERFACE = "com.example.osgi.spring.extender.external.PhaseTimings";
+
+	private FelixService felixService;
+	private BundleContext bundleContext;
+	private ExtenderMetrics extenderMetrics;
+
+	@Before
+	public void setUp() {
+		felixService = mock(FelixService.class);
+		bundleContext = mock(BundleContext.class);
+		extenderMetrics = new ExtenderMetrics();
+		ReflectionTestUtils.setField(extenderMetrics, "felixService", felixService);
+	}
+
+	@Test
+	public void nothingIsReadBeforeTheFrameworkIsUp() {
+		assertNull(extenderMetrics.getContextCreationMetrics());
+		assertNull(extenderMetrics.getContextCreationPhases());
+	}
+
+	@Test
+	public void nothingIsReadBeforeTheExtenderPublishesItsMetrics() throws Exception {
+		when(felixService.getBundleContext()).thenReturn(bundleContext);
+
+		assertNull(extenderMetrics.getContextCreationMetrics());
+		assertNull(extenderMetrics.getContextCreationPhases());
+	}
+
+	@Test
+	public void metricsAreReadFromTheExtenderServices() throws Exception {
+		when(felixService.getBundleContext()).thenReturn(bundleContext);
+		ServiceReference<?> executorReference = register(EXECUTOR_METRICS_INTERFACE, "(executor=contextCreation)", new Executor());
+		ServiceReference<?> timingsReference = register(PHASE_TIMINGS_INTERFACE, null, new Timings());
+
+		assertEquals(Collections.<String, Object>singletonMap("activeTasks", 1), extenderMetrics.getContextCreationMetrics());
+		assertEquals(Collections.singletonList(Collections.<String, Object>singletonMap("bundle", "com.example.plugin")),
+				extenderMetrics.getContextCreationPhases());
+		verify(bundleContext).ungetService(executorReference);
+		verify(bundleContext).ungetService(timingsReference);
+	}
+
+	@SuppressWarnings("unchecked")
+	private ServiceReference<?> register(String serviceInterface, String filter, Object service) throws InvalidSyntaxException {
+		ServiceReference<Object> reference = mock(ServiceReference.class);
+		ServiceReference<?>[] references = {reference};
+		when(bundleContext.getServiceReferences(serviceInterface, filter)).thenReturn(references);
+		when(bundleContext.getService(reference)).thenReturn(service);
+		return reference;
+	}
+
+	public static class Executor {
+		public Map<String, Object> getMetrics() {
+			return Collections.<String, Object>singletonMap("activeTasks", 1);
+		}
+	}
+
+	public static class Timings {
+		public List<Map<String, Object>> getTimings() {
+			return Collections.singletonList(Collections.<String, Object>singletonMap("bundle", "com.example.plugin"));
+		}
+	}
+
+}
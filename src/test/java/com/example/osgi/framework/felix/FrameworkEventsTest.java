@@ -0,0 +1,81 @@
+package com.example.osgi.framework.felix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Version;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FrameworkEventsTest {
+
+	private static final String BUNDLE_STATE_CHANGE_EVENT = "com.example.osgi.BundleStateChange";
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		assumeTrue(FlightRecorder.isAvailable());
+		file = File.createTempFile("events", ".jfr");
+	}
+
+	@After
+	public void tearDown() {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void bundleEventsAreRecordedWithTheTimeSinceThePreviousOne() throws Exception {
+		Bundle bundle = mock(Bundle.class);
+		when(bundle.getSymbolicName()).thenReturn("com.example.plugin");
+		when(bundle.getVersion()).thenReturn(new Version(1, 0, 0));
+		when(bundle.getBundleId()).thenReturn(42L);
+
+		FrameworkEvents.bundleChanged(new BundleEvent(BundleEvent.INSTALLED, bundle), 0);
+
+		Recording recording = new Recording();
+		try {
+			recording.enable(BUNDLE_STATE_CHANGE_EVENT);
+			recording.start();
+			FrameworkEvents.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle), 1500);
+			FrameworkEvents.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle), 2500);
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+		finally {
+			recording.close();
+		}
+
+		List<RecordedEvent> events = new ArrayList<>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			if (BUNDLE_STATE_CHANGE_EVENT.equals(event.getEventType().getName())) {
+				events.add(event);
+			}
+		}
+
+		assertEquals(2, events.size());
+		assertEquals("com.example.plugin", events.get(0).getString("bundle"));
+		assertEquals("1.0.0", events.get(0).getString("version"));
+		assertEquals(42L, events.get(0).getLong("bundleId"));
+		assertEquals("Resolved", events.get(0).getString("transition"));
+		assertEquals(1500L, events.get(0).getDuration("sincePrevious").toNanos());
+		assertEquals("Started", events.get(1).getString("transition"));
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.example.osgi.framework.felix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StartupReportTest {
+
+	private File directory;
+	private ExtenderMetrics extenderMetrics;
+	private StartupReport startupReport;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("report").toFile();
+		extenderMetrics = mock(ExtenderMetrics.class);
+
+		startupReport = new StartupReport();
+		ReflectionTestUtils.setField(startupReport, "extenderMetrics", extenderMetrics);
+		ReflectionTestUtils.setField(startupReport, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(startupReport, "quietMillis", 0L);
+	}
+
+	@After
+	public void tearDown() {
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Test
+	public void nothingIsWrittenWithoutAReportFile() {
+		ReflectionTestUtils.setField(startupReport, "reportFile", "");
+
+		startupReport.writeWhenSettled();
+
+		verifyZeroInteractions(extenderMetrics);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void reportIsWrittenOnceNoContextIsBeingCreated() throws Exception {
+		File file = new File(directory, "reports/startup-report.json");
+		ReflectionTestUtils.setField(startupReport, "reportFile", file.getPath());
+		Map<String, Object> phases = Collections.<String, Object>singletonMap("bundle", "com.example.plugin");
+		when(extenderMetrics.getContextCreationMetrics()).thenReturn(null, metrics(1, 1), metrics(0, 0));
+		when(extenderMetrics.getContextCreationPhases()).thenReturn(Collections.singletonList(phases));
+
+		startupReport.writeWhenSettled();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if ("Startup Report".equals(thread.getName())) {
+				thread.join(10000);
+			}
+		}
+
+		assertTrue(file.isFile());
+
+		Map<String, Object> report = new ObjectMapper().readValue(file, Map.class);
+		assertEquals(0, ((Map<String, Object>) report.get("contextCreation")).get("activeTasks"));
+		assertEquals(Collections.singletonList(phases), (List<Object>) report.get("contexts"));
+	}
+
+	private static Map<String, Object> metrics(int queuedTasks, int activeTasks) {
+		Map<String, Object> metrics = new HashMap<String, Object>();
+		metrics.put("queuedTasks", queuedTasks);
+		metrics.put("activeTasks", activeTasks);
+		return metrics;
+	}
+}